@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.api.sparql;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Streaming histogram of latencies with constant memory, from which
+ * percentiles can be estimated. Bucket boundaries grow exponentially by 10%,
+ * starting at one microsecond, i.e. estimated percentiles are off by at most
+ * 10%. Latencies beyond the last bucket (about six hours) are counted in the
+ * last bucket.
+ */
+public class LatencyHistogram {
+
+    private static final double GROWTH = 1.1;
+    private static final double LOG_GROWTH = Math.log(GROWTH);
+    static final int BUCKETS = 256;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketOf(TimeUnit.NANOSECONDS.toMicros(nanos)));
+    }
+
+    /**
+     * @param percentile
+     *            between 0 and 100, e.g. 95
+     * @return the estimated latency (in milliseconds) below which the given
+     *         percentage of the recorded latencies lie, 0 if nothing has been
+     *         recorded
+     */
+    public double getPercentileMillis(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= Math.max(1, rank)) {
+                return upperBoundMicros(i) / 1000.0;
+            }
+        }
+        return upperBoundMicros(BUCKETS - 1) / 1000.0;
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < 1) {
+            return 0;
+        }
+        int bucket = 1 + (int) (Math.log(micros) / LOG_GROWTH);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    /**
+     * @return the (exclusive) upper bound of the bucket in microseconds
+     */
+    static double upperBoundMicros(int bucket) {
+        return bucket == 0 ? 1 : Math.pow(GROWTH, bucket);
+    }
+}
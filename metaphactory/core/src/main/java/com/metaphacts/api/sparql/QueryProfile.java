@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.api.sparql;
+
+import java.util.concurrent.TimeUnit;
+
+import com.metaphacts.api.sparql.SparqlUtil.SparqlOperation;
+
+/**
+ * Timings of the phases of a single query, recorded by the thread evaluating
+ * the query and handed to the {@link QueryProfiler} once finished:
+ *
+ * <ul>
+ * <li>prepare: parsing and preparing the operation, see
+ * {@link SparqlOperationBuilder}</li>
+ * <li>first result: from the start of the evaluation until the first result
+ * row is available</li>
+ * <li>evaluation: time spent in the repository, i.e. in evaluating the
+ * operation and iterating its result</li>
+ * <li>serialization: time spent in writing the result to the client</li>
+ * </ul>
+ */
+public class QueryProfile {
+
+    public enum Outcome {
+        COMPLETED, FAILED, KILLED, DISCONNECTED
+    }
+
+    private final String repositoryId;
+    private final String user;
+    private final String queryString;
+    private String fingerprint;
+    private final long startTime = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+
+    private SparqlOperation operationType;
+    private long prepareNanos;
+    private long evaluationStartNanos = -1;
+    private long firstResultNanos = -1;
+    private long evaluationNanos;
+    private long totalNanos;
+    private long rows;
+    private long bytes;
+    private Outcome outcome;
+
+    QueryProfile(String repositoryId, String user, String queryString) {
+        this.repositoryId = repositoryId;
+        this.user = user;
+        this.queryString = queryString;
+    }
+
+    /**
+     * Records the end of the prepare phase.
+     */
+    public void prepared(SparqlOperation operationType) {
+        this.operationType = operationType;
+        this.prepareNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Records the start of the evaluation.
+     */
+    public void evaluationStarted() {
+        evaluationStartNanos = System.nanoTime();
+    }
+
+    /**
+     * Records time spent in the repository.
+     *
+     * @param sinceNanos
+     *            value of {@link System#nanoTime()} when the call into the
+     *            repository started
+     */
+    public void evaluated(long sinceNanos) {
+        evaluationNanos += System.nanoTime() - sinceNanos;
+    }
+
+    /**
+     * Records a result row which has been retrieved from the repository.
+     *
+     * @see #evaluated(long)
+     */
+    public void rowEvaluated(long sinceNanos) {
+        evaluated(sinceNanos);
+        if (rows++ == 0 && evaluationStartNanos >= 0) {
+            firstResultNanos = System.nanoTime() - evaluationStartNanos;
+        }
+    }
+
+    void finish(Outcome outcome, long bytes, String fingerprint) {
+        this.outcome = outcome;
+        this.bytes = bytes;
+        this.fingerprint = fingerprint;
+        this.totalNanos = System.nanoTime() - startNanos;
+    }
+
+    public String getRepository() {
+        return repositoryId;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    // not exposed via REST, only written to the slow query log
+    String getQueryString() {
+        return queryString;
+    }
+
+    public int getQueryHash() {
+        return queryString.hashCode();
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+
+    public SparqlOperation getOperationType() {
+        return operationType;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public double getPrepareMillis() {
+        return toMillis(prepareNanos);
+    }
+
+    /**
+     * @return the time until the first result row, -1 if there was none
+     */
+    public double getFirstResultMillis() {
+        return firstResultNanos < 0 ? -1 : toMillis(firstResultNanos);
+    }
+
+    public double getEvaluationMillis() {
+        return toMillis(evaluationNanos);
+    }
+
+    /**
+     * @return the time spent after the start of the evaluation outside of the
+     *         repository
+     */
+    public double getSerializationMillis() {
+        if (evaluationStartNanos < 0) {
+            return 0;
+        }
+        long streamingNanos = startNanos + totalNanos - evaluationStartNanos;
+        return toMillis(Math.max(0, streamingNanos - evaluationNanos));
+    }
+
+    public double getTotalMillis() {
+        return toMillis(totalNanos);
+    }
+
+    long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.api.sparql;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metaphacts.api.sparql.QueryProfile.Outcome;
+import com.metaphacts.api.sparql.SparqlUtil.SparqlOperation;
+import com.metaphacts.config.Configuration;
+import com.metaphacts.config.groups.UIConfiguration;
+
+/**
+ * Collects the {@link QueryProfile}s of the queries evaluated by the SPARQL
+ * endpoint.
+ *
+ * <p>
+ * Profiles are aggregated by the fingerprint of the query, i.e. queries which
+ * only differ in literals, numbers or whitespace are aggregated together, see
+ * {@link #normalize(String)}. The most recent profiles are kept in a ring
+ * buffer. Queries exceeding
+ * {@link UIConfiguration#getSparqlSlowQueryThresholdMillis()} are written as
+ * JSON to the logger <code>com.metaphacts.slowqueries</code>.
+ * </p>
+ */
+@Singleton
+public class QueryProfiler {
+
+    private static final Logger logger = LogManager.getLogger(QueryProfiler.class);
+
+    private static final Logger slowQueryLogger = LogManager.getLogger("com.metaphacts.slowqueries");
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public enum Order {
+        TOTAL, P95, COUNT
+    }
+
+    private final Configuration config;
+
+    private final AtomicReferenceArray<QueryProfile> recentQueries;
+    private final AtomicLong recorded = new AtomicLong();
+
+    private final Cache<String, FingerprintStats> fingerprints;
+
+    @Inject
+    public QueryProfiler(Configuration config) {
+        this.config = config;
+        UIConfiguration uiConfig = config.getUiConfig();
+        this.recentQueries = new AtomicReferenceArray<>(uiConfig.getSparqlProfilerRecentQueries());
+        this.fingerprints = CacheBuilder.newBuilder()
+            .maximumSize(uiConfig.getSparqlProfilerMaxFingerprints())
+            .build();
+    }
+
+    /**
+     * Starts the profile of a query, to be passed to
+     * {@link #finish(QueryProfile, Outcome, long)} once the query has been
+     * evaluated.
+     */
+    public QueryProfile start(String repositoryId, String user, String queryString) {
+        return new QueryProfile(repositoryId, user, queryString);
+    }
+
+    /**
+     * Records the profile of an evaluated query.
+     *
+     * @param bytes
+     *            number of bytes written to the client
+     */
+    public void finish(QueryProfile profile, Outcome outcome, long bytes) {
+        String normalized = normalize(profile.getQueryString());
+        String fingerprint = Hashing.murmur3_128().hashString(normalized, Charsets.UTF_8).toString().substring(0, 16);
+        profile.finish(outcome, bytes, fingerprint);
+
+        int slot = (int) (recorded.getAndIncrement() % recentQueries.length());
+        recentQueries.set(slot, profile);
+        try {
+            fingerprints.get(fingerprint, () -> new FingerprintStats(fingerprint, normalized, profile.getOperationType()))
+                .record(profile);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e);
+        }
+
+        int threshold = config.getUiConfig().getSparqlSlowQueryThresholdMillis();
+        if (threshold > 0 && profile.getTotalMillis() >= threshold) {
+            logSlowQuery(profile);
+        }
+    }
+
+    /**
+     * @return the most recent profiles, latest first
+     */
+    public List<QueryProfile> getRecentQueries() {
+        List<QueryProfile> profiles = new ArrayList<>();
+        long last = recorded.get();
+        for (long i = last - 1; i >= 0 && i >= last - recentQueries.length(); i--) {
+            QueryProfile profile = recentQueries.get((int) (i % recentQueries.length()));
+            if (profile != null) {
+                profiles.add(profile);
+            }
+        }
+        return profiles;
+    }
+
+    /**
+     * @return the statistics of the <code>limit</code> fingerprints with the
+     *         highest total time, 95th percentile or number of executions
+     */
+    public List<FingerprintStats> getTopFingerprints(int limit, Order order) {
+        Comparator<FingerprintStats> comparator;
+        switch (order) {
+        case P95:
+            comparator = Comparator.comparingDouble(FingerprintStats::getP95Millis);
+            break;
+        case COUNT:
+            comparator = Comparator.comparingLong(FingerprintStats::getCount);
+            break;
+        default:
+            comparator = Comparator.comparingDouble(FingerprintStats::getTotalMillis);
+        }
+        return fingerprints.asMap().values().stream()
+            .sorted(comparator.reversed())
+            .limit(limit)
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * Discards all profiles and statistics.
+     */
+    public void clear() {
+        fingerprints.invalidateAll();
+        for (int i = 0; i < recentQueries.length(); i++) {
+            recentQueries.set(i, null);
+        }
+    }
+
+    private void logSlowQuery(QueryProfile profile) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("startTime", profile.getStartTime());
+        entry.put("fingerprint", profile.getFingerprint());
+        entry.put("queryHash", profile.getQueryHash());
+        entry.put("repository", profile.getRepository());
+        entry.put("user", profile.getUser());
+        entry.put("operationType", profile.getOperationType());
+        entry.put("outcome", profile.getOutcome());
+        entry.put("prepareMillis", profile.getPrepareMillis());
+        entry.put("firstResultMillis", profile.getFirstResultMillis());
+        entry.put("evaluationMillis", profile.getEvaluationMillis());
+        entry.put("serializationMillis", profile.getSerializationMillis());
+        entry.put("totalMillis", profile.getTotalMillis());
+        entry.put("rows", profile.getRows());
+        entry.put("bytes", profile.getBytes());
+        entry.put("query", profile.getQueryString());
+        try {
+            slowQueryLogger.warn(mapper.writeValueAsString(entry));
+        } catch (JsonProcessingException e) {
+            logger.warn("Failed to write slow query log entry: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Normalizes whitespace (see {@link SparqlUtil#normalizeWhitespace(String)})
+     * and replaces string literals and numbers with placeholders, such that
+     * queries only differing in these constants have the same fingerprint.
+     * IRIs, prefixed names and variables are kept.
+     */
+    static String normalize(String queryString) {
+        String normalized = SparqlUtil.normalizeWhitespace(queryString);
+        int length = normalized.length();
+        StringBuilder sb = new StringBuilder(length);
+        int i = 0;
+        while (i < length) {
+            char c = normalized.charAt(i);
+            if (c == '"' || c == '\'') {
+                i++;
+                while (i < length && normalized.charAt(i) != c) {
+                    i += normalized.charAt(i) == '\\' ? 2 : 1;
+                }
+                i++;
+                sb.append("\"?\"");
+            } else if (c == '<' || c == '#') {
+                // IRIs and comments are kept as they are
+                char end = c == '<' ? '>' : '\n';
+                int start = i++;
+                while (i < length && normalized.charAt(i) != end && (c == '#' || !Character.isWhitespace(normalized.charAt(i)))) {
+                    i++;
+                }
+                if (i < length && normalized.charAt(i) == end) {
+                    i++;
+                }
+                sb.append(normalized, start, i);
+            } else if (Character.isDigit(c)) {
+                while (i < length && (Character.isDigit(normalized.charAt(i))
+                        || (normalized.charAt(i) == '.' && i + 1 < length && Character.isDigit(normalized.charAt(i + 1))))) {
+                    i++;
+                }
+                sb.append('0');
+            } else if (isNameChar(c)) {
+                // digits within variables and (prefixed) names are kept
+                while (i < length && isNameChar(normalized.charAt(i))) {
+                    sb.append(normalized.charAt(i++));
+                }
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == ':' || c == '?' || c == '$';
+    }
+
+    /**
+     * Aggregated profiles of all queries with the same fingerprint.
+     */
+    public static class FingerprintStats {
+        private final String fingerprint;
+        private final String query;
+        private final SparqlOperation operationType;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final DoubleAdder prepareMillis = new DoubleAdder();
+        private final DoubleAdder evaluationMillis = new DoubleAdder();
+        private final DoubleAdder serializationMillis = new DoubleAdder();
+        private final LongAdder rows = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private volatile long lastExecuted;
+
+        private FingerprintStats(String fingerprint, String query, SparqlOperation operationType) {
+            this.fingerprint = fingerprint;
+            this.query = query;
+            this.operationType = operationType;
+        }
+
+        private void record(QueryProfile profile) {
+            count.increment();
+            totalNanos.add(profile.getTotalNanos());
+            maxNanos.accumulateAndGet(profile.getTotalNanos(), Math::max);
+            prepareMillis.add(profile.getPrepareMillis());
+            evaluationMillis.add(profile.getEvaluationMillis());
+            serializationMillis.add(profile.getSerializationMillis());
+            rows.add(profile.getRows());
+            bytes.add(profile.getBytes());
+            histogram.record(profile.getTotalNanos());
+            lastExecuted = profile.getStartTime();
+        }
+
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * @return the normalized query, with literals and numbers replaced
+         */
+        public String getQuery() {
+            return query;
+        }
+
+        public SparqlOperation getOperationType() {
+            return operationType;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getTotalMillis() {
+            return totalNanos.sum() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        public double getMeanMillis() {
+            long n = getCount();
+            return n == 0 ? 0 : getTotalMillis() / n;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        /**
+         * @return the estimated 95th percentile of the total time
+         */
+        public double getP95Millis() {
+            return histogram.getPercentileMillis(95);
+        }
+
+        public double getMeanPrepareMillis() {
+            return mean(prepareMillis);
+        }
+
+        public double getMeanEvaluationMillis() {
+            return mean(evaluationMillis);
+        }
+
+        public double getMeanSerializationMillis() {
+            return mean(serializationMillis);
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public long getLastExecuted() {
+            return lastExecuted;
+        }
+
+        private double mean(DoubleAdder sum) {
+            long n = getCount();
+            return n == 0 ? 0 : sum.sum() / n;
+        }
+    }
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.api.sparql;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.impl.ListBindingSet;
+import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.CountingOutputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metaphacts.config.Configuration;
+import com.metaphacts.config.groups.UIConfiguration;
+import com.metaphacts.security.ThrottledException;
+
+/**
+ * Server-side cursors over the results of SELECT queries, such that clients
+ * can page through large results without re-evaluating the query for every
+ * page.
+ *
+ * <p>
+ * The SPARQL endpoint opens a cursor with {@link #create(String, int, List)},
+ * writes the first page of a result directly and then passes the remaining
+ * result to {@link #spill(String, TupleQueryResult)}, which spills it to a
+ * file in <code>[runtimeDirectory]/data/cursors</code> (one line of N-Triples
+ * encoded values per row), such that the repository connection is released
+ * as soon as possible and all pages stem from the same evaluation. Later
+ * pages are read with {@link #nextPage(String, String, Optional)} using the
+ * returned token; they wait for the spill to complete. If the spill fails,
+ * e.g. since the result is too large, only reading the later pages fails.
+ * </p>
+ *
+ * <p>
+ * Cursors are released once their last page has been read or once they have
+ * not been used for {@link UIConfiguration#getSparqlCursorIdleTimeoutSeconds()}.
+ * The number of open cursors per user and the size of a spilled result are
+ * limited by {@link UIConfiguration#getSparqlCursorMaxPerUser()} and
+ * {@link UIConfiguration#getSparqlCursorMaxSpillMB()}.
+ * </p>
+ */
+@Singleton
+public class ResultCursorRegistry {
+
+    private static final Logger logger = LogManager.getLogger(ResultCursorRegistry.class);
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private static final Splitter COLUMN_SPLITTER = Splitter.on('\t');
+
+    private final Configuration config;
+    private final File spillFolder;
+    private final Cache<String, ResultCursor> cursors;
+    private final ConcurrentMap<String, AtomicInteger> openCursorsPerUser = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService cleanupExecutor;
+
+    @Inject
+    public ResultCursorRegistry(Configuration config) {
+        this(config, Ticker.systemTicker());
+    }
+
+    ResultCursorRegistry(Configuration config, Ticker ticker) {
+        this.config = config;
+        this.spillFolder = new File(new File(config.getRuntimeDirectory(), "data"), "cursors");
+        // spill files of a previous run can not be used anymore
+        FileUtils.deleteQuietly(spillFolder);
+
+        this.cursors = CacheBuilder.newBuilder()
+            .ticker(ticker)
+            .expireAfterAccess(config.getUiConfig().getSparqlCursorIdleTimeoutSeconds(), TimeUnit.SECONDS)
+            .removalListener((RemovalListener<String, ResultCursor>) notification -> notification.getValue().release())
+            .build();
+
+        // expired cursors are otherwise only released when the cache is accessed
+        this.cleanupExecutor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("sparql-cursor-cleanup-%d").setDaemon(true).build());
+        cleanupExecutor.scheduleWithFixedDelay(cursors::cleanUp, 1, 1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Creates a cursor, whose rows are to be spilled with
+     * {@link #spill(String, TupleQueryResult)}.
+     *
+     * @param user
+     *            the user owning the cursor, only this user can read its pages
+     * @param pageSize
+     *            the default size of the pages of the cursor
+     * @param bindingNames
+     *            the binding names of the result
+     * @return the token of the cursor
+     * @throws ThrottledException
+     *             if the user has too many open cursors
+     */
+    public String create(String user, int pageSize, List<String> bindingNames) throws ThrottledException {
+        UIConfiguration uiConfig = config.getUiConfig();
+        String owner = ownerKey(user);
+        AtomicInteger openCursors = openCursorsPerUser.computeIfAbsent(owner, key -> new AtomicInteger());
+        int maxCursors = uiConfig.getSparqlCursorMaxPerUser();
+        if (openCursors.incrementAndGet() > maxCursors) {
+            openCursors.decrementAndGet();
+            throw new ThrottledException("Too many open result cursors, at most " + maxCursors + " are allowed.",
+                maxCursors, uiConfig.getSparqlCursorIdleTimeoutSeconds());
+        }
+
+        String token = createToken();
+        cursors.put(token, new ResultCursor(owner, pageSize, bindingNames, new File(spillFolder, token + ".tsv"),
+            openCursors));
+        return token;
+    }
+
+    /**
+     * Spills the remaining rows of a result to disk and creates a cursor over
+     * them. The result is consumed but not closed.
+     *
+     * @see #create(String, int, List)
+     * @see #spill(String, TupleQueryResult)
+     */
+    public String create(String user, int pageSize, TupleQueryResult remaining) throws ThrottledException {
+        String token = create(user, pageSize, remaining.getBindingNames());
+        spill(token, remaining);
+        return token;
+    }
+
+    /**
+     * Spills the remaining rows of a result to the cursor with the given
+     * token. The result is consumed but not closed. Failures, e.g. if the
+     * remaining result exceeds {@link UIConfiguration#getSparqlCursorMaxSpillMB()},
+     * are not thrown, but when the next page of the cursor is read.
+     */
+    public void spill(String token, TupleQueryResult remaining) {
+        ResultCursor cursor = cursors.getIfPresent(token);
+        if (cursor == null) {
+            // expired in the meantime
+            return;
+        }
+        cursor.spill(remaining, config.getUiConfig().getSparqlCursorMaxSpillMB() * FileUtils.ONE_MB);
+        logger.debug("Spilled {} rows to result cursor.", cursor.rows);
+    }
+
+    /**
+     * Releases a cursor which is not going to be spilled, e.g. since the
+     * first page could not be written.
+     */
+    public void discard(String token) {
+        cursors.invalidate(token);
+    }
+
+    /**
+     * Reads the next page of a cursor. The cursor is released once its last
+     * page has been read.
+     *
+     * @param pageSize
+     *            the size of the page, defaults to the page size the cursor
+     *            has been created with
+     * @return the next page, or {@link Optional#empty()} if there is no cursor
+     *         with the given token for the user, e.g. since it has expired
+     * @throws SpillLimitExceededException
+     *             if the remaining result exceeded
+     *             {@link UIConfiguration#getSparqlCursorMaxSpillMB()}
+     * @throws IOException
+     *             if the remaining result could not be spilled or read
+     */
+    public Optional<Page> nextPage(String token, String user, Optional<Integer> pageSize) throws IOException {
+        ResultCursor cursor = cursors.getIfPresent(token);
+        if (cursor == null || !cursor.owner.equals(ownerKey(user))) {
+            return Optional.empty();
+        }
+        Optional<Page> page;
+        try {
+            page = cursor.read(pageSize.orElse(cursor.pageSize),
+                config.getUiConfig().getSparqlCursorIdleTimeoutSeconds());
+        } catch (IOException | RuntimeException e) {
+            cursors.invalidate(token);
+            throw e;
+        }
+        if (!page.isPresent() || !page.get().hasMore()) {
+            cursors.invalidate(token);
+        }
+        return page;
+    }
+
+    /**
+     * Releases all cursors and stops the periodic cleanup.
+     */
+    public void shutdown() {
+        cleanupExecutor.shutdownNow();
+        cursors.invalidateAll();
+    }
+
+    /**
+     * Releases expired cursors.
+     *
+     * <b>Package private for testing only</b>.
+     *
+     * @return the number of open cursors
+     */
+    long cleanUp() {
+        cursors.cleanUp();
+        return cursors.size();
+    }
+
+    // package private for testing only
+    File getSpillFolder() {
+        return spillFolder;
+    }
+
+    private static String ownerKey(String user) {
+        return user != null ? user : "";
+    }
+
+    private static String createToken() {
+        byte[] bytes = new byte[16];
+        random.nextBytes(bytes);
+        return BaseEncoding.base16().lowerCase().encode(bytes);
+    }
+
+    /**
+     * A page of a cursor.
+     */
+    public static class Page {
+        private final List<String> bindingNames;
+        private final List<BindingSet> rows;
+        private final boolean hasMore;
+
+        private Page(List<String> bindingNames, List<BindingSet> rows, boolean hasMore) {
+            this.bindingNames = bindingNames;
+            this.rows = rows;
+            this.hasMore = hasMore;
+        }
+
+        public List<String> getBindingNames() {
+            return bindingNames;
+        }
+
+        public List<BindingSet> getRows() {
+            return rows;
+        }
+
+        /**
+         * @return <code>true</code> if there are further pages
+         */
+        public boolean hasMore() {
+            return hasMore;
+        }
+    }
+
+    /**
+     * Thrown if the remaining result of a cursor exceeds the spill size cap.
+     */
+    public static class SpillLimitExceededException extends RuntimeException {
+        private static final long serialVersionUID = -2481306497781964132L;
+
+        SpillLimitExceededException(long maxBytes) {
+            super("The result exceeds the maximum size of " + maxBytes / FileUtils.ONE_MB
+                + " MB for result cursors, restrict the query with LIMIT.");
+        }
+    }
+
+    private static class ResultCursor {
+        private final String owner;
+        private final int pageSize;
+        private final List<String> bindingNames;
+        private final File file;
+        private final AtomicInteger openCursorsOfOwner;
+
+        /**
+         * Released once the spill has been completed or failed.
+         */
+        private final CountDownLatch spilled = new CountDownLatch(1);
+        private volatile Exception spillFailure;
+
+        private long rows;
+        private long rowsRead;
+        private BufferedReader reader;
+        private volatile boolean released;
+
+        private ResultCursor(String owner, int pageSize, List<String> bindingNames, File file, AtomicInteger openCursorsOfOwner) {
+            this.owner = owner;
+            this.pageSize = pageSize;
+            this.bindingNames = Collections.unmodifiableList(new ArrayList<>(bindingNames));
+            this.file = file;
+            this.openCursorsOfOwner = openCursorsOfOwner;
+        }
+
+        private void spill(TupleQueryResult result, long maxBytes) {
+            try {
+                write(result, maxBytes);
+            } catch (Exception e) {
+                logger.debug("Failed to spill result cursor: {}", e.getMessage());
+                spillFailure = e;
+                FileUtils.deleteQuietly(file);
+            } finally {
+                spilled.countDown();
+            }
+        }
+
+        private void write(TupleQueryResult result, long maxBytes) throws IOException {
+            FileUtils.forceMkdir(file.getParentFile());
+            CountingOutputStream counter = new CountingOutputStream(new FileOutputStream(file));
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(counter, Charsets.UTF_8))) {
+                // the cursor may expire while it is spilled
+                while (!released && result.hasNext()) {
+                    BindingSet row = result.next();
+                    for (int i = 0; i < bindingNames.size(); i++) {
+                        if (i > 0) {
+                            writer.write('\t');
+                        }
+                        Value value = row.getValue(bindingNames.get(i));
+                        if (value != null) {
+                            // tabs and line breaks within literals are escaped
+                            writer.write(NTriplesUtil.toNTriplesString(value));
+                        }
+                    }
+                    writer.write('\n');
+                    rows++;
+                    if (counter.getCount() > maxBytes) {
+                        throw new SpillLimitExceededException(maxBytes);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Waits for the spill to complete and reads the next page.
+         */
+        private Optional<Page> read(int size, long timeoutSeconds) throws IOException {
+            try {
+                if (!spilled.await(timeoutSeconds, TimeUnit.SECONDS)) {
+                    throw new IOException("The result cursor has not been filled in time.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for the result cursor.", e);
+            }
+            Exception failure = spillFailure;
+            if (failure instanceof SpillLimitExceededException) {
+                throw (SpillLimitExceededException) failure;
+            } else if (failure != null) {
+                throw new IOException("Evaluation of the remaining result failed: " + failure.getMessage(), failure);
+            }
+            return readSpilled(size);
+        }
+
+        private synchronized Optional<Page> readSpilled(int size) throws IOException {
+            if (released) {
+                return Optional.empty();
+            }
+            if (reader == null) {
+                reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+            }
+            List<BindingSet> page = new ArrayList<>(size);
+            while (page.size() < size && rowsRead < rows) {
+                String line = reader.readLine();
+                List<Value> values = new ArrayList<>(bindingNames.size());
+                if (!bindingNames.isEmpty()) {
+                    for (String column : COLUMN_SPLITTER.split(line)) {
+                        values.add(column.isEmpty() ? null : NTriplesUtil.parseValue(column, vf));
+                    }
+                }
+                page.add(new ListBindingSet(bindingNames, values));
+                rowsRead++;
+            }
+            return Optional.of(new Page(bindingNames, page, rowsRead < rows));
+        }
+
+        private synchronized void release() {
+            if (released) {
+                return;
+            }
+            released = true;
+            openCursorsOfOwner.decrementAndGet();
+            try {
+                if (reader != null) {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                logger.debug("Failed to close result cursor: {}", e.getMessage());
+            }
+            FileUtils.deleteQuietly(file);
+        }
+    }
+}
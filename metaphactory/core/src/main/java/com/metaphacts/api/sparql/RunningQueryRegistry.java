@@ -0,0 +1,239 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.api.sparql;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.query.QueryInterruptedException;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+
+import com.google.inject.Singleton;
+import com.metaphacts.api.sparql.SparqlUtil.SparqlOperation;
+
+/**
+ * Registry of the queries which are currently evaluated by the SPARQL
+ * endpoint, such that administrators can monitor them and kill runaway
+ * queries.
+ *
+ * <p>
+ * Queries are registered with {@link #register(String, String, String, SparqlOperation, RepositoryConnection)}
+ * and unregistered by closing the returned {@link RunningQuery}. Killing a
+ * query closes its result iteration (if any) and its connection, such that
+ * the evaluation is aborted with an exception.
+ * </p>
+ */
+@Singleton
+public class RunningQueryRegistry {
+
+    private static final Logger logger = LogManager.getLogger(RunningQueryRegistry.class);
+
+    private final AtomicLong nextId = new AtomicLong();
+    private final ConcurrentMap<Long, RunningQuery> runningQueries = new ConcurrentHashMap<>();
+
+    /**
+     * Registers a query whose evaluation is about to start.
+     *
+     * @param user
+     *            the user executing the query
+     * @param repositoryId
+     *            ID of the repository the query is evaluated on
+     * @param queryString
+     *            the query, only its hash is exposed
+     * @param connection
+     *            the connection the query is evaluated with, closed if the
+     *            query is killed
+     * @return the registered query, to be closed once the evaluation finished
+     */
+    public RunningQuery register(
+        String user, String repositoryId, String queryString,
+        SparqlOperation operationType, RepositoryConnection connection
+    ) {
+        RunningQuery query = new RunningQuery(
+            nextId.incrementAndGet(), user, repositoryId, queryString.hashCode(), operationType, connection);
+        runningQueries.put(query.getId(), query);
+        return query;
+    }
+
+    /**
+     * @return the queries which are currently evaluated, longest running first
+     */
+    public List<RunningQuery> getRunningQueries() {
+        List<RunningQuery> queries = new ArrayList<>(runningQueries.values());
+        queries.sort(Comparator.comparingLong(RunningQuery::getStartTime));
+        return queries;
+    }
+
+    public Optional<RunningQuery> getRunningQuery(long id) {
+        return Optional.ofNullable(runningQueries.get(id));
+    }
+
+    /**
+     * Kills the query with the given ID.
+     *
+     * @return <code>false</code> if there is no such query (anymore)
+     */
+    public boolean kill(long id) {
+        RunningQuery query = runningQueries.get(id);
+        if (query == null) {
+            return false;
+        }
+        query.kill();
+        return true;
+    }
+
+    /**
+     * A query which is currently evaluated. Closing it removes it from the
+     * registry.
+     */
+    public class RunningQuery implements AutoCloseable {
+        private final long id;
+        private final String user;
+        private final String repositoryId;
+        private final int queryHash;
+        private final SparqlOperation operationType;
+        private final long startTime = System.currentTimeMillis();
+        private final AtomicLong rowsStreamed = new AtomicLong();
+
+        private final RepositoryConnection connection;
+        private volatile CloseableIteration<?, ?> iteration;
+        private volatile boolean killed = false;
+
+        private RunningQuery(
+            long id, String user, String repositoryId, int queryHash,
+            SparqlOperation operationType, RepositoryConnection connection
+        ) {
+            this.id = id;
+            this.user = user;
+            this.repositoryId = repositoryId;
+            this.queryHash = queryHash;
+            this.operationType = operationType;
+            this.connection = connection;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getUser() {
+            return user;
+        }
+
+        public String getRepository() {
+            return repositoryId;
+        }
+
+        /**
+         * @return the hash of the query string, as logged by the SPARQL endpoint
+         */
+        public int getQueryHash() {
+            return queryHash;
+        }
+
+        public SparqlOperation getOperationType() {
+            return operationType;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getRunningTimeMillis() {
+            return System.currentTimeMillis() - startTime;
+        }
+
+        public long getRowsStreamed() {
+            return rowsStreamed.get();
+        }
+
+        public boolean isKilled() {
+            return killed;
+        }
+
+        /**
+         * Sets the result iteration of the query, which is closed if the
+         * query is killed.
+         */
+        public void setIteration(CloseableIteration<?, ?> iteration) {
+            this.iteration = iteration;
+            if (killed) {
+                closeIteration();
+            }
+        }
+
+        /**
+         * Records that a row (solution or statement) has been written to the
+         * client.
+         *
+         * @throws QueryInterruptedException
+         *             if the query has been killed
+         */
+        public void rowStreamed() {
+            rowsStreamed.incrementAndGet();
+            checkNotKilled();
+        }
+
+        /**
+         * @throws QueryInterruptedException
+         *             if the query has been killed
+         */
+        public void checkNotKilled() {
+            if (killed) {
+                throw new QueryInterruptedException("Query " + id + " has been killed.");
+            }
+        }
+
+        private void kill() {
+            logger.info("Killing query {} with hash \"{}\" of user {} on repository \"{}\".",
+                id, queryHash, user, repositoryId);
+            killed = true;
+            closeIteration();
+            try {
+                connection.close();
+            } catch (Exception e) {
+                logger.debug("Failed to close connection of killed query {}: {}", id, e.getMessage());
+            }
+        }
+
+        private void closeIteration() {
+            CloseableIteration<?, ?> iteration = this.iteration;
+            if (iteration == null) {
+                return;
+            }
+            try {
+                iteration.close();
+            } catch (Exception e) {
+                logger.debug("Failed to close result of killed query {}: {}", id, e.getMessage());
+            }
+        }
+
+        @Override
+        public void close() {
+            runningQueries.remove(id, this);
+        }
+    }
+}
@@ -21,6 +21,8 @@
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Map.Entry;
@@ -31,6 +33,7 @@
 import org.apache.commons.lang.StringUtils;
 import org.apache.http.HeaderElement;
 import org.apache.http.HttpHeaders;
+import org.apache.http.NameValuePair;
 import org.apache.http.message.BasicHeaderValueParser;
 import org.apache.logging.log4j.Logger;
 import org.commonjava.mimeparse.MIMEParse;
@@ -97,6 +100,61 @@ public static Optional<String> getPreferredMIMEType(Collection<String> possibleM
     }
 
 
+    /**
+     * Finds the best matching content coding from the
+     * {@link HttpHeaders#ACCEPT_ENCODING} header of the supplied
+     * {@link HttpServletRequest}. Codings with equal quality are preferred in
+     * the order of the supplied list, codings with quality 0 are not
+     * acceptable and "x-gzip" is considered to be an alias of "gzip".
+     *
+     * @param supportedEncodings
+     *            content codings in the order of preference of the server
+     * @param req
+     * @return best matching content coding, empty if the client does not
+     *         accept any of the supported codings
+     */
+    public static Optional<String> getPreferredContentEncoding(List<String> supportedEncodings, HttpServletRequest req) {
+        Enumeration<String> acceptEncodingHeader = req.getHeaders(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncodingHeader == null || !acceptEncodingHeader.hasMoreElements()) {
+            return Optional.empty();
+        }
+        String commaSeparatedHeader = StringUtils.join(Collections.<String>list(acceptEncodingHeader), ",");
+        Map<String, Double> qualities = new HashMap<>();
+        for (HeaderElement e : BasicHeaderValueParser.parseElements(commaSeparatedHeader, new BasicHeaderValueParser())) {
+            String coding = e.getName().trim().toLowerCase();
+            if (coding.equals("x-gzip")) {
+                coding = "gzip";
+            }
+            qualities.put(coding, parseQuality(e));
+        }
+
+        String best = null;
+        double bestQuality = 0;
+        for (String encoding : supportedEncodings) {
+            Double quality = qualities.get(encoding);
+            if (quality == null) {
+                quality = qualities.getOrDefault("*", 0.0);
+            }
+            if (quality > bestQuality) {
+                best = encoding;
+                bestQuality = quality;
+            }
+        }
+        return Optional.ofNullable(best);
+    }
+
+    private static double parseQuality(HeaderElement e) {
+        NameValuePair q = e.getParameterByName("q");
+        if (q == null || q.getValue() == null) {
+            return 1;
+        }
+        try {
+            return Double.parseDouble(q.getValue().trim());
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
     /**
      * Extracts the MimeType string from the "Content-Type" header string
      * without, for example, charset.
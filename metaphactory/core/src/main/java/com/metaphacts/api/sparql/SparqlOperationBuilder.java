@@ -20,6 +20,8 @@
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.lang3.StringUtils;
@@ -31,14 +33,41 @@
 import org.eclipse.rdf4j.query.MalformedQueryException;
 import org.eclipse.rdf4j.query.Operation;
 import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.parser.ParsedBooleanQuery;
+import org.eclipse.rdf4j.query.parser.ParsedQuery;
+import org.eclipse.rdf4j.query.parser.ParsedTupleQuery;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.repository.sail.SailBooleanQuery;
+import org.eclipse.rdf4j.repository.sail.SailRepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailTupleQuery;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
+import com.google.inject.Inject;
 import com.metaphacts.api.sparql.SparqlUtil.SparqlOperation;
+import com.metaphacts.cache.CacheManager;
+import com.metaphacts.cache.GuavaPlatformCache;
+import com.metaphacts.repository.CacheInvalidatingRepositoryConnection;
 
 
 /**
+ * Builds SPARQL operations for a repository connection, resolving prefixes,
+ * magic variables and bindings.
+ *
+ * <p>
+ * The preprocessed operation strings (i.e. with prefixes of the namespace
+ * registry prepended) are cached by operation string, prefixes and base URI.
+ * For local (Sail) repositories, the parsed algebra of SELECT and ASK queries
+ * is cached as well and every built query operates on a clone of it. Magic
+ * variables and bindings are always resolved as bindings of the operation,
+ * except for the legacy <b>??</b> parameter, which is still replaced
+ * syntactically and therefore bypasses the parsed algebra cache.
+ * </p>
+ *
  * @author Johannes Trame <jt@metaphacts.com>
  *
  * @param <T>
@@ -46,6 +75,30 @@
 public class SparqlOperationBuilder<T extends Operation> {
     
     private static final Logger logger = LogManager.getLogger(SparqlOperationBuilder.class);
+
+    /**
+     * Maximum number of distinct operations which are cached.
+     */
+    private static final int MAX_PREPARED_OPERATIONS = 1000;
+
+    /**
+     * Prepared operations keyed by operation string, prefixes and base URI;
+     * changes of the namespace registry result in different prefixes and
+     * thus in new entries.
+     */
+    private static final Cache<List<Object>, PreparedOperation> preparedOperations = CacheBuilder.newBuilder()
+            .maximumSize(MAX_PREPARED_OPERATIONS)
+            .recordStats()
+            .build();
+
+    /**
+     * Registers the prepared operation cache with the {@link CacheManager};
+     * called through static injection.
+     */
+    @Inject
+    static void registerPreparedOperationCache(CacheManager cacheManager) {
+        cacheManager.register(new GuavaPlatformCache("SparqlPreparedOperationCache", preparedOperations));
+    }
     
     private Class<? extends Operation>clazz;
     private String queryString;
@@ -176,41 +229,49 @@ public SparqlOperationBuilder<T> resolveUser(IRI userURI){
      *  <li> <b>??</b> - for the current resource</li>
      * </ul>
      */
-    private void replaceLegacyParameters() {
-       if(this.thisResource!=null && this.queryString.contains("??")){
-          // TODO enable this line, once we have aligned our default configuration etc. 
-          // logger.warn("Query {} uses magic variable ?? which deprecated. Instead, please use ?__this__ in the future.", this.queryString);
-          this.queryString= this.queryString.replaceAll("\\?\\?", "<"+this.thisResource.stringValue()+">");
-       }
+    private String replaceLegacyParameters(String operationString) {
+        // TODO enable this line, once we have aligned our default configuration etc. 
+        // logger.warn("Query {} uses magic variable ?? which deprecated. Instead, please use ?__this__ in the future.", this.queryString);
+        return operationString.replaceAll("\\?\\?", "<"+this.thisResource.stringValue()+">");
     }
     
     public T build(RepositoryConnection con) throws RepositoryException, MalformedQueryException, IllegalArgumentException{
         
-        this.replaceLegacyParameters();
-        SparqlOperation type = SparqlUtil.getOperationType(this.queryString);
+        PreparedOperation prepared = prepare();
+        SparqlOperation type = prepared.type;
         QueryLanguage ql = QueryLanguage.SPARQL;
         
-        addNamespaces(con);
+        String operationString = prepared.operationString;
+        boolean legacyParameters = this.thisResource != null && prepared.usesLegacyThis;
+        if (legacyParameters) {
+            operationString = replaceLegacyParameters(operationString);
+        }
         
         Operation op = null;
-        switch (type) {
-            case UPDATE:
-                op = con.prepareUpdate(ql, this.queryString, this.baseURI);
-                break;
-            case SELECT:
-                op = con.prepareTupleQuery(ql, this.queryString, this.baseURI);
-                break;
-            case ASK:
-                op = con.prepareBooleanQuery(ql, this.queryString, this.baseURI);
-                break;
-            case CONSTRUCT:
-                op = con.prepareGraphQuery(ql, this.queryString, this.baseURI);
-                break;
-            case DESCRIBE:
-                op = con.prepareGraphQuery(ql, this.queryString, this.baseURI);
-                break;
-            default:
-                throw new MalformedQueryException("QueryString is neither a Tuple-, Boolean-, Graph- or Update Operation.");
+        SailRepositoryConnection localConnection = legacyParameters ? null : getLocalSailConnection(con);
+        if (localConnection != null) {
+            op = prepared.createLocalQuery(localConnection);
+        }
+        if (op == null) {
+            switch (type) {
+                case UPDATE:
+                    op = con.prepareUpdate(ql, operationString, this.baseURI);
+                    break;
+                case SELECT:
+                    op = con.prepareTupleQuery(ql, operationString, this.baseURI);
+                    break;
+                case ASK:
+                    op = con.prepareBooleanQuery(ql, operationString, this.baseURI);
+                    break;
+                case CONSTRUCT:
+                    op = con.prepareGraphQuery(ql, operationString, this.baseURI);
+                    break;
+                case DESCRIBE:
+                    op = con.prepareGraphQuery(ql, operationString, this.baseURI);
+                    break;
+                default:
+                    throw new MalformedQueryException("QueryString is neither a Tuple-, Boolean-, Graph- or Update Operation.");
+            }
         }
         op.setMaxExecutionTime(this.maxExecutionTime);
         op.setIncludeInferred(this.includeInferred);
@@ -220,16 +281,30 @@ public T build(RepositoryConnection con) throws RepositoryException, MalformedQu
         }
         // we need to check on the existence of the magic variable, before calling op.setBinding
         // this is required since setBinding injects the binding in all queries with wildcard projections
-        if (this.queryString.contains(SparqlMagicVariables.USERURI) && this.userURI != null) {
+        if (prepared.usesUser && this.userURI != null) {
             op.setBinding(SparqlMagicVariables.USERURI, userURI);
         }
-        if (this.queryString.contains(SparqlMagicVariables.THIS) && this.thisResource != null) {
+        if (prepared.usesThis && this.thisResource != null) {
             op.setBinding(SparqlMagicVariables.THIS, thisResource);
         }
         return cast(op,this.clazz, type);
     }
-    
-    private void addNamespaces(RepositoryConnection con) {
+
+    /**
+     * Looks up the prepared operation in the cache or prepares it.
+     */
+    private PreparedOperation prepare() throws MalformedQueryException {
+        List<Object> key = Arrays.asList(this.queryString, ImmutableMap.copyOf(this.namespaces), this.baseURI);
+        PreparedOperation prepared = preparedOperations.getIfPresent(key);
+        if (prepared == null) {
+            // concurrent misses prepare the same operation, which is cheap and side-effect free
+            prepared = new PreparedOperation(addNamespaces(this.queryString), this.baseURI);
+            preparedOperations.put(key, prepared);
+        }
+        return prepared;
+    }
+
+    private String addNamespaces(String operationString) {
         // TODO only HTTPRepositoryConnection allows to set namespaces directly on the connection, however,
         // the class is currently package private (which I believe is not by design)
 //        if(con instanceof HTTPRepositoryConnection){
@@ -237,9 +312,48 @@ private void addNamespaces(RepositoryConnection con) {
 //                con.setNamespace(e.getKey(),e.getValue());
 //            }
 //        }else{
-            this.queryString=SparqlUtil.prependPrefixes(this.queryString, this.namespaces);
+            return SparqlUtil.prependPrefixes(operationString, this.namespaces);
 //        }
     }
+
+    /**
+     * Only plain Sail connections are guaranteed to evaluate the parsed
+     * algebra exactly as they would evaluate the operation string; remote or
+     * otherwise wrapped connections always receive the operation string. The
+     * {@link CacheInvalidatingRepositoryConnection} of managed repositories
+     * passes queries through to its delegate and is unwrapped.
+     * 
+     * @return the local Sail connection or <code>null</code>
+     */
+    private static SailRepositoryConnection getLocalSailConnection(RepositoryConnection con) {
+        while (con instanceof CacheInvalidatingRepositoryConnection) {
+            con = ((CacheInvalidatingRepositoryConnection) con).getDelegate();
+        }
+        return con.getClass() == SailRepositoryConnection.class ? (SailRepositoryConnection) con : null;
+    }
+
+    /**
+     * Invalidates all prepared operations.
+     */
+    static void invalidatePreparedOperations() {
+        preparedOperations.invalidateAll();
+    }
+
+    /**
+     * @return the number of cached prepared operations
+     */
+    static long getPreparedOperationCount() {
+        return preparedOperations.size();
+    }
+
+    /**
+     * @return the number of cached prepared operations whose parsed algebra
+     *         has been created for a local repository
+     */
+    static long getParsedQueryCount() {
+        return preparedOperations.asMap().values().stream().filter(prepared -> prepared.parsedQuery != null)
+                .count();
+    }
     @SuppressWarnings("unchecked")
     private T cast(Operation o, Class<? extends Operation> clazz, SparqlOperation type) {
         try {
@@ -251,6 +365,59 @@ private T cast(Operation o, Class<? extends Operation> clazz, SparqlOperation ty
     }
     
     
+    /**
+     * Operation string with prefixes prepended, its type and the magic
+     * variables it uses. For SELECT and ASK queries, the parsed algebra is
+     * created on first use by a local repository.
+     */
+    private static class PreparedOperation {
+        private final String operationString;
+        private final String baseURI;
+        private final SparqlOperation type;
+        private final boolean usesThis;
+        private final boolean usesUser;
+        private final boolean usesLegacyThis;
+
+        /**
+         * Parsed query, which must not be evaluated directly but only cloned.
+         */
+        private volatile ParsedQuery parsedQuery;
+
+        private PreparedOperation(String operationString, String baseURI) throws MalformedQueryException {
+            this.operationString = operationString;
+            this.baseURI = baseURI;
+            this.type = SparqlUtil.getOperationType(operationString);
+            this.usesThis = operationString.contains(SparqlMagicVariables.THIS);
+            this.usesUser = operationString.contains(SparqlMagicVariables.USERURI);
+            this.usesLegacyThis = operationString.contains("??");
+        }
+
+        /**
+         * @return a query operating on a clone of the parsed algebra or
+         *         <code>null</code> if the operation is no SELECT or ASK query
+         */
+        private Operation createLocalQuery(SailRepositoryConnection con) throws MalformedQueryException {
+            if (type != SparqlOperation.SELECT && type != SparqlOperation.ASK) {
+                return null;
+            }
+            ParsedQuery parsed = parsedQuery;
+            if (parsed == null) {
+                parsed = QueryParserUtil.parseQuery(QueryLanguage.SPARQL, operationString, baseURI);
+                parsedQuery = parsed;
+            }
+            if (parsed instanceof ParsedTupleQuery) {
+                ParsedTupleQuery clone = new ParsedTupleQuery(parsed.getSourceString(), parsed.getTupleExpr().clone());
+                clone.setDataset(parsed.getDataset());
+                return new SailTupleQuery(clone, con) {};
+            } else if (parsed instanceof ParsedBooleanQuery) {
+                ParsedBooleanQuery clone = new ParsedBooleanQuery(parsed.getSourceString(), parsed.getTupleExpr().clone());
+                clone.setDataset(parsed.getDataset());
+                return new SailBooleanQuery(clone, con) {};
+            }
+            return null;
+        }
+    }
+
     /**
      * Magic variables to be replaced within SPARQL queries.
      */
@@ -131,6 +131,75 @@ public static String prependPrefixes(String operationString, Map<String,String>
         return sb.toString()+operationString;
     }
 
+    /**
+     * Normalizes insignificant whitespace of a SPARQL operation string, such that
+     * operations which only differ in indentation or line breaks can be recognized
+     * as identical (e.g. for de-duplication). Leading and trailing whitespace is
+     * removed and every run of whitespace outside of string literals and comments is replaced
+     * by a single space, or by a single line break if it contains one (as line
+     * breaks terminate comments).
+     *
+     * @param operationString
+     *            - any SPARQL query or update operation string
+     * @return the normalized operation string
+     */
+    public static String normalizeWhitespace(String operationString) {
+        String trimmed = operationString.trim();
+        StringBuilder sb = new StringBuilder(trimmed.length());
+        char quote = 0;
+        boolean longString = false;
+        int i = 0;
+        while (i < trimmed.length()) {
+            char c = trimmed.charAt(i);
+            if (quote != 0) {
+                if (longString && isTripleQuote(trimmed, i, quote)
+                        && (i + 3 >= trimmed.length() || trimmed.charAt(i + 3) != quote)) {
+                    // the last three quotes of a run terminate a long string
+                    sb.append(c).append(c).append(c);
+                    quote = 0;
+                    i += 3;
+                    continue;
+                }
+                sb.append(c);
+                if (c == '\\' && i + 1 < trimmed.length()) {
+                    sb.append(trimmed.charAt(++i));
+                } else if (c == quote && !longString) {
+                    quote = 0;
+                }
+                i++;
+            } else if (Character.isWhitespace(c)) {
+                boolean lineBreak = false;
+                while (i < trimmed.length() && Character.isWhitespace(trimmed.charAt(i))) {
+                    lineBreak |= trimmed.charAt(i) == '\n';
+                    i++;
+                }
+                sb.append(lineBreak ? '\n' : ' ');
+            } else if (c == '#') {
+                // comments (or IRI fragments) are kept as they are up to the line break
+                while (i < trimmed.length() && trimmed.charAt(i) != '\n') {
+                    sb.append(trimmed.charAt(i++));
+                }
+            } else {
+                if (c == '"' || c == '\'') {
+                    quote = c;
+                    longString = isTripleQuote(trimmed, i, c);
+                    if (longString) {
+                        sb.append(c).append(c);
+                        i += 2;
+                    }
+                }
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean isTripleQuote(String s, int index, char quote) {
+        return index + 2 < s.length() && s.charAt(index) == quote && s.charAt(index + 1) == quote
+            && s.charAt(index + 2) == quote;
+    }
+
     /**
      * Returns a set of all mime types for all registered parsers including
      * text/html.
@@ -0,0 +1,595 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.api.sparql;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.rdf4j.common.io.IOUtil;
+import org.eclipse.rdf4j.model.BNode;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.query.MalformedQueryException;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.rio.RDFFormat;
+import org.eclipse.rdf4j.rio.RDFHandlerException;
+import org.eclipse.rdf4j.rio.RDFParseException;
+import org.eclipse.rdf4j.rio.RDFParser;
+import org.eclipse.rdf4j.rio.Rio;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
+
+/**
+ * Executes SPARQL updates consisting of <code>INSERT DATA</code> and
+ * <code>DELETE DATA</code> operations without reading the update into memory.
+ *
+ * <p>
+ * The quad data of these operations is translated on the fly into TriG and
+ * parsed incrementally with the RDF4J TriG parser, which passes the parsed
+ * statements in batches to {@link RepositoryConnection#add(Iterable, org.eclipse.rdf4j.model.Resource...)}
+ * and {@link RepositoryConnection#remove(org.eclipse.rdf4j.model.Resource, org.eclipse.rdf4j.model.IRI, org.eclipse.rdf4j.model.Value, org.eclipse.rdf4j.model.Resource...)}.
+ * All operations of an update are executed within one transaction. Operations
+ * following the data operations which are not data operations themselves
+ * (e.g. <code>DELETE/INSERT ... WHERE</code>) are read as string and executed
+ * as regular update within the same transaction.
+ * </p>
+ *
+ * Usage:
+ *
+ * <pre>
+ * StreamingDataUpdate update = StreamingDataUpdate.open(reader);
+ * if (update.isDataUpdate()) {
+ *     update.execute(con, batchSize, fallback);
+ * } else {
+ *     String updateString = update.readAll();
+ * }
+ * </pre>
+ */
+public class StreamingDataUpdate {
+
+    private static final Logger logger = LogManager.getLogger(StreamingDataUpdate.class);
+
+    private static final int PUSHBACK_SIZE = 16;
+
+    /**
+     * Executes the remainder of an update which is not a data operation.
+     */
+    public interface Fallback {
+        void execute(String update) throws RepositoryException, MalformedQueryException;
+    }
+
+    /**
+     * Numbers of statements added and removed by a streamed update.
+     */
+    public static class Result {
+        private long added;
+        private long removed;
+        private boolean fallback;
+
+        public long getAdded() {
+            return added;
+        }
+
+        public long getRemoved() {
+            return removed;
+        }
+
+        /**
+         * @return <code>true</code> if a part of the update has been executed
+         *         as regular update
+         */
+        public boolean isFallback() {
+            return fallback;
+        }
+    }
+
+    private enum OperationType {
+        INSERT_DATA, DELETE_DATA, OTHER, END
+    }
+
+    private final PushbackReader in;
+
+    /**
+     * Characters read since the start of the current operation, including its
+     * prologue.
+     */
+    private final StringBuilder recorded = new StringBuilder();
+
+    /**
+     * PREFIX and BASE declarations of all operations so far.
+     */
+    private final StringBuilder prologue = new StringBuilder();
+
+    /**
+     * PREFIX and BASE declarations of the operations before the current one.
+     */
+    private String previousPrologue = "";
+
+    private OperationType current;
+
+    private StreamingDataUpdate(Reader reader) {
+        this.in = new PushbackReader(new BufferedReader(reader), PUSHBACK_SIZE);
+    }
+
+    /**
+     * Reads the prologue and the first keywords of an update, to determine
+     * whether it can be streamed.
+     */
+    public static StreamingDataUpdate open(Reader reader) throws IOException {
+        StreamingDataUpdate update = new StreamingDataUpdate(reader);
+        update.current = update.readOperationStart();
+        return update;
+    }
+
+    /**
+     * @return <code>true</code> if the update starts with an
+     *         <code>INSERT DATA</code> or <code>DELETE DATA</code> operation
+     */
+    public boolean isDataUpdate() {
+        return current == OperationType.INSERT_DATA || current == OperationType.DELETE_DATA;
+    }
+
+    /**
+     * @return the part of the update read so far, e.g. to identify it in logs
+     */
+    public String getHead() {
+        return recorded.toString();
+    }
+
+    /**
+     * Reads the complete update into a string, if it can not be streamed.
+     */
+    public String readAll() throws IOException {
+        return recorded + IOUtil.readString(in);
+    }
+
+    /**
+     * Executes the update within a transaction of the given connection.
+     *
+     * @param batchSize
+     *            number of statements which are added or removed at once
+     * @param fallback
+     *            executes the remainder of the update, if it contains
+     *            operations other than data operations
+     * @throws MalformedQueryException
+     *             if the update is malformed; nothing is changed in this case
+     */
+    public Result execute(RepositoryConnection con, int batchSize, Fallback fallback)
+            throws IOException, RepositoryException, MalformedQueryException {
+        if (!isDataUpdate()) {
+            throw new IllegalStateException("Update does not start with INSERT DATA or DELETE DATA.");
+        }
+        Result result = new Result();
+        boolean commit = false;
+        con.begin();
+        try {
+            while (isDataUpdate()) {
+                streamQuadData(con, batchSize, result);
+                skipWhitespaceAndComments();
+                int c = read();
+                if (c == -1) {
+                    break;
+                }
+                if (c != ';') {
+                    throw new MalformedQueryException("Expected ';' or end of update after quad data, found '" + (char) c + "'.");
+                }
+                recorded.setLength(0);
+                previousPrologue = prologue.toString();
+                current = readOperationStart();
+                if (current == OperationType.OTHER) {
+                    logger.debug("Executing remainder of streamed update as regular update.");
+                    result.fallback = true;
+                    fallback.execute(previousPrologue + readAll());
+                }
+            }
+            commit = true;
+        } finally {
+            if (commit) {
+                con.commit();
+            } else if (con.isActive()) {
+                con.rollback();
+            }
+        }
+        return result;
+    }
+
+    private void streamQuadData(RepositoryConnection con, int batchSize, Result result)
+            throws IOException, MalformedQueryException {
+        boolean insert = current == OperationType.INSERT_DATA;
+        RDFParser parser = Rio.createParser(RDFFormat.TRIG, con.getValueFactory());
+        BatchHandler handler = new BatchHandler(con, insert, batchSize);
+        parser.setRDFHandler(handler);
+        try {
+            parser.parse(new QuadDataReader(in, prologue + "\n"), "");
+        } catch (RDFParseException | RDFHandlerException e) {
+            if (e.getCause() instanceof RepositoryException) {
+                throw (RepositoryException) e.getCause();
+            }
+            throw new MalformedQueryException("Invalid quad data: " + e.getMessage(), e);
+        }
+        if (insert) {
+            result.added += handler.count;
+        } else {
+            result.removed += handler.count;
+        }
+    }
+
+    /**
+     * Reads the prologue of an operation and its first keywords. For data
+     * operations, the opening brace of the quad data is consumed.
+     */
+    private OperationType readOperationStart() throws IOException {
+        while (true) {
+            skipWhitespaceAndComments();
+            int c = peek();
+            if (c == -1) {
+                return OperationType.END;
+            }
+            String keyword = readWord();
+            if (keyword.equalsIgnoreCase("PREFIX") || keyword.equalsIgnoreCase("BASE")) {
+                // the declaration ends with the IRI
+                int start = recorded.length() - keyword.length();
+                do {
+                    c = read();
+                } while (c != -1 && c != '>');
+                prologue.append(recorded, start, recorded.length()).append('\n');
+                continue;
+            }
+            if (!keyword.equalsIgnoreCase("INSERT") && !keyword.equalsIgnoreCase("DELETE")) {
+                return OperationType.OTHER;
+            }
+            skipWhitespaceAndComments();
+            if (!readWord().equalsIgnoreCase("DATA")) {
+                return OperationType.OTHER;
+            }
+            skipWhitespaceAndComments();
+            if (read() != '{') {
+                return OperationType.OTHER;
+            }
+            return keyword.equalsIgnoreCase("INSERT") ? OperationType.INSERT_DATA : OperationType.DELETE_DATA;
+        }
+    }
+
+    private String readWord() throws IOException {
+        StringBuilder word = new StringBuilder();
+        int c;
+        while ((c = peek()) != -1 && Character.isLetter(c)) {
+            word.append((char) read());
+        }
+        return word.toString();
+    }
+
+    private void skipWhitespaceAndComments() throws IOException {
+        int c;
+        while ((c = peek()) != -1) {
+            if (Character.isWhitespace(c)) {
+                read();
+            } else if (c == '#') {
+                while ((c = read()) != -1 && c != '\n') {
+                    // skip comment
+                }
+            } else {
+                return;
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        int c = in.read();
+        if (c != -1) {
+            recorded.append((char) c);
+        }
+        return c;
+    }
+
+    private int peek() throws IOException {
+        int c = in.read();
+        if (c != -1) {
+            in.unread(c);
+        }
+        return c;
+    }
+
+    /**
+     * Passes the parsed statements in batches to the connection.
+     */
+    private static class BatchHandler extends AbstractRDFHandler {
+        private final RepositoryConnection con;
+        private final boolean insert;
+        private final int batchSize;
+        private List<Statement> batch;
+        private long count;
+
+        private BatchHandler(RepositoryConnection con, boolean insert, int batchSize) {
+            this.con = con;
+            this.insert = insert;
+            this.batchSize = batchSize;
+            this.batch = new ArrayList<>(batchSize);
+        }
+
+        @Override
+        public void handleStatement(Statement st) throws RDFHandlerException {
+            if (!insert && (st.getSubject() instanceof BNode || st.getObject() instanceof BNode)) {
+                throw new RDFHandlerException("Blank nodes are not allowed in DELETE DATA.");
+            }
+            batch.add(st);
+            if (batch.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        @Override
+        public void endRDF() throws RDFHandlerException {
+            flush();
+        }
+
+        private void flush() throws RDFHandlerException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            try {
+                if (insert) {
+                    con.add(batch);
+                } else {
+                    for (Statement st : batch) {
+                        // statements without context are removed from the default graph only
+                        con.remove(st.getSubject(), st.getPredicate(), st.getObject(), st.getContext());
+                    }
+                }
+            } catch (RepositoryException e) {
+                throw new RDFHandlerException(e);
+            }
+            count += batch.size();
+            batch = new ArrayList<>(batchSize);
+        }
+    }
+
+    /**
+     * Translates the quad data of a SPARQL data operation, i.e. the content
+     * between its braces, into TriG: the given prologue is prepended, triples
+     * outside of <code>GRAPH</code> blocks are wrapped into default graph
+     * blocks and optional dots after <code>GRAPH</code> blocks are dropped.
+     * Ends with the closing brace of the quad data, which is consumed.
+     *
+     * <b>Package private for testing only</b>.
+     */
+    static class QuadDataReader extends Reader {
+
+        private enum State {
+            DEFAULT, IRI, STRING, LONG_STRING
+        }
+
+        private final PushbackReader in;
+        private final StringBuilder pending;
+        private int pendingPosition = 0;
+
+        private State state = State.DEFAULT;
+        private int depth = 1;
+        private boolean wrapOpen = false;
+        private boolean afterGraphBlock = false;
+        private boolean inGraphHeader = false;
+        /**
+         * Whether the next character starts a token, i.e. may start the
+         * keyword <code>GRAPH</code> rather than continue a name.
+         */
+        private boolean tokenStart = true;
+        private char quote;
+        private int quoteRun;
+        private boolean finished = false;
+
+        QuadDataReader(PushbackReader in, String prologue) {
+            this.in = in;
+            this.pending = new StringBuilder(prologue);
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n = 0;
+            while (n < len) {
+                if (pendingPosition == pending.length()) {
+                    pending.setLength(0);
+                    pendingPosition = 0;
+                    if (finished || !translateNext()) {
+                        break;
+                    }
+                    continue;
+                }
+                cbuf[off + n++] = pending.charAt(pendingPosition++);
+            }
+            return n == 0 ? -1 : n;
+        }
+
+        /**
+         * Translates the next input character into pending output.
+         *
+         * @return <code>false</code> at the end of the quad data
+         */
+        private boolean translateNext() throws IOException {
+            int c = in.read();
+            if (c == -1) {
+                throw new MalformedQueryException("Unexpected end of update within quad data.");
+            }
+            char ch = (char) c;
+            switch (state) {
+            case IRI:
+                pending.append(ch);
+                if (ch == '>') {
+                    state = State.DEFAULT;
+                }
+                return true;
+            case STRING:
+                pending.append(ch);
+                if (ch == '\\') {
+                    appendNext();
+                } else if (ch == quote) {
+                    state = State.DEFAULT;
+                }
+                return true;
+            case LONG_STRING:
+                pending.append(ch);
+                if (ch == '\\') {
+                    appendNext();
+                    quoteRun = 0;
+                } else if (ch == quote) {
+                    // the last three quotes of a run terminate the string
+                    if (++quoteRun >= 3 && peekChar() != quote) {
+                        state = State.DEFAULT;
+                    }
+                } else {
+                    quoteRun = 0;
+                }
+                return true;
+            default:
+                break;
+            }
+
+            if (Character.isWhitespace(ch)) {
+                pending.append(ch);
+                tokenStart = true;
+                return true;
+            }
+            if (ch == '#') {
+                // comments are dropped, braces within them must not be counted
+                while ((c = in.read()) != -1 && c != '\n') {
+                    // skip comment
+                }
+                pending.append('\n');
+                tokenStart = true;
+                return true;
+            }
+            boolean atTokenStart = tokenStart;
+            tokenStart = ch == '{' || ch == '}' || ch == '.';
+            if (depth == 1 && !inGraphHeader) {
+                if (ch == '}') {
+                    if (wrapOpen) {
+                        pending.append('}');
+                    }
+                    finished = true;
+                    return pending.length() > 0;
+                }
+                if (ch == '.' && afterGraphBlock) {
+                    return true;
+                }
+                if (atTokenStart && (ch == 'G' || ch == 'g') && isGraphKeyword(ch)) {
+                    if (wrapOpen) {
+                        pending.append("} ");
+                        wrapOpen = false;
+                    }
+                    pending.append("GRAPH");
+                    afterGraphBlock = false;
+                    // the name of the graph follows up to the opening brace
+                    inGraphHeader = true;
+                    return true;
+                }
+                if (!wrapOpen) {
+                    pending.append("{ ");
+                    wrapOpen = true;
+                }
+                afterGraphBlock = false;
+            }
+
+            pending.append(ch);
+            switch (ch) {
+            case '<':
+                state = State.IRI;
+                break;
+            case '"':
+            case '\'':
+                quote = ch;
+                if (peekChar() == ch) {
+                    in.read();
+                    if (peekChar() == ch) {
+                        in.read();
+                        pending.append(ch).append(ch);
+                        state = State.LONG_STRING;
+                        quoteRun = 0;
+                    } else {
+                        // empty string
+                        pending.append(ch);
+                    }
+                } else {
+                    state = State.STRING;
+                }
+                break;
+            case '{':
+                depth++;
+                inGraphHeader = false;
+                break;
+            case '}':
+                if (--depth == 1) {
+                    afterGraphBlock = true;
+                }
+                break;
+            default:
+                break;
+            }
+            return true;
+        }
+
+        /**
+         * Checks whether the given character starts the keyword
+         * <code>GRAPH</code>, in which case the keyword is consumed.
+         */
+        private boolean isGraphKeyword(char first) throws IOException {
+            char[] rest = new char[5];
+            int n = 0;
+            int c = 0;
+            while (n < rest.length && (c = in.read()) != -1) {
+                rest[n++] = (char) c;
+            }
+            boolean keyword = n == 5
+                && new String(rest, 0, 4).equalsIgnoreCase("RAPH")
+                && (Character.isWhitespace(rest[4]) || rest[4] == '<' || rest[4] == '#');
+            if (keyword) {
+                in.unread(rest[4]);
+            } else {
+                in.unread(rest, 0, n);
+            }
+            return keyword;
+        }
+
+        private void appendNext() throws IOException {
+            int c = in.read();
+            if (c != -1) {
+                pending.append((char) c);
+            }
+        }
+
+        private int peekChar() throws IOException {
+            int c = in.read();
+            if (c != -1) {
+                in.unread(c);
+            }
+            return c;
+        }
+
+        @Override
+        public void close() {
+            // the underlying reader is closed by the caller
+        }
+    }
+}
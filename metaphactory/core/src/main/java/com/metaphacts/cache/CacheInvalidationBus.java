@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.rdf4j.model.IRI;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metaphacts.config.Configuration;
+import com.metaphacts.config.groups.UIConfiguration;
+
+/**
+ * Propagates cache invalidations between platform nodes which are running
+ * against the same database, such that all nodes can use long cache expiry
+ * times without serving stale data.
+ *
+ * <p>
+ * All invalidations of the local {@link CacheManager} are published to the
+ * peer nodes through an {@link InvalidationTransport}; invalidations received
+ * from peers are applied to the local caches (without being published again).
+ * Bursts of invalidations are coalesced within a short time window in both
+ * directions, i.e. resources are purged in bulk and invalidating a cache as a
+ * whole supersedes purging individual resources. Events which have already
+ * been applied are ignored.
+ * </p>
+ *
+ * The bus is disabled unless a shared journal directory is configured, see
+ * {@link UIConfiguration#getCacheInvalidationJournalDirectory()}.
+ */
+@Singleton
+public class CacheInvalidationBus {
+    private static final Logger logger = LogManager.getLogger(CacheInvalidationBus.class);
+
+    private static final String ALL_CACHES = "*";
+
+    private final CacheManager cacheManager;
+    private final Optional<InvalidationTransport> transport;
+    private final String nodeId;
+    private final long coalesceMillis;
+    private final int maxResources;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final ScheduledExecutorService flushExecutor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("cache-invalidation-bus-%d").setDaemon(true).build());
+
+    /**
+     * IDs of recently applied remote events.
+     */
+    private final Cache<String, Boolean> appliedEvents = CacheBuilder.newBuilder()
+        .maximumSize(10000).expireAfterWrite(10, TimeUnit.MINUTES).build();
+
+    /**
+     * Local invalidations which have not been published yet.
+     */
+    private Coalescer pending = new Coalescer();
+
+    @Inject
+    public CacheInvalidationBus(Configuration config, CacheManager cacheManager) {
+        this(cacheManager, createTransport(config.getUiConfig()), UUID.randomUUID().toString(),
+            config.getUiConfig().getCacheInvalidationCoalesceMillis(),
+            config.getUiConfig().getCacheInvalidationMaxResources());
+    }
+
+    CacheInvalidationBus(
+        CacheManager cacheManager, Optional<InvalidationTransport> transport,
+        String nodeId, long coalesceMillis, int maxResources
+    ) {
+        this.cacheManager = cacheManager;
+        this.transport = transport;
+        this.nodeId = nodeId;
+        this.coalesceMillis = coalesceMillis;
+        this.maxResources = maxResources;
+        if (transport.isPresent()) {
+            transport.get().start(nodeId, this::applyRemote);
+            cacheManager.setInvalidationBus(this);
+        }
+    }
+
+    private static Optional<InvalidationTransport> createTransport(UIConfiguration config) {
+        String directory = config.getCacheInvalidationJournalDirectory();
+        if (StringUtils.isBlank(directory)) {
+            return Optional.empty();
+        }
+        return Optional.of(new FileJournalInvalidationTransport(
+            new File(directory), config.getCacheInvalidationPollIntervalMillis(), 1024 * 1024));
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Publishes the invalidation of a cache (or all caches if the cache ID is
+     * empty) to the peer nodes.
+     *
+     * @param resources resources to purge or empty to invalidate the caches as a whole
+     */
+    public void publish(Optional<String> cacheId, Collection<IRI> resources) {
+        if (!transport.isPresent()) {
+            return;
+        }
+        boolean schedule;
+        synchronized (this) {
+            schedule = pending.isEmpty();
+            pending.add(cacheId, resources);
+        }
+        if (coalesceMillis <= 0) {
+            flush();
+        } else if (schedule) {
+            flushExecutor.schedule(this::flush, coalesceMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Publishes all pending local invalidations.
+     */
+    void flush() {
+        final Coalescer events;
+        synchronized (this) {
+            events = pending;
+            pending = new Coalescer();
+        }
+        if (events.isEmpty()) {
+            return;
+        }
+        try {
+            transport.get().publish(events.toEvents(nodeId, sequence));
+        } catch (Exception e) {
+            logger.warn("Failed to publish cache invalidations to peer nodes: {}", e.getMessage());
+            logger.debug("Details:", e);
+        }
+    }
+
+    private void applyRemote(List<InvalidationEvent> events) {
+        Coalescer coalescer = new Coalescer();
+        for (InvalidationEvent event : events) {
+            if (nodeId.equals(event.getOrigin()) || appliedEvents.asMap().putIfAbsent(event.getId(), true) != null) {
+                continue;
+            }
+            coalescer.add(event.getCacheId(), event.getResources());
+        }
+        if (coalescer.isEmpty()) {
+            return;
+        }
+        logger.debug("Applying cache invalidations of peer nodes: {}", events);
+        for (InvalidationEvent event : coalescer.toEvents(nodeId, new AtomicLong())) {
+            if (event.isInvalidateAll()) {
+                cacheManager.invalidateLocally(event.getCacheId());
+            } else {
+                cacheManager.invalidateResourcesLocally(event.getCacheId(), event.getResources());
+            }
+        }
+    }
+
+    /**
+     * Publishes pending invalidations and stops exchanging events with peers.
+     */
+    public void shutdown() {
+        flushExecutor.shutdownNow();
+        if (transport.isPresent()) {
+            flush();
+            transport.get().close();
+        }
+    }
+
+    /**
+     * Merges invalidations by cache ID; invalidating a cache as a whole (or
+     * all caches) supersedes purging individual resources and too many
+     * resources are turned into an invalidation of the whole cache.
+     */
+    private class Coalescer {
+        private final Set<String> invalidatedCaches = new LinkedHashSet<>();
+        private final Map<String, Set<IRI>> resources = new LinkedHashMap<>();
+
+        boolean isEmpty() {
+            return invalidatedCaches.isEmpty() && resources.isEmpty();
+        }
+
+        void add(Optional<String> cacheId, Collection<IRI> iris) {
+            String key = cacheId.orElse(ALL_CACHES);
+            if (invalidatedCaches.contains(ALL_CACHES) || invalidatedCaches.contains(key)) {
+                return;
+            }
+            if (iris.isEmpty()) {
+                invalidate(key);
+                return;
+            }
+            Set<IRI> keyResources = resources.computeIfAbsent(key, k -> new LinkedHashSet<>());
+            keyResources.addAll(iris);
+            if (keyResources.size() > maxResources) {
+                invalidate(key);
+            }
+        }
+
+        private void invalidate(String key) {
+            if (ALL_CACHES.equals(key)) {
+                invalidatedCaches.clear();
+                resources.clear();
+            } else {
+                resources.remove(key);
+            }
+            invalidatedCaches.add(key);
+        }
+
+        List<InvalidationEvent> toEvents(String origin, AtomicLong sequence) {
+            List<InvalidationEvent> events = new ArrayList<>();
+            for (String key : invalidatedCaches) {
+                events.add(new InvalidationEvent(origin, sequence.incrementAndGet(), toCacheId(key), new ArrayList<>()));
+            }
+            for (Map.Entry<String, Set<IRI>> entry : resources.entrySet()) {
+                events.add(new InvalidationEvent(origin, sequence.incrementAndGet(), toCacheId(entry.getKey()), entry.getValue()));
+            }
+            return events;
+        }
+
+        private Optional<String> toCacheId(String key) {
+            return ALL_CACHES.equals(key) ? Optional.empty() : Optional.of(key);
+        }
+    }
+}
@@ -19,9 +19,12 @@
 package com.metaphacts.cache;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.inject.Singleton;
 import org.apache.logging.log4j.LogManager;
@@ -38,26 +41,68 @@
 @Singleton
 public class CacheManager {
     private static final Logger logger = LogManager.getLogger(CacheManager.class);
-    private final Map<String, PlatformCache> instances = new HashMap<>();
+    // caches may be registered lazily, i.e. concurrently to reading the statistics
+    private final Map<String, PlatformCache> instances = new ConcurrentHashMap<>();
+
+    private volatile CacheInvalidationBus invalidationBus;
 
     public void register(PlatformCache cache) {
         String cacheId = cache.getId();
         logger.debug("Registering cache '{}' in CacheManager.", cacheId);
-        if (instances.containsKey(cacheId)) {
+        if (instances.putIfAbsent(cacheId, cache) != null) {
             throw new IllegalStateException(String.format(
                 "CacheManager has already an cache with ID '%s'.", cacheId));
-        } else {
-            instances.put(cacheId, cache);
-            }
         }
+    }
+
+    /**
+     * @return all registered caches ordered by their ID
+     */
+    public List<PlatformCache> getCaches() {
+        List<PlatformCache> caches = Lists.newArrayList(instances.values());
+        caches.sort(Comparator.comparing(PlatformCache::getId));
+        return caches;
+    }
+
+    /**
+     * Sets the bus which propagates all invalidations to peer nodes.
+     */
+    void setInvalidationBus(CacheInvalidationBus invalidationBus) {
+        this.invalidationBus = invalidationBus;
+    }
 
     /**
+     * Invalidates all caches, on this and all peer nodes.
+     *
      * @return a list of IDs of caches that have been invalidated
      */
     public List<String> invalidateAll() {
-        logger.info("Invalidating the following caches: {}", instances);
+        List<String> l = invalidateLocally(Optional.empty());
+        publish(Optional.empty(), Collections.emptyList());
+        return l;
+    }
+
+    /**
+     * Purges specific resources from all caches, on this and all peer nodes.
+     * @param resources List of resources to purge from all caches
+     */
+    public void invalidateResources(List<IRI> resources) {
+        invalidateResourcesLocally(Optional.empty(), resources);
+        if (!resources.isEmpty()) {
+            publish(Optional.empty(), resources);
+        }
+    }
+
+    /**
+     * Invalidates the cache with the given ID or all caches, without notifying peer nodes.
+     *
+     * @return a list of IDs of caches that have been invalidated
+     */
+    List<String> invalidateLocally(Optional<String> cacheId) {
+        List<PlatformCache> caches = getCaches(cacheId);
+        logger.info("Invalidating the following caches: {}", caches);
         ArrayList<String> l = Lists.newArrayList();
-        for (PlatformCache cache : instances.values()) {
+        for (PlatformCache cache : caches) {
             cache.invalidate();
             l.add(cache.getId());
         }
@@ -65,14 +110,29 @@ public List<String> invalidateAll() {
     }
 
     /**
-     * Purges specific resources from all caches.
-     * @param resources List of resources to purge from all caches
+     * Purges resources from the cache with the given ID or from all caches,
+     * without notifying peer nodes.
      */
-    public void invalidateResources(List<IRI> resources) {
+    void invalidateResourcesLocally(Optional<String> cacheId, List<IRI> resources) {
         logger.info("Invalidating the following resources: {}", String.join(
             ", ", resources.stream().map(IRI::toString).collect(toList())));
-        for (PlatformCache cache : instances.values()) {
+        for (PlatformCache cache : getCaches(cacheId)) {
             cache.invalidate(resources);
         }
     }
+
+    private List<PlatformCache> getCaches(Optional<String> cacheId) {
+        if (!cacheId.isPresent()) {
+            return Lists.newArrayList(instances.values());
+        }
+        PlatformCache cache = instances.get(cacheId.get());
+        return cache == null ? Collections.emptyList() : Collections.singletonList(cache);
+    }
+
+    private void publish(Optional<String> cacheId, List<IRI> resources) {
+        CacheInvalidationBus bus = invalidationBus;
+        if (bus != null) {
+            bus.publish(cacheId, resources);
+        }
+    }
 }
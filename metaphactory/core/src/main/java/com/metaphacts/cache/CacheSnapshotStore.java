@@ -0,0 +1,395 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.repository.Repository;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metaphacts.cache.ResourcePropertyCache.RepositoryCache;
+import com.metaphacts.config.Configuration;
+import com.metaphacts.config.groups.UIConfiguration;
+import com.metaphacts.repository.CacheInvalidatingRepository;
+
+/**
+ * Persists the contents of {@link ResourcePropertyCache}s to disk, such that
+ * the caches do not start cold after a restart.
+ *
+ * <p>
+ * Snapshots are written to <code>[runtimeDirectory]/data/cache-snapshots</code>
+ * (one GZIP compressed binary file per cache and repository) periodically and
+ * on shutdown, and are restored asynchronously as soon as the cache for a
+ * repository is created. A snapshot is only restored if the generation of the
+ * repository (see {@link CacheInvalidatingRepository#getGeneration()}) and the
+ * fingerprint of the cache configuration have not changed since it has been written.
+ * Only repositories managed by the
+ * {@link com.metaphacts.repository.RepositoryManager} are considered.
+ * </p>
+ *
+ * Snapshots are disabled by default, see {@link UIConfiguration#getCacheSnapshotsEnabled()}.
+ */
+@Singleton
+public class CacheSnapshotStore {
+    private static final Logger logger = LogManager.getLogger(CacheSnapshotStore.class);
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+
+    private static final int MAGIC = 0x4d504353;
+    private static final int VERSION = 1;
+    private static final int RESTORE_BATCH_SIZE = 1000;
+
+    private static final byte ABSENT = 0;
+    private static final byte IRI_VALUE = 1;
+    private static final byte LANGUAGE_LITERAL = 2;
+    private static final byte TYPED_LITERAL = 3;
+    private static final byte LABEL_CANDIDATES = 4;
+
+    private final Configuration config;
+    private final File snapshotFolder;
+    private final List<ResourcePropertyCache<?>> caches = new CopyOnWriteArrayList<>();
+
+    private final ExecutorService restoreExecutor;
+    private final ScheduledExecutorService saveExecutor;
+
+    @Inject
+    public CacheSnapshotStore(Configuration config) {
+        this.config = config;
+        this.snapshotFolder = new File(new File(config.getRuntimeDirectory(), "data"), "cache-snapshots");
+        this.restoreExecutor = Executors.newSingleThreadExecutor(daemonThreads("cache-snapshot-restore-%d"));
+        this.saveExecutor = Executors.newSingleThreadScheduledExecutor(daemonThreads("cache-snapshot-save-%d"));
+
+        int interval = config.getUiConfig().getCacheSnapshotIntervalMinutes();
+        if (isEnabled() && interval > 0) {
+            saveExecutor.scheduleWithFixedDelay(this::saveAll, interval, interval, TimeUnit.MINUTES);
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String nameFormat) {
+        return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+    }
+
+    public boolean isEnabled() {
+        return config.getUiConfig().getCacheSnapshotsEnabled();
+    }
+
+    void register(ResourcePropertyCache<?> cache) {
+        caches.add(cache);
+    }
+
+    /**
+     * Stops periodic snapshots and writes a final snapshot of all caches.
+     */
+    public void shutdown() {
+        saveExecutor.shutdownNow();
+        restoreExecutor.shutdownNow();
+        saveAll();
+    }
+
+    /**
+     * Writes snapshots of all registered caches, if snapshots are enabled.
+     */
+    public synchronized void saveAll() {
+        if (!isEnabled()) {
+            return;
+        }
+        for (ResourcePropertyCache<?> cache : caches) {
+            for (RepositoryCache<?> repositoryCache : cache.getRepositoryCaches()) {
+                try {
+                    save(cache, repositoryCache);
+                } catch (Exception e) {
+                    logger.warn("Failed to write snapshot of cache '{}' for repository '{}': {}",
+                        cache.getId(), repositoryCache.repositoryId, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Asynchronously restores the snapshot of the given cache, if snapshots are enabled.
+     */
+    <P> void restoreAsync(ResourcePropertyCache<P> cache, RepositoryCache<P> repositoryCache) {
+        if (!isEnabled()) {
+            return;
+        }
+        restoreExecutor.submit(() -> {
+            try {
+                restore(cache, repositoryCache);
+            } catch (Exception e) {
+                logger.warn("Failed to restore snapshot of cache '{}' for repository '{}': {}",
+                    cache.getId(), repositoryCache.repositoryId, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * @return the number of entries which have been written
+     */
+    <P> int save(ResourcePropertyCache<?> cache, RepositoryCache<P> repositoryCache) throws IOException {
+        Optional<CacheInvalidatingRepository> repository = getTrackedRepository(repositoryCache);
+        if (!repository.isPresent()) {
+            return 0;
+        }
+        // read the generation before copying the entries, such that concurrent
+        // changes render the snapshot outdated
+        long generation = repository.get().getGeneration();
+        Map<IRI, Optional<P>> entries = new HashMap<>(repositoryCache.cache.asMap());
+        if (entries.isEmpty()) {
+            return 0;
+        }
+
+        Files.createDirectories(snapshotFolder.toPath());
+        File file = getSnapshotFile(cache, repositoryCache);
+        File tempFile = new File(snapshotFolder, file.getName() + ".tmp");
+        int written = 0;
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(tempFile))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(generation);
+            writeString(out, cache.getSnapshotFingerprint());
+            for (Map.Entry<IRI, Optional<P>> entry : entries.entrySet()) {
+                Optional<P> property = entry.getValue();
+                if (property.isPresent() && !isSupported(property.get())) {
+                    continue;
+                }
+                out.writeBoolean(true);
+                writeString(out, entry.getKey().stringValue());
+                writeProperty(out, property);
+                written++;
+            }
+            out.writeBoolean(false);
+        }
+        Files.move(tempFile.toPath(), file.toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        logger.debug("Wrote {} entries of cache '{}' for repository '{}' to {}.",
+            written, cache.getId(), repositoryCache.repositoryId, file);
+        return written;
+    }
+
+    /**
+     * @return the number of entries which have been restored
+     */
+    <P> int restore(ResourcePropertyCache<P> cache, RepositoryCache<P> repositoryCache) throws IOException {
+        Optional<CacheInvalidatingRepository> repository = getTrackedRepository(repositoryCache);
+        if (!repository.isPresent()) {
+            return 0;
+        }
+        File file = getSnapshotFile(cache, repositoryCache);
+        if (!file.exists()) {
+            return 0;
+        }
+
+        long start = System.currentTimeMillis();
+        int restored = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                logger.info("Ignoring cache snapshot {} with unknown format.", file);
+                return 0;
+            }
+            long generation = in.readLong();
+            if (generation != repository.get().getGeneration()) {
+                logger.info("Ignoring cache snapshot {}, the repository has been changed since.", file);
+                return 0;
+            }
+            if (!readString(in).equals(cache.getSnapshotFingerprint())) {
+                logger.info("Ignoring cache snapshot {}, the cache configuration has been changed since.", file);
+                return 0;
+            }
+
+            Map<IRI, Optional<P>> batch = new HashMap<>();
+            boolean hasNext;
+            do {
+                hasNext = in.readBoolean();
+                if (hasNext) {
+                    IRI iri = vf.createIRI(readString(in));
+                    batch.put(iri, readProperty(in));
+                }
+                if (batch.size() >= RESTORE_BATCH_SIZE || (!hasNext && !batch.isEmpty())) {
+                    if (!putAll(repository.get(), generation, repositoryCache, batch)) {
+                        logger.info("Aborted restoring cache snapshot {}, the repository has been changed.", file);
+                        return restored;
+                    }
+                    restored += batch.size();
+                    batch.clear();
+                }
+            } while (hasNext);
+        }
+
+        logger.info("Restored {} entries of cache '{}' for repository '{}' in {} ms.",
+            restored, cache.getId(), repositoryCache.repositoryId, System.currentTimeMillis() - start);
+        return restored;
+    }
+
+    /**
+     * Adds the entries to the cache (without overriding freshly loaded
+     * entries), unless the repository has been changed in the meantime.
+     *
+     * @return <code>false</code> if the repository has been changed
+     */
+    private <P> boolean putAll(
+        CacheInvalidatingRepository repository, long generation,
+        RepositoryCache<P> repositoryCache, Map<IRI, Optional<P>> entries
+    ) {
+        if (repository.getGeneration() != generation) {
+            return false;
+        }
+        repositoryCache.putAllIfAbsent(entries);
+        if (repository.getGeneration() != generation) {
+            // the invalidation of a concurrent change might have missed the restored entries
+            repositoryCache.invalidateAll(entries.keySet());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Snapshots are only supported for repositories which are managed by the
+     * {@link com.metaphacts.repository.RepositoryManager} and keep track of their changes.
+     */
+    private static Optional<CacheInvalidatingRepository> getTrackedRepository(RepositoryCache<?> repositoryCache) {
+        Repository repository = repositoryCache.repository.get();
+        if (repositoryCache.repositoryId == null || !(repository instanceof CacheInvalidatingRepository)) {
+            return Optional.empty();
+        }
+        return Optional.of((CacheInvalidatingRepository) repository);
+    }
+
+    File getSnapshotFile(ResourcePropertyCache<?> cache, RepositoryCache<?> repositoryCache) {
+        String name = (cache.getId() + "." + repositoryCache.repositoryId).replaceAll("[^A-Za-z0-9._-]", "_");
+        return new File(snapshotFolder, name + ".snapshot");
+    }
+
+    private static boolean isSupported(Object property) {
+        return property instanceof IRI || property instanceof Literal || property instanceof LabelCandidates;
+    }
+
+    private static void writeProperty(DataOutputStream out, Optional<?> property) throws IOException {
+        if (!property.isPresent()) {
+            out.writeByte(ABSENT);
+        } else if (property.get() instanceof IRI) {
+            out.writeByte(IRI_VALUE);
+            writeString(out, ((IRI) property.get()).stringValue());
+        } else if (property.get() instanceof LabelCandidates) {
+            LabelCandidates candidates = (LabelCandidates) property.get();
+            out.writeByte(LABEL_CANDIDATES);
+            out.writeInt(candidates.size());
+            for (Literal literal : candidates) {
+                writeLiteral(out, literal);
+            }
+        } else {
+            writeLiteral(out, (Literal) property.get());
+        }
+    }
+
+    private static void writeLiteral(DataOutputStream out, Literal literal) throws IOException {
+        if (literal.getLanguage().isPresent()) {
+            out.writeByte(LANGUAGE_LITERAL);
+            writeString(out, literal.getLabel());
+            writeString(out, literal.getLanguage().get());
+        } else {
+            out.writeByte(TYPED_LITERAL);
+            writeString(out, literal.getLabel());
+            writeString(out, literal.getDatatype().stringValue());
+        }
+    }
+
+    /**
+     * Reads a property written by {@link #writeProperty(DataOutputStream, Optional)}.
+     * The type of the property is guaranteed by the cache ID being part of the
+     * snapshot file name, i.e. a snapshot is only ever read by the cache it
+     * has been written by.
+     */
+    @SuppressWarnings("unchecked")
+    private static <P> Optional<P> readProperty(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case ABSENT:
+                return Optional.empty();
+            case LABEL_CANDIDATES:
+                int size = in.readInt();
+                List<Literal> labels = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    labels.add((Literal) readValue(in, in.readByte()));
+                }
+                return Optional.of((P) LabelCandidates.of(labels));
+            default:
+                return Optional.of((P) readValue(in, type));
+        }
+    }
+
+    private static Value readValue(DataInputStream in, byte type) throws IOException {
+        switch (type) {
+            case IRI_VALUE:
+                return vf.createIRI(readString(in));
+            case LANGUAGE_LITERAL:
+                return vf.createLiteral(readString(in), readString(in));
+            case TYPED_LITERAL:
+                return vf.createLiteral(readString(in), vf.createIRI(readString(in)));
+            default:
+                throw new IOException("Unknown value type in cache snapshot: " + type);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
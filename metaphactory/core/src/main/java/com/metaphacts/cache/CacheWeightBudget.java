@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metaphacts.config.Configuration;
+import com.metaphacts.config.groups.UIConfiguration;
+
+/**
+ * Global heap budget shared by all {@link ResourcePropertyCache} instances.
+ * Every per-repository cache registers a {@link Share} with the weight it
+ * would like to use when it is created and releases it again when it is
+ * discarded, so that the sum of all maximum weights never exceeds
+ * {@link UIConfiguration#getResourcePropertyCacheHeapBudgetMB()}.
+ *
+ * <p>
+ * The budget is divided among the live caches: caches requesting less than
+ * an equal part of the budget get their requested weight, the remainder is
+ * divided equally among the other caches. Whenever a cache is registered or
+ * released, the weights of all caches are recomputed and the caches whose
+ * weight changed are resized.
+ * </p>
+ *
+ * Weights are expressed in (estimated) bytes.
+ */
+@Singleton
+public class CacheWeightBudget {
+    private static final Logger logger = LogManager.getLogger(CacheWeightBudget.class);
+
+    static final long BYTES_PER_MB = 1024L * 1024L;
+
+    private final Configuration config;
+
+    private final List<Share> shares = Lists.newArrayList();
+
+    @Inject
+    public CacheWeightBudget(Configuration config) {
+        this.config = config;
+    }
+
+    /**
+     * Registers a cache with the budget. The cache is resized through
+     * <code>resize</code> with its initial weight before this method returns
+     * and whenever its weight changes afterwards.
+     *
+     * @param owner human readable name of the cache (used for logging only)
+     * @param requestedWeight the weight the cache would like to use
+     * @param resize called with the weight granted to the cache
+     * @return the share of the cache, to be released when the cache is discarded
+     */
+    public synchronized Share register(String owner, long requestedWeight, LongConsumer resize) {
+        Share share = new Share(owner, Math.max(0, requestedWeight), resize);
+        shares.add(share);
+        rebalance();
+        if (share.weight < share.requestedWeight) {
+            logger.warn(
+                "Global cache heap budget of {} bytes is exceeded: cache '{}' requested {} bytes, "
+                    + "but only {} bytes are granted while the budget is shared by {} caches.",
+                getTotalWeight(), owner, share.requestedWeight, share.weight, shares.size());
+        }
+        return share;
+    }
+
+    private synchronized void release(Share share) {
+        if (shares.remove(share)) {
+            rebalance();
+        }
+    }
+
+    /**
+     * Divides the total weight among all shares, starting with the smallest
+     * requests, and resizes the caches whose weight changed.
+     */
+    private void rebalance() {
+        List<Share> byRequest = new ArrayList<>(shares);
+        byRequest.sort(Comparator.comparingLong(share -> share.requestedWeight));
+        long remaining = getTotalWeight();
+        int remainingShares = byRequest.size();
+        for (Share share : byRequest) {
+            long weight = Math.min(share.requestedWeight, remaining / remainingShares);
+            remaining -= weight;
+            remainingShares--;
+            if (weight != share.weight) {
+                logger.debug("Resizing cache '{}' from {} to {} bytes.", share.owner, share.weight, weight);
+                share.weight = weight;
+                share.resize.accept(weight);
+            }
+        }
+    }
+
+    public synchronized long getReservedWeight() {
+        return shares.stream().mapToLong(share -> share.weight).sum();
+    }
+
+    public long getTotalWeight() {
+        return config.getUiConfig().getResourcePropertyCacheHeapBudgetMB() * BYTES_PER_MB;
+    }
+
+    /**
+     * Part of the budget granted to a single cache.
+     */
+    public class Share {
+        private final String owner;
+        private final long requestedWeight;
+        private final LongConsumer resize;
+        /**
+         * -1 until the first weight has been granted.
+         */
+        private long weight = -1;
+
+        private Share(String owner, long requestedWeight, LongConsumer resize) {
+            this.owner = owner;
+            this.requestedWeight = requestedWeight;
+            this.resize = resize;
+        }
+
+        public long getRequestedWeight() {
+            return requestedWeight;
+        }
+
+        /**
+         * @return the weight currently granted to the cache
+         */
+        public long getWeight() {
+            synchronized (CacheWeightBudget.this) {
+                return weight;
+            }
+        }
+
+        /**
+         * Returns the weight to the budget, where it is divided among the
+         * remaining caches.
+         */
+        public void release() {
+            CacheWeightBudget.this.release(this);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * {@link InvalidationTransport} based on journal files in a directory which
+ * is shared by all platform nodes (e.g. a network file system).
+ *
+ * <p>
+ * Every node appends its events to its own journal file
+ * (<code>[nodeId]-[generation].journal</code>), such that no file is written
+ * concurrently by several nodes, and periodically reads the lines that have
+ * been appended to the journals of all other nodes. Journals which exist
+ * when the transport is started are only read from their current end, i.e.
+ * history is not replayed. Once a journal exceeds the maximum size, the node
+ * continues with a new generation; the previous generation is kept until the
+ * next rotation, such that peers can read its remaining events. Journals which
+ * have not been modified for a day are deleted on startup.
+ * </p>
+ */
+public class FileJournalInvalidationTransport implements InvalidationTransport {
+    private static final Logger logger = LogManager.getLogger(FileJournalInvalidationTransport.class);
+
+    private static final String SUFFIX = ".journal";
+    private static final long STALE_JOURNAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final File directory;
+    private final long pollIntervalMillis;
+    private final long maxJournalBytes;
+
+    private final ScheduledExecutorService pollExecutor = Executors.newSingleThreadScheduledExecutor(
+        new ThreadFactoryBuilder().setNameFormat("cache-invalidation-journal-%d").setDaemon(true).build());
+
+    /**
+     * Read offsets of the journals of peer nodes by file name.
+     */
+    private final Map<String, Long> offsets = new HashMap<>();
+
+    private String nodeId;
+    private Consumer<List<InvalidationEvent>> listener;
+    private int generation = 0;
+
+    public FileJournalInvalidationTransport(File directory, long pollIntervalMillis, long maxJournalBytes) {
+        this.directory = directory;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.maxJournalBytes = maxJournalBytes;
+    }
+
+    @Override
+    public synchronized void start(String nodeId, Consumer<List<InvalidationEvent>> listener) {
+        this.nodeId = nodeId;
+        this.listener = listener;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Failed to create cache invalidation journal directory " + directory);
+        }
+        long now = System.currentTimeMillis();
+        for (File journal : listJournals()) {
+            if (now - journal.lastModified() > STALE_JOURNAL_MILLIS) {
+                logger.debug("Deleting stale cache invalidation journal {}", journal);
+                journal.delete();
+            } else {
+                offsets.put(journal.getName(), journal.length());
+            }
+        }
+        logger.info("Exchanging cache invalidations with peer nodes through {}", directory);
+        pollExecutor.scheduleWithFixedDelay(this::pollSafely, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void publish(List<InvalidationEvent> events) {
+        StringBuilder lines = new StringBuilder();
+        for (InvalidationEvent event : events) {
+            lines.append(event.toLine()).append('\n');
+        }
+        File journal = getJournal(generation);
+        try (OutputStream out = new FileOutputStream(journal, true)) {
+            out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            logger.warn("Failed to write cache invalidation journal {}: {}", journal, e.getMessage());
+            return;
+        }
+        if (journal.length() > maxJournalBytes) {
+            // peers still read the remaining events of the previous generation
+            getJournal(generation - 1).delete();
+            generation++;
+        }
+    }
+
+    @Override
+    public void close() {
+        pollExecutor.shutdownNow();
+    }
+
+    private File getJournal(int generation) {
+        return new File(directory, nodeId + "-" + generation + SUFFIX);
+    }
+
+    private List<File> listJournals() {
+        File[] journals = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        List<File> result = new ArrayList<>();
+        if (journals != null) {
+            for (File journal : journals) {
+                result.add(journal);
+            }
+        }
+        return result;
+    }
+
+    private void pollSafely() {
+        try {
+            poll();
+        } catch (Exception e) {
+            logger.warn("Failed to read cache invalidation journals: {}", e.getMessage());
+            logger.debug("Details:", e);
+        }
+    }
+
+    /**
+     * Reads all complete lines which have been appended to the journals of
+     * the peer nodes since the last poll and passes them to the listener.
+     */
+    synchronized void poll() throws IOException {
+        List<InvalidationEvent> events = new ArrayList<>();
+        Map<String, Long> current = new HashMap<>();
+        for (File journal : listJournals()) {
+            String name = journal.getName();
+            if (name.startsWith(nodeId + "-")) {
+                continue;
+            }
+            // journals created after startup are read from the beginning
+            long offset = offsets.getOrDefault(name, 0L);
+            try {
+                current.put(name, readJournal(journal, offset, events));
+            } catch (FileNotFoundException e) {
+                // journal has been deleted in the meantime
+            }
+        }
+        offsets.clear();
+        offsets.putAll(current);
+        if (!events.isEmpty()) {
+            listener.accept(events);
+        }
+    }
+
+    /**
+     * @return the offset up to which the journal has been read
+     */
+    private long readJournal(File journal, long offset, List<InvalidationEvent> events) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(journal, "r")) {
+            long length = file.length();
+            if (length <= offset) {
+                return length < offset ? 0 : offset;
+            }
+            byte[] bytes = new byte[(int) (length - offset)];
+            file.seek(offset);
+            file.readFully(bytes);
+
+            // only consume complete lines, the last one might still be written
+            int end = bytes.length;
+            while (end > 0 && bytes[end - 1] != '\n') {
+                end--;
+            }
+            String content = new String(bytes, 0, end, StandardCharsets.UTF_8);
+            for (String line : content.split("\n")) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    events.add(InvalidationEvent.parse(line));
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Skipping malformed line in cache invalidation journal {}: {}", journal, e.getMessage());
+                }
+            }
+            return offset + end;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import java.util.List;
+
+import org.eclipse.rdf4j.model.IRI;
+
+import com.google.common.cache.Cache;
+
+/**
+ * Exposes a plain Guava cache, whose entries do not depend on individual
+ * resources (e.g. per-repository service instances), as {@link PlatformCache},
+ * such that it can be invalidated and its statistics can be reported.
+ * The cache should be built with <code>recordStats()</code>.
+ */
+public class GuavaPlatformCache implements PlatformCache {
+    private final String id;
+    private final Cache<?, ?> cache;
+
+    public GuavaPlatformCache(String id, Cache<?, ?> cache) {
+        this.id = id;
+        this.cache = cache;
+    }
+
+    @Override
+    public void invalidate() {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public void invalidate(List<IRI> iris) {
+        // entries do not depend on individual resources
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public PlatformCacheStats getStats() {
+        return PlatformCacheStats.of(cache.stats(), cache.size(), PlatformCacheStats.UNKNOWN_WEIGHT);
+    }
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Immutable cache invalidation event which is exchanged between platform
+ * nodes through the {@link CacheInvalidationBus}. An event either purges
+ * specific resources or invalidates caches as a whole, and either targets a
+ * single cache (by its {@link PlatformCache#getId() ID}) or all caches.
+ *
+ * <p>
+ * Events are serialized as a single line of tab separated fields
+ * <code>origin, sequence, cacheId (or *), resources (space separated,
+ * empty to invalidate everything)</code>.
+ * </p>
+ */
+public final class InvalidationEvent {
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final String ALL_CACHES = "*";
+
+    private final String origin;
+    private final long sequence;
+    private final Optional<String> cacheId;
+    private final List<IRI> resources;
+
+    public InvalidationEvent(String origin, long sequence, Optional<String> cacheId, Collection<IRI> resources) {
+        this.origin = origin;
+        this.sequence = sequence;
+        this.cacheId = cacheId;
+        this.resources = ImmutableList.copyOf(resources);
+    }
+
+    /**
+     * @return ID of the node the event has been published by
+     */
+    public String getOrigin() {
+        return origin;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return globally unique ID of the event, used for de-duplication
+     */
+    public String getId() {
+        return origin + ":" + sequence;
+    }
+
+    /**
+     * @return ID of the cache to invalidate or empty to invalidate all caches
+     */
+    public Optional<String> getCacheId() {
+        return cacheId;
+    }
+
+    /**
+     * @return resources to purge; empty if the caches are to be invalidated completely
+     */
+    public List<IRI> getResources() {
+        return resources;
+    }
+
+    public boolean isInvalidateAll() {
+        return resources.isEmpty();
+    }
+
+    public String toLine() {
+        StringBuilder line = new StringBuilder()
+            .append(origin).append('\t')
+            .append(sequence).append('\t')
+            .append(cacheId.orElse(ALL_CACHES)).append('\t');
+        for (int i = 0; i < resources.size(); i++) {
+            if (i > 0) {
+                line.append(' ');
+            }
+            line.append(resources.get(i).stringValue());
+        }
+        return line.toString();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the line is not a serialized event
+     */
+    public static InvalidationEvent parse(String line) {
+        List<String> fields = Splitter.on('\t').splitToList(line);
+        if (fields.size() != 4) {
+            throw new IllegalArgumentException("Malformed invalidation event: " + line);
+        }
+        List<IRI> resources = new ArrayList<>();
+        for (String iri : Splitter.on(' ').omitEmptyStrings().split(fields.get(3))) {
+            resources.add(vf.createIRI(iri));
+        }
+        String cacheId = fields.get(2);
+        try {
+            return new InvalidationEvent(
+                fields.get(0), Long.parseLong(fields.get(1)),
+                ALL_CACHES.equals(cacheId) ? Optional.empty() : Optional.of(cacheId), resources);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed invalidation event: " + line, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "InvalidationEvent{" + getId() + ", cache=" + cacheId.orElse(ALL_CACHES)
+            + ", resources=" + (isInvalidateAll() ? "all" : resources.size()) + "}";
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Transport which delivers {@link InvalidationEvent}s of the local node to
+ * all peer nodes and vice versa. Transports do not need to guarantee
+ * exactly-once delivery, as the {@link CacheInvalidationBus} ignores
+ * duplicates and events of its own node.
+ */
+public interface InvalidationTransport {
+
+    /**
+     * Starts receiving events of peer nodes.
+     *
+     * @param nodeId ID of the local node
+     * @param listener called with batches of received events
+     */
+    void start(String nodeId, Consumer<List<InvalidationEvent>> listener);
+
+    /**
+     * Delivers the events to all peer nodes.
+     */
+    void publish(List<InvalidationEvent> events);
+
+    /**
+     * Stops receiving events and releases all resources.
+     */
+    void close();
+}
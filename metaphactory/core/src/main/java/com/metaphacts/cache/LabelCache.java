@@ -20,7 +20,6 @@
 
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -51,6 +50,12 @@
  * {@link LabelCache#resolveLabelWithFallback(Optional, IRI)} in order to
  * safely get a display string for a given Optional + the IRI.
  *
+ * <p>
+ * The cache stores all label candidates of a resource (see {@link LabelCandidates}),
+ * such that labels for arbitrary {@link LanguageProfile}s can be served without
+ * re-querying the repository.
+ * </p>
+ *
  * @author Johannes Trame <jt@metaphacts.com>
  * @author Michael Schmidt <ms@metaphacts.com>
  *
@@ -61,192 +66,145 @@ public class LabelCache {
     private Configuration config;
     private RepositoryManager repositoryManager;
 
-    private ResourcePropertyCache<Literal> cache = new ResourcePropertyCache<Literal>("LabelCache") {
-        /**
-         * Extracts the preferred labels for a given IRI according to the specs
-         * in {@link UIConfiguration#getPreferredLabels()} and
-         * {@link UIConfiguration#getPreferredLanguages()}.
-         *
-         * @param repository the repository in which the label is extracted
-         * @param iris the IRIs for which the label is extracted
-         * @return the list of preferred literals, where index positions correspond
-         *          to the index positions of the labels in the incoming list
-         */
-        @Override
-        protected Map<IRI, Optional<Literal>> queryAll(Repository repository, Iterable<? extends IRI> iris) {
-            // note: preferredLabels must not be empty by check in UIConfiguration.assertConsistency()
-
-            // short path: if there are no IRIs to be looked up, return the empty map
-            if (Iterables.isEmpty(iris)) {
-                return Collections.emptyMap();
-            }
-
-            try {
-                // convert to IRI list (filtering out invalid IRIs)
-                List<IRI> preferredLabels = resolveIRIList(ns, config.getUiConfig().getPreferredLabels());
-
-                String queryString = constructPropertyQuery(iris, preferredLabels);
+    private final ResourcePropertyCache<LabelCandidates> cache;
 
-                // for each input IRI we map to a list of lists of literal, where
-                // (1) the outer list represents the predicate index and
-                // (2) the inner list contains the labels for this predicate index
-                // -> note this is done in a single pass (linear time & space w.r.t. result_
-                Map<IRI, List<List<Literal>>> iriToListList = queryAndExtractProperties(
-                    repository, queryString, preferredLabels.size(),
-                    value -> value instanceof Literal ? Optional.of((Literal)value) : Optional.empty());
-
-                // next, we flatten the inner list of list structure into one continuous list,
-                // making sure that we have one entry per IRI
-                Map<IRI, List<Literal>> iriToList = new HashMap<>();
-                for (IRI iri : iris) {
-                    List<List<Literal>> values = iriToListList.get(iri);
-                    iriToList.put(iri, flattenProperties(values));
-                }
-
-                // extract the preferred literals based on language tag information
-                return chooseLabelsWithPreferredLanguage(iriToList);
-
-            } catch (Exception e) {
-                throw new RuntimeException("Failed to query for label of IRI(s).", e);
-            }
-        }
-    };
+    private volatile LanguageProfile defaultLanguageProfile = LanguageProfile.of(Collections.emptyList());
 
     @Inject
     public LabelCache(
         Configuration config,
         NamespaceRegistry ns,
         RepositoryManager repositoryManager,
-        CacheManager cacheManager
+        CacheManager cacheManager,
+        CacheWeightBudget cacheWeightBudget,
+        CacheSnapshotStore cacheSnapshotStore
     ) {
         this.config = config;
         this.ns = ns;
         this.repositoryManager = repositoryManager;
+        this.cache = new ResourcePropertyCache<LabelCandidates>(
+            "LabelCache", config, repositoryManager, cacheWeightBudget, cacheSnapshotStore) {
+            /**
+             * Extracts the label candidates for a given IRI according to the specs
+             * in {@link UIConfiguration#getPreferredLabels()}.
+             *
+             * @param repository the repository in which the label is extracted
+             * @param iris the IRIs for which the label is extracted
+             * @return the label candidates per IRI
+             */
+            @Override
+            protected Map<IRI, Optional<LabelCandidates>> queryAll(Repository repository, Iterable<? extends IRI> iris) {
+                // note: preferredLabels must not be empty by check in UIConfiguration.assertConsistency()
+
+                // short path: if there are no IRIs to be looked up, return the empty map
+                if (Iterables.isEmpty(iris)) {
+                    return Collections.emptyMap();
+                }
+
+                try {
+                    // convert to IRI list (filtering out invalid IRIs)
+                    List<IRI> preferredLabels = resolveIRIList(ns, config.getUiConfig().getPreferredLabels());
+
+                    String queryString = constructPropertyQuery(iris, preferredLabels);
+
+                    // for each input IRI we map to a list of lists of literal, where
+                    // (1) the outer list represents the predicate index and
+                    // (2) the inner list contains the labels for this predicate index
+                    // -> note this is done in a single pass (linear time & space w.r.t. result_
+                    Map<IRI, List<List<Literal>>> iriToListList = queryAndExtractProperties(
+                        repository, queryString, preferredLabels.size(),
+                        value -> value instanceof Literal ? Optional.of((Literal)value) : Optional.empty());
+
+                    // next, we flatten the inner list of list structure into one continuous list
+                    // (ordered by predicate index), making sure that we have one entry per IRI
+                    Map<IRI, Optional<LabelCandidates>> iriToCandidates = new HashMap<>();
+                    for (IRI iri : iris) {
+                        List<Literal> labels = flattenProperties(iriToListList.get(iri));
+                        iriToCandidates.put(iri,
+                            labels.isEmpty() ? Optional.empty() : Optional.of(LabelCandidates.of(labels)));
+                    }
+                    return iriToCandidates;
+
+                } catch (Exception e) {
+                    throw new RuntimeException("Failed to query for label of IRI(s).", e);
+                }
+            }
+
+            @Override
+            protected String getSnapshotFingerprint() {
+                return config.getUiConfig().getPreferredLabels().toString();
+            }
+        };
         cacheManager.register(cache);
     }
 
     /**
-     * Extracts label of specified resource from specified repository.
+     * Extracts label of specified resource from specified repository,
+     * according to the {@link #getDefaultLanguageProfile() default language profile}.
      *
      * @param resourceIri IRI of resource to extract label for.
      * @return Label of resource if found in the specified repository;
      * otherwise {@link Optional#empty}.
      */
     public Optional<Literal> getLabel(IRI resourceIri, Repository repository) {
-        return getLabels(Collections.singletonList(resourceIri), repository).get(resourceIri);
+        return getLabel(resourceIri, repository, getDefaultLanguageProfile());
     }
 
     /**
-     * Extracts labels of specified resources from specified repository.
+     * Extracts label of specified resource from specified repository,
+     * according to the given language profile.
+     *
+     * @param resourceIri IRI of resource to extract label for.
+     * @return Label of resource if found in the specified repository;
+     * otherwise {@link Optional#empty}.
+     */
+    public Optional<Literal> getLabel(IRI resourceIri, Repository repository, LanguageProfile languageProfile) {
+        return getLabels(Collections.singletonList(resourceIri), repository, languageProfile).get(resourceIri);
+    }
+
+    /**
+     * Extracts labels of specified resources from specified repository,
+     * according to the {@link #getDefaultLanguageProfile() default language profile}.
      *
      * @param resourceIris IRIs of resources to extract labels for.
-     * @return Immutable map from IRI to label. If label was not found
+     * @return Map from IRI to label. If label was not found
      * it would be still present as {@link Optional#empty}.
      */
     public Map<IRI, Optional<Literal>> getLabels(Iterable<? extends IRI> resourceIris, Repository repository) {
-        return cache.getAll(repository, resourceIris);
+        return getLabels(resourceIris, repository, getDefaultLanguageProfile());
     }
 
     /**
-     * Wrapper that applies chooseLabelWithPreferredLanguage method to every member
-     * of a literal list list, reducing each of the list to the literal with the best
-     * matching label.
+     * Extracts labels of specified resources from specified repository,
+     * according to the given language profile.
+     *
+     * @param resourceIris IRIs of resources to extract labels for.
+     * @return Map from IRI to label. If label was not found
+     * it would be still present as {@link Optional#empty}.
      */
-    private Map<IRI, Optional<Literal>> chooseLabelsWithPreferredLanguage(
-        final Map<IRI,List<Literal>> labelCandidatesMap) {
-
-        final Map<IRI,Optional<Literal>> labelMap = new HashMap<>(labelCandidatesMap.size());
-
-        for (final IRI key : labelCandidatesMap.keySet()) {
-
-            labelMap.put(key, chooseLabelWithPreferredLanguage(labelCandidatesMap.get(key)));
+    public Map<IRI, Optional<Literal>> getLabels(
+        Iterable<? extends IRI> resourceIris, Repository repository, LanguageProfile languageProfile
+    ) {
+        final Map<IRI, Optional<LabelCandidates>> candidates = cache.getAll(repository, resourceIris);
+        final Map<IRI, Optional<Literal>> labels = new HashMap<>(candidates.size());
+        for (Map.Entry<IRI, Optional<LabelCandidates>> entry : candidates.entrySet()) {
+            labels.put(entry.getKey(), languageProfile.chooseLabel(entry.getValue()));
         }
-
-        return labelMap;
+        return labels;
     }
 
-
     /**
-     * Chooses, from the incoming list of literals the label with the preferred
-     * language as per {@link UIConfiguration#getPreferredLanguages()}. The
-     * choice is defined by the following algorithm:
-     *
-     * 1.) We iterate over the preferred languages in order. The first literal
-     * in the list matching the current language literal is returned.
-     *
-     * 2.) If no hash map entry exists for any of the preferred languages, as
-     * a fall back solution we return a non-language tag literal, if present
-     * (as we assume this to be most specific).
-     *
-     * 3.) If if no such label exists, we return the first one (thus making a
-     * non-deterministic) random choice.
-     *
-     * 4.) If no label exists at all, null is returned.
-     *
-     * @return the most appropriate literal in the list according to the
-     *          preferred language configuration
+     * @return the language profile as per {@link UIConfiguration#getPreferredLanguages()}
      */
-    private Optional<Literal> chooseLabelWithPreferredLanguage(List<Literal> labels) {
-
-        if (labels.isEmpty()) { // fast path: no labels detected
-            return Optional.empty();
+    public LanguageProfile getDefaultLanguageProfile() {
+        final List<String> preferredLanguages = config.getUiConfig().getPreferredLanguages();
+        LanguageProfile profile = defaultLanguageProfile;
+        if (!profile.getLanguages().equals(preferredLanguages)) {
+            // configuration has been changed (or not been read yet)
+            profile = LanguageProfile.of(preferredLanguages);
+            defaultLanguageProfile = profile;
         }
-
-        final Iterator<String> languageIt = config.getUiConfig().getPreferredLanguages().iterator();
-
-        final Map<String, Integer> languageToRank = new HashMap<String,Integer>();
-
-        Integer rank = 0; // lower rank means better, best rank is zero
-        while (languageIt.hasNext()) {
-
-            final String language = languageIt.next();
-
-            if (!languageToRank.containsKey(language)) { // filters out duplicate
-
-                languageToRank.put(language, rank++);
-            }
-        }
-
-        // as a fallback, watch out for non-language tagged literals (which are
-        // identified by the empty string ""); note that we only use this as
-        // a fallback if the empty string is not explicitly a member of the
-        // preferredLanguages configuration
-        if (!languageToRank.containsKey("")) {
-
-            languageToRank.put("", rank++);
-
-        }
-
-        Literal bestObserved = null;                // init: none
-        int bestObservedRank = Integer.MAX_VALUE;   // init: none
-        for (int i=0; i<labels.size(); i++) {
-
-            final Literal label = labels.get(i);
-
-            final Optional<String> language = label.getLanguage();
-
-            final String languageNonOptional =
-                language.isPresent() ? language.get() : "";
-
-            final int curRank =
-                languageToRank.containsKey(languageNonOptional) ?
-                languageToRank.get(languageNonOptional) : Integer.MAX_VALUE-1 /* better than uninitialized*/;
-
-            if (curRank==0) { // optimal match found
-
-                return Optional.of(label);
-
-            } else if (curRank<bestObservedRank) { // remember best match thus far
-
-                bestObservedRank = curRank;
-                bestObserved = label;
-
-            } // else: continue scanning
-
-        }
-
-        return Optional.ofNullable(bestObserved); // no optimal match
-
+        return profile;
     }
 
     /**
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.rdf4j.model.Literal;
+
+import com.google.common.collect.Iterators;
+
+/**
+ * All label literals of a single resource, ordered by the index of their
+ * predicate in {@link com.metaphacts.config.groups.UIConfiguration#getPreferredLabels()}.
+ * The language tags are extracted once, such that a {@link LanguageProfile}
+ * can choose a label without any allocation.
+ */
+public final class LabelCandidates implements Iterable<Literal> {
+
+    private final Literal[] labels;
+
+    /**
+     * Language tag of the label at the same index; the empty string for
+     * literals without language tag.
+     */
+    private final String[] languages;
+
+    private LabelCandidates(Literal[] labels) {
+        this.labels = labels;
+        this.languages = new String[labels.length];
+        for (int i = 0; i < labels.length; i++) {
+            // language tags are shared by a large number of labels
+            languages[i] = labels[i].getLanguage().orElse("").intern();
+        }
+    }
+
+    public static LabelCandidates of(List<Literal> labels) {
+        return new LabelCandidates(labels.toArray(new Literal[labels.size()]));
+    }
+
+    public int size() {
+        return labels.length;
+    }
+
+    public Literal getLabel(int index) {
+        return labels[index];
+    }
+
+    String getLanguage(int index) {
+        return languages[index];
+    }
+
+    @Override
+    public Iterator<Literal> iterator() {
+        return Iterators.forArray(labels);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import org.eclipse.rdf4j.model.Literal;
+
+import com.google.common.collect.ImmutableList;
+import com.metaphacts.config.ConfigurationUtil;
+import com.metaphacts.config.groups.UIConfiguration;
+
+/**
+ * Precompiled, immutable ranking of language tags which is used to choose
+ * the best matching label from the {@link LabelCandidates} of a resource.
+ * The choice is defined by the following algorithm:
+ *
+ * 1.) The first candidate whose language tag is ranked best is returned,
+ * i.e. the preferred languages are considered in order.
+ *
+ * 2.) If no candidate matches any of the preferred languages, as a fall back
+ * solution a non-language tag literal is returned, if present (as we assume
+ * this to be most specific). Note that this fallback is only applied if the
+ * empty language tag is not explicitly ranked.
+ *
+ * 3.) If no such label exists, the first candidate is returned.
+ *
+ * @see UIConfiguration#getPreferredLanguages()
+ */
+public final class LanguageProfile {
+
+    private static final String NO_LANGUAGE = "";
+
+    private final List<String> languages;
+
+    /**
+     * Distinct language tags in order of preference (best first), including
+     * the fallback for non-language tagged literals.
+     */
+    private final String[] rankedLanguages;
+
+    private LanguageProfile(List<String> languages) {
+        this.languages = ImmutableList.copyOf(languages);
+
+        Set<String> ranked = new LinkedHashSet<>(languages);
+        ranked.add(NO_LANGUAGE);
+        this.rankedLanguages = ranked.toArray(new String[ranked.size()]);
+    }
+
+    /**
+     * @param preferredLanguages language tags in order of preference; the
+     *        empty string denotes literals without language tag
+     */
+    public static LanguageProfile of(List<String> preferredLanguages) {
+        return new LanguageProfile(preferredLanguages);
+    }
+
+    /**
+     * @param preferredLanguages comma separated list of language tags in order
+     *        of preference, e.g. <code>de,en</code>
+     */
+    public static LanguageProfile parse(String preferredLanguages) {
+        return new LanguageProfile(ConfigurationUtil.configValueAsList(preferredLanguages));
+    }
+
+    /**
+     * @return the language tags this profile has been created from
+     */
+    public List<String> getLanguages() {
+        return languages;
+    }
+
+    /**
+     * Chooses the best matching label from the candidates.
+     */
+    public Optional<Literal> chooseLabel(Optional<LabelCandidates> candidates) {
+        return candidates.isPresent() ? Optional.ofNullable(select(candidates.get())) : Optional.empty();
+    }
+
+    /**
+     * @return the best matching candidate or <code>null</code> if there are no candidates
+     */
+    Literal select(LabelCandidates candidates) {
+        Literal bestObserved = null;
+        int bestObservedRank = Integer.MAX_VALUE;
+        for (int i = 0; i < candidates.size(); i++) {
+            final int rank = rank(candidates.getLanguage(i));
+            if (rank == 0) { // optimal match found
+                return candidates.getLabel(i);
+            } else if (rank < bestObservedRank) { // remember best match thus far
+                bestObservedRank = rank;
+                bestObserved = candidates.getLabel(i);
+            }
+        }
+        return bestObserved;
+    }
+
+    /**
+     * @return the rank of the language tag, lower is better; languages which
+     *         are not ranked explicitly are ranked worst
+     */
+    private int rank(String language) {
+        for (int i = 0; i < rankedLanguages.length; i++) {
+            if (rankedLanguages[i].equals(language)) {
+                return i;
+            }
+        }
+        return rankedLanguages.length;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof LanguageProfile && languages.equals(((LanguageProfile) o).languages);
+    }
+
+    @Override
+    public int hashCode() {
+        return languages.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return languages.toString();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * In-JVM {@link InvalidationTransport}, which synchronously delivers events
+ * to all other transports connected to the same {@link Hub}. Mainly intended
+ * for tests simulating several platform nodes.
+ */
+public class LoopbackInvalidationTransport implements InvalidationTransport {
+
+    /**
+     * Connects a group of loopback transports.
+     */
+    public static class Hub {
+        private final List<LoopbackInvalidationTransport> transports = new CopyOnWriteArrayList<>();
+    }
+
+    private final Hub hub;
+    private volatile Consumer<List<InvalidationEvent>> listener;
+
+    public LoopbackInvalidationTransport(Hub hub) {
+        this.hub = hub;
+    }
+
+    @Override
+    public void start(String nodeId, Consumer<List<InvalidationEvent>> listener) {
+        this.listener = listener;
+        hub.transports.add(this);
+    }
+
+    @Override
+    public void publish(List<InvalidationEvent> events) {
+        for (LoopbackInvalidationTransport transport : hub.transports) {
+            Consumer<List<InvalidationEvent>> peer = transport.listener;
+            if (transport != this && peer != null) {
+                peer.accept(events);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        hub.transports.remove(this);
+        listener = null;
+    }
+}
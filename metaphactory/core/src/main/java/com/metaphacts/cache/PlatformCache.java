@@ -20,7 +20,9 @@
 
 import org.eclipse.rdf4j.model.IRI;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 /**
  * @author Michael Schmidt <ms@metaphacts.com>
@@ -31,4 +33,19 @@ public interface PlatformCache {
     void invalidate(List<IRI> iris);
 
     String getId();
+
+    /**
+     * @return snapshot of the statistics of this cache
+     */
+    default PlatformCacheStats getStats() {
+        return PlatformCacheStats.EMPTY;
+    }
+
+    /**
+     * @return snapshots of the statistics by repository ID, for caches which
+     *         are maintained per repository
+     */
+    default Map<String, PlatformCacheStats> getRepositoryStats() {
+        return Collections.emptyMap();
+    }
 }
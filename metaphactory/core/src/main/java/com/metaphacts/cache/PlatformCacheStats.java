@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.CacheStats;
+
+/**
+ * Immutable snapshot of the statistics of a {@link PlatformCache}, i.e. the
+ * counters of Guava's {@link CacheStats} together with the current size and
+ * the estimated weight of the cache.
+ */
+public final class PlatformCacheStats {
+
+    /**
+     * Weight of caches which do not estimate the weight of their entries.
+     */
+    public static final long UNKNOWN_WEIGHT = -1;
+
+    public static final PlatformCacheStats EMPTY = new PlatformCacheStats(0, 0, 0, 0, 0, 0, 0, 0);
+
+    private final long hitCount;
+    private final long missCount;
+    private final long loadSuccessCount;
+    private final long loadExceptionCount;
+    private final long totalLoadTime;
+    private final long evictionCount;
+    private final long size;
+    private final long weight;
+
+    public PlatformCacheStats(
+        long hitCount, long missCount, long loadSuccessCount, long loadExceptionCount,
+        long totalLoadTime, long evictionCount, long size, long weight
+    ) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.loadSuccessCount = loadSuccessCount;
+        this.loadExceptionCount = loadExceptionCount;
+        this.totalLoadTime = totalLoadTime;
+        this.evictionCount = evictionCount;
+        this.size = size;
+        this.weight = weight;
+    }
+
+    /**
+     * @param stats statistics of a Guava cache built with <code>recordStats()</code>
+     * @param size current number of entries
+     * @param weight estimated weight of all entries in bytes or {@link #UNKNOWN_WEIGHT}
+     */
+    public static PlatformCacheStats of(CacheStats stats, long size, long weight) {
+        return new PlatformCacheStats(
+            stats.hitCount(), stats.missCount(), stats.loadSuccessCount(), stats.loadExceptionCount(),
+            stats.totalLoadTime(), stats.evictionCount(), size, weight);
+    }
+
+    /**
+     * @return sum of both statistics; the weight is unknown if either one is unknown
+     */
+    public PlatformCacheStats plus(PlatformCacheStats other) {
+        return new PlatformCacheStats(
+            hitCount + other.hitCount,
+            missCount + other.missCount,
+            loadSuccessCount + other.loadSuccessCount,
+            loadExceptionCount + other.loadExceptionCount,
+            totalLoadTime + other.totalLoadTime,
+            evictionCount + other.evictionCount,
+            size + other.size,
+            weight == UNKNOWN_WEIGHT || other.weight == UNKNOWN_WEIGHT ? UNKNOWN_WEIGHT : weight + other.weight);
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * @return ratio of requests which have been served from the cache or
+     *         <code>1.0</code> if there have not been any requests
+     */
+    public double getHitRate() {
+        long requestCount = hitCount + missCount;
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    public long getLoadSuccessCount() {
+        return loadSuccessCount;
+    }
+
+    public long getLoadExceptionCount() {
+        return loadExceptionCount;
+    }
+
+    /**
+     * @return total time spent loading values in nanoseconds
+     */
+    public long getTotalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /**
+     * @return average time spent loading a value in milliseconds
+     */
+    public double getAverageLoadPenaltyMillis() {
+        long loadCount = loadSuccessCount + loadExceptionCount;
+        return loadCount == 0 ? 0 : (double) totalLoadTime / loadCount / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    /**
+     * @return number of entries which have been evicted due to size or expiry
+     *         constraints; explicit invalidations are not counted
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return estimated weight of all entries in bytes or {@link #UNKNOWN_WEIGHT}
+     */
+    public long getWeight() {
+        return weight;
+    }
+
+    @Override
+    public String toString() {
+        return "PlatformCacheStats{hitCount=" + hitCount + ", missCount=" + missCount
+            + ", loadSuccessCount=" + loadSuccessCount + ", loadExceptionCount=" + loadExceptionCount
+            + ", totalLoadTime=" + totalLoadTime + ", evictionCount=" + evictionCount
+            + ", size=" + size + ", weight=" + weight + "}";
+    }
+}
@@ -22,14 +22,24 @@
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.metaphacts.api.sparql.SparqlOperationBuilder;
+import com.metaphacts.config.Configuration;
 import com.metaphacts.config.NamespaceRegistry;
+import com.metaphacts.config.groups.UIConfiguration;
+import com.metaphacts.repository.RepositoryManager;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
 import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.TupleQuery;
@@ -37,16 +47,52 @@
 import org.eclipse.rdf4j.repository.Repository;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 
+import java.lang.ref.WeakReference;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.function.LongFunction;
 import java.util.stream.Collectors;
 
 /**
  * Cache with extraction logic for batched access to some property of a resource.
  * (?subject ?predicate ?object) triple corresponds to (resource property property-value).
  *
+ * <p>
+ * For every repository a separate cache is maintained, whose maximum weight and
+ * expiry times are configured per cache and repository via {@link UIConfiguration}.
+ * Entries are weighted by the (estimated) heap size of the cached property values
+ * and the maximum weights of all caches are granted by the shared
+ * {@link CacheWeightBudget}, which divides the budget among the caches in
+ * use and resizes them as caches are created and discarded.
+ * </p>
+ *
+ * <p>
+ * Optionally, entries are refreshed asynchronously some time after they have
+ * been loaded (see {@link UIConfiguration#getCacheRefreshAfterWriteMinutes(String, String)}).
+ * While an entry is being refreshed, the stale value is served. Pending refreshes
+ * are collected for a short time and reloaded with a single query.
+ * </p>
+ *
+ * <p>
+ * Bulk loads of many resources are split into chunks (see
+ * {@link UIConfiguration#getCacheBulkLoadChunkSize(String, String)}), which are
+ * loaded concurrently with a limited parallelism per repository and put into
+ * the cache as soon as they have been loaded.
+ * </p>
+ *
+ * <p>
+ * If a {@link CacheSnapshotStore} is given, the cache contents are persisted
+ * to disk and restored when the cache for a repository is created.
+ * </p>
+ *
  * @param <Property> Type of cached property value (e.g. IRI or Literal).
  * 
  * @author Michael Schmidt <ms@metaphacts.com>
@@ -55,12 +101,108 @@
 public abstract class ResourcePropertyCache<Property> implements PlatformCache {
     protected final Logger logger = LogManager.getLogger(this);
 
-    private final Map<Repository, LoadingCache<IRI, Optional<Property>>> repositoryMap  = Maps.newConcurrentMap();
+    /**
+     * Rough estimate of the heap overhead per cache entry (entry object,
+     * references, Optional wrapper) in bytes.
+     */
+    private static final int ENTRY_OVERHEAD = 64;
+    /**
+     * Rough estimate of the heap overhead per RDF value object in bytes.
+     */
+    private static final int VALUE_OVERHEAD = 40;
+
+    /**
+     * Time (in milliseconds) to collect pending refreshes before they are
+     * reloaded in a single batch.
+     */
+    private static final long REFRESH_BATCH_DELAY_MS = 50;
+
+    /**
+     * Maximum time (in seconds) to wait for an identical load which is
+     * already in progress.
+     */
+    private static final long SINGLE_FLIGHT_TIMEOUT_SECONDS = 60;
+
+    /**
+     * Executor for asynchronous refreshes, shared by all caches.
+     */
+    private static final ScheduledExecutorService refreshExecutor = Executors.newScheduledThreadPool(
+        2, new ThreadFactoryBuilder().setNameFormat("cache-refresh-%d").setDaemon(true).build());
+
+    /**
+     * Number of threads loading chunks of bulk loads, shared by all caches.
+     */
+    private static final int BULK_LOAD_THREADS = 8;
+
+    /**
+     * Executor for loading chunks of bulk loads, shared by all caches.
+     */
+    private static final ExecutorService bulkLoadExecutor = Executors.newFixedThreadPool(
+        BULK_LOAD_THREADS, new ThreadFactoryBuilder().setNameFormat("cache-bulk-load-%d").setDaemon(true).build());
+
+    /**
+     * Key of the statistics of repositories which are not managed by the
+     * {@link RepositoryManager}, see {@link #getRepositoryStats()}.
+     */
+    public static final String UNMANAGED_REPOSITORY_ID = "<unmanaged>";
 
     private final String cacheId;
+    private final Configuration config;
+    private final RepositoryManager repositoryManager;
+    private final CacheWeightBudget budget;
+    private final CacheSnapshotStore snapshotStore;
 
-    public ResourcePropertyCache(String cacheId) {
+    /**
+     * Per-repository caches; repositories are weakly referenced, such that
+     * caches of repositories which have been shut down and discarded are
+     * dropped and their weight is returned to the budget.
+     */
+    private final Cache<Repository, RepositoryCache<Property>> repositoryCaches;
+
+    /**
+     * Loads which are currently in flight, keyed by repository and resources.
+     */
+    private final SingleFlight<List<Object>, Map<IRI, Optional<Property>>> inFlightQueries =
+        new SingleFlight<>(SINGLE_FLIGHT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+
+    private final AtomicLong refreshCount = new AtomicLong();
+    private final AtomicLong refreshFailureCount = new AtomicLong();
+    private final AtomicLong refreshBatchCount = new AtomicLong();
+    private final AtomicLong totalRefreshTimeNanos = new AtomicLong();
+
+    public ResourcePropertyCache(
+        String cacheId,
+        Configuration config,
+        RepositoryManager repositoryManager,
+        CacheWeightBudget budget
+    ) {
+        this(cacheId, config, repositoryManager, budget, null);
+    }
+
+    /**
+     * @param snapshotStore store to persist the cache contents in,
+     *        may be <code>null</code>
+     */
+    public ResourcePropertyCache(
+        String cacheId,
+        Configuration config,
+        RepositoryManager repositoryManager,
+        CacheWeightBudget budget,
+        CacheSnapshotStore snapshotStore
+    ) {
         this.cacheId = cacheId;
+        this.config = config;
+        this.repositoryManager = repositoryManager;
+        this.budget = budget;
+        this.snapshotStore = snapshotStore;
+        this.repositoryCaches = CacheBuilder.newBuilder()
+            .weakKeys()
+            .removalListener((RemovalListener<Repository, RepositoryCache<Property>>) notification ->
+                notification.getValue().share.release())
+            .build();
+        if (snapshotStore != null) {
+            snapshotStore.register(this);
+        }
     }
 
     protected abstract Map<IRI, Optional<Property>> queryAll(Repository repository, Iterable<? extends IRI> iris);
@@ -71,46 +213,461 @@ public String getId() {
     }
 
     public final Map<IRI, Optional<Property>> getAll(Repository repository, Iterable<? extends IRI> resourceIRIs) {
-        initializeCache(repository);
         try {
+            RepositoryCache<Property> repositoryCache = getRepositoryCache(repository);
+            List<IRI> keys = ImmutableSet.<IRI>copyOf(resourceIRIs).asList();
             // obtain iri-to-property map
-            return repositoryMap.get(repository).getAll(resourceIRIs);
+            if (keys.size() <= repositoryCache.chunkSize) {
+                return repositoryCache.getAll(keys);
+            }
+            return getAllChunked(repositoryCache, keys);
         } catch (ExecutionException e) {
             logger.warn("Execution error while populating cache: " + e.getMessage());
             throw Throwables.propagate(e);
         }
     }
 
-    private void initializeCache(Repository repository) {
-        if (repositoryMap.containsKey(repository)) { return; }
-
-        logger.info("Initializing cache for repository: {}", repository);
-        repositoryMap.put(repository,
-            CacheBuilder.newBuilder()
-            .maximumSize(1000)
-            .expireAfterAccess(30, TimeUnit.MINUTES)
-            .build(new CacheLoader<IRI, Optional<Property>>() {
-                @Override
-                public Optional<Property> load(IRI key) {
-                    return queryAll(repository, Collections.singletonList(key)).get(key);
+    /**
+     * Loads the given resources in chunks, which are looked up concurrently
+     * on the {@link #bulkLoadExecutor}. The calling thread blocks while the
+     * maximum number of chunks is in progress for the repository.
+     */
+    private Map<IRI, Optional<Property>> getAllChunked(
+        RepositoryCache<Property> repositoryCache, List<IRI> keys
+    ) {
+        List<Future<ImmutableMap<IRI, Optional<Property>>>> chunks = new ArrayList<>();
+        try {
+            for (List<IRI> chunk : Lists.partition(keys, repositoryCache.chunkSize)) {
+                repositoryCache.loadPermits.acquire();
+                try {
+                    chunks.add(bulkLoadExecutor.submit(() -> {
+                        try {
+                            return repositoryCache.getAll(chunk);
+                        } finally {
+                            repositoryCache.loadPermits.release();
+                        }
+                    }));
+                } catch (RuntimeException e) {
+                    repositoryCache.loadPermits.release();
+                    throw e;
                 }
+            }
+            // chunks which have already been submitted are completed in any
+            // case, as they populate the cache for subsequent lookups
+            ImmutableMap.Builder<IRI, Optional<Property>> result = ImmutableMap.builder();
+            for (Future<ImmutableMap<IRI, Optional<Property>>> chunk : chunks) {
+                result.putAll(chunk.get());
+            }
+            return result.build();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while loading cache '" + cacheId + "'.", e);
+        } catch (ExecutionException e) {
+            // unwrap the exception of the loading cache
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Asynchronously reloads the given entries (if present), while the
+     * current values continue to be served.
+     */
+    public final void refresh(Repository repository, Iterable<? extends IRI> resourceIRIs) {
+        try {
+            LoadingCache<IRI, Optional<Property>> cache = getCache(repository);
+            for (IRI iri : resourceIRIs) {
+                cache.refresh(iri);
+            }
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * @return the number of entries which have been refreshed successfully
+     */
+    public long getRefreshCount() {
+        return refreshCount.get();
+    }
+
+    /**
+     * @return the number of entries for which the refresh failed; the stale
+     *         values of these entries are retained
+     */
+    public long getRefreshFailureCount() {
+        return refreshFailureCount.get();
+    }
+
+    /**
+     * @return the number of queries executed to refresh entries
+     */
+    public long getRefreshBatchCount() {
+        return refreshBatchCount.get();
+    }
+
+    /**
+     * @return the average time (in milliseconds) it took to refresh a batch of entries
+     */
+    public double getAverageRefreshLatencyMillis() {
+        long batches = refreshBatchCount.get();
+        return batches == 0 ? 0 : totalRefreshTimeNanos.get() / 1e6 / batches;
+    }
+
+    @Override
+    public PlatformCacheStats getStats() {
+        return getRepositoryCaches().stream()
+            .map(this::getStats)
+            .reduce(PlatformCacheStats.EMPTY, PlatformCacheStats::plus);
+    }
+
+    /**
+     * Caches of repositories which are not managed by the {@link RepositoryManager}
+     * are reported with the ID {@link #UNMANAGED_REPOSITORY_ID}.
+     */
+    @Override
+    public Map<String, PlatformCacheStats> getRepositoryStats() {
+        Map<String, PlatformCacheStats> stats = new TreeMap<>();
+        for (RepositoryCache<Property> repositoryCache : getRepositoryCaches()) {
+            String repositoryId = repositoryCache.repositoryId != null
+                ? repositoryCache.repositoryId : UNMANAGED_REPOSITORY_ID;
+            stats.merge(repositoryId, getStats(repositoryCache), PlatformCacheStats::plus);
+        }
+        return stats;
+    }
+
+    private PlatformCacheStats getStats(RepositoryCache<Property> repositoryCache) {
+        // Guava does not expose the total weight, so it is computed on demand
+        long weight = 0;
+        for (Map.Entry<IRI, Optional<Property>> entry : repositoryCache.cache.asMap().entrySet()) {
+            weight += weigh(entry.getKey(), entry.getValue());
+        }
+        return PlatformCacheStats.of(repositoryCache.stats(), repositoryCache.cache.size(), weight);
+    }
+
+    private LoadingCache<IRI, Optional<Property>> getCache(Repository repository) throws ExecutionException {
+        return getRepositoryCache(repository).cache;
+    }
+
+    private RepositoryCache<Property> getRepositoryCache(Repository repository) throws ExecutionException {
+        return repositoryCaches.get(repository, () -> createCache(repository));
+    }
+
+    private RepositoryCache<Property> createCache(Repository repository) {
+        final String repositoryId = findRepositoryId(repository);
+        final UIConfiguration uiConfig = config.getUiConfig();
+
+        final long requestedWeight =
+            uiConfig.getCacheMaximumWeightMB(cacheId, repositoryId) * CacheWeightBudget.BYTES_PER_MB;
+        final int expireAfterAccess = uiConfig.getCacheExpireAfterAccessMinutes(cacheId, repositoryId);
+        final int expireAfterWrite = uiConfig.getCacheExpireAfterWriteMinutes(cacheId, repositoryId);
+        final int refreshAfterWrite = uiConfig.getCacheRefreshAfterWriteMinutes(cacheId, repositoryId);
+        final int chunkSize = Math.max(1, uiConfig.getCacheBulkLoadChunkSize(cacheId, repositoryId));
+        final int parallelism = Math.max(1, uiConfig.getCacheBulkLoadParallelism(cacheId, repositoryId));
+
+        // the loader must not hold a strong reference to the repository, as
+        // the repository is used as weak key in repositoryCaches
+        final WeakReference<Repository> repositoryReference = new WeakReference<>(repository);
+        final BatchingRefresher refresher = new BatchingRefresher(repositoryReference, chunkSize);
+        final CacheLoader<IRI, Optional<Property>> loader = new CacheLoader<IRI, Optional<Property>>() {
+            @Override
+            public Optional<Property> load(IRI key) {
+                return querySingleFlight(getRepository(repositoryReference), Collections.singletonList(key)).get(key);
+            }
+
+            @Override
+            public Map<IRI, Optional<Property>> loadAll(Iterable<? extends IRI> keys) throws Exception {
+                return querySingleFlight(getRepository(repositoryReference), keys);
+            }
+
+            @Override
+            public ListenableFuture<Optional<Property>> reload(IRI key, Optional<Property> oldValue) {
+                return refresher.refresh(key);
+            }
+        };
+        // the maximum weight is granted by the budget and changes with the number of caches
+        final LongFunction<LoadingCache<IRI, Optional<Property>>> cacheFactory = maximumWeight -> {
+            CacheBuilder<IRI, Optional<Property>> builder = CacheBuilder.newBuilder()
+                .maximumWeight(maximumWeight)
+                .weigher(this::weigh)
+                .recordStats();
+            if (expireAfterAccess > 0) {
+                builder.expireAfterAccess(expireAfterAccess, TimeUnit.MINUTES);
+            }
+            if (expireAfterWrite > 0) {
+                builder.expireAfterWrite(expireAfterWrite, TimeUnit.MINUTES);
+            }
+            if (refreshAfterWrite > 0) {
+                builder.refreshAfterWrite(refreshAfterWrite, TimeUnit.MINUTES);
+            }
+            return builder.build(loader);
+        };
+        RepositoryCache<Property> repositoryCache =
+            new RepositoryCache<>(repository, repositoryId, cacheFactory, chunkSize, parallelism);
+        repositoryCache.share =
+            budget.register(cacheId + "/" + repositoryId, requestedWeight, repositoryCache::resize);
+
+        logger.info(
+            "Initializing cache '{}' for repository '{}' (maximum weight: {} of {} requested bytes, "
+                + "expire after access: {} min, expire after write: {} min, refresh after write: {} min, "
+                + "bulk load chunk size: {}, bulk load parallelism: {})",
+            cacheId, repositoryId, repositoryCache.share.getWeight(), requestedWeight, expireAfterAccess,
+            expireAfterWrite, refreshAfterWrite, chunkSize, parallelism);
+
+        if (snapshotStore != null) {
+            snapshotStore.restoreAsync(this, repositoryCache);
+        }
+        return repositoryCache;
+    }
 
-                @Override
-                public Map<IRI, Optional<Property>> loadAll(Iterable<? extends IRI> keys) throws Exception {
-                    return queryAll(repository, keys);
+    /**
+     * Concurrent misses of the same resources (e.g. many users opening the
+     * same page at once) are resolved with a single query.
+     */
+    private Map<IRI, Optional<Property>> querySingleFlight(Repository repository, Iterable<? extends IRI> iris) {
+        return inFlightQueries.execute(
+            Arrays.asList(repository, ImmutableSet.copyOf(iris)), () -> queryAll(repository, iris));
+    }
+
+    private static Repository getRepository(WeakReference<Repository> repositoryReference) {
+        Repository repository = repositoryReference.get();
+        if (repository == null) {
+            throw new IllegalStateException("Repository has already been discarded.");
+        }
+        return repository;
+    }
+
+    /**
+     * Collects pending refreshes of a single repository cache and reloads
+     * them asynchronously with a single query per chunk.
+     */
+    private class BatchingRefresher {
+        private final WeakReference<Repository> repository;
+        private final int chunkSize;
+        private Map<IRI, SettableFuture<Optional<Property>>> pending = new HashMap<>();
+
+        private BatchingRefresher(WeakReference<Repository> repository, int chunkSize) {
+            this.repository = repository;
+            this.chunkSize = chunkSize;
+        }
+
+        synchronized ListenableFuture<Optional<Property>> refresh(IRI iri) {
+            SettableFuture<Optional<Property>> future = pending.get(iri);
+            if (future == null) {
+                future = SettableFuture.create();
+                pending.put(iri, future);
+                if (pending.size() == 1) {
+                    refreshExecutor.schedule(this::reloadPending, REFRESH_BATCH_DELAY_MS, TimeUnit.MILLISECONDS);
                 }
-            })
-        );
+            }
+            return future;
+        }
+
+        private void reloadPending() {
+            final Map<IRI, SettableFuture<Optional<Property>>> batch;
+            synchronized (this) {
+                batch = pending;
+                pending = new HashMap<>();
+            }
+            for (List<IRI> chunk : Lists.partition(new ArrayList<>(batch.keySet()), chunkSize)) {
+                reloadChunk(chunk, batch);
+            }
+        }
+
+        private void reloadChunk(List<IRI> chunk, Map<IRI, SettableFuture<Optional<Property>>> batch) {
+            final long start = System.nanoTime();
+            try {
+                Map<IRI, Optional<Property>> values = queryAll(getRepository(repository), chunk);
+                chunk.forEach(iri -> batch.get(iri).set(values.getOrDefault(iri, Optional.empty())));
+                refreshCount.addAndGet(chunk.size());
+            } catch (Exception e) {
+                // the cache keeps serving the stale values
+                logger.warn("Failed to refresh {} entries of cache '{}': {}", chunk.size(), cacheId, e.getMessage());
+                refreshFailureCount.addAndGet(chunk.size());
+                chunk.forEach(iri -> batch.get(iri).setException(e));
+            } finally {
+                refreshBatchCount.incrementAndGet();
+                totalRefreshTimeNanos.addAndGet(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Returns a string which identifies the configuration the cached values
+     * depend on (e.g. the preferred properties). Cache snapshots are only
+     * restored if they have been created with the same fingerprint.
+     */
+    protected String getSnapshotFingerprint() {
+        return "";
+    }
+
+    /**
+     * @return the caches of all repositories which are currently in use
+     */
+    Collection<RepositoryCache<Property>> getRepositoryCaches() {
+        return repositoryCaches.asMap().values();
+    }
+
+    /**
+     * @return ID of the repository or <code>null</code> if the repository
+     *         is not managed by the {@link RepositoryManager}
+     */
+    private String findRepositoryId(Repository repository) {
+        try {
+            return repositoryManager.getRepositoryID(repository);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
     }
 
     @Override
     public void invalidate() {
-        repositoryMap.values().forEach(Cache::invalidateAll);
+        repositoryCaches.asMap().values().forEach(RepositoryCache::invalidateAll);
     }
 
     @Override
     public void invalidate(List<IRI> iris) {
-        repositoryMap.values().forEach(cache -> cache.invalidateAll(iris));
+        repositoryCaches.asMap().values().forEach(repositoryCache -> repositoryCache.invalidateAll(iris));
+    }
+
+    /**
+     * Estimates the heap size (in bytes) of a cache entry, taking into account
+     * the number of cached RDF values and their lengths.
+     */
+    protected int weigh(IRI iri, Optional<Property> property) {
+        int weight = ENTRY_OVERHEAD + estimateWeight(iri);
+        if (property.isPresent()) {
+            weight += estimateWeight(property.get());
+        }
+        return weight;
+    }
+
+    /**
+     * Estimates the heap size (in bytes) of a single property value, which may
+     * be an RDF {@link Value} or a collection of values.
+     */
+    protected static int estimateWeight(Object property) {
+        if (property instanceof Literal) {
+            Literal literal = (Literal) property;
+            // label chars plus datatype IRI or language tag
+            int weight = VALUE_OVERHEAD + 2 * literal.getLabel().length();
+            if (literal.getLanguage().isPresent()) {
+                weight += 2 * literal.getLanguage().get().length();
+            } else if (literal.getDatatype() != null) {
+                weight += VALUE_OVERHEAD; // datatype IRIs are mostly shared constants
+            }
+            return weight;
+        } else if (property instanceof Value) {
+            return VALUE_OVERHEAD + 2 * ((Value) property).stringValue().length();
+        } else if (property instanceof Iterable) {
+            int weight = VALUE_OVERHEAD;
+            for (Object element : (Iterable<?>) property) {
+                weight += estimateWeight(element);
+            }
+            return weight;
+        } else {
+            return VALUE_OVERHEAD;
+        }
+    }
+
+    /**
+     * Cache for a single repository together with its share of the global
+     * {@link CacheWeightBudget}. When the weight granted to the cache changes,
+     * the Guava cache is replaced by one with the new maximum weight, which
+     * takes over the current entries.
+     *
+     * <p>
+     * Invalidations and writes other than loads are performed under the
+     * monitor of the repository cache, such that they are not lost while the
+     * entries are copied. Values which have been loaded into a cache that has
+     * been replaced in the meantime are added to the current cache, unless an
+     * invalidation occurred while they were loaded.
+     * </p>
+     */
+    static class RepositoryCache<Property> {
+        /**
+         * Weakly referenced, as the repository is used as weak key in
+         * {@link ResourcePropertyCache#repositoryCaches}.
+         */
+        final WeakReference<Repository> repository;
+        final String repositoryId;
+        final int chunkSize;
+        /**
+         * Limits the number of chunks which are loaded concurrently.
+         */
+        final Semaphore loadPermits;
+        private final LongFunction<LoadingCache<IRI, Optional<Property>>> cacheFactory;
+        volatile LoadingCache<IRI, Optional<Property>> cache;
+        /**
+         * Statistics of the caches which have been replaced while resizing.
+         */
+        private CacheStats replacedStats = new CacheStats(0, 0, 0, 0, 0, 0);
+        /**
+         * Number of invalidations, incremented under the monitor.
+         */
+        private volatile long invalidations = 0;
+        private CacheWeightBudget.Share share;
+
+        private RepositoryCache(
+            Repository repository, String repositoryId,
+            LongFunction<LoadingCache<IRI, Optional<Property>>> cacheFactory,
+            int chunkSize, int parallelism
+        ) {
+            this.repository = new WeakReference<>(repository);
+            this.repositoryId = repositoryId;
+            this.cacheFactory = cacheFactory;
+            this.chunkSize = chunkSize;
+            this.loadPermits = new Semaphore(parallelism);
+        }
+
+        /**
+         * Replaces the cache by one with the given maximum weight, keeping
+         * as many of the current entries as fit.
+         */
+        private synchronized void resize(long maximumWeight) {
+            LoadingCache<IRI, Optional<Property>> resized = cacheFactory.apply(maximumWeight);
+            LoadingCache<IRI, Optional<Property>> current = cache;
+            if (current != null) {
+                resized.putAll(current.asMap());
+                replacedStats = replacedStats.plus(current.stats());
+            }
+            cache = resized;
+        }
+
+        synchronized CacheStats stats() {
+            return replacedStats.plus(cache.stats());
+        }
+
+        ImmutableMap<IRI, Optional<Property>> getAll(Iterable<? extends IRI> keys) throws ExecutionException {
+            long invalidationsBefore = invalidations;
+            LoadingCache<IRI, Optional<Property>> loadingCache = cache;
+            ImmutableMap<IRI, Optional<Property>> values = loadingCache.getAll(keys);
+            if (loadingCache != cache) {
+                synchronized (this) {
+                    // the cache has been resized during the load
+                    if (invalidations == invalidationsBefore) {
+                        values.forEach(cache.asMap()::putIfAbsent);
+                    }
+                }
+            }
+            return values;
+        }
+
+        /**
+         * Adds the entries without overriding entries which are present.
+         */
+        synchronized void putAllIfAbsent(Map<IRI, Optional<Property>> entries) {
+            entries.forEach(cache.asMap()::putIfAbsent);
+        }
+
+        synchronized void invalidateAll() {
+            invalidations++;
+            cache.invalidateAll();
+        }
+
+        synchronized void invalidateAll(Iterable<? extends IRI> iris) {
+            invalidations++;
+            cache.invalidateAll(iris);
+        }
     }
 
     protected static List<IRI> resolveIRIList(NamespaceRegistry ns, List<String> unresolvedIRIs) {
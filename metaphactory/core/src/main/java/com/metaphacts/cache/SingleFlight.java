@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+
+/**
+ * De-duplicates identical concurrent evaluations: while an evaluation for a
+ * key is in flight, all further callers with an equal key wait for and share
+ * its (materialized) result instead of evaluating again. Results are not
+ * cached beyond the evaluation, i.e. once the evaluation has completed, the
+ * next caller evaluates again.
+ *
+ * <ul>
+ * <li>Callers wait at most the given timeout for an in-flight evaluation,
+ * afterwards an {@link UncheckedTimeoutException} is thrown.</li>
+ * <li>If the evaluation fails, the exception is rethrown to all waiting
+ * callers (checked exceptions wrapped in a {@link RuntimeException}).</li>
+ * <li>If the evaluating thread is interrupted, the waiting callers take over
+ * and evaluate again; if a waiting thread is interrupted, it stops waiting
+ * with a {@link CancellationException} without affecting the evaluation.</li>
+ * </ul>
+ *
+ * Shared results must not be modified by the callers.
+ *
+ * @param <K> key identifying the evaluation, e.g. repository and query
+ * @param <V> type of the result
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentMap<K, SettableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final long timeoutNanos;
+
+    private final AtomicLong evaluationCount = new AtomicLong();
+    private final AtomicLong sharedCount = new AtomicLong();
+
+    public SingleFlight(long timeout, TimeUnit unit) {
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    public V execute(K key, Callable<? extends V> evaluation) {
+        final long deadline = System.nanoTime() + timeoutNanos;
+        while (true) {
+            SettableFuture<V> future = SettableFuture.create();
+            SettableFuture<V> existing = inFlight.putIfAbsent(key, future);
+            if (existing == null) {
+                return evaluate(key, future, evaluation);
+            }
+            try {
+                V result = existing.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                sharedCount.incrementAndGet();
+                return result;
+            } catch (CancellationException e) {
+                // evaluating thread has been interrupted, take over
+                continue;
+            } catch (ExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            } catch (TimeoutException e) {
+                throw new UncheckedTimeoutException("Timeout while waiting for in-flight evaluation of " + key);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("Interrupted while waiting for in-flight evaluation of " + key);
+            }
+        }
+    }
+
+    private V evaluate(K key, SettableFuture<V> future, Callable<? extends V> evaluation) {
+        evaluationCount.incrementAndGet();
+        try {
+            V result = evaluation.call();
+            future.set(result);
+            return result;
+        } catch (Throwable e) {
+            if (Thread.currentThread().isInterrupted() || e instanceof InterruptedException) {
+                future.cancel(false);
+            } else {
+                future.setException(e);
+            }
+            throw Throwables.propagate(e);
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * @return the number of evaluations which have been executed
+     */
+    public long getEvaluationCount() {
+        return evaluationCount.get();
+    }
+
+    /**
+     * @return the number of callers which have been served with the result of
+     *         an evaluation executed for another caller
+     */
+    public long getSharedCount() {
+        return sharedCount.get();
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.repository.Repository;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metaphacts.api.sparql.SparqlUtil;
+import com.metaphacts.api.sparql.SparqlUtil.SparqlOperation;
+import com.metaphacts.config.Configuration;
+import com.metaphacts.config.groups.UIConfiguration;
+import com.metaphacts.repository.CacheInvalidatingRepository;
+
+/**
+ * Cache for serialized results of SPARQL queries (SELECT, ASK, CONSTRUCT and
+ * DESCRIBE), such that identical queries (e.g. of dashboards) are answered
+ * by writing a single buffer.
+ *
+ * <p>
+ * Results are keyed by repository, normalized query, the bindings the result
+ * depends on (the user for queries using <code>?__useruri__</code>), the
+ * result format and the SPARQL permissions of the user. Every key includes
+ * the write generation of the repository (see
+ * {@link CacheInvalidatingRepository#getGeneration()}) at the time the
+ * evaluation started, such that entries become unreachable with the next
+ * write and results of evaluations which raced with a write are never served.
+ * Consequently, only repositories which track their writes are cached. As
+ * writes which bypass the platform (e.g. to remote or federated repositories)
+ * do not change the generation, entries additionally expire after a
+ * configurable time.
+ * </p>
+ *
+ * <p>
+ * The validators for conditional requests ("Last-Modified" and "ETag") are
+ * determined with the key, i.e. before evaluation, such that the response of
+ * the evaluation and later responses from the cache carry the same
+ * validators.
+ * </p>
+ *
+ * See {@link UIConfiguration#getSparqlResultCacheEnabled()} and related
+ * parameters for the configuration.
+ */
+@Singleton
+public class SparqlResultCache implements PlatformCache {
+
+    public static final String CACHE_ID = "SparqlResultCache";
+
+    /**
+     * SPARQL comment which excludes a query from the result cache.
+     */
+    public static final String NO_CACHE_HINT = "#nocache";
+
+    /**
+     * Rough estimate of the heap overhead per cache entry in bytes.
+     */
+    private static final int ENTRY_OVERHEAD = 256;
+
+    private final Configuration config;
+    private final Cache<Key, CachedResult> cache;
+
+    @Inject
+    public SparqlResultCache(Configuration config, CacheManager cacheManager) {
+        this.config = config;
+        CacheBuilder<Key, CachedResult> builder = CacheBuilder.newBuilder()
+            .maximumWeight(config.getUiConfig().getSparqlResultCacheBudgetMB() * CacheWeightBudget.BYTES_PER_MB)
+            .weigher((Weigher<Key, CachedResult>) SparqlResultCache::weigh)
+            .recordStats();
+        int ttlSeconds = config.getUiConfig().getSparqlResultCacheTtlSeconds();
+        if (ttlSeconds > 0) {
+            builder.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS);
+        }
+        this.cache = builder.build();
+        cacheManager.register(this);
+    }
+
+    /**
+     * Creates the key for a query result.
+     *
+     * @param user
+     *            the user to resolve <code>?__useruri__</code> with
+     * @param permissions
+     *            the SPARQL operations the user is permitted to execute
+     * @return the key or {@link Optional#empty()} if the result must not be
+     *         cached, i.e. if the cache is disabled, the query opted out, it
+     *         is no read-only query or the repository does not track writes
+     */
+    public Optional<Key> createKey(
+        Repository repository, String repositoryId, String operationString,
+        SparqlOperation operationType, Optional<IRI> user, Set<SparqlOperation> permissions, String format
+    ) {
+        if (!config.getUiConfig().getSparqlResultCacheEnabled()
+            || operationType == SparqlOperation.UPDATE
+            || !(repository instanceof CacheInvalidatingRepository)
+            || StringUtils.containsIgnoreCase(operationString, NO_CACHE_HINT)) {
+            return Optional.empty();
+        }
+        long generation = ((CacheInvalidatingRepository) repository).getGeneration();
+        String normalized = SparqlUtil.normalizeWhitespace(operationString);
+        String userBinding = normalized.contains("__useruri__") ? user.map(IRI::stringValue).orElse(null) : null;
+        return Optional.of(new Key(repositoryId, generation, normalized, userBinding, permissions, format));
+    }
+
+    public Optional<CachedResult> get(Key key) {
+        return Optional.ofNullable(cache.getIfPresent(key));
+    }
+
+    /**
+     * Wraps the given output stream, such that everything written to it is
+     * captured (up to the maximum entry size) and can be cached afterwards
+     * via {@link #put(Key, CapturingOutputStream, String)}.
+     */
+    public CapturingOutputStream capture(OutputStream out) {
+        return new CapturingOutputStream(out, config.getUiConfig().getSparqlResultCacheMaxEntryKB() * 1024L);
+    }
+
+    /**
+     * Caches the captured result, unless it exceeded the maximum entry size.
+     *
+     * @return the cached result
+     */
+    public Optional<CachedResult> put(Key key, CapturingOutputStream capture, String contentType) {
+        if (capture.isOverflowed()) {
+            return Optional.empty();
+        }
+        CachedResult result = new CachedResult(capture.buffer.toByteArray(), contentType, key.eTag, key.lastModified);
+        cache.put(key, result);
+        return Optional.of(result);
+    }
+
+    @Override
+    public void invalidate() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Results may depend on any resource, hence all entries are dropped. Writes
+     * through the platform make entries unreachable anyway, but invalidations
+     * of peer nodes are only propagated this way.
+     */
+    @Override
+    public void invalidate(List<IRI> iris) {
+        cache.invalidateAll();
+    }
+
+    @Override
+    public String getId() {
+        return CACHE_ID;
+    }
+
+    @Override
+    public PlatformCacheStats getStats() {
+        long weight = 0;
+        for (Map.Entry<Key, CachedResult> entry : cache.asMap().entrySet()) {
+            weight += weigh(entry.getKey(), entry.getValue());
+        }
+        return PlatformCacheStats.of(cache.stats(), cache.size(), weight);
+    }
+
+    private static int weigh(Key key, CachedResult result) {
+        return ENTRY_OVERHEAD + 2 * key.operationString.length() + result.bytes.length;
+    }
+
+    /**
+     * Key of a cached query result, together with the validators of the
+     * result, which are not part of the identity of the key.
+     */
+    public static class Key {
+        private final String repositoryId;
+        private final long generation;
+        private final String operationString;
+        private final String user;
+        private final Set<SparqlOperation> permissions;
+        private final String format;
+        private final long lastModified;
+        private final String eTag;
+
+        private Key(
+            String repositoryId, long generation, String operationString,
+            String user, Set<SparqlOperation> permissions, String format
+        ) {
+            this.repositoryId = repositoryId;
+            this.generation = generation;
+            this.operationString = operationString;
+            this.user = user;
+            this.permissions = ImmutableSet.copyOf(permissions);
+            this.format = format;
+            // HTTP dates have a resolution of seconds
+            this.lastModified = System.currentTimeMillis() / 1000 * 1000;
+            this.eTag = createETag();
+        }
+
+        /**
+         * The entity tag changes with the generation of the repository and,
+         * once the entry has expired, with the time of the next evaluation.
+         */
+        private String createETag() {
+            Hasher hasher = Hashing.murmur3_128().newHasher()
+                .putString(repositoryId, StandardCharsets.UTF_8)
+                .putLong(generation)
+                .putString(operationString, StandardCharsets.UTF_8)
+                .putString(Objects.toString(user), StandardCharsets.UTF_8)
+                .putString(format, StandardCharsets.UTF_8)
+                .putLong(lastModified);
+            permissions.forEach(permission -> hasher.putString(permission.name(), StandardCharsets.UTF_8));
+            return "\"" + hasher.hash() + "\"";
+        }
+
+        /**
+         * @return the value of the "Last-Modified" header of the result,
+         *         the time at which the key has been created
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * @return the value of the "ETag" header of the result
+         */
+        public String getETag() {
+            return eTag;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return generation == other.generation
+                && repositoryId.equals(other.repositoryId)
+                && operationString.equals(other.operationString)
+                && Objects.equals(user, other.user)
+                && permissions.equals(other.permissions)
+                && format.equals(other.format);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(repositoryId, generation, operationString, user, permissions, format);
+        }
+    }
+
+    /**
+     * Serialized query result together with the validators for conditional
+     * requests.
+     */
+    public static class CachedResult {
+        private final byte[] bytes;
+        private final String contentType;
+        private final String eTag;
+        private final long lastModified;
+
+        private CachedResult(byte[] bytes, String contentType, String eTag, long lastModified) {
+            this.bytes = bytes;
+            this.contentType = contentType;
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public int getLength() {
+            return bytes.length;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(bytes);
+        }
+
+        /**
+         * Evaluates the validators of a conditional request; the
+         * <code>If-Modified-Since</code> header is only considered if there is
+         * no <code>If-None-Match</code> header.
+         *
+         * @param ifNoneMatch
+         *            value of the <code>If-None-Match</code> header or <code>null</code>
+         * @param ifModifiedSince
+         *            value of the <code>If-Modified-Since</code> header or -1
+         * @return <code>true</code> if the client's copy is up to date
+         */
+        public boolean isNotModified(String ifNoneMatch, long ifModifiedSince) {
+            if (ifNoneMatch != null) {
+                for (String tag : ifNoneMatch.split(",")) {
+                    String trimmed = StringUtils.removeStart(tag.trim(), "W/");
+                    if (trimmed.equals("*") || trimmed.equals(eTag)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return ifModifiedSince >= 0 && lastModified <= ifModifiedSince;
+        }
+    }
+
+    /**
+     * Output stream which writes through to the wrapped stream and captures
+     * the written bytes, until the maximum size is exceeded.
+     */
+    public static class CapturingOutputStream extends FilterOutputStream {
+        private final long maxBytes;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private boolean overflowed = false;
+
+        private CapturingOutputStream(OutputStream out, long maxBytes) {
+            super(out);
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            if (reserve(1)) {
+                buffer.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            capture(b, off, len);
+        }
+
+        private void capture(byte[] b, int off, int len) {
+            if (reserve(len)) {
+                buffer.write(b, off, len);
+            }
+        }
+
+        /**
+         * @return <code>true</code> if the given number of bytes can still be captured
+         */
+        private boolean reserve(int len) {
+            if (!overflowed && buffer.size() + len > maxBytes) {
+                overflowed = true;
+                buffer = null;
+            }
+            return !overflowed;
+        }
+
+        public boolean isOverflowed() {
+            return overflowed;
+        }
+    }
+}
@@ -19,10 +19,20 @@
 package com.metaphacts.cache;
 
 
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -41,27 +51,70 @@
 import com.google.common.base.Throwables;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Sets;
 import com.google.inject.Inject;
 import com.metaphacts.api.sparql.SparqlOperationBuilder;
+import com.metaphacts.api.sparql.SparqlOperationBuilder.SparqlMagicVariables;
 import com.metaphacts.config.Configuration;
 import com.metaphacts.config.NamespaceRegistry;
+import com.metaphacts.repository.RepositoryManager;
 
 /**
+ * Caches the types (as returned by the "templateIncludeQuery", see
+ * {@link com.metaphacts.config.groups.UIConfiguration#getTemplateIncludeQuery()})
+ * which determine the applicable templates of a resource, per repository and
+ * resource. Types of many resources can be loaded at once, see
+ * {@link #getTypesForIncludeScheme(Repository, Collection, Optional)}.
+ *
+ * <p>
+ * In addition, the cache memoizes which template locations do not exist, such
+ * that the applicable templates of the same types do not need to be looked up
+ * in the template storage over and over again.
+ * </p>
+ *
+ * Resources of repositories which are not managed by the {@link RepositoryManager}
+ * are not cached.
+ *
  * @author Johannes Trame <jt@metaphacts.com>
  */
 public class TemplateIncludeCache implements PlatformCache {
-    private static final Cache<IRI, LinkedHashSet<Resource>> includeTypesCache = CacheBuilder.newBuilder()
-            .maximumSize(1000).expireAfterAccess(30, TimeUnit.MINUTES)
+    private static final Logger logger = LogManager.getLogger(TemplateIncludeCache.class);
+
+    /**
+     * Maximum number of resources whose types are loaded with a single query.
+     */
+    private static final int BULK_SIZE = 500;
+
+    private static final Pattern SELECT_PATTERN =
+        Pattern.compile("\\bSELECT\\s+((?:DISTINCT|REDUCED)\\s+)?(\\*)?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SLICE_PATTERN = Pattern.compile("\\b(LIMIT|OFFSET)\\b", Pattern.CASE_INSENSITIVE);
+
+    private final Cache<IncludeKey, LinkedHashSet<Resource>> includeTypesCache = CacheBuilder.newBuilder()
+            .maximumSize(10000).expireAfterAccess(30, TimeUnit.MINUTES)
+            .recordStats()
             .build();
 
-    private static final Logger logger = LogManager.getLogger(TemplateIncludeCache.class);
+    /**
+     * Template locations which are known not to exist. Templates might be
+     * created directly in the storage, so entries expire after a short time.
+     */
+    private final Cache<String, Boolean> missingTemplateCache = CacheBuilder.newBuilder()
+            .maximumSize(10000).expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
 
     private Configuration config;
+    private RepositoryManager repositoryManager;
+
+    /**
+     * The last template include query which could not be evaluated in bulk.
+     */
+    private volatile String nonBatchableQuery;
 
     @Inject
-    public TemplateIncludeCache(Configuration config, CacheManager cacheManager) {
+    public TemplateIncludeCache(Configuration config, RepositoryManager repositoryManager, CacheManager cacheManager) {
        this.config=config;
+       this.repositoryManager = repositoryManager;
         cacheManager.register(this);
     }
 
@@ -74,17 +127,183 @@ public TemplateIncludeCache(Configuration config, CacheManager cacheManager) {
      * @return
      */
     public LinkedHashSet<Resource> getTypesForIncludeScheme(Repository repository, IRI value, Optional<NamespaceRegistry> ns) {
+        Optional<String> repositoryId = findRepositoryId(repository);
+        if (!repositoryId.isPresent()) {
+            return queryTypes(repository, value, ns);
+        }
+        try {
+            return includeTypesCache.get(
+                new IncludeKey(repositoryId.get(), value), () -> queryTypes(repository, value, ns));
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the include types for all given resources, loading the types of
+     * all resources which are not cached yet with as few queries as possible.
+     *
+     * @return map from resource to types in the order of the given resources
+     */
+    public Map<IRI, LinkedHashSet<Resource>> getTypesForIncludeScheme(
+        Repository repository, Collection<IRI> values, Optional<NamespaceRegistry> ns
+    ) {
+        Optional<String> repositoryId = findRepositoryId(repository);
+        Map<IRI, LinkedHashSet<Resource>> result = new LinkedHashMap<>();
+        Set<IRI> missing = new LinkedHashSet<>();
+        for (IRI value : values) {
+            LinkedHashSet<Resource> types = repositoryId.isPresent()
+                ? includeTypesCache.getIfPresent(new IncludeKey(repositoryId.get(), value)) : null;
+            if (types != null) {
+                result.put(value, types);
+            } else {
+                missing.add(value);
+                // reserve position
+                result.put(value, null);
+            }
+        }
+
+        for (List<IRI> bulk : Iterables.partition(missing, BULK_SIZE)) {
+            Map<IRI, LinkedHashSet<Resource>> loaded = queryTypes(repository, bulk, ns);
+            for (IRI value : bulk) {
+                LinkedHashSet<Resource> types = loaded.get(value);
+                result.put(value, types);
+                repositoryId.ifPresent(id -> includeTypesCache.put(new IncludeKey(id, value), types));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return <code>true</code> if it is known that no template exists at the
+     *         given location
+     */
+    public boolean isMissingTemplate(String location) {
+        return missingTemplateCache.getIfPresent(location) != null;
+    }
 
-        //return from cache if possible
-        if(includeTypesCache.getIfPresent(value)!=null){
-            return includeTypesCache.getIfPresent(value);
+    /**
+     * Remembers whether a template exists at the given location.
+     */
+    public void setMissingTemplate(String location, boolean missing) {
+        if (missing) {
+            missingTemplateCache.put(location, Boolean.TRUE);
+        } else {
+            missingTemplateCache.invalidate(location);
         }
+    }
 
+    /**
+     * Invalidates the memoized template locations, e.g. after templates have
+     * been created or deleted.
+     */
+    public void invalidateTemplateLocations() {
+        missingTemplateCache.invalidateAll();
+    }
+
+    private Optional<String> findRepositoryId(Repository repository) {
+        try {
+            return Optional.of(repositoryManager.getRepositoryID(repository));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    private LinkedHashSet<Resource> queryTypes(Repository repository, IRI value, Optional<NamespaceRegistry> ns) {
         String includeSchemeQuery = config.getUiConfig().getTemplateIncludeQuery();
-        LinkedHashSet<Resource> newResourceSet = Sets.newLinkedHashSet();
         SparqlOperationBuilder<TupleQuery> builder = SparqlOperationBuilder.<TupleQuery>create(includeSchemeQuery, TupleQuery.class);
+        SparqlOperationBuilder<TupleQuery> tq = builder.resolveThis(value);
+        try {
+            return evaluate(repository, tq, ns, (bindings, types) -> types.computeIfAbsent(value, v -> Sets.newLinkedHashSet()))
+                .getOrDefault(value, Sets.newLinkedHashSet());
+        } catch (MalformedQueryException e) {
+            logger.error("Query as specified in \"templateIncludeQuery\" config for extracting the wiki include types is invalid.");
+            logger.debug("Details:" , e);
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Loads the types of all resources with a single query, by binding
+     * <code>?__this__</code> through a VALUES clause. Falls back to one query
+     * per resource, if the configured query can not be evaluated in bulk
+     * (e.g. because it uses LIMIT or aggregates).
+     */
+    private Map<IRI, LinkedHashSet<Resource>> queryTypes(
+        Repository repository, List<IRI> values, Optional<NamespaceRegistry> ns
+    ) {
+        Map<IRI, LinkedHashSet<Resource>> result = new LinkedHashMap<>();
+        String includeSchemeQuery = config.getUiConfig().getTemplateIncludeQuery();
+        Optional<String> bulkQuery = values.size() > 1 && !includeSchemeQuery.equals(nonBatchableQuery)
+            ? makeBulkQuery(includeSchemeQuery, values) : Optional.empty();
+
+        if (bulkQuery.isPresent()) {
+            try {
+                SparqlOperationBuilder<TupleQuery> tq =
+                    SparqlOperationBuilder.<TupleQuery>create(bulkQuery.get(), TupleQuery.class);
+                result.putAll(evaluate(repository, tq, ns, (bindings, types) -> {
+                    Value value = bindings.getValue(SparqlMagicVariables.THIS);
+                    return value instanceof IRI ? types.computeIfAbsent((IRI) value, v -> Sets.newLinkedHashSet()) : null;
+                }));
+            } catch (MalformedQueryException e) {
+                logger.debug("Query as specified in \"templateIncludeQuery\" can not be evaluated in bulk: {}", e.getMessage());
+                nonBatchableQuery = includeSchemeQuery;
+                bulkQuery = Optional.empty();
+            }
+        }
+
+        for (IRI value : values) {
+            if (!bulkQuery.isPresent()) {
+                result.put(value, queryTypes(repository, value, ns));
+            } else {
+                result.putIfAbsent(value, Sets.newLinkedHashSet());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Rewrites the template include query such that it additionally projects
+     * <code>?__this__</code> and binds it to all the given values.
+     */
+    static Optional<String> makeBulkQuery(String includeSchemeQuery, Collection<IRI> values) {
+        if (SLICE_PATTERN.matcher(includeSchemeQuery).find()) {
+            return Optional.empty();
+        }
+        String thisVariable = "?" + SparqlMagicVariables.THIS;
+        String resolved = includeSchemeQuery.replace("??", thisVariable);
+        Matcher select = SELECT_PATTERN.matcher(resolved);
+        if (!select.find()) {
+            return Optional.empty();
+        }
+        StringBuilder query = new StringBuilder(resolved);
+        if (select.group(2) == null) {
+            // explicit projection, ?__this__ needs to be projected in addition
+            query.insert(select.end(), thisVariable + " ");
+        }
+        query.append("\nVALUES ").append(thisVariable).append(" {");
+        for (IRI value : values) {
+            query.append(" <").append(value.stringValue()).append(">");
+        }
+        query.append(" }");
+        return Optional.of(query.toString());
+    }
+
+    @FunctionalInterface
+    private interface TypeCollector {
+        /**
+         * @return the set to collect the type of the given bindings in or
+         *         <code>null</code> if the bindings are to be ignored
+         */
+        Set<Resource> typesFor(BindingSet bindings, Map<IRI, LinkedHashSet<Resource>> types);
+    }
+
+    private Map<IRI, LinkedHashSet<Resource>> evaluate(
+        Repository repository, SparqlOperationBuilder<TupleQuery> tq,
+        Optional<NamespaceRegistry> ns, TypeCollector collector
+    ) {
+        Map<IRI, LinkedHashSet<Resource>> types = new LinkedHashMap<>();
         try (RepositoryConnection con = repository.getConnection()) {
-            SparqlOperationBuilder<TupleQuery> tq = builder.resolveThis(value);
             //set namespaces
             ns.map( registry -> tq.setNamespaces(registry.getPrefixMap()));
             try(TupleQueryResult tqr = tq.build(con).evaluate()){
@@ -94,15 +313,19 @@ public LinkedHashSet<Resource> getTypesForIncludeScheme(Repository repository, I
 
                 while(tqr.hasNext()){
                     BindingSet r = tqr.next();
+                    Set<Resource> newResourceSet = collector.typesFor(r, types);
                     Value v = r.getValue("type");
                     //unlikely, we can not return here if null since the query may contain optionals
-                    if(v!=null && (v instanceof IRI)){
+                    if(newResourceSet != null && v!=null && (v instanceof IRI)){
                         newResourceSet.add((Resource)v);
                     }
                 }
             }
 
-        } catch (MalformedQueryException |IllegalArgumentException e) {
+        } catch (MalformedQueryException e) {
+            // handled by the caller, as bulk queries are allowed to fail
+            throw e;
+        } catch (IllegalArgumentException e) {
             logger.error("Query as specified in \"templateIncludeQuery\" config for extracting the wiki include types is invalid.");
             logger.debug("Details:" , e);
             throw Throwables.propagate(e);
@@ -115,19 +338,20 @@ public LinkedHashSet<Resource> getTypesForIncludeScheme(Repository repository, I
             logger.debug("Details:" , e);
             throw Throwables.propagate(e);
         }
-
-        includeTypesCache.put(value, newResourceSet);
-        return newResourceSet;
+        return types;
     }
 
     @Override
     public void invalidate() {
         includeTypesCache.invalidateAll();
+        missingTemplateCache.invalidateAll();
+        nonBatchableQuery = null;
     }
 
     @Override
     public void invalidate(List<IRI> iris) {
-        includeTypesCache.invalidateAll(iris);
+        Set<IRI> invalidated = new HashSet<>(iris);
+        includeTypesCache.asMap().keySet().removeIf(key -> invalidated.contains(key.iri));
     }
 
     @Override
@@ -135,4 +359,48 @@ public String getId() {
         return "TemplateIncludeCache";
     }
 
+    @Override
+    public PlatformCacheStats getStats() {
+        return PlatformCacheStats.of(
+            includeTypesCache.stats(), includeTypesCache.size(), PlatformCacheStats.UNKNOWN_WEIGHT);
+    }
+
+    @Override
+    public Map<String, PlatformCacheStats> getRepositoryStats() {
+        // hits and misses are only recorded for the cache as a whole
+        Map<String, PlatformCacheStats> stats = new TreeMap<>();
+        for (IncludeKey key : includeTypesCache.asMap().keySet()) {
+            stats.merge(key.repositoryId,
+                new PlatformCacheStats(0, 0, 0, 0, 0, 0, 1, PlatformCacheStats.UNKNOWN_WEIGHT),
+                PlatformCacheStats::plus);
+        }
+        return stats;
+    }
+
+    /**
+     * Cache key consisting of repository ID and resource.
+     */
+    private static class IncludeKey {
+        private final String repositoryId;
+        private final IRI iri;
+
+        private IncludeKey(String repositoryId, IRI iri) {
+            this.repositoryId = repositoryId;
+            this.iri = iri;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof IncludeKey)) {
+                return false;
+            }
+            IncludeKey other = (IncludeKey) o;
+            return repositoryId.equals(other.repositoryId) && iri.equals(other.iri);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(repositoryId, iri);
+        }
+    }
 }
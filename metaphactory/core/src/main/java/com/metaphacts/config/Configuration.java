@@ -37,6 +37,7 @@
 
 import com.google.inject.Inject;
 import com.google.inject.Injector;
+import com.metaphacts.config.groups.AdmissionConfiguration;
 import com.metaphacts.config.groups.ConfigurationGroup;
 import com.metaphacts.config.groups.ConfigurationGroupBase;
 import com.metaphacts.config.groups.EnvironmentConfiguration;
@@ -86,6 +87,8 @@ public class Configuration {
 
     private final UIConfiguration uiConfig;
 
+    private final AdmissionConfiguration admissionConfig;
+
     /**
      * A registry of configuration groups administered by the config. The
      * registry is used for automatic lookup via the REST API.
@@ -109,11 +112,13 @@ public Configuration(Injector injector) throws InvalidConfigurationException {
         globalConfig = new GlobalConfiguration();
         uiConfig = injector.getInstance(UIConfiguration.class);
         environmentConfig = new EnvironmentConfiguration(runtimeDirectory);
+        admissionConfig = new AdmissionConfiguration();
 
         registry = new HashMap<String, ConfigurationGroup>();
         registry.put(globalConfig.getId(), globalConfig);
         registry.put(uiConfig.getId(), uiConfig);
         registry.put(environmentConfig.getId(), environmentConfig);
+        registry.put(admissionConfig.getId(), admissionConfig);
     }
 
     /**
@@ -137,6 +142,13 @@ public UIConfiguration getUiConfig() {
         return uiConfig;
     }
 
+    /**
+     * @return the admission control configuration group
+     */
+    public AdmissionConfiguration getAdmissionConfig() {
+        return admissionConfig;
+    }
+
     public File getRuntimeDirectory() {
         return new File(runtimeDirectory);
     }
@@ -93,6 +93,12 @@ public class NamespaceRegistry extends AbstractConfiguration{
      * Map where prefixes are used as keys and namespaces are the values.
      */
     private Map<String,String> prefixMap = Maps.newConcurrentMap();
+    /**
+     * Immutable copy of {@link #prefixMap}, which is replaced on every change,
+     * such that the same instance can be handed out (and e.g. used as cache
+     * key) until the namespaces change.
+     */
+    private volatile ImmutableMap<String,String> prefixMapSnapshot = ImmutableMap.of();
     
     private ValueFactory vf;
 
@@ -165,7 +171,7 @@ public Optional<String> getPrefix(String namespace){
      * @return a map with prefixes being used as keys and namespaces are the values
      */
     public ImmutableMap<String, String> getPrefixMap(){
-       return ImmutableMap.copyOf(this.prefixMap);
+       return this.prefixMapSnapshot;
     }
 
     /**
@@ -278,6 +284,7 @@ private synchronized void synchMap(){
             this.nsMap.put(this.getString(k), k);
             this.prefixMap.put(k, this.getString(k));
         }
+        this.prefixMapSnapshot = ImmutableMap.copyOf(this.prefixMap);
         this.unlock(LockMode.READ);
         
     }
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.config.groups;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.metaphacts.config.ConfigurationParameter;
+import com.metaphacts.config.InvalidConfigurationException;
+
+/**
+ * Configuration group for the admission control of queries, i.e. rate limits
+ * and maximum numbers of concurrent queries per user, role and repository.
+ *
+ * <p>
+ * Limits of individual users, roles and repositories are configured as
+ * <code>&lt;scope&gt;.&lt;id&gt;.&lt;limit&gt;</code>, where scope is one of
+ * <code>user</code>, <code>role</code> or <code>repository</code> and limit is
+ * one of <code>queriesPerMinute</code>, <code>burst</code> or
+ * <code>maxConcurrentQueries</code>, e.g.
+ * <code>role.guest.queriesPerMinute = 60</code>. A value of 0 disables the
+ * respective limit.
+ * </p>
+ *
+ * <p>
+ * Limits of users (and roles) apply to every user individually: limits
+ * configured for the user take precedence over the limits of the roles listed
+ * in {@link #getLimitedRoles()}, which take precedence over the defaults. Of
+ * several roles of a user, the most permissive limit applies. Limits of
+ * repositories apply to all queries on the repository together.
+ * </p>
+ */
+public class AdmissionConfiguration extends ConfigurationGroupBase {
+
+    private final static String ID = "admission";
+
+    private final static String DESCRIPTION =
+        "Rate limits and maximum numbers of concurrent queries per user, role and repository.";
+
+    public static final String QUERIES_PER_MINUTE = "queriesPerMinute";
+    public static final String BURST = "burst";
+    public static final String MAX_CONCURRENT_QUERIES = "maxConcurrentQueries";
+
+    public enum Scope {
+        user, role, repository
+    }
+
+    public AdmissionConfiguration() throws InvalidConfigurationException {
+        super(ID, DESCRIPTION, ConfigurationBackingFileType.prop);
+    }
+
+
+    /***************************************************************************
+     ************************ CONFIGURATION OPTIONS ****************************
+     **************************************************************************/
+
+    /**
+     * Returns whether queries are subject to admission control at all.
+     */
+    @ConfigurationParameter
+    public Boolean getEnabled() {
+        return getBoolean("enabled", false);
+    }
+
+    /**
+     * Returns the default number of queries per minute a user may execute.
+     */
+    @ConfigurationParameter
+    public Integer getUserQueriesPerMinute() {
+        return getInteger("userQueriesPerMinute", 0);
+    }
+
+    /**
+     * Returns the default number of queries a user may execute at once in
+     * excess of {@link #getUserQueriesPerMinute()}, i.e. the size of the
+     * token bucket.
+     */
+    @ConfigurationParameter
+    public Integer getUserBurst() {
+        return getInteger("userBurst", 10);
+    }
+
+    /**
+     * Returns the default number of queries a user may execute concurrently.
+     */
+    @ConfigurationParameter
+    public Integer getUserMaxConcurrentQueries() {
+        return getInteger("userMaxConcurrentQueries", 0);
+    }
+
+    /**
+     * Returns the roles for which limits are configured.
+     */
+    @ConfigurationParameter
+    public List<String> getLimitedRoles() {
+        return getStringList("limitedRoles", Lists.newArrayList());
+    }
+
+    /**
+     * Returns the given limit of the user, role or repository with the given
+     * ID, or <code>null</code> if it is not configured.
+     *
+     * @param limit
+     *            one of {@link #QUERIES_PER_MINUTE}, {@link #BURST} or
+     *            {@link #MAX_CONCURRENT_QUERIES}
+     */
+    public Integer getLimit(final Scope scope, final String id, final String limit) {
+        return getInteger(scope.name() + "." + id + "." + limit, null);
+    }
+
+
+    /****************************** VALIDATION ********************************/
+    @Override
+    public void assertConsistency() {
+        if (getUserQueriesPerMinute() < 0 || getUserBurst() < 1 || getUserMaxConcurrentQueries() < 0) {
+            throw new IllegalArgumentException(
+                "Default limits of users must not be negative and the burst must be at least 1.");
+        }
+    }
+
+}
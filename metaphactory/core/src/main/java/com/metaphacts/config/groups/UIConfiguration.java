@@ -18,7 +18,9 @@
 
 package com.metaphacts.config.groups;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
@@ -112,6 +114,398 @@ public String getDeploymentTitle() {
         return getString("deploymentTitle", "metaphactory");
     }
 
+    /***************************** CACHES *************************************/
+
+    /**
+     * Returns the global heap budget (in megabytes) which is shared by all
+     * resource property caches (e.g. label and thumbnail caches) over all
+     * repositories. The sum of the maximum weights of all these caches will
+     * never exceed this budget; if the caches request more, the budget is
+     * divided among them.
+     */
+    @ConfigurationParameter
+    public Integer getResourcePropertyCacheHeapBudgetMB() {
+        return getInteger("resourcePropertyCacheHeapBudgetMB", 128);
+    }
+
+    /**
+     * Returns the maximum weight (in megabytes) of the cache with the given
+     * ID for the given repository. Looked up via
+     * <code>cache.[cacheId].[repositoryId].maximumWeightMB</code>, falling back to
+     * <code>cache.[cacheId].maximumWeightMB</code> and finally to a default of 16.
+     */
+    public Integer getCacheMaximumWeightMB(final String cacheId, final String repositoryId) {
+        return getCacheParameter(cacheId, repositoryId, "maximumWeightMB", 16);
+    }
+
+    /**
+     * Returns the time (in minutes) after which an entry of the cache with the
+     * given ID for the given repository expires if it has not been accessed.
+     * Looked up analogously to {@link #getCacheMaximumWeightMB(String, String)},
+     * with a default of 30 minutes.
+     */
+    public Integer getCacheExpireAfterAccessMinutes(final String cacheId, final String repositoryId) {
+        return getCacheParameter(cacheId, repositoryId, "expireAfterAccessMinutes", 30);
+    }
+
+    /**
+     * Returns the time (in minutes) after which an entry of the cache with the
+     * given ID for the given repository expires after it has been loaded,
+     * independently from whether it has been accessed. Looked up analogously to
+     * {@link #getCacheMaximumWeightMB(String, String)}; a value of 0 (default)
+     * disables write-based expiry.
+     */
+    public Integer getCacheExpireAfterWriteMinutes(final String cacheId, final String repositoryId) {
+        return getCacheParameter(cacheId, repositoryId, "expireAfterWriteMinutes", 0);
+    }
+
+    /**
+     * Returns the time (in minutes) after which an entry of the cache with the
+     * given ID for the given repository is refreshed asynchronously on its next
+     * access, while the stale value is still served. Looked up analogously to
+     * {@link #getCacheMaximumWeightMB(String, String)}; a value of 0 (default)
+     * disables refreshing. To be effective, the value should be lower than
+     * {@link #getCacheExpireAfterAccessMinutes(String, String)}.
+     */
+    public Integer getCacheRefreshAfterWriteMinutes(final String cacheId, final String repositoryId) {
+        return getCacheParameter(cacheId, repositoryId, "refreshAfterWriteMinutes", 0);
+    }
+
+    /**
+     * Returns the maximum number of resources which are loaded with a single
+     * query into the cache with the given ID for the given repository; larger
+     * bulk loads are split into chunks of this size. Looked up analogously to
+     * {@link #getCacheMaximumWeightMB(String, String)}, with a default of 500.
+     */
+    public Integer getCacheBulkLoadChunkSize(final String cacheId, final String repositoryId) {
+        return getCacheParameter(cacheId, repositoryId, "bulkLoadChunkSize", 500);
+    }
+
+    /**
+     * Returns the maximum number of chunks of a bulk load (see
+     * {@link #getCacheBulkLoadChunkSize(String, String)}) which are loaded
+     * concurrently into the cache with the given ID for the given repository.
+     * Looked up analogously to {@link #getCacheMaximumWeightMB(String, String)},
+     * with a default of 4.
+     */
+    public Integer getCacheBulkLoadParallelism(final String cacheId, final String repositoryId) {
+        return getCacheParameter(cacheId, repositoryId, "bulkLoadParallelism", 4);
+    }
+
+    /**
+     * Returns the maximum number of resources which are purged individually
+     * from the caches after a write transaction. If a transaction touches more
+     * resources (or if the touched resources can not be determined), all
+     * caches are invalidated instead.
+     */
+    @ConfigurationParameter
+    public Integer getCacheInvalidationMaxResources() {
+        return getInteger("cacheInvalidationMaxResources", 1000);
+    }
+
+    /**
+     * Returns whether the contents of the resource property caches are
+     * persisted to disk (periodically and on shutdown) and restored on startup.
+     */
+    @ConfigurationParameter
+    public Boolean getCacheSnapshotsEnabled() {
+        return getBoolean("cacheSnapshotsEnabled", false);
+    }
+
+    /**
+     * Returns the interval (in minutes) in which cache snapshots are written
+     * while the platform is running; a value of 0 disables periodic snapshots,
+     * i.e. snapshots are only written on shutdown.
+     */
+    @ConfigurationParameter
+    public Integer getCacheSnapshotIntervalMinutes() {
+        return getInteger("cacheSnapshotIntervalMinutes", 15);
+    }
+
+    /**
+     * Returns the directory which is shared by all platform nodes running
+     * against the same database and through which cache invalidations are
+     * propagated between the nodes. If empty (default), invalidations are not
+     * propagated.
+     */
+    @ConfigurationParameter
+    public String getCacheInvalidationJournalDirectory() {
+        return getString("cacheInvalidationJournalDirectory", "");
+    }
+
+    /**
+     * Returns the interval (in milliseconds) in which the journals of peer
+     * nodes are checked for new cache invalidations.
+     */
+    @ConfigurationParameter
+    public Integer getCacheInvalidationPollIntervalMillis() {
+        return getInteger("cacheInvalidationPollIntervalMillis", 1000);
+    }
+
+    /**
+     * Returns the time window (in milliseconds) in which cache invalidations
+     * are collected and merged before they are propagated to peer nodes.
+     */
+    @ConfigurationParameter
+    public Integer getCacheInvalidationCoalesceMillis() {
+        return getInteger("cacheInvalidationCoalesceMillis", 100);
+    }
+
+    /**
+     * Returns whether the serialized results of SPARQL queries received by
+     * the SPARQL endpoint are cached until the repository is written to.
+     * Queries can opt out with the comment <code>#nocache</code>.
+     */
+    @ConfigurationParameter
+    public Boolean getSparqlResultCacheEnabled() {
+        return getBoolean("sparqlResultCacheEnabled", false);
+    }
+
+    /**
+     * Returns the maximum size (in kilobytes) of a single serialized query
+     * result to be cached by the SPARQL endpoint; larger results are streamed
+     * without being cached.
+     */
+    @ConfigurationParameter
+    public Integer getSparqlResultCacheMaxEntryKB() {
+        return getInteger("sparqlResultCacheMaxEntryKB", 1024);
+    }
+
+    /**
+     * Returns the total heap budget (in megabytes) for the serialized query
+     * results cached by the SPARQL endpoint.
+     */
+    @ConfigurationParameter
+    public Integer getSparqlResultCacheBudgetMB() {
+        return getInteger("sparqlResultCacheBudgetMB", 32);
+    }
+
+    /**
+     * Returns the time (in seconds) after which results cached by the SPARQL
+     * endpoint expire, as writes which do not go through the platform (e.g.
+     * to remote repositories) are not noticed; a value of 0 disables the
+     * expiry.
+     */
+    @ConfigurationParameter
+    public Integer getSparqlResultCacheTtlSeconds() {
+        return getInteger("sparqlResultCacheTtlSeconds", 300);
+    }
+
+    /**
+     * Returns the default timeout (in seconds) for queries received by the
+     * SPARQL endpoint; a value of 0 (default) disables the timeout.
+     */
+    @ConfigurationParameter
+    public Integer getSparqlQueryTimeoutSeconds() {
+        return getInteger("sparqlQueryTimeoutSeconds", 0);
+    }
+
+    /**
+     * Returns the timeout (in seconds) for queries received by the SPARQL
+     * endpoint on the repository with the given ID. Looked up as
+     * <code>sparqlQueryTimeoutSeconds.&lt;repositoryId&gt;</code>, falling
+     * back to {@link #getSparqlQueryTimeoutSeconds()}.
+     */
+    public Integer getSparqlQueryTimeoutSeconds(final String repositoryId) {
+        return getInteger("sparqlQueryTimeoutSeconds." + repositoryId, getSparqlQueryTimeoutSeconds());
+    }
+
+    /**
+     * Returns the timeouts (in seconds) of queries received by the SPARQL
+     * endpoint per role, configured as list of <code>role:seconds</code>
+     * entries, e.g. <code>admin:0,guest:30</code>. These take precedence over
+     * the timeouts per repository; if a user has several of the roles, the
+     * most permissive timeout applies and 0 disables the timeout.
+     */
+    @ConfigurationParameter
+    public List<String> getSparqlQueryRoleTimeouts() {
+        return getStringList("sparqlQueryRoleTimeouts", Lists.newArrayList());
+    }
+
+    /**
+     * Returns the default number of threads per repository which evaluate
+     * requests to the SPARQL endpoint.
+     */
+    @ConfigurationParameter
+    public Integer getSparqlExecutorThreads() {
+        return getInteger("sparqlExecutorThreads", 8);
+    }
+
+    /**
+     * Returns the number of threads which evaluate requests to the SPARQL
+     * endpoint on the repository with the given ID. Looked up as
+     * <code>sparqlExecutorThreads.&lt;repositoryId&gt;</code>, falling back to
+     * {@link #getSparqlExecutorThreads()}.
+     */
+    public Integer getSparqlExecutorThreads(final String repositoryId) {
+        return getInteger("sparqlExecutorThreads." + repositoryId, getSparqlExecutorThreads());
+    }
+
+    /**
+     * Returns the default number of requests to the SPARQL endpoint per
+     * repository which may wait for evaluation; further requests are rejected
+     * with status 503.
+     */
+    @ConfigurationParameter
+    public Integer getSparqlExecutorQueueSize() {
+        return getInteger("sparqlExecutorQueueSize", 100);
+    }
+
+    /**
+     * Returns the number of requests to the SPARQL endpoint on the repository
+     * with the given ID which may wait for evaluation. Looked up analogously
+     * to {@link #getSparqlExecutorThreads(String)}.
+     */
+    public Integer getSparqlExecutorQueueSize(final String repositoryId) {
+        return getInteger("sparqlExecutorQueueSize." + repositoryId, getSparqlExecutorQueueSize());
+    }
+
+    /**
+     * Returns the time (in seconds) clients are asked to wait (via the
+     * <code>Retry-After</code> header) before they retry a request to the
+     * SPARQL endpoint which has been rejected since the queue was full.
+     */
+    @ConfigurationParameter
+    public Integer getSparqlExecutorRetryAfterSeconds() {
+        return getInteger("sparqlExecutorRetryAfterSeconds", 5);
+    }
+
+    /**
+     * Returns the maximum number of operations of a single request to the
+     * batch endpoint of the SPARQL endpoint.
+     */
+    @ConfigurationParameter
+    public Integer getSparqlBatchMaxOperations() {
+        return getInteger("sparqlBatchMaxOperations", 100);
+    }
+
+    /**
+     * Returns the maximum size (in KB) of the result of a single operation of
+     * a request to the batch endpoint of the SPARQL endpoint. Larger results
+     * are rejected, such queries need to be executed separately.
+     */
+    @ConfigurationParameter
+    public Integer getSparqlBatchMaxResultKB() {
+        return getInteger("sparqlBatchMaxResultKB", 4096);
+    }
+
+    /**
+     * Returns the number of statements which are added or removed at once by
+     * <code>INSERT DATA</code> and <code>DELETE DATA</code> updates streamed
+     * by the SPARQL endpoint.
+     */
+    @ConfigurationParameter
+    public Integer getSparqlUpdateStreamingBatchSize() {
+        return getInteger("sparqlUpdateStreamingBatchSize", 10000);
+    }
+
+    /**
+     * Returns the time (in seconds) after which an unused result cursor of the
+     * SPARQL endpoint expires and its resources are released.
+     */
+    @ConfigurationParameter
+    public Integer getSparqlCursorIdleTimeoutSeconds() {
+        return getInteger("sparqlCursorIdleTimeoutSeconds", 300);
+    }
+
+    /**
+     * Returns the maximum number of open result cursors of the SPARQL endpoint
+     * per user; further cursors are rejected with status 429.
+     */
+    @ConfigurationParameter
+    public Integer getSparqlCursorMaxPerUser() {
+        return getInteger("sparqlCursorMaxPerUser", 5);
+    }
+
+    /**
+     * Returns the maximum size (in MB) of the remaining result of a single
+     * result cursor of the SPARQL endpoint, which is spilled to disk.
+     */
+    @ConfigurationParameter
+    public Integer getSparqlCursorMaxSpillMB() {
+        return getInteger("sparqlCursorMaxSpillMB", 256);
+    }
+
+    /**
+     * Returns whether results of the SPARQL endpoint are compressed with gzip
+     * or deflate, if accepted by the client.
+     */
+    @ConfigurationParameter
+    public Boolean getSparqlCompressionEnabled() {
+        return getBoolean("sparqlCompressionEnabled", true);
+    }
+
+    /**
+     * Returns the minimum size (in bytes) of a result of the SPARQL endpoint
+     * to be compressed; smaller results are sent uncompressed.
+     */
+    @ConfigurationParameter
+    public Integer getSparqlCompressionMinBytes() {
+        return getInteger("sparqlCompressionMinBytes", 1024);
+    }
+
+    /**
+     * Returns the size (in bytes) of the chunks in which results of the SPARQL
+     * endpoint are written to the client.
+     */
+    @ConfigurationParameter
+    public Integer getSparqlResponseBufferSize() {
+        return getInteger("sparqlResponseBufferSize", 65536);
+    }
+
+    /**
+     * Returns the time (in milliseconds) after which a query of the SPARQL
+     * endpoint is written to the slow query log, 0 disables the log.
+     */
+    @ConfigurationParameter
+    public Integer getSparqlSlowQueryThresholdMillis() {
+        return getInteger("sparqlSlowQueryThresholdMillis", 5000);
+    }
+
+    /**
+     * Returns the maximum number of distinct query fingerprints for which the
+     * query profiler keeps aggregated timings; the least recently executed
+     * fingerprints are dropped first. Changes take effect after a restart.
+     */
+    @ConfigurationParameter
+    public Integer getSparqlProfilerMaxFingerprints() {
+        return getInteger("sparqlProfilerMaxFingerprints", 1000);
+    }
+
+    /**
+     * Returns the number of most recent query profiles kept by the query
+     * profiler. Changes take effect after a restart.
+     */
+    @ConfigurationParameter
+    public Integer getSparqlProfilerRecentQueries() {
+        return getInteger("sparqlProfilerRecentQueries", 500);
+    }
+
+    /**
+     * Returns {@link #getSparqlQueryRoleTimeouts()} as map from role to timeout.
+     */
+    public Map<String, Integer> getSparqlQueryTimeoutSecondsPerRole() {
+        Map<String, Integer> timeouts = new LinkedHashMap<>();
+        for (String entry : getSparqlQueryRoleTimeouts()) {
+            int separator = entry.lastIndexOf(':');
+            if (separator <= 0) {
+                throw new IllegalArgumentException(
+                    "sparqlQueryRoleTimeouts must be a list of \"role:seconds\" entries, but contains \"" + entry + "\".");
+            }
+            timeouts.put(entry.substring(0, separator).trim(), Integer.parseInt(entry.substring(separator + 1).trim()));
+        }
+        return timeouts;
+    }
+
+    private Integer getCacheParameter(
+        final String cacheId, final String repositoryId, final String parameter, final Integer fallbackValue
+    ) {
+        final Integer cacheDefault = getInteger("cache." + cacheId + "." + parameter, fallbackValue);
+        return repositoryId == null
+            ? cacheDefault
+            : getInteger("cache." + cacheId + "." + repositoryId + "." + parameter, cacheDefault);
+    }
+
     /****************************** VALIDATION ********************************/
     @Override
     public void assertConsistency() {
@@ -121,6 +515,38 @@ public void assertConsistency() {
         if (getPreferredLanguages().isEmpty()) {
             throw new IllegalArgumentException("getPreferredLanguages must not be empty.");
         }
+        if (getResourcePropertyCacheHeapBudgetMB() < 0) {
+            throw new IllegalArgumentException("resourcePropertyCacheHeapBudgetMB must not be negative.");
+        }
+        if (getSparqlResultCacheTtlSeconds() < 0) {
+            throw new IllegalArgumentException("sparqlResultCacheTtlSeconds must not be negative.");
+        }
+        if (getSparqlQueryTimeoutSecondsPerRole().values().stream().anyMatch(timeout -> timeout < 0)) {
+            throw new IllegalArgumentException("sparqlQueryRoleTimeouts must not contain negative timeouts.");
+        }
+        if (getSparqlBatchMaxResultKB() < 1) {
+            throw new IllegalArgumentException("sparqlBatchMaxResultKB must be positive.");
+        }
+        if (getSparqlUpdateStreamingBatchSize() < 1) {
+            throw new IllegalArgumentException("sparqlUpdateStreamingBatchSize must be positive.");
+        }
+        if (getSparqlCursorIdleTimeoutSeconds() < 1 || getSparqlCursorMaxPerUser() < 1 || getSparqlCursorMaxSpillMB() < 1) {
+            throw new IllegalArgumentException(
+                "sparqlCursorIdleTimeoutSeconds, sparqlCursorMaxPerUser and sparqlCursorMaxSpillMB must be positive.");
+        }
+        if (getSparqlCompressionMinBytes() < 0) {
+            throw new IllegalArgumentException("sparqlCompressionMinBytes must not be negative.");
+        }
+        if (getSparqlResponseBufferSize() < 1) {
+            throw new IllegalArgumentException("sparqlResponseBufferSize must be positive.");
+        }
+        if (getSparqlSlowQueryThresholdMillis() < 0) {
+            throw new IllegalArgumentException("sparqlSlowQueryThresholdMillis must not be negative.");
+        }
+        if (getSparqlProfilerMaxFingerprints() < 1 || getSparqlProfilerRecentQueries() < 1) {
+            throw new IllegalArgumentException(
+                "sparqlProfilerMaxFingerprints and sparqlProfilerRecentQueries must be positive.");
+        }
     }
 
     private List<String> toFullIRIs(List<String> iris) {
@@ -47,6 +47,8 @@
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Sets;
 import com.google.inject.Injector;
+import com.metaphacts.cache.CacheManager;
+import com.metaphacts.cache.GuavaPlatformCache;
 import com.metaphacts.config.NamespaceRegistry;
 import com.metaphacts.data.rdf.ReadConnection;
 import com.metaphacts.vocabulary.LDP;
@@ -78,8 +80,18 @@ public abstract class AbstractLDPResource implements LDPResource {
 
     private static final Cache<Repository, RootContainer> rootContainer  = CacheBuilder.newBuilder()
             .maximumSize(5).expireAfterAccess(30, TimeUnit.MINUTES)
+            .recordStats()
             .build();
 
+    /**
+     * Registers the root container cache with the {@link CacheManager};
+     * called through static injection.
+     */
+    @Inject
+    static void registerRootContainerCache(CacheManager cacheManager) {
+        cacheManager.register(new GuavaPlatformCache("LDPRootContainerCache", rootContainer));
+    }
+
     public AbstractLDPResource(IRI  iri, Repository repository) {
         this.resourceIRI = iri;
         this.repository = repository;
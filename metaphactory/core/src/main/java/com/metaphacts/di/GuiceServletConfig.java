@@ -29,6 +29,9 @@
 import com.google.inject.Guice;
 import com.google.inject.Injector;
 import com.google.inject.servlet.GuiceServletContextListener;
+import com.metaphacts.api.sparql.ResultCursorRegistry;
+import com.metaphacts.cache.CacheInvalidationBus;
+import com.metaphacts.cache.CacheSnapshotStore;
 import com.metaphacts.repository.RepositoryManager;
 import com.metaphacts.security.ShiroGuiceModule;
 
@@ -69,6 +72,11 @@ public void contextInitialized(ServletContextEvent event) {
 
     @Override
     public void contextDestroyed(ServletContextEvent sce) {
+        if (injector != null) {
+            injector.getInstance(CacheSnapshotStore.class).shutdown();
+            injector.getInstance(CacheInvalidationBus.class).shutdown();
+            injector.getInstance(ResultCursorRegistry.class).shutdown();
+        }
     }
 
     @Override
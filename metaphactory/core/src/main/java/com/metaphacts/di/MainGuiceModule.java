@@ -41,15 +41,28 @@
 import com.google.inject.Singleton;
 import com.google.inject.multibindings.MapBinder;
 import com.google.inject.multibindings.Multibinder;
+import com.metaphacts.api.sparql.QueryProfiler;
+import com.metaphacts.api.sparql.ResultCursorRegistry;
+import com.metaphacts.api.sparql.RunningQueryRegistry;
+import com.metaphacts.api.sparql.SparqlOperationBuilder;
+import com.metaphacts.cache.CacheInvalidationBus;
 import com.metaphacts.cache.CacheManager;
+import com.metaphacts.cache.CacheSnapshotStore;
+import com.metaphacts.cache.CacheWeightBudget;
 import com.metaphacts.cache.LabelCache;
+import com.metaphacts.cache.SparqlResultCache;
 import com.metaphacts.cache.TemplateIncludeCache;
 import com.metaphacts.data.rdf.container.LDPApi;
+import com.metaphacts.data.rdf.container.AbstractLDPResource;
 import com.metaphacts.data.rdf.container.LDPImplManager;
 import com.metaphacts.plugin.MetaphactoryPluginManager;
 import com.metaphacts.repository.RepositoryManager;
+import com.metaphacts.security.AdmissionController;
 import com.metaphacts.security.ShiroTextRealm;
+import com.metaphacts.servlet.SparqlRequestExecutor;
+import com.metaphacts.servlet.SparqlBatchServlet;
 import com.metaphacts.servlet.SparqlServlet;
+import com.metaphacts.templates.helper.HelperUtil;
 import com.metaphacts.thumbnails.DefaultThumbnailService;
 import com.metaphacts.thumbnails.ThumbnailServiceRegistry;
 import com.metaphacts.ui.templates.MainTemplate;
@@ -85,15 +98,28 @@ protected void configure() {
 
         bind(RepositoryManager.class).in(Singleton.class);
         bind(CacheManager.class).in(Singleton.class);
+        bind(CacheWeightBudget.class).in(Singleton.class);
+        bind(CacheSnapshotStore.class).in(Singleton.class);
+        bind(CacheInvalidationBus.class).asEagerSingleton();
         bind(LabelCache.class).in(Singleton.class);
         bind(TemplateIncludeCache.class).in(Singleton.class);
+        bind(SparqlResultCache.class).in(Singleton.class);
+        bind(RunningQueryRegistry.class).in(Singleton.class);
+        bind(QueryProfiler.class).in(Singleton.class);
+        bind(ResultCursorRegistry.class).in(Singleton.class);
         bind(SparqlServlet.class).in(Singleton.class);
+        bind(SparqlBatchServlet.class).in(Singleton.class);
+        bind(SparqlRequestExecutor.class).in(Singleton.class);
+        bind(AdmissionController.class).in(Singleton.class);
         bind(ThumbnailServiceRegistry.class).in(Singleton.class);
         bind(DefaultThumbnailService.class).asEagerSingleton();
         
         bind(LDPImplManager.class).in(Singleton.class);
         requestStaticInjection(LDPImplManager.class);
         requestStaticInjection(LDPApi.class);
+        requestStaticInjection(AbstractLDPResource.class);
+        requestStaticInjection(SparqlOperationBuilder.class);
+        requestStaticInjection(HelperUtil.class);
 
         //file upload url processors
         Multibinder<UploadHandler> uriBinder = Multibinder.newSetBinder(binder(), UploadHandler.class);
@@ -19,6 +19,7 @@
 package com.metaphacts.di;
 
 import com.google.inject.servlet.ServletModule;
+import com.metaphacts.servlet.SparqlBatchServlet;
 import com.metaphacts.servlet.SparqlServlet;
 import com.metaphacts.servlet.filter.AssetFilter;
 import com.metaphacts.servlet.filter.HomePageFilter;
@@ -37,6 +38,7 @@ protected void configureServlets() {
         
         //register servlets
         serve("/sparql").with(SparqlServlet.class);
+        serve("/sparql/batch").with(SparqlBatchServlet.class);
     }
     
 }
\ No newline at end of file
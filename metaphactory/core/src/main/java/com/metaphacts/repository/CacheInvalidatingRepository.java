@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.repository.base.RepositoryWrapper;
+
+import com.metaphacts.cache.CacheManager;
+
+/**
+ * Repository wrapper which hands out {@link CacheInvalidatingRepositoryConnection}s,
+ * such that all writes to the wrapped repository purge the affected resources
+ * from the platform caches. Installed by the {@link RepositoryManager} for
+ * all managed repositories.
+ *
+ * <p>
+ * In addition the wrapper maintains a generation counter, which is incremented
+ * by every committed write. If a generation file is given, the counter is
+ * persisted and survives restarts, so that it can be used to detect whether
+ * data derived from the repository (e.g. cache snapshots) is outdated.
+ * Note that writes which bypass the platform are not tracked.
+ * </p>
+ */
+public class CacheInvalidatingRepository extends RepositoryWrapper {
+
+    private static final Logger logger = LogManager.getLogger(CacheInvalidatingRepository.class);
+
+    private final CacheManager cacheManager;
+    private final Supplier<Integer> maxResources;
+    private final File generationFile;
+
+    private long generation;
+
+    /**
+     * @param delegate the repository to wrap
+     * @param cacheManager the cache manager used for invalidation
+     * @param maxResources supplies the maximum number of resources to purge
+     *        individually, before falling back to invalidation of all caches
+     * @param generationFile file to persist the generation counter in,
+     *        may be <code>null</code>
+     */
+    public CacheInvalidatingRepository(
+        Repository delegate, CacheManager cacheManager,
+        Supplier<Integer> maxResources, File generationFile
+    ) {
+        super(delegate);
+        this.cacheManager = cacheManager;
+        this.maxResources = maxResources;
+        this.generationFile = generationFile;
+        this.generation = readGeneration();
+    }
+
+    @Override
+    public RepositoryConnection getConnection() throws RepositoryException {
+        return new CacheInvalidatingRepositoryConnection(
+            this, getDelegate().getConnection(), cacheManager, maxResources.get());
+    }
+
+    /**
+     * @return the number of committed writes to the repository
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    synchronized void incrementGeneration() {
+        generation++;
+        if (generationFile != null) {
+            try {
+                FileUtils.writeStringToFile(generationFile, Long.toString(generation), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                logger.warn("Failed to persist repository generation to {}: {}", generationFile, e.getMessage());
+            }
+        }
+    }
+
+    private long readGeneration() {
+        if (generationFile == null || !generationFile.exists()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(FileUtils.readFileToString(generationFile, StandardCharsets.UTF_8).trim());
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("Failed to read repository generation from {}: {}", generationFile, e.getMessage());
+            // make sure that previously persisted data is never considered up to date
+            return System.currentTimeMillis();
+        }
+    }
+}
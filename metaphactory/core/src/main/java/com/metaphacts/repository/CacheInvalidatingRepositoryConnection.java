@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.repository;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.Dataset;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.Update;
+import org.eclipse.rdf4j.query.UpdateExecutionException;
+import org.eclipse.rdf4j.query.algebra.DeleteData;
+import org.eclipse.rdf4j.query.algebra.InsertData;
+import org.eclipse.rdf4j.query.algebra.Modify;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.UpdateExpr;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.helpers.StatementPatternCollector;
+import org.eclipse.rdf4j.query.parser.ParsedUpdate;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+import org.eclipse.rdf4j.query.parser.sparql.SPARQLUpdateDataBlockParser;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.repository.RepositoryResult;
+import org.eclipse.rdf4j.repository.base.RepositoryConnectionWrapper;
+import org.eclipse.rdf4j.rio.helpers.AbstractRDFHandler;
+
+import com.metaphacts.cache.CacheManager;
+import com.metaphacts.config.groups.UIConfiguration;
+
+/**
+ * Connection wrapper which keeps track of the subjects of all statements that
+ * are added or removed through the connection, including the statements
+ * affected by SPARQL UPDATE operations. Once the changes have been committed,
+ * exactly these resources are purged from all platform caches via
+ * {@link CacheManager#invalidateResources(java.util.List)}.
+ *
+ * <p>
+ * If the affected subjects can not be determined (e.g. for <code>LOAD</code>,
+ * <code>DROP</code> or pattern-based updates with variable subjects) or if
+ * their number exceeds {@link UIConfiguration#getCacheInvalidationMaxResources()},
+ * all caches are invalidated instead.
+ * </p>
+ */
+public class CacheInvalidatingRepositoryConnection extends RepositoryConnectionWrapper {
+
+    private static final Logger logger = LogManager.getLogger(CacheInvalidatingRepositoryConnection.class);
+
+    private final CacheInvalidatingRepository repository;
+    private final CacheManager cacheManager;
+    private final int maxResources;
+
+    private final Set<IRI> changedResources = new LinkedHashSet<>();
+    private boolean invalidateAll = false;
+    /**
+     * Whether anything has been written in the current transaction, also
+     * covers writes of blank nodes which do not affect any cached resource.
+     */
+    private boolean changed = false;
+
+    public CacheInvalidatingRepositoryConnection(
+        CacheInvalidatingRepository repository, RepositoryConnection delegate,
+        CacheManager cacheManager, int maxResources
+    ) {
+        super(repository, delegate);
+        this.repository = repository;
+        this.cacheManager = cacheManager;
+        this.maxResources = maxResources;
+    }
+
+    /**
+     * Disables delegation of add operations, such that all additions
+     * (including RDF file uploads) are funneled through
+     * {@link #addWithoutCommit(Resource, IRI, Value, Resource...)}.
+     */
+    @Override
+    protected boolean isDelegatingAdd() throws RepositoryException {
+        return false;
+    }
+
+    /**
+     * Disables delegation of remove operations, such that all removals
+     * (including clear operations) are funneled through
+     * {@link #removeWithoutCommit(Resource, IRI, Value, Resource...)}.
+     */
+    @Override
+    protected boolean isDelegatingRemove() throws RepositoryException {
+        return false;
+    }
+
+    @Override
+    protected void addWithoutCommit(Resource subject, IRI predicate, Value object, Resource... contexts)
+        throws RepositoryException {
+        super.addWithoutCommit(subject, predicate, object, contexts);
+        changed = true;
+        recordSubject(subject);
+    }
+
+    @Override
+    protected void removeWithoutCommit(Resource subject, IRI predicate, Value object, Resource... contexts)
+        throws RepositoryException {
+        changed = true;
+        if (subject == null) {
+            // wildcard removal, we need to look up the affected subjects before removing them
+            recordSubjectsOfMatchingStatements(predicate, object, contexts);
+        } else {
+            recordSubject(subject);
+        }
+        super.removeWithoutCommit(subject, predicate, object, contexts);
+    }
+
+    @Override
+    public Update prepareUpdate(QueryLanguage ql, String update, String baseURI) throws RepositoryException {
+        return new CacheInvalidatingUpdate(super.prepareUpdate(ql, update, baseURI), ql, update, baseURI);
+    }
+
+    @Override
+    public void commit() throws RepositoryException {
+        super.commit();
+        invalidateChangedResources();
+    }
+
+    @Override
+    public void rollback() throws RepositoryException {
+        super.rollback();
+        reset();
+    }
+
+    @Override
+    public void close() throws RepositoryException {
+        // uncommitted changes are discarded by the delegate
+        reset();
+        super.close();
+    }
+
+    private void invalidateChangedResources() {
+        if (changed || invalidateAll || !changedResources.isEmpty()) {
+            repository.incrementGeneration();
+        }
+        if (invalidateAll) {
+            cacheManager.invalidateAll();
+        } else if (!changedResources.isEmpty()) {
+            cacheManager.invalidateResources(new ArrayList<>(changedResources));
+        }
+        reset();
+    }
+
+    private void reset() {
+        changedResources.clear();
+        invalidateAll = false;
+        changed = false;
+    }
+
+    private void recordSubject(Resource subject) {
+        if (invalidateAll || !(subject instanceof IRI)) {
+            // only IRIs are used as cache keys
+            return;
+        }
+        changedResources.add((IRI) subject);
+        if (changedResources.size() > maxResources) {
+            logger.debug("More than {} resources changed, falling back to invalidation of all caches.", maxResources);
+            recordUnknownChanges();
+        }
+    }
+
+    private void recordUnknownChanges() {
+        invalidateAll = true;
+        changedResources.clear();
+    }
+
+    private void recordSubjectsOfMatchingStatements(IRI predicate, Value object, Resource... contexts) {
+        try (RepositoryResult<Statement> statements =
+                 getDelegate().getStatements(null, predicate, object, false, contexts)) {
+            while (!invalidateAll && statements.hasNext()) {
+                recordSubject(statements.next().getSubject());
+            }
+        }
+    }
+
+    /**
+     * Records the subjects affected by the given SPARQL UPDATE. Needs to be
+     * called before executing the update, as subjects of deleted statements
+     * may need to be looked up in the repository.
+     */
+    private void recordSubjectsOfUpdate(QueryLanguage ql, String update, String baseURI, BindingSet bindings) {
+        if (!QueryLanguage.SPARQL.equals(ql)) {
+            recordUnknownChanges();
+            return;
+        }
+        try {
+            ParsedUpdate parsedUpdate = QueryParserUtil.parseUpdate(ql, update, baseURI);
+            for (UpdateExpr updateExpr : parsedUpdate.getUpdateExprs()) {
+                if (invalidateAll) {
+                    return;
+                }
+                if (updateExpr instanceof InsertData) {
+                    recordSubjectsOfDataBlock(((InsertData) updateExpr).getDataBlock());
+                } else if (updateExpr instanceof DeleteData) {
+                    recordSubjectsOfDataBlock(((DeleteData) updateExpr).getDataBlock());
+                } else if (updateExpr instanceof Modify) {
+                    Modify modify = (Modify) updateExpr;
+                    recordSubjectsOfTemplate(modify.getDeleteExpr(), bindings);
+                    recordSubjectsOfTemplate(modify.getInsertExpr(), bindings);
+                } else {
+                    // LOAD, CLEAR, DROP, COPY, MOVE, ADD, CREATE
+                    recordUnknownChanges();
+                }
+            }
+        } catch (Exception e) {
+            logger.debug("Failed to extract affected resources from SPARQL UPDATE: {}", e.getMessage());
+            recordUnknownChanges();
+        }
+    }
+
+    private void recordSubjectsOfDataBlock(String dataBlock) throws Exception {
+        SPARQLUpdateDataBlockParser parser = new SPARQLUpdateDataBlockParser(SimpleValueFactory.getInstance());
+        parser.setRDFHandler(new AbstractRDFHandler() {
+            @Override
+            public void handleStatement(Statement st) {
+                recordSubject(st.getSubject());
+            }
+        });
+        parser.parse(new ByteArrayInputStream(dataBlock.getBytes(StandardCharsets.UTF_8)), "");
+    }
+
+    private void recordSubjectsOfTemplate(TupleExpr template, BindingSet bindings) {
+        if (template == null) {
+            return;
+        }
+        for (StatementPattern pattern : StatementPatternCollector.process(template)) {
+            Var subjectVar = pattern.getSubjectVar();
+            Value subject = subjectVar.hasValue() ? subjectVar.getValue() : bindings.getValue(subjectVar.getName());
+            if (subject == null) {
+                // variable subject, affected resources are only known after evaluation of the WHERE clause
+                recordUnknownChanges();
+                return;
+            }
+            if (subject instanceof Resource) {
+                recordSubject((Resource) subject);
+            }
+        }
+    }
+
+    /**
+     * {@link Update} wrapper which records the affected subjects on execution.
+     */
+    private class CacheInvalidatingUpdate implements Update {
+        private final Update delegate;
+        private final QueryLanguage ql;
+        private final String update;
+        private final String baseURI;
+
+        private CacheInvalidatingUpdate(Update delegate, QueryLanguage ql, String update, String baseURI) {
+            this.delegate = delegate;
+            this.ql = ql;
+            this.update = update;
+            this.baseURI = baseURI;
+        }
+
+        @Override
+        public void execute() throws UpdateExecutionException {
+            recordSubjectsOfUpdate(ql, update, baseURI, delegate.getBindings());
+            changed = true;
+            delegate.execute();
+            if (!isActive()) {
+                // executed in auto-commit mode
+                invalidateChangedResources();
+            }
+        }
+
+        @Override
+        public void setBinding(String name, Value value) {
+            delegate.setBinding(name, value);
+        }
+
+        @Override
+        public void removeBinding(String name) {
+            delegate.removeBinding(name);
+        }
+
+        @Override
+        public void clearBindings() {
+            delegate.clearBindings();
+        }
+
+        @Override
+        public BindingSet getBindings() {
+            return delegate.getBindings();
+        }
+
+        @Override
+        public void setDataset(Dataset dataset) {
+            delegate.setDataset(dataset);
+        }
+
+        @Override
+        public Dataset getDataset() {
+            return delegate.getDataset();
+        }
+
+        @Override
+        public void setIncludeInferred(boolean includeInferred) {
+            delegate.setIncludeInferred(includeInferred);
+        }
+
+        @Override
+        public boolean getIncludeInferred() {
+            return delegate.getIncludeInferred();
+        }
+
+        @Override
+        public void setMaxExecutionTime(int maxExecTime) {
+            delegate.setMaxExecutionTime(maxExecTime);
+        }
+
+        @Override
+        public int getMaxExecutionTime() {
+            return delegate.getMaxExecutionTime();
+        }
+    }
+}
@@ -72,6 +72,48 @@ public class MpRepositoryVocabulary {
     public static final IRI PASSWORD = VF.createIRI(NAMESPACE, "password");
     public static final IRI REALM = VF.createIRI(NAMESPACE, "realm");
     public static final IRI QUAD_MODE = VF.createIRI(NAMESPACE, "quadMode");
+    /**
+     * Smallest (and initial) number of bindings sent at once in a bound join to a federation
+     * member.
+     */
+    public static final IRI BOUND_JOIN_MIN_BLOCK_SIZE = VF.createIRI(NAMESPACE, "boundJoinMinBlockSize");
+    /**
+     * Largest number of bindings sent at once in a bound join to a federation member.
+     */
+    public static final IRI BOUND_JOIN_MAX_BLOCK_SIZE = VF.createIRI(NAMESPACE, "boundJoinMaxBlockSize");
+    /**
+     * Latency (in milliseconds) of a bound join block above which the block size is reduced.
+     */
+    public static final IRI BOUND_JOIN_TARGET_BLOCK_MILLIS = VF.createIRI(NAMESPACE,
+            "boundJoinTargetBlockMillis");
+    /**
+     * Number of results of a bound join block above which the block size is reduced.
+     */
+    public static final IRI BOUND_JOIN_MAX_BLOCK_RESULTS = VF.createIRI(NAMESPACE,
+            "boundJoinMaxBlockResults");
+    /**
+     * Number of bound join blocks of a query which may be evaluated at a federation member at the
+     * same time.
+     */
+    public static final IRI BOUND_JOIN_MAX_CONCURRENT_BLOCKS = VF.createIRI(NAMESPACE,
+            "boundJoinMaxConcurrentBlocks");
+    /**
+     * Whether the results of concurrently evaluated bound join blocks are always returned in the
+     * order of the blocks, not only for queries with ORDER BY, LIMIT or OFFSET.
+     */
+    public static final IRI BOUND_JOIN_PRESERVE_ORDER = VF.createIRI(NAMESPACE,
+            "boundJoinPreserveOrder");
+    /**
+     * Time (in seconds) after which the statistics of federation members used for the join
+     * ordering of federated queries are collected again; 0 disables the statistics.
+     */
+    public static final IRI STATISTICS_TTL_SECONDS = VF.createIRI(NAMESPACE, "statisticsTtlSeconds");
+    /**
+     * Maximum execution time (in seconds) of the queries collecting the statistics of a federation
+     * member.
+     */
+    public static final IRI STATISTICS_PROBE_TIMEOUT_SECONDS = VF.createIRI(NAMESPACE,
+            "statisticsProbeTimeoutSeconds");
 
     private MpRepositoryVocabulary() {
 
@@ -71,7 +71,6 @@ public class RepositoryManager implements RepositoryManagerInterface {
     private static final Logger logger = LogManager.getLogger(RepositoryManager.class);
     
     private Configuration config;
-    @SuppressWarnings("unused")
     private CacheManager cacheManager;
     
     private final Map<String, Repository> initializedRepositories = Maps.newConcurrentMap();
@@ -266,6 +265,11 @@ private synchronized Repository initializeRepository(
         repository.setDataDir(new File(getRepositoryDataFolder(),repConfig.getID()));
         
         repository.initialize();
+        // purge resources from the platform caches whenever they are changed through the repository
+        repository = new CacheInvalidatingRepository(
+            repository, cacheManager,
+            () -> config.getUiConfig().getCacheInvalidationMaxResources(),
+            new File(getRepositoryDataFolder(), repConfig.getID() + ".generation"));
         initializedRepositories.put(repConfig.getID(), repository);
         logger.info("Repository with id \"{}\" successfully initialized",repConfig.getID());
         
@@ -19,8 +19,12 @@
 package com.metaphacts.repository.federation;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
@@ -43,7 +47,11 @@
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.metaphacts.repository.RepositoryManager;
+import com.metaphacts.repository.federation.evaluation.AdaptiveBlockSize;
 import com.metaphacts.repository.federation.evaluation.MpFederationStrategy;
+import com.metaphacts.repository.federation.optimizers.FederationEvaluationStatistics;
+import com.metaphacts.repository.federation.statistics.FederationStatistics;
+import com.metaphacts.repository.federation.statistics.MemberStatistics;
 
 /**
  * Implementation of the custom federation SAIL.
@@ -68,9 +76,56 @@ public class MpFederation extends Federation {
     
     protected boolean isServiceResolverInitialized = false;
 
+    protected final int boundJoinMinBlockSize;
+    protected final int boundJoinMaxBlockSize;
+    protected final long boundJoinTargetBlockMillis;
+    protected final long boundJoinMaxBlockResults;
+    protected final int boundJoinMaxConcurrentBlocks;
+    protected final boolean boundJoinPreserveOrder;
+
+    /**
+     * Member statistics for the join ordering, <code>null</code> if disabled.
+     */
+    protected final FederationStatistics statistics;
+
+    /**
+     * Bound join block sizes per member repository, shared by all queries.
+     */
+    private final ConcurrentMap<Repository, AdaptiveBlockSize> boundJoinBlockSizes = new ConcurrentHashMap<>();
+
     public MpFederation(String defaultRepositoryId, Map<IRI, String> repositoryIDMappings) {
         this.defaultRepositoryId = defaultRepositoryId;
         this.repositoryIDMappings = repositoryIDMappings;
+        this.boundJoinMinBlockSize = MpFederationConfig.DEFAULT_BOUND_JOIN_MIN_BLOCK_SIZE;
+        this.boundJoinMaxBlockSize = MpFederationConfig.DEFAULT_BOUND_JOIN_MAX_BLOCK_SIZE;
+        this.boundJoinTargetBlockMillis = MpFederationConfig.DEFAULT_BOUND_JOIN_TARGET_BLOCK_MILLIS;
+        this.boundJoinMaxBlockResults = MpFederationConfig.DEFAULT_BOUND_JOIN_MAX_BLOCK_RESULTS;
+        this.boundJoinMaxConcurrentBlocks = MpFederationConfig.DEFAULT_BOUND_JOIN_MAX_CONCURRENT_BLOCKS;
+        this.boundJoinPreserveOrder = false;
+        this.statistics = createStatistics(MpFederationConfig.DEFAULT_STATISTICS_TTL_SECONDS,
+                MpFederationConfig.DEFAULT_STATISTICS_PROBE_TIMEOUT_SECONDS);
+    }
+
+    public MpFederation(MpFederationConfig config) {
+        this.defaultRepositoryId = config.getDefaultMember();
+        this.repositoryIDMappings = config.getRepositoryIDMappings();
+        this.boundJoinMinBlockSize = config.getBoundJoinMinBlockSize();
+        this.boundJoinMaxBlockSize = config.getBoundJoinMaxBlockSize();
+        this.boundJoinTargetBlockMillis = config.getBoundJoinTargetBlockMillis();
+        this.boundJoinMaxBlockResults = config.getBoundJoinMaxBlockResults();
+        this.boundJoinMaxConcurrentBlocks = config.getBoundJoinMaxConcurrentBlocks();
+        this.boundJoinPreserveOrder = config.isBoundJoinPreserveOrder();
+        this.statistics = createStatistics(config.getStatisticsTtlSeconds(),
+                config.getStatisticsProbeTimeoutSeconds());
+    }
+
+    private FederationStatistics createStatistics(long ttlSeconds, int probeTimeoutSeconds) {
+        if (ttlSeconds <= 0) {
+            return null;
+        }
+        // the statistics are collected by the executor of the federation
+        return new FederationStatistics(this, TimeUnit.SECONDS.toMillis(ttlSeconds), probeTimeoutSeconds,
+                this::getMemberName);
     }
 
     @Override
@@ -141,6 +196,79 @@ public Map<IRI, Repository> getServiceMappings() {
                     entry -> repositoryManager.getRepository(entry.getValue())));
     }
     
+    /**
+     * Gets the adaptive bound join block size for the member which the given connection belongs to.
+     * 
+     * @param member
+     * @return
+     */
+    public AdaptiveBlockSize getBoundJoinBlockSize(RepositoryConnection member) {
+        return boundJoinBlockSizes.computeIfAbsent(member.getRepository(),
+                repository -> new AdaptiveBlockSize(getMemberName(repository), boundJoinMinBlockSize,
+                        boundJoinMaxBlockSize, boundJoinTargetBlockMillis, boundJoinMaxBlockResults));
+    }
+
+    /**
+     * Gets the number of bound join blocks of a query which are evaluated at a member at the same time.
+     * 
+     * @return
+     */
+    public int getBoundJoinMaxConcurrentBlocks() {
+        return boundJoinMaxConcurrentBlocks;
+    }
+
+    /**
+     * Whether the results of bound join blocks are returned in the order of the blocks for all queries.
+     * 
+     * @return
+     */
+    public boolean isBoundJoinPreserveOrder() {
+        return boundJoinPreserveOrder;
+    }
+
+    /**
+     * Gets the current bound join block sizes and the recent blocks per member, for diagnostics.
+     * 
+     * @return
+     */
+    public Map<String, AdaptiveBlockSize.Stats> getBoundJoinStats() {
+        return boundJoinBlockSizes.values().stream()
+                .map(AdaptiveBlockSize::getStats)
+                .collect(Collectors.toMap(AdaptiveBlockSize.Stats::getMember, stats -> stats));
+    }
+
+    /**
+     * Creates the cardinality estimates for optimizing a query with the given default member, or
+     * returns <code>null</code> if the member statistics are disabled.
+     * 
+     * @param defaultMember
+     * @return
+     */
+    public FederationEvaluationStatistics createEvaluationStatistics(RepositoryConnection defaultMember) {
+        if (statistics == null) {
+            return null;
+        }
+        return new FederationEvaluationStatistics(statistics, defaultMember.getRepository(),
+                getServiceMappings());
+    }
+
+    /**
+     * Gets the statistics collected so far per member, for diagnostics.
+     * 
+     * @return
+     */
+    public Map<String, MemberStatistics> getMemberStatistics() {
+        return statistics != null ? statistics.getCollectedStatistics() : Collections.emptyMap();
+    }
+
+    private String getMemberName(Repository repository) {
+        try {
+            return repositoryManagerProvider.get().getRepositoryID(repository);
+        } catch (RuntimeException e) {
+            return repository.toString();
+        }
+    }
+
     /**
      * Federation service resolver is initialized from {@link RepositoryManager}
      */
@@ -158,6 +286,12 @@ protected synchronized void initServiceResolver() {
         
         super.setFederatedServiceResolver(serviceResolver);
         isServiceResolverInitialized = true;
+
+        if (statistics != null) {
+            // collect the statistics before the first queries arrive
+            getMembers().forEach(statistics::refresh);
+            serviceMappings.values().forEach(statistics::refresh);
+        }
     }
 
     @Override
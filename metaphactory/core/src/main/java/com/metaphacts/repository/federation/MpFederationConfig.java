@@ -39,6 +39,8 @@
 
 import com.metaphacts.repository.MpDelegatingImplConfig;
 import com.metaphacts.repository.MpRepositoryVocabulary;
+import com.metaphacts.repository.federation.evaluation.AdaptiveBlockSize;
+import com.metaphacts.repository.federation.statistics.FederationStatistics;
 
 import com.google.common.collect.Lists;
 
@@ -116,9 +118,29 @@ public Collection<String> getDelegateRepositoryIDs() {
     }
 
     private static final ValueFactory vf = SimpleValueFactory.getInstance();
+
+    public static final int DEFAULT_BOUND_JOIN_MIN_BLOCK_SIZE = 3;
+    public static final int DEFAULT_BOUND_JOIN_MAX_BLOCK_SIZE = 1000;
+    public static final long DEFAULT_BOUND_JOIN_TARGET_BLOCK_MILLIS = 1000;
+    public static final long DEFAULT_BOUND_JOIN_MAX_BLOCK_RESULTS = 10000;
+    public static final int DEFAULT_BOUND_JOIN_MAX_CONCURRENT_BLOCKS = 4;
+    /**
+     * Member statistics are disabled unless a time to live is configured.
+     */
+    public static final long DEFAULT_STATISTICS_TTL_SECONDS = 0;
+    public static final int DEFAULT_STATISTICS_PROBE_TIMEOUT_SECONDS = 300;
     
     private List<MpFederationMemberConfig> memberConfigs = Lists.newArrayList();
     private String defaultMember = null;
+
+    private int boundJoinMinBlockSize = DEFAULT_BOUND_JOIN_MIN_BLOCK_SIZE;
+    private int boundJoinMaxBlockSize = DEFAULT_BOUND_JOIN_MAX_BLOCK_SIZE;
+    private long boundJoinTargetBlockMillis = DEFAULT_BOUND_JOIN_TARGET_BLOCK_MILLIS;
+    private long boundJoinMaxBlockResults = DEFAULT_BOUND_JOIN_MAX_BLOCK_RESULTS;
+    private int boundJoinMaxConcurrentBlocks = DEFAULT_BOUND_JOIN_MAX_CONCURRENT_BLOCKS;
+    private boolean boundJoinPreserveOrder = false;
+    private long statisticsTtlSeconds = DEFAULT_STATISTICS_TTL_SECONDS;
+    private int statisticsProbeTimeoutSeconds = DEFAULT_STATISTICS_PROBE_TIMEOUT_SECONDS;
     
     public MpFederationConfig() {
         super(MpFederationFactory.SAIL_TYPE);
@@ -144,6 +166,106 @@ public void setDefaultMember(String defaultMember) {
         this.defaultMember = defaultMember;
     }
 
+    /**
+     * The number of bindings sent at once to a member in a bound join starts at this size and is
+     * never reduced below it, see {@link AdaptiveBlockSize}.
+     */
+    public int getBoundJoinMinBlockSize() {
+        return boundJoinMinBlockSize;
+    }
+
+    public void setBoundJoinMinBlockSize(int boundJoinMinBlockSize) {
+        this.boundJoinMinBlockSize = boundJoinMinBlockSize;
+    }
+
+    /**
+     * The number of bindings sent at once to a member in a bound join never grows beyond this
+     * size. Setting it to the minimum size disables the adaptation.
+     */
+    public int getBoundJoinMaxBlockSize() {
+        return boundJoinMaxBlockSize;
+    }
+
+    public void setBoundJoinMaxBlockSize(int boundJoinMaxBlockSize) {
+        this.boundJoinMaxBlockSize = boundJoinMaxBlockSize;
+    }
+
+    /**
+     * Bound join blocks taking longer than this (in milliseconds) reduce the block size of the
+     * member.
+     */
+    public long getBoundJoinTargetBlockMillis() {
+        return boundJoinTargetBlockMillis;
+    }
+
+    public void setBoundJoinTargetBlockMillis(long boundJoinTargetBlockMillis) {
+        this.boundJoinTargetBlockMillis = boundJoinTargetBlockMillis;
+    }
+
+    /**
+     * Bound join blocks with more results than this reduce the block size of the member.
+     */
+    public long getBoundJoinMaxBlockResults() {
+        return boundJoinMaxBlockResults;
+    }
+
+    public void setBoundJoinMaxBlockResults(long boundJoinMaxBlockResults) {
+        this.boundJoinMaxBlockResults = boundJoinMaxBlockResults;
+    }
+
+    /**
+     * Number of bound join blocks of a query which are evaluated at a member at the same time.
+     * Further blocks are only sent once the results of one of these blocks have been consumed.
+     * Setting it to 1 evaluates the blocks one after another.
+     */
+    public int getBoundJoinMaxConcurrentBlocks() {
+        return boundJoinMaxConcurrentBlocks;
+    }
+
+    public void setBoundJoinMaxConcurrentBlocks(int boundJoinMaxConcurrentBlocks) {
+        this.boundJoinMaxConcurrentBlocks = boundJoinMaxConcurrentBlocks;
+    }
+
+    /**
+     * If set, the results of concurrently evaluated bound join blocks are returned in the order of
+     * the blocks for all queries. Otherwise the order is only preserved for queries with ORDER BY,
+     * LIMIT or OFFSET, and the results of the other queries are returned as soon as their block
+     * completes.
+     */
+    public boolean isBoundJoinPreserveOrder() {
+        return boundJoinPreserveOrder;
+    }
+
+    public void setBoundJoinPreserveOrder(boolean boundJoinPreserveOrder) {
+        this.boundJoinPreserveOrder = boundJoinPreserveOrder;
+    }
+
+    /**
+     * The predicate counts of the members, which are used to order the joins of federated
+     * queries, are collected again after this time (in seconds), see
+     * {@link FederationStatistics}. If it is 0 (the default), no statistics are collected and the
+     * joins are evaluated in the order of the query.
+     */
+    public long getStatisticsTtlSeconds() {
+        return statisticsTtlSeconds;
+    }
+
+    public void setStatisticsTtlSeconds(long statisticsTtlSeconds) {
+        this.statisticsTtlSeconds = statisticsTtlSeconds;
+    }
+
+    /**
+     * Maximum execution time (in seconds) of the queries counting the statements of a member; 0
+     * for no limit.
+     */
+    public int getStatisticsProbeTimeoutSeconds() {
+        return statisticsProbeTimeoutSeconds;
+    }
+
+    public void setStatisticsProbeTimeoutSeconds(int statisticsProbeTimeoutSeconds) {
+        this.statisticsProbeTimeoutSeconds = statisticsProbeTimeoutSeconds;
+    }
+
     @Override
     public void validate() throws SailConfigException {
         if (memberConfigs.isEmpty()) {
@@ -155,6 +277,21 @@ public void validate() throws SailConfigException {
         for (MpFederationMemberConfig config : memberConfigs) {
             config.validate();
         }
+        if (boundJoinMinBlockSize < 1 || boundJoinMaxBlockSize < boundJoinMinBlockSize) {
+            throw new SailConfigException("Bound join block sizes must be positive and the maximum "
+                    + "block size must not be smaller than the minimum block size.");
+        }
+        if (boundJoinTargetBlockMillis < 1 || boundJoinMaxBlockResults < 1) {
+            throw new SailConfigException(
+                    "Target latency and maximum number of results of bound join blocks must be positive.");
+        }
+        if (boundJoinMaxConcurrentBlocks < 1) {
+            throw new SailConfigException("Number of concurrent bound join blocks must be positive.");
+        }
+        if (statisticsTtlSeconds < 0 || statisticsProbeTimeoutSeconds < 0) {
+            throw new SailConfigException(
+                    "Time to live and probe timeout of member statistics must not be negative.");
+        }
     }
 
     @Override
@@ -170,6 +307,22 @@ public Resource export(Model model) {
                     MpRepositoryVocabulary.DEFAULT_MEMBER, 
                     SimpleValueFactory.getInstance().createLiteral(this.defaultMember));
         }
+        model.add(res, MpRepositoryVocabulary.BOUND_JOIN_MIN_BLOCK_SIZE,
+                vf.createLiteral(boundJoinMinBlockSize));
+        model.add(res, MpRepositoryVocabulary.BOUND_JOIN_MAX_BLOCK_SIZE,
+                vf.createLiteral(boundJoinMaxBlockSize));
+        model.add(res, MpRepositoryVocabulary.BOUND_JOIN_TARGET_BLOCK_MILLIS,
+                vf.createLiteral(boundJoinTargetBlockMillis));
+        model.add(res, MpRepositoryVocabulary.BOUND_JOIN_MAX_BLOCK_RESULTS,
+                vf.createLiteral(boundJoinMaxBlockResults));
+        model.add(res, MpRepositoryVocabulary.BOUND_JOIN_MAX_CONCURRENT_BLOCKS,
+                vf.createLiteral(boundJoinMaxConcurrentBlocks));
+        model.add(res, MpRepositoryVocabulary.BOUND_JOIN_PRESERVE_ORDER,
+                vf.createLiteral(boundJoinPreserveOrder));
+        model.add(res, MpRepositoryVocabulary.STATISTICS_TTL_SECONDS,
+                vf.createLiteral(statisticsTtlSeconds));
+        model.add(res, MpRepositoryVocabulary.STATISTICS_PROBE_TIMEOUT_SECONDS,
+                vf.createLiteral(statisticsProbeTimeoutSeconds));
         return res;
     }
 
@@ -186,6 +339,35 @@ public void parse(Model model, Resource implNode) throws SailConfigException {
                     conf.parse(model, node);
                     memberConfigs.add(conf);
                 });
+
+        try {
+            Models.objectLiteral(model.filter(
+                    implNode, MpRepositoryVocabulary.BOUND_JOIN_MIN_BLOCK_SIZE, null)).ifPresent(
+                        lit -> setBoundJoinMinBlockSize(lit.intValue()));
+            Models.objectLiteral(model.filter(
+                    implNode, MpRepositoryVocabulary.BOUND_JOIN_MAX_BLOCK_SIZE, null)).ifPresent(
+                        lit -> setBoundJoinMaxBlockSize(lit.intValue()));
+            Models.objectLiteral(model.filter(
+                    implNode, MpRepositoryVocabulary.BOUND_JOIN_TARGET_BLOCK_MILLIS, null)).ifPresent(
+                        lit -> setBoundJoinTargetBlockMillis(lit.longValue()));
+            Models.objectLiteral(model.filter(
+                    implNode, MpRepositoryVocabulary.BOUND_JOIN_MAX_BLOCK_RESULTS, null)).ifPresent(
+                        lit -> setBoundJoinMaxBlockResults(lit.longValue()));
+            Models.objectLiteral(model.filter(
+                    implNode, MpRepositoryVocabulary.BOUND_JOIN_MAX_CONCURRENT_BLOCKS, null)).ifPresent(
+                        lit -> setBoundJoinMaxConcurrentBlocks(lit.intValue()));
+            Models.objectLiteral(model.filter(
+                    implNode, MpRepositoryVocabulary.BOUND_JOIN_PRESERVE_ORDER, null)).ifPresent(
+                        lit -> setBoundJoinPreserveOrder(lit.booleanValue()));
+            Models.objectLiteral(model.filter(
+                    implNode, MpRepositoryVocabulary.STATISTICS_TTL_SECONDS, null)).ifPresent(
+                        lit -> setStatisticsTtlSeconds(lit.longValue()));
+            Models.objectLiteral(model.filter(
+                    implNode, MpRepositoryVocabulary.STATISTICS_PROBE_TIMEOUT_SECONDS, null)).ifPresent(
+                        lit -> setStatisticsProbeTimeoutSeconds(lit.intValue()));
+        } catch (NumberFormatException | ModelException e) {
+            throw new SailConfigException(e.getMessage(), e);
+        }
     }
     
     public Map<IRI, String> getRepositoryIDMappings() {
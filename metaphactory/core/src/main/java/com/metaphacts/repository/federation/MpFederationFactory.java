@@ -53,7 +53,7 @@ public MpFederation getSail(SailImplConfig originalConfig) throws SailConfigExce
                     "Wrong config type: " + originalConfig.getClass().getCanonicalName() + ". ");
         }
         MpFederationConfig config = (MpFederationConfig) originalConfig;
-        return new MpFederation(config.getDefaultMember(), config.getRepositoryIDMappings());
+        return new MpFederation(config);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,261 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.repository.federation.evaluation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Size of the blocks of bindings which are sent at once to a federation member
+ * by the {@link ParallelBoundJoinCursor}, adapted to the latency and result
+ * volume observed for the member.
+ * <p>
+ * The block size starts at the configured minimum and is doubled as long as
+ * blocks complete within half of the target latency and with at most half of
+ * the maximum number of results, i.e. as long as a block of twice the size is
+ * expected to stay within the targets. It is halved after blocks exceeding
+ * one of the targets and after failed blocks, but never leaves the configured
+ * range. One instance is shared by all queries sent to the same member.
+ */
+public class AdaptiveBlockSize {
+
+    private static final Logger logger = LogManager.getLogger(AdaptiveBlockSize.class);
+
+    static final int GROWTH_FACTOR = 2;
+
+    /**
+     * Number of recent blocks kept for diagnostics.
+     */
+    static final int RECENT_BLOCKS = 20;
+
+    private final String member;
+    private final int minBlockSize;
+    private final int maxBlockSize;
+    private final long targetBlockMillis;
+    private final long maxBlockResults;
+
+    private int blockSize;
+    private long blocks = 0;
+    private long slowBlocks = 0;
+    private long failedBlocks = 0;
+    private final Deque<BlockTiming> recentBlocks = new ArrayDeque<>(RECENT_BLOCKS);
+
+    /**
+     * @param member
+     *            name of the federation member, for logging and diagnostics
+     * @param minBlockSize
+     *            initial and smallest block size
+     * @param maxBlockSize
+     *            largest block size
+     * @param targetBlockMillis
+     *            latency of a block up to which the block size is not reduced
+     * @param maxBlockResults
+     *            number of results of a block up to which the block size is not
+     *            reduced
+     */
+    public AdaptiveBlockSize(
+        String member, int minBlockSize, int maxBlockSize, long targetBlockMillis, long maxBlockResults
+    ) {
+        if (minBlockSize < 1 || maxBlockSize < minBlockSize) {
+            throw new IllegalArgumentException(
+                "Invalid block size range [" + minBlockSize + ", " + maxBlockSize + "] for member " + member);
+        }
+        this.member = member;
+        this.minBlockSize = minBlockSize;
+        this.maxBlockSize = maxBlockSize;
+        this.targetBlockMillis = targetBlockMillis;
+        this.maxBlockResults = maxBlockResults;
+        this.blockSize = minBlockSize;
+    }
+
+    /**
+     * @return the number of bindings to send with the next block
+     */
+    public synchronized int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getMinBlockSize() {
+        return minBlockSize;
+    }
+
+    /**
+     * Records a block which has been evaluated completely.
+     *
+     * @param size
+     *            number of bindings of the block
+     * @param millis
+     *            time spent evaluating the block and iterating its results
+     * @param results
+     *            number of results of the block
+     */
+    public synchronized void completed(int size, long millis, long results) {
+        blocks++;
+        record(new BlockTiming(size, millis, results, false));
+        int previous = blockSize;
+        if (millis > targetBlockMillis || results > maxBlockResults) {
+            slowBlocks++;
+            blockSize = Math.max(minBlockSize, Math.min(blockSize, size) / GROWTH_FACTOR);
+        } else if (size >= blockSize
+                && millis * GROWTH_FACTOR <= targetBlockMillis
+                && results * GROWTH_FACTOR <= maxBlockResults) {
+            // only full blocks are evidence for a larger block size, not e.g. the last block of a query
+            blockSize = Math.min(maxBlockSize, blockSize * GROWTH_FACTOR);
+        }
+        logger.trace("Bound join block of {} bindings at member {}: {} ms, {} results, next block size {}",
+            size, member, millis, results, blockSize);
+        if (blockSize != previous) {
+            logger.debug("Bound join block size of member {} changed from {} to {}.", member, previous, blockSize);
+        }
+    }
+
+    /**
+     * Records a block whose evaluation has failed.
+     */
+    public synchronized void failed(int size) {
+        blocks++;
+        failedBlocks++;
+        record(new BlockTiming(size, 0, 0, true));
+        int previous = blockSize;
+        blockSize = Math.max(minBlockSize, Math.min(blockSize, size) / GROWTH_FACTOR);
+        logger.debug("Bound join block of {} bindings failed at member {}, block size changed from {} to {}.",
+            size, member, previous, blockSize);
+    }
+
+    private void record(BlockTiming timing) {
+        if (recentBlocks.size() == RECENT_BLOCKS) {
+            recentBlocks.removeFirst();
+        }
+        recentBlocks.addLast(timing);
+    }
+
+    /**
+     * @return a snapshot of the current block size and the recent blocks
+     */
+    public synchronized Stats getStats() {
+        return new Stats(this);
+    }
+
+    /**
+     * Snapshot of an {@link AdaptiveBlockSize}, for diagnostics.
+     */
+    public static class Stats {
+        private final String member;
+        private final int blockSize;
+        private final int minBlockSize;
+        private final int maxBlockSize;
+        private final long blocks;
+        private final long slowBlocks;
+        private final long failedBlocks;
+        private final List<BlockTiming> recentBlocks;
+
+        private Stats(AdaptiveBlockSize size) {
+            this.member = size.member;
+            this.blockSize = size.blockSize;
+            this.minBlockSize = size.minBlockSize;
+            this.maxBlockSize = size.maxBlockSize;
+            this.blocks = size.blocks;
+            this.slowBlocks = size.slowBlocks;
+            this.failedBlocks = size.failedBlocks;
+            this.recentBlocks = new ArrayList<>(size.recentBlocks);
+        }
+
+        public String getMember() {
+            return member;
+        }
+
+        public int getBlockSize() {
+            return blockSize;
+        }
+
+        public int getMinBlockSize() {
+            return minBlockSize;
+        }
+
+        public int getMaxBlockSize() {
+            return maxBlockSize;
+        }
+
+        public long getBlocks() {
+            return blocks;
+        }
+
+        /**
+         * @return the number of blocks which have exceeded the target latency
+         *         or the maximum number of results
+         */
+        public long getSlowBlocks() {
+            return slowBlocks;
+        }
+
+        public long getFailedBlocks() {
+            return failedBlocks;
+        }
+
+        /**
+         * @return the most recent blocks, oldest first
+         */
+        public List<BlockTiming> getRecentBlocks() {
+            return recentBlocks;
+        }
+    }
+
+    /**
+     * Size, latency and number of results of an evaluated block.
+     */
+    public static class BlockTiming {
+        private final long timestamp = System.currentTimeMillis();
+        private final int size;
+        private final long millis;
+        private final long results;
+        private final boolean failed;
+
+        private BlockTiming(int size, long millis, long results, boolean failed) {
+            this.size = size;
+            this.millis = millis;
+            this.results = results;
+            this.failed = failed;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public long getResults() {
+            return results;
+        }
+
+        public boolean isFailed() {
+            return failed;
+        }
+    }
+}
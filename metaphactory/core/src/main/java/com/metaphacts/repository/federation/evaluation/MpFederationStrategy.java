@@ -31,7 +31,13 @@
 import org.eclipse.rdf4j.query.Dataset;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
 import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.algebra.Extension;
+import org.eclipse.rdf4j.query.algebra.Order;
+import org.eclipse.rdf4j.query.algebra.Projection;
+import org.eclipse.rdf4j.query.algebra.Service;
+import org.eclipse.rdf4j.query.algebra.Slice;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.UnaryTupleOperator;
 import org.eclipse.rdf4j.query.algebra.Union;
 import org.eclipse.rdf4j.query.algebra.evaluation.EvaluationStrategy;
 import org.eclipse.rdf4j.query.algebra.evaluation.TripleSource;
@@ -42,6 +48,7 @@
 import org.eclipse.rdf4j.sail.federation.evaluation.FederationStrategy;
 import org.eclipse.rdf4j.sail.federation.evaluation.ParallelJoinCursor;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.metaphacts.repository.federation.MpFederation;
 import com.metaphacts.sparql.MpOwnedTupleExpr;
@@ -56,12 +63,48 @@ public class MpFederationStrategy extends FederationStrategy {
     
     protected final MpFederation federation;
 
+    /**
+     * Set while evaluating the argument of an ORDER BY, LIMIT or OFFSET, where
+     * bound joins return their results in the order of the left side.
+     */
+    private boolean preserveOrder = false;
+
+    /**
+     * Cleared while evaluating the argument of an OFFSET, where the branches
+     * of a UNION are evaluated one after another to return the results of all
+     * pages in the same order.
+     */
+    private boolean parallelUnion = true;
+
+    /**
+     * UNION directly below a LIMIT, whose branches stop after
+     * {@link #unionLimit} results.
+     */
+    private Union limitedUnion = null;
+
+    private long unionLimit = -1;
+
     public MpFederationStrategy(MpFederation federation, TripleSource tripleSource, Dataset dataset,
             FederatedServiceResolver serviceManager) {
         super(federation, tripleSource, dataset, serviceManager);
         this.federation = federation;
     }
 
+    /**
+     * Creates a strategy for an expression which is evaluated in another
+     * thread, e.g. a branch of a {@link ParallelUnionCursor}. It takes over the
+     * evaluation mode of this strategy at the time of the call, and is not
+     * affected by changes of the mode while this strategy evaluates further
+     * expressions, nor does it affect this strategy.
+     */
+    protected MpFederationStrategy createBranchStrategy() {
+        MpFederationStrategy branchStrategy = new MpFederationStrategy(federation, tripleSource, dataset,
+                serviceResolver);
+        branchStrategy.preserveOrder = preserveOrder;
+        branchStrategy.parallelUnion = parallelUnion;
+        return branchStrategy;
+    }
+
     /**
      * Evaluates a {@link TupleExpr} by sending it as a separate query to a single target member.
      * 
@@ -110,11 +153,16 @@ public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(NaryJoi
             TupleExpr rightArg = join.getArg(i);
 
             if (rightArg instanceof MpOwnedTupleExpr) {
-                result = new ParallelBoundJoinCursor(this, result, (MpOwnedTupleExpr) rightArg);
+                MpOwnedTupleExpr owned = (MpOwnedTupleExpr) rightArg;
+                result = new ParallelBoundJoinCursor(this, federation, result, owned,
+                        federation.getBoundJoinBlockSize(owned.getOwner()),
+                        federation.getBoundJoinMaxConcurrentBlocks(),
+                        preserveOrder || federation.isBoundJoinPreserveOrder());
                 federation.execute((Runnable) result);
                 collectedBindingNames.addAll(rightArg.getBindingNames());
             } else {
-                result = new ParallelJoinCursor(this, result, join.getArg(i)); // NOPMD
+                // the right argument is evaluated in another thread
+                result = new ParallelJoinCursor(createBranchStrategy(), result, join.getArg(i)); // NOPMD
                 federation.execute((Runnable) result);
                 collectedBindingNames.addAll(rightArg.getBindingNames());
             }
@@ -136,6 +184,53 @@ public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(TupleEx
         return result;
     }
 
+    @Override
+    public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(Order node,
+            BindingSet bindings) throws QueryEvaluationException {
+        boolean previous = preserveOrder;
+        preserveOrder = true;
+        try {
+            return super.evaluate(node, bindings);
+        } finally {
+            preserveOrder = previous;
+        }
+    }
+
+    @Override
+    public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(Slice node,
+            BindingSet bindings) throws QueryEvaluationException {
+        boolean previous = preserveOrder;
+        boolean previousParallelUnion = parallelUnion;
+        Union previousLimitedUnion = limitedUnion;
+        long previousUnionLimit = unionLimit;
+        preserveOrder = true;
+        if (node.hasOffset() && node.getOffset() > 0) {
+            parallelUnion = false;
+        } else if (node.hasLimit()) {
+            limitedUnion = getUnion(node.getArg());
+            unionLimit = node.getLimit();
+        }
+        try {
+            return super.evaluate(node, bindings);
+        } finally {
+            preserveOrder = previous;
+            parallelUnion = previousParallelUnion;
+            limitedUnion = previousLimitedUnion;
+            unionLimit = previousUnionLimit;
+        }
+    }
+
+    /**
+     * @return the UNION returning the results of the expression unchanged in
+     *         number, or <code>null</code>
+     */
+    private static Union getUnion(TupleExpr expr) {
+        while (expr instanceof Projection || expr instanceof Extension) {
+            expr = ((UnaryTupleOperator) expr).getArg();
+        }
+        return expr instanceof Union ? (Union) expr : null;
+    }
+
     protected CloseableIteration<BindingSet, QueryEvaluationException> evaluate(
             MpOwnedTupleExpr expr, BindingSet bindings) throws QueryEvaluationException {
         CloseableIteration<BindingSet, QueryEvaluationException> result = expr.evaluate(dataset,
@@ -150,10 +245,22 @@ protected CloseableIteration<BindingSet, QueryEvaluationException> evaluate(
         return result;
     }
     
+    /**
+     * Evaluates the branches of the union concurrently with a
+     * {@link ParallelUnionCursor} if they are owned by different members,
+     * otherwise one after another.
+     */
     @Override
     @SuppressWarnings("unchecked")
     public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(Union union,
             BindingSet bindings) throws QueryEvaluationException {
+        List<TupleExpr> branches = Lists.newArrayList();
+        collectBranches(union, branches);
+        if (parallelUnion && hasDifferentOwners(branches)) {
+            long limit = union == limitedUnion ? unionLimit : -1;
+            return new ParallelUnionCursor(this, federation, branches, bindings,
+                    ParallelUnionCursor.DEFAULT_QUEUE_CAPACITY, limit);
+        }
         CloseableIteration<BindingSet, QueryEvaluationException>[] iters 
             = new CloseableIteration[2];
         iters[0] = evaluate(union.getLeftArg(), bindings);
@@ -161,6 +268,43 @@ public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(Union u
         return new UnionIteration<BindingSet, QueryEvaluationException>(iters);
     }
 
+    /**
+     * Collects the arguments of nested unions.
+     */
+    private static void collectBranches(TupleExpr expr, List<TupleExpr> branches) {
+        if (expr instanceof Union) {
+            collectBranches(((Union) expr).getLeftArg(), branches);
+            collectBranches(((Union) expr).getRightArg(), branches);
+        } else {
+            branches.add(expr);
+        }
+    }
+
+    private static boolean hasDifferentOwners(List<TupleExpr> branches) {
+        Set<Object> owners = new HashSet<>();
+        for (TupleExpr branch : branches) {
+            Object owner = getOwner(branch);
+            if (owner != null) {
+                owners.add(owner);
+            }
+        }
+        return owners.size() > 1;
+    }
+
+    /**
+     * @return the repository of an {@link MpOwnedTupleExpr}, the endpoint of a
+     *         {@link Service} or <code>null</code> if the owner is not known
+     *         before the evaluation
+     */
+    private static Object getOwner(TupleExpr branch) {
+        if (branch instanceof MpOwnedTupleExpr) {
+            return ((MpOwnedTupleExpr) branch).getOwner().getRepository();
+        } else if (branch instanceof Service) {
+            return ((Service) branch).getServiceRef().getValue();
+        }
+        return null;
+    }
+
     protected CloseableIteration<BindingSet, QueryEvaluationException> evaluateUsingBoundJoin(
             MpOwnedTupleExpr expr, List<BindingSet> bindingSets, Set<String> boundVars)
             throws QueryEvaluationException {
@@ -18,13 +18,26 @@
 
 package com.metaphacts.repository.federation.evaluation;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import org.eclipse.rdf4j.common.iteration.AbstractCloseableIteration;
 import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.IterationWrapper;
 import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.common.iteration.UnionIteration;
 import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.QueryEvaluationException;
 import org.eclipse.rdf4j.query.impl.QueueCursor;
@@ -36,24 +49,38 @@
 
 /**
  * A modification of the RDF4J {@link ParallelJoinCursor} by James Leigh. Iterate the left side and
- * evaluate the right side in separate thread using the bound-nested loop join, only iterate the
+ * evaluate the right side in separate threads using the bound-nested loop join, only iterate the
  * right side in the controlling thread.
+ * <p>
+ * The number of bindings sent at once to the owner of the right side is
+ * determined by the {@link AdaptiveBlockSize} of the owner, which is fed with
+ * the latency and number of results of each block. Blocks which fail to
+ * evaluate are split and retried, unless they are already of the minimum size.
+ * <p>
+ * Up to <code>maxConcurrentBlocks</code> blocks are evaluated at the same time.
+ * A block counts against this window until its results have been consumed, i.e.
+ * the left side is only read ahead as far as the consumer keeps up. The results
+ * of the blocks are either returned as soon as a block completes, or, if the
+ * order is to be preserved, in the order in which the blocks have been read
+ * from the left side. Closing the cursor cancels the outstanding blocks.
  * 
  * @author Andriy Nikolov <an@metaphacts.com>
  */
 public class ParallelBoundJoinCursor
         extends LookAheadIteration<BindingSet, QueryEvaluationException> implements Runnable {
 
-    /*-----------*
-     * Constants *
-     *-----------*/
-
-    public static final int BOUND_JOIN_BLOCK_SIZE = 10;
+    private static final Logger logger = LogManager.getLogger(ParallelBoundJoinCursor.class);
 
     private final MpFederationStrategy strategy;
 
+    private final Executor executor;
+
     private final MpOwnedTupleExpr rightArg;
 
+    private final AdaptiveBlockSize blockSize;
+
+    private final boolean preserveOrder;
+
     /*-----------*
      * Variables *
      *-----------*/
@@ -64,27 +91,53 @@
 
     private volatile CloseableIteration<BindingSet, QueryEvaluationException> rightIter;
 
+    private volatile BlockTask rightTask;
+
     /**
      * @deprecated Use {@link AbstractCloseableIteration#isClosed()} instead.
      */
     private volatile boolean closed;
 
-    private final QueueCursor<CloseableIteration<BindingSet, QueryEvaluationException>> rightQueue = new QueueCursor<CloseableIteration<BindingSet, QueryEvaluationException>>(
-            1024);
+    /**
+     * Blocks in the order of submission if the order is preserved, otherwise in
+     * the order of completion.
+     */
+    private final QueueCursor<BlockTask> rightQueue;
+
+    /**
+     * Permits for the blocks which are evaluated or wait to be consumed.
+     */
+    private final Semaphore window;
 
-    private final List<CloseableIteration<BindingSet, QueryEvaluationException>> toCloseList = new ArrayList<>();
+    private final Set<BlockTask> outstandingTasks = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Number of submitted blocks which have not yet been queued, plus one for
+     * the reading of the left side. The queue is done once it drops to zero.
+     */
+    private final AtomicInteger unfinished = new AtomicInteger(1);
 
     /*--------------*
      * Constructors *
      *--------------*/
 
-    public ParallelBoundJoinCursor(MpFederationStrategy strategy,
+    public ParallelBoundJoinCursor(MpFederationStrategy strategy, Executor executor,
             CloseableIteration<BindingSet, QueryEvaluationException> leftIter,
-            MpOwnedTupleExpr rightArg) throws QueryEvaluationException {
+            MpOwnedTupleExpr rightArg, AdaptiveBlockSize blockSize, int maxConcurrentBlocks,
+            boolean preserveOrder) throws QueryEvaluationException {
         super();
+        if (maxConcurrentBlocks < 1) {
+            throw new IllegalArgumentException("Number of concurrent blocks must be positive: "
+                    + maxConcurrentBlocks);
+        }
         this.strategy = strategy;
+        this.executor = executor;
         this.leftIter = leftIter;
         this.rightArg = rightArg;
+        this.blockSize = blockSize;
+        this.preserveOrder = preserveOrder;
+        this.window = new Semaphore(maxConcurrentBlocks);
+        this.rightQueue = new QueueCursor<BlockTask>(maxConcurrentBlocks + 1);
     }
 
     /*---------*
@@ -95,32 +148,20 @@ public ParallelBoundJoinCursor(MpFederationStrategy strategy,
     public void run() {
         evaluationThread = Thread.currentThread();
 
-        int totalLeftBindingsProcessed = 0;
-
         try {
             if (!isClosed() && leftIter.hasNext()) {
-                BindingSet nextBs = leftIter.next();
-                totalLeftBindingsProcessed++;
-                CloseableIteration<BindingSet, QueryEvaluationException> evaluate = strategy
-                        .evaluate(rightArg, nextBs);
-                toCloseList.add(evaluate);
-                rightQueue.put(evaluate);
+                submit(new BlockTask(Lists.newArrayList(leftIter.next()), null));
             }
 
             int bindingsBlockSize;
             List<BindingSet> bindingSets = null;
 
-            Set<String> boundVars = Sets.newHashSet();
             while (!isClosed() && leftIter.hasNext()) {
 
-                if (totalLeftBindingsProcessed > BOUND_JOIN_BLOCK_SIZE) {
-                    bindingsBlockSize = BOUND_JOIN_BLOCK_SIZE;
-                } else {
-                    bindingsBlockSize = 3;
-                }
+                bindingsBlockSize = blockSize.getBlockSize();
 
                 bindingSets = Lists.newArrayListWithCapacity(bindingsBlockSize);
-                boundVars.clear();
+                Set<String> boundVars = Sets.newHashSet();
                 int count = 0;
                 while (count < bindingsBlockSize && leftIter.hasNext()) {
                     BindingSet nextLeft = leftIter.next();
@@ -129,12 +170,7 @@ public void run() {
                     count++;
                 }
 
-                totalLeftBindingsProcessed += count;
-
-                CloseableIteration<BindingSet, QueryEvaluationException> evaluate = strategy
-                        .evaluateUsingBoundJoin(rightArg, bindingSets, boundVars);
-                toCloseList.add(evaluate);
-                rightQueue.put(evaluate);
+                submit(new BlockTask(bindingSets, boundVars));
             }
         } catch (RuntimeException e) {
             rightQueue.toss(e);
@@ -144,25 +180,86 @@ public void run() {
             close();
         } finally {
             evaluationThread = null;
+            finished();
+        }
+    }
+
+    /**
+     * Waits for a free slot in the window and starts the evaluation of the block.
+     */
+    private void submit(BlockTask task) throws InterruptedException {
+        window.acquire();
+        if (isClosed()) {
+            window.release();
+            return;
+        }
+        outstandingTasks.add(task);
+        unfinished.incrementAndGet();
+        if (preserveOrder) {
+            rightQueue.put(task);
+        }
+        executor.execute(task);
+    }
+
+    /**
+     * Marks the reading of the left side or a block as finished; the last one
+     * marks the queue as done.
+     */
+    private void finished() {
+        if (unfinished.decrementAndGet() == 0) {
             rightQueue.done();
         }
     }
 
+    /**
+     * Evaluates a block of bindings at the owner of the right side. A failing
+     * block is split into two halves which are evaluated one after another.
+     */
+    private CloseableIteration<BindingSet, QueryEvaluationException> evaluateBlock(
+            List<BindingSet> bindingSets, Set<String> boundVars) {
+        long start = System.nanoTime();
+        CloseableIteration<BindingSet, QueryEvaluationException> evaluate;
+        try {
+            evaluate = strategy.evaluateUsingBoundJoin(rightArg, bindingSets, boundVars);
+        } catch (RuntimeException e) {
+            blockSize.failed(bindingSets.size());
+            if (isClosed() || bindingSets.size() <= blockSize.getMinBlockSize()) {
+                throw e;
+            }
+            logger.debug("Bound join block of {} bindings failed, retrying with smaller blocks: {}",
+                    bindingSets.size(), e.getMessage());
+            int half = (bindingSets.size() + 1) / 2;
+            CloseableIteration<BindingSet, QueryEvaluationException> first = evaluateBlock(
+                    bindingSets.subList(0, half), boundVars);
+            try {
+                return new UnionIteration<BindingSet, QueryEvaluationException>(first,
+                        evaluateBlock(bindingSets.subList(half, bindingSets.size()), boundVars));
+            } catch (RuntimeException e2) {
+                first.close();
+                throw e2;
+            }
+        }
+        return new TimedBlockIteration(evaluate, bindingSets.size(), System.nanoTime() - start);
+    }
+
     @Override
     public BindingSet getNextElement() throws QueryEvaluationException {
         BindingSet result = null;
         CloseableIteration<BindingSet, QueryEvaluationException> nextRightIter = rightIter;
         while (!isClosed() && (nextRightIter != null || rightQueue.hasNext())) {
             if (nextRightIter == null) {
-                nextRightIter = rightIter = rightQueue.next();
-            }
-            if (nextRightIter != null) {
-                if (nextRightIter.hasNext()) {
-                    result = nextRightIter.next();
-                    break;
-                } else {
-                    nextRightIter.close();
-                    nextRightIter = rightIter = null;
+                BlockTask task = rightTask = rightQueue.next();
+                nextRightIter = rightIter = task.getResult();
+            }
+            if (nextRightIter.hasNext()) {
+                result = nextRightIter.next();
+                break;
+            } else {
+                BlockTask task = rightTask;
+                nextRightIter = rightIter = null;
+                rightTask = null;
+                if (task != null) {
+                    task.close();
                 }
             }
         }
@@ -177,10 +274,11 @@ public void handleClose() throws QueryEvaluationException {
             super.handleClose();
         } finally {
             try {
-                CloseableIteration<BindingSet, QueryEvaluationException> toCloseRightIter = rightIter;
                 rightIter = null;
-                if (toCloseRightIter != null) {
-                    toCloseRightIter.close();
+                BlockTask toCloseRightTask = rightTask;
+                rightTask = null;
+                if (toCloseRightTask != null) {
+                    toCloseRightTask.close();
                 }
             } finally {
                 try {
@@ -190,9 +288,9 @@ public void handleClose() throws QueryEvaluationException {
                         rightQueue.close();
                     } finally {
                         try {
-                            for (CloseableIteration<BindingSet, QueryEvaluationException> nextToCloseIteration : toCloseList) {
+                            for (BlockTask task : outstandingTasks) {
                                 try {
-                                    nextToCloseIteration.close();
+                                    task.close();
                                 } catch (Exception e) {
                                     // Ignoring exceptions while closing component iterations
                                 }
@@ -209,6 +307,180 @@ public void handleClose() throws QueryEvaluationException {
         }
     }
 
+    /**
+     * Evaluation of a block of bindings in a separate thread. The block holds
+     * its slot in the window until it is closed, i.e. until its results have
+     * been consumed or the cursor has been closed.
+     */
+    private class BlockTask implements Runnable {
+        private final List<BindingSet> bindingSets;
+
+        /**
+         * <code>null</code> for the single binding evaluated ahead of the
+         * first block.
+         */
+        private final Set<String> boundVars;
+
+        private final CompletableFuture<CloseableIteration<BindingSet, QueryEvaluationException>> result
+                = new CompletableFuture<>();
+
+        private final AtomicBoolean closed = new AtomicBoolean(false);
+
+        private Thread thread;
+
+        private BlockTask(List<BindingSet> bindingSets, Set<String> boundVars) {
+            this.bindingSets = bindingSets;
+            this.boundVars = boundVars;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!start()) {
+                    close();
+                    return;
+                }
+                try {
+                    CloseableIteration<BindingSet, QueryEvaluationException> iter = boundVars == null
+                            ? strategy.evaluate(rightArg, bindingSets.get(0))
+                            : evaluateBlock(bindingSets, boundVars);
+                    if (!result.complete(iter)) {
+                        // cancelled while evaluating
+                        iter.close();
+                    }
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                } finally {
+                    stop();
+                }
+                if (isClosed()) {
+                    close();
+                } else if (!preserveOrder) {
+                    rightQueue.put(this);
+                }
+            } catch (InterruptedException e) {
+                close();
+            } finally {
+                finished();
+            }
+        }
+
+        private synchronized boolean start() {
+            if (closed.get() || isClosed()) {
+                return false;
+            }
+            thread = Thread.currentThread();
+            return true;
+        }
+
+        private synchronized void stop() {
+            thread = null;
+            // do not leak an interrupt meant for this block to the next task of the thread
+            Thread.interrupted();
+        }
+
+        private CloseableIteration<BindingSet, QueryEvaluationException> getResult()
+                throws QueryEvaluationException {
+            try {
+                return result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new QueryEvaluationException(e);
+            } catch (CancellationException e) {
+                throw new QueryEvaluationException("Bound join block has been cancelled.", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof QueryEvaluationException) {
+                    throw (QueryEvaluationException) e.getCause();
+                }
+                throw new QueryEvaluationException(e.getCause());
+            }
+        }
+
+        /**
+         * Releases the slot of the block in the window and closes its results;
+         * an evaluation in progress is interrupted.
+         */
+        private void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            outstandingTasks.remove(this);
+            window.release();
+            synchronized (this) {
+                if (thread != null) {
+                    thread.interrupt();
+                }
+            }
+            result.cancel(false);
+            closeResult();
+        }
+
+        private void closeResult() {
+            if (result.isDone() && !result.isCompletedExceptionally()) {
+                result.join().close();
+            }
+        }
+    }
+
+    /**
+     * Measures the time spent in evaluating a block, i.e. in the evaluation
+     * call and in iterating the result, and reports it to the
+     * {@link AdaptiveBlockSize} once the result is exhausted. Results which
+     * are closed early (e.g. because of a LIMIT) are not reported.
+     */
+    private class TimedBlockIteration extends IterationWrapper<BindingSet, QueryEvaluationException> {
+        private final int size;
+        private long nanos;
+        private long results = 0;
+        private boolean reported = false;
+
+        private TimedBlockIteration(
+                CloseableIteration<BindingSet, QueryEvaluationException> iter, int size, long evaluationNanos) {
+            super(iter);
+            this.size = size;
+            this.nanos = evaluationNanos;
+        }
+
+        @Override
+        public boolean hasNext() throws QueryEvaluationException {
+            boolean closedEarly = isClosed();
+            long start = System.nanoTime();
+            try {
+                boolean hasNext = super.hasNext();
+                nanos += System.nanoTime() - start;
+                if (!hasNext && !reported && !closedEarly) {
+                    reported = true;
+                    blockSize.completed(size, TimeUnit.NANOSECONDS.toMillis(nanos), results);
+                }
+                return hasNext;
+            } catch (RuntimeException e) {
+                reportFailure();
+                throw e;
+            }
+        }
+
+        @Override
+        public BindingSet next() throws QueryEvaluationException {
+            long start = System.nanoTime();
+            try {
+                BindingSet next = super.next();
+                nanos += System.nanoTime() - start;
+                results++;
+                return next;
+            } catch (RuntimeException e) {
+                reportFailure();
+                throw e;
+            }
+        }
+
+        private void reportFailure() {
+            if (!reported && !isClosed()) {
+                reported = true;
+                blockSize.failed(size);
+            }
+        }
+    }
+
     @Override
     public String toString() {
         String left = leftIter.toString().replace("\n", "\n\t");
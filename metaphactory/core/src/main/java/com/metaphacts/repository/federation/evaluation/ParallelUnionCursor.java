@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.repository.federation.evaluation;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.common.iteration.UnionIteration;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.impl.QueueCursor;
+
+/**
+ * Evaluates the branches of a UNION concurrently, as opposed to the
+ * {@link UnionIteration}, which only starts the evaluation of a branch once the
+ * previous branches have been consumed.
+ * <p>
+ * Every branch is evaluated and iterated in a separate task of the executor,
+ * which is started when the cursor is created. The results of all branches are
+ * returned in the order in which they arrive, through a bounded queue: a
+ * branch waits while the queue is full, i.e. the branches are only read ahead
+ * as far as the consumer keeps up. Closing the cursor closes the results of
+ * all branches and interrupts their tasks.
+ * <p>
+ * If only a limited number of results is needed, e.g. for a LIMIT directly on
+ * the UNION, the branches stop as soon as this number of results has been
+ * queued.
+ */
+public class ParallelUnionCursor extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+
+    private static final Logger logger = LogManager.getLogger(ParallelUnionCursor.class);
+
+    /**
+     * Number of results which may be queued ahead of the consumer by default.
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private final BindingSet bindings;
+
+    /**
+     * Number of results after which the branches stop, negative for all results.
+     */
+    private final long limit;
+
+    private final QueueCursor<BindingSet> queue;
+
+    private final List<BranchTask> tasks;
+
+    /**
+     * Number of branches which are still evaluated; the queue is done once it
+     * drops to zero.
+     */
+    private final AtomicInteger unfinished;
+
+    private final AtomicLong queued = new AtomicLong();
+
+    /**
+     * @param strategy
+     *            strategy creating the strategies evaluating the branches
+     * @param executor
+     *            executor running a task per branch
+     * @param branches
+     *            the arguments of the (nested) UNION
+     * @param bindings
+     *            bindings to evaluate the branches with
+     * @param capacity
+     *            number of results which may be queued ahead of the consumer
+     * @param limit
+     *            number of results after which the branches stop, negative
+     *            for all results
+     */
+    public ParallelUnionCursor(MpFederationStrategy strategy, Executor executor, List<TupleExpr> branches,
+            BindingSet bindings, int capacity, long limit) throws QueryEvaluationException {
+        super();
+        this.bindings = bindings;
+        this.limit = limit;
+        this.queue = new QueueCursor<BindingSet>(capacity);
+        // the strategy is not shared with the branches, which are evaluated in other threads
+        this.tasks = branches.stream().map(branch -> new BranchTask(strategy.createBranchStrategy(), branch))
+                .collect(Collectors.toList());
+        this.unfinished = new AtomicInteger(tasks.size());
+        if (tasks.isEmpty()) {
+            queue.done();
+        }
+        for (BranchTask task : tasks) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                close();
+                throw new QueryEvaluationException("Could not start the evaluation of a UNION branch.", e);
+            }
+        }
+    }
+
+    @Override
+    protected BindingSet getNextElement() throws QueryEvaluationException {
+        if (!isClosed() && queue.hasNext()) {
+            return queue.next();
+        }
+        return null;
+    }
+
+    @Override
+    protected void handleClose() throws QueryEvaluationException {
+        try {
+            super.handleClose();
+        } finally {
+            try {
+                queue.close();
+            } finally {
+                for (BranchTask task : tasks) {
+                    task.cancel();
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks a branch as finished; the last one marks the queue as done.
+     */
+    private void finished() {
+        if (unfinished.decrementAndGet() == 0) {
+            queue.done();
+        }
+    }
+
+    /**
+     * Evaluation of a branch in a separate thread, putting its results into
+     * the queue.
+     */
+    private class BranchTask implements Runnable {
+        private final MpFederationStrategy strategy;
+
+        private final TupleExpr branch;
+
+        private CloseableIteration<BindingSet, QueryEvaluationException> iter;
+
+        private Thread thread;
+
+        private boolean cancelled = false;
+
+        private BranchTask(MpFederationStrategy strategy, TupleExpr branch) {
+            this.strategy = strategy;
+            this.branch = branch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (!start()) {
+                    return;
+                }
+                CloseableIteration<BindingSet, QueryEvaluationException> result = strategy.evaluate(branch,
+                        bindings);
+                if (!setResult(result)) {
+                    return;
+                }
+                while (!isClosed() && result.hasNext()) {
+                    if (limit >= 0 && queued.incrementAndGet() > limit) {
+                        // enough results have been queued for the consumer
+                        logger.trace("Limit of {} results reached, stopping UNION branch.", limit);
+                        break;
+                    }
+                    queue.put(result.next());
+                }
+            } catch (InterruptedException e) {
+                // the cursor has been closed
+            } catch (RuntimeException e) {
+                if (!isClosed()) {
+                    queue.toss(e);
+                }
+            } finally {
+                stop();
+                finished();
+            }
+        }
+
+        private synchronized boolean start() {
+            if (cancelled || isClosed()) {
+                return false;
+            }
+            thread = Thread.currentThread();
+            return true;
+        }
+
+        /**
+         * @return <code>false</code> if the branch has been cancelled while
+         *         it was evaluated, in which case the result is closed
+         */
+        private synchronized boolean setResult(CloseableIteration<BindingSet, QueryEvaluationException> result) {
+            if (cancelled) {
+                closeQuietly(result);
+                return false;
+            }
+            iter = result;
+            return true;
+        }
+
+        private synchronized void stop() {
+            closeQuietly(iter);
+            iter = null;
+            if (thread != null) {
+                thread = null;
+                // do not leak an interrupt meant for this branch to the next task of the thread
+                Thread.interrupted();
+            }
+        }
+
+        private synchronized void cancel() {
+            cancelled = true;
+            closeQuietly(iter);
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+
+        private void closeQuietly(CloseableIteration<BindingSet, QueryEvaluationException> result) {
+            if (result == null) {
+                return;
+            }
+            try {
+                result.close();
+            } catch (Exception e) {
+                // Ignoring exceptions while closing component iterations
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.repository.federation.optimizers;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.algebra.BindingSetAssignment;
+import org.eclipse.rdf4j.query.algebra.EmptySet;
+import org.eclipse.rdf4j.query.algebra.Join;
+import org.eclipse.rdf4j.query.algebra.LeftJoin;
+import org.eclipse.rdf4j.query.algebra.Service;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.UnaryTupleOperator;
+import org.eclipse.rdf4j.query.algebra.Union;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.query.algebra.helpers.StatementPatternCollector;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.sail.federation.algebra.NaryJoin;
+import org.eclipse.rdf4j.sail.federation.optimizers.EvaluationStatistics;
+
+import com.google.common.collect.Iterables;
+import com.metaphacts.repository.federation.statistics.FederationStatistics;
+import com.metaphacts.repository.federation.statistics.MemberStatistics;
+import com.metaphacts.sparql.MpOwnedTupleExpr;
+
+/**
+ * Estimates the cardinality of federated tuple expressions from the
+ * {@link MemberStatistics} of the members they are evaluated at: statement
+ * patterns at the default member, the arguments of {@link Service} clauses at
+ * the mapped repository and {@link MpOwnedTupleExpr}s at their owner.
+ * <p>
+ * Joins are estimated by the product of their arguments, reduced by the
+ * number of distinct values of every variable the arguments share (i.e. the
+ * values of a join variable are assumed to be uniformly distributed), and
+ * unions by the sum of their arguments. Expressions containing patterns of a member without
+ * statistics fall back to the estimates of {@link EvaluationStatistics}.
+ */
+public class FederationEvaluationStatistics extends EvaluationStatistics {
+
+    private static final double UNKNOWN = -1;
+
+    private final FederationStatistics statistics;
+
+    private final Repository defaultMember;
+
+    private final Map<IRI, ? extends Repository> serviceMappings;
+
+    public FederationEvaluationStatistics(FederationStatistics statistics, Repository defaultMember,
+            Map<IRI, ? extends Repository> serviceMappings) {
+        this.statistics = statistics;
+        this.defaultMember = defaultMember;
+        this.serviceMappings = serviceMappings;
+    }
+
+    @Override
+    public double getCardinality(TupleExpr expr) {
+        double cardinality = estimate(expr, defaultMember);
+        return cardinality != UNKNOWN ? cardinality : super.getCardinality(expr);
+    }
+
+    private double estimate(TupleExpr expr, Repository member) {
+        if (expr instanceof StatementPattern) {
+            MemberStatistics stats = member != null ? statistics.getStatistics(member) : null;
+            return stats != null ? stats.getCardinality((StatementPattern) expr) : UNKNOWN;
+        } else if (expr instanceof MpOwnedTupleExpr) {
+            MpOwnedTupleExpr owned = (MpOwnedTupleExpr) expr;
+            return estimate(owned.getArg(), owned.getOwner().getRepository());
+        } else if (expr instanceof Service) {
+            Service service = (Service) expr;
+            Value serviceRef = service.getServiceRef().getValue();
+            Repository mapped = serviceRef instanceof IRI ? serviceMappings.get(serviceRef) : null;
+            return mapped != null ? estimate(service.getArg(), mapped) : UNKNOWN;
+        } else if (expr instanceof NaryJoin) {
+            return estimateJoin(((NaryJoin) expr).getArgs(), member);
+        } else if (expr instanceof Join) {
+            Join join = (Join) expr;
+            return estimateJoin(Arrays.asList(join.getLeftArg(), join.getRightArg()), member);
+        } else if (expr instanceof LeftJoin) {
+            return estimate(((LeftJoin) expr).getLeftArg(), member);
+        } else if (expr instanceof Union) {
+            Union union = (Union) expr;
+            double left = estimate(union.getLeftArg(), member);
+            double right = estimate(union.getRightArg(), member);
+            return left != UNKNOWN && right != UNKNOWN ? left + right : UNKNOWN;
+        } else if (expr instanceof UnaryTupleOperator) {
+            // filters, projections, extensions etc. are estimated by their argument
+            return estimate(((UnaryTupleOperator) expr).getArg(), member);
+        } else if (expr instanceof BindingSetAssignment) {
+            return Iterables.size(((BindingSetAssignment) expr).getBindingSets());
+        } else if (expr instanceof EmptySet) {
+            return 0;
+        }
+        return UNKNOWN;
+    }
+
+    private double estimateJoin(Iterable<? extends TupleExpr> args, Repository member) {
+        double cardinality = 1;
+        Map<String, Double> distinctValues = new HashMap<>();
+        for (TupleExpr arg : args) {
+            double argCardinality = estimate(arg, member);
+            if (argCardinality == UNKNOWN) {
+                return UNKNOWN;
+            }
+            cardinality *= argCardinality;
+            for (Map.Entry<String, Double> argValues : estimateDistinctValues(arg, member, argCardinality)
+                    .entrySet()) {
+                Double joinValues = distinctValues.get(argValues.getKey());
+                if (joinValues != null) {
+                    cardinality /= Math.max(1, Math.max(joinValues, argValues.getValue()));
+                    distinctValues.put(argValues.getKey(), Math.min(joinValues, argValues.getValue()));
+                } else {
+                    distinctValues.put(argValues.getKey(), argValues.getValue());
+                }
+            }
+            // the join has no more distinct values than results
+            double joinCardinality = cardinality;
+            distinctValues.replaceAll((name, values) -> Math.min(values, joinCardinality));
+        }
+        return cardinality;
+    }
+
+    /**
+     * Estimates the number of distinct values of the variables of the
+     * expression: for statement patterns from the {@link MemberStatistics},
+     * otherwise every result is assumed to have its own values.
+     */
+    private Map<String, Double> estimateDistinctValues(TupleExpr expr, Repository member, double cardinality) {
+        Map<String, Double> distinctValues = new HashMap<>();
+        for (StatementPattern pattern : StatementPatternCollector.process(expr)) {
+            for (Var var : pattern.getVarList()) {
+                if (!var.hasValue()) {
+                    distinctValues.put(var.getName(), cardinality);
+                }
+            }
+        }
+        Repository patternMember = member;
+        TupleExpr patternExpr = expr;
+        if (expr instanceof MpOwnedTupleExpr) {
+            patternMember = ((MpOwnedTupleExpr) expr).getOwner().getRepository();
+            patternExpr = ((MpOwnedTupleExpr) expr).getArg();
+        }
+        MemberStatistics stats = patternMember != null ? statistics.getStatistics(patternMember) : null;
+        if (stats != null && patternExpr instanceof StatementPattern) {
+            stats.getDistinctValues((StatementPattern) patternExpr)
+                .forEach((name, values) -> distinctValues.merge(name, values, Math::min));
+        }
+        return distinctValues;
+    }
+}
@@ -21,8 +21,11 @@
 import java.lang.reflect.UndeclaredThrowableException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.function.Function;
 
 import org.eclipse.rdf4j.model.IRI;
@@ -45,6 +48,7 @@
 import org.eclipse.rdf4j.query.algebra.Var;
 import org.eclipse.rdf4j.query.algebra.evaluation.QueryOptimizer;
 import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.algebra.helpers.StatementPatternCollector;
 import org.eclipse.rdf4j.repository.Repository;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.repository.RepositoryException;
@@ -52,6 +56,7 @@
 import org.eclipse.rdf4j.repository.filters.RepositoryBloomFilter;
 import org.eclipse.rdf4j.sail.federation.PrefixHashSet;
 import org.eclipse.rdf4j.sail.federation.algebra.NaryJoin;
+import org.eclipse.rdf4j.sail.federation.optimizers.EvaluationStatistics;
 import org.eclipse.rdf4j.sail.federation.optimizers.FederationJoinOptimizer;
 
 import com.metaphacts.sparql.MpOwnedTupleExpr;
@@ -84,6 +89,8 @@ public class MpFederationJoinOptimizer extends AbstractQueryModelVisitor<Reposit
     
     private boolean singleOwnerQuery = false; 
 
+    private final EvaluationStatistics statistics;
+
     public MpFederationJoinOptimizer(Collection<? extends RepositoryConnection> members,
             RepositoryConnection mainMember, boolean distinct, PrefixHashSet localSpace,
             Map<IRI, ? extends Repository> serviceMappings) {
@@ -96,12 +103,28 @@ public MpFederationJoinOptimizer(
             RepositoryConnection mainMember, boolean distinct, PrefixHashSet localSpace,
             Map<IRI, ? extends Repository> serviceMappings,
             Function<? super Repository, ? extends RepositoryBloomFilter> bloomFilters) {
+        this(members, mainMember, distinct, localSpace, serviceMappings, bloomFilters, null);
+    }
+
+    /**
+     * @param statistics
+     *            cardinality estimates used to group join arguments of the same member which
+     *            are not adjacent in the query, see {@link #findOwnedJoin}; may be
+     *            <code>null</code>, in which case only adjacent arguments are grouped
+     */
+    public MpFederationJoinOptimizer(
+            Collection<? extends RepositoryConnection> members,
+            RepositoryConnection mainMember, boolean distinct, PrefixHashSet localSpace,
+            Map<IRI, ? extends Repository> serviceMappings,
+            Function<? super Repository, ? extends RepositoryBloomFilter> bloomFilters,
+            EvaluationStatistics statistics) {
         this.members = members;
         this.mainMember = mainMember;
         this.localSpace = localSpace;
         this.bloomFilters = bloomFilters;
         this.serviceMappings = serviceMappings;
         this.distinct = distinct;
+        this.statistics = statistics;
     }
 
     /*
@@ -154,8 +177,9 @@ protected void meetMultiJoin(NaryJoin node) throws RepositoryException {
         List<LocalJoin> vars = new ArrayList<LocalJoin>();
         for (TupleExpr arg : node.getArgs()) {
             RepositoryConnection member = getSingleOwner(arg);
-            if ((!ows.isEmpty()) && ows.get(ows.size() - 1).getOwner() == member) {
-                ows.get(ows.size() - 1).getOperation().addArg(arg.clone());
+            Owned<NaryJoin> owned = findOwnedJoin(member, arg, ows);
+            if (owned != null) {
+                owned.getOperation().addArg(arg.clone());
             } else {
                 ows.add(new Owned<NaryJoin>(member, new NaryJoin(arg.clone()))); // NOPMD
             }
@@ -465,6 +489,56 @@ private LocalJoin findLocalJoin(Var subj, List<LocalJoin> vars) {
         return result;
     }
 
+    /**
+     * Finds the group of join arguments the argument can be added to: the last group if it has
+     * the same owner. With statistics, also an earlier group of the same owner which shares a
+     * variable with the argument, as long as the estimated cardinality of the group does not grow
+     * by joining the argument: evaluating the argument within the group saves a bound join with
+     * the member, and the groups are ordered by their estimates afterwards.
+     */
+    private Owned<NaryJoin> findOwnedJoin(RepositoryConnection member, TupleExpr arg,
+            List<Owned<NaryJoin>> ows) {
+        if (ows.isEmpty()) {
+            return null;
+        }
+        if (ows.get(ows.size() - 1).getOwner() == member) {
+            return ows.get(ows.size() - 1);
+        }
+        if (statistics == null || member == null) {
+            return null;
+        }
+        Set<String> argVars = getVariableNames(arg);
+        for (Owned<NaryJoin> owned : ows) {
+            if (owned.getOwner() != member) {
+                continue;
+            }
+            NaryJoin join = owned.getOperation();
+            if (Collections.disjoint(argVars, getVariableNames(join))) {
+                continue;
+            }
+            NaryJoin merged = (NaryJoin) join.clone();
+            merged.addArg(arg.clone());
+            // both are estimated at the member they are sent to
+            double mergedCardinality = statistics.getCardinality(new MpOwnedTupleExpr(member, merged));
+            if (mergedCardinality <= statistics.getCardinality(new MpOwnedTupleExpr(member, join.clone()))) {
+                return owned;
+            }
+        }
+        return null;
+    }
+
+    private static Set<String> getVariableNames(TupleExpr expr) {
+        Set<String> names = new HashSet<String>();
+        for (StatementPattern pattern : StatementPatternCollector.process(expr)) {
+            for (Var var : pattern.getVarList()) {
+                if (!var.hasValue()) {
+                    names.add(var.getName());
+                }
+            }
+        }
+        return names;
+    }
+
     /**
      * If the argument can be sent to a single member.
      */
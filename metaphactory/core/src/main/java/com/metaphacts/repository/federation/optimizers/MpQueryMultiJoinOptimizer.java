@@ -43,6 +43,9 @@
 /**
  * A query optimizer that re-orders nested Joins.
  * Copies {@link QueryMultiJoinOptimizer}. 
+ * Without explicit statistics, nested joins are only flattened and the join arguments keep the
+ * order of the query; with statistics (e.g. {@link FederationEvaluationStatistics}) they are
+ * ordered by their estimated cardinality.
  * 
  * @author Andriy Nikolov <an@metaphacts.com>
  *
@@ -51,12 +54,16 @@ public class MpQueryMultiJoinOptimizer implements QueryOptimizer {
 
     protected final EvaluationStatistics statistics;
 
+    protected final boolean reorder;
+
     public MpQueryMultiJoinOptimizer() {
-        this(new EvaluationStatistics());
+        this.statistics = new EvaluationStatistics();
+        this.reorder = false;
     }
 
     public MpQueryMultiJoinOptimizer(EvaluationStatistics statistics) {
         this.statistics = statistics;
+        this.reorder = true;
     }
 
     /**
@@ -134,9 +141,21 @@ public void meetJoin(TupleExpr node) {
                 // Reorder the (recursive) join arguments to a more optimal sequence
                 List<TupleExpr> orderedJoinArgs = new ArrayList<TupleExpr>(joinArgs.size());
                 
-                orderedJoinArgs.addAll(joinArgs);
-                for (TupleExpr joinArg : joinArgs) {
-                    joinArg.visit(this);
+                if (reorder) {
+                    List<TupleExpr> remainingArgs = new ArrayList<TupleExpr>(joinArgs);
+                    while (!remainingArgs.isEmpty()) {
+                        TupleExpr tupleExpr = selectNextTupleExpr(remainingArgs, cardinalityMap,
+                                varsMap, varFreqMap, boundVars);
+                        remainingArgs.remove(tupleExpr);
+                        orderedJoinArgs.add(tupleExpr);
+                        tupleExpr.visit(this);
+                        boundVars.addAll(tupleExpr.getBindingNames());
+                    }
+                } else {
+                    orderedJoinArgs.addAll(joinArgs);
+                    for (TupleExpr joinArg : joinArgs) {
+                        joinArg.visit(this);
+                    }
                 }
 
                 // Build new join hierarchy
@@ -197,11 +216,15 @@ protected TupleExpr selectNextTupleExpr(List<TupleExpr> expressions,
             TupleExpr result = null;
 
             for (TupleExpr tupleExpr : expressions) {
+                if (!isEvaluable(tupleExpr) && result != null) {
+                    continue;
+                }
                 // Calculate a score for this tuple expression
                 double cardinality = getTupleExprCardinality(tupleExpr, cardinalityMap, varsMap,
                         varFreqMap, boundVars);
 
-                if (cardinality < lowestCardinality) {
+                if (cardinality < lowestCardinality || result == null
+                        || !isEvaluable(result) && isEvaluable(tupleExpr)) {
                     // More specific path expression found
                     lowestCardinality = cardinality;
                     result = tupleExpr;
@@ -211,6 +234,18 @@ protected TupleExpr selectNextTupleExpr(List<TupleExpr> expressions,
             return result;
         }
 
+        /**
+         * A SERVICE clause with a variable service reference can only be evaluated once the
+         * variable is bound.
+         */
+        protected boolean isEvaluable(TupleExpr tupleExpr) {
+            if (tupleExpr instanceof Service) {
+                Var serviceRef = ((Service) tupleExpr).getServiceRef();
+                return serviceRef.hasValue() || boundVars.contains(serviceRef.getName());
+            }
+            return true;
+        }
+
         protected double getTupleExprCardinality(TupleExpr tupleExpr,
                 Map<TupleExpr, Double> cardinalityMap, Map<TupleExpr, List<Var>> varsMap,
                 Map<Var, Integer> varFreqMap, Set<String> boundVars) {
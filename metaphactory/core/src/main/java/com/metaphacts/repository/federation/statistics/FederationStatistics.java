@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.repository.federation.statistics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.rdf4j.RDF4JException;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+
+import com.metaphacts.repository.federation.statistics.MemberStatistics.PredicateStatistics;
+import com.metaphacts.repository.federation.statistics.MemberStatistics.Source;
+
+/**
+ * Provides {@link MemberStatistics} of federation members for the cost based
+ * join ordering of federated queries.
+ * <p>
+ * The counts of a member are read from the VoID description stored in the
+ * member, if it describes property partitions, and are otherwise collected
+ * with a <code>COUNT</code> query grouped by predicate. They are collected in
+ * the background and cached for the configured time to live; queries are
+ * never blocked by the collection, but are optimized without statistics of a
+ * member until its counts are available, and with the previous counts while
+ * they are refreshed.
+ */
+public class FederationStatistics {
+
+    private static final Logger logger = LogManager.getLogger(FederationStatistics.class);
+
+    static final String VOID_QUERY = "PREFIX void: <http://rdfs.org/ns/void#>\n"
+            + "SELECT ?property ?triples ?subjects ?objects WHERE {\n"
+            + "  ?dataset void:propertyPartition ?partition .\n"
+            + "  ?partition void:property ?property ; void:triples ?triples .\n"
+            + "  OPTIONAL { ?partition void:distinctSubjects ?subjects }\n"
+            + "  OPTIONAL { ?partition void:distinctObjects ?objects }\n"
+            + "}";
+
+    static final String COUNT_QUERY = "SELECT ?property (COUNT(*) AS ?triples) "
+            + "(COUNT(DISTINCT ?s) AS ?subjects) (COUNT(DISTINCT ?o) AS ?objects) WHERE {\n"
+            + "  ?s ?property ?o\n"
+            + "} GROUP BY ?property";
+
+    private final Executor executor;
+    private final long ttlMillis;
+    private final int probeTimeoutSeconds;
+    private final Function<Repository, String> memberNames;
+
+    private final ConcurrentMap<Repository, MemberStatistics> statistics = new ConcurrentHashMap<>();
+    private final Set<Repository> refreshing = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param executor
+     *            executor collecting the counts in the background
+     * @param ttlMillis
+     *            time (in milliseconds) after which the counts of a member are
+     *            collected again
+     * @param probeTimeoutSeconds
+     *            maximum execution time of the queries collecting the counts,
+     *            0 for no limit
+     * @param memberNames
+     *            names of the members, for logging and diagnostics
+     */
+    public FederationStatistics(Executor executor, long ttlMillis, int probeTimeoutSeconds,
+            Function<Repository, String> memberNames) {
+        this.executor = executor;
+        this.ttlMillis = ttlMillis;
+        this.probeTimeoutSeconds = probeTimeoutSeconds;
+        this.memberNames = memberNames;
+    }
+
+    /**
+     * Gets the statistics of a member and schedules their collection if they
+     * are missing or have expired.
+     *
+     * @return the statistics of the member or <code>null</code> if they have
+     *         not been collected yet or could not be collected
+     */
+    public MemberStatistics getStatistics(Repository member) {
+        MemberStatistics stats = statistics.get(member);
+        if (stats == null || System.currentTimeMillis() - stats.getTimestamp() >= ttlMillis) {
+            refresh(member);
+        }
+        return stats != null && stats.isAvailable() ? stats : null;
+    }
+
+    /**
+     * Schedules the collection of the counts of a member, unless they are
+     * already being collected.
+     */
+    public void refresh(Repository member) {
+        if (!refreshing.add(member)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    statistics.put(member, collect(member));
+                } finally {
+                    refreshing.remove(member);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(member);
+            logger.debug("Statistics of federation member {} not collected: {}", memberNames.apply(member),
+                    e.getMessage());
+        }
+    }
+
+    /**
+     * Collects the counts of a member from its VoID description or, if it has
+     * none, by counting. Failures are logged and result in
+     * {@link MemberStatistics#unavailable() unavailable} statistics, which are
+     * only collected again after the time to live.
+     */
+    public MemberStatistics collect(Repository member) {
+        long start = System.currentTimeMillis();
+        try (RepositoryConnection con = member.getConnection()) {
+            MemberStatistics stats = collect(con, VOID_QUERY, Source.VOID);
+            if (stats.getPredicates().isEmpty()) {
+                stats = collect(con, COUNT_QUERY, Source.COUNT);
+            }
+            logger.debug("Collected {} of federation member {} in {} ms.", stats, memberNames.apply(member),
+                    System.currentTimeMillis() - start);
+            return stats;
+        } catch (RDF4JException e) {
+            logger.warn("Failed to collect statistics of federation member {}: {}", memberNames.apply(member),
+                    e.getMessage());
+            logger.debug("Details:", e);
+            return MemberStatistics.unavailable();
+        }
+    }
+
+    private MemberStatistics collect(RepositoryConnection con, String queryString, Source source) {
+        TupleQuery query = con.prepareTupleQuery(QueryLanguage.SPARQL, queryString);
+        query.setIncludeInferred(false);
+        query.setMaxExecutionTime(probeTimeoutSeconds);
+        Map<IRI, PredicateStatistics> predicates = new HashMap<>();
+        try (TupleQueryResult result = query.evaluate()) {
+            while (result.hasNext()) {
+                BindingSet bs = result.next();
+                Value property = bs.getValue("property");
+                long triples = getCount(bs, "triples");
+                if (!(property instanceof IRI) || triples < 0) {
+                    continue;
+                }
+                PredicateStatistics stats = new PredicateStatistics(triples,
+                        Math.max(0, getCount(bs, "subjects")), Math.max(0, getCount(bs, "objects")));
+                predicates.merge((IRI) property, stats, PredicateStatistics::merge);
+            }
+        }
+        return new MemberStatistics(source, predicates);
+    }
+
+    private static long getCount(BindingSet bs, String name) {
+        Value value = bs.getValue(name);
+        if (!(value instanceof Literal)) {
+            return -1;
+        }
+        try {
+            return ((Literal) value).longValue();
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Drops the statistics of all members, such that they are collected again
+     * on their next use.
+     */
+    public void clear() {
+        statistics.clear();
+    }
+
+    /**
+     * Gets the statistics collected so far per member, for diagnostics.
+     *
+     * @return
+     */
+    public Map<String, MemberStatistics> getCollectedStatistics() {
+        return statistics.entrySet().stream()
+                .collect(Collectors.toMap(entry -> memberNames.apply(entry.getKey()), Map.Entry::getValue));
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.repository.federation.statistics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.Var;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Predicate-level counts of a federation member, used to estimate the
+ * cardinality of statement patterns evaluated at the member.
+ * <p>
+ * Instances are immutable snapshots created by {@link FederationStatistics}.
+ */
+public class MemberStatistics {
+
+    /**
+     * Where the counts have been read from.
+     */
+    public enum Source {
+        /**
+         * <code>void:propertyPartition</code>s of a VoID description stored in
+         * the member.
+         */
+        VOID,
+        /**
+         * A <code>COUNT</code> query grouped by predicate.
+         */
+        COUNT,
+        /**
+         * The counts could not be collected.
+         */
+        NONE
+    }
+
+    private final Source source;
+    private final long timestamp;
+    private final Map<IRI, PredicateStatistics> predicates;
+    private final long triples;
+    private final long distinctSubjects;
+    private final long distinctObjects;
+
+    public MemberStatistics(Source source, Map<IRI, PredicateStatistics> predicates) {
+        this(source, predicates, System.currentTimeMillis());
+    }
+
+    MemberStatistics(Source source, Map<IRI, PredicateStatistics> predicates, long timestamp) {
+        this.source = source;
+        this.timestamp = timestamp;
+        this.predicates = ImmutableMap.copyOf(predicates);
+        long triples = 0;
+        long distinctSubjects = 0;
+        long distinctObjects = 0;
+        for (PredicateStatistics p : predicates.values()) {
+            triples += p.getTriples();
+            // lower bounds: subjects and objects may occur with several predicates
+            distinctSubjects = Math.max(distinctSubjects, p.getDistinctSubjects());
+            distinctObjects = Math.max(distinctObjects, p.getDistinctObjects());
+        }
+        this.triples = triples;
+        this.distinctSubjects = distinctSubjects;
+        this.distinctObjects = distinctObjects;
+    }
+
+    /**
+     * @return statistics of a member whose counts could not be collected
+     */
+    public static MemberStatistics unavailable() {
+        return new MemberStatistics(Source.NONE, Collections.emptyMap());
+    }
+
+    public boolean isAvailable() {
+        return source != Source.NONE;
+    }
+
+    public Source getSource() {
+        return source;
+    }
+
+    /**
+     * @return the time (in milliseconds) at which the counts have been collected
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Map<IRI, PredicateStatistics> getPredicates() {
+        return predicates;
+    }
+
+    public long getTriples() {
+        return triples;
+    }
+
+    /**
+     * Estimates the number of statements matching the pattern at the member.
+     * Bound subjects and objects reduce the number of statements of the
+     * predicate by the number of its distinct subjects and objects, i.e. values
+     * are assumed to be uniformly distributed. Predicates the member has no
+     * counts for are assumed to match a single statement.
+     */
+    public double getCardinality(StatementPattern pattern) {
+        Value predicate = pattern.getPredicateVar().getValue();
+        double cardinality;
+        long subjects;
+        long objects;
+        if (predicate != null) {
+            PredicateStatistics stats = predicates.get(predicate);
+            if (stats == null) {
+                return 1;
+            }
+            cardinality = stats.getTriples();
+            subjects = stats.getDistinctSubjects();
+            objects = stats.getDistinctObjects();
+        } else {
+            cardinality = triples;
+            subjects = distinctSubjects;
+            objects = distinctObjects;
+        }
+        if (pattern.getSubjectVar().hasValue()) {
+            cardinality = reduce(cardinality, subjects);
+        }
+        if (pattern.getObjectVar().hasValue()) {
+            cardinality = reduce(cardinality, objects);
+        }
+        return Math.max(1, cardinality);
+    }
+
+    /**
+     * Estimates the number of distinct values of the unbound subject, predicate
+     * and object variables of the pattern at the member, by the distinct
+     * subjects and objects of the predicate. Variables without counts are not
+     * contained in the result.
+     *
+     * @return distinct values by variable name
+     */
+    public Map<String, Double> getDistinctValues(StatementPattern pattern) {
+        Value predicate = pattern.getPredicateVar().getValue();
+        Map<String, Double> distinctValues = new HashMap<>();
+        if (predicate != null) {
+            PredicateStatistics stats = predicates.get(predicate);
+            if (stats == null) {
+                return distinctValues;
+            }
+            putDistinctValues(distinctValues, pattern.getSubjectVar(), stats.getDistinctSubjects());
+            putDistinctValues(distinctValues, pattern.getObjectVar(), stats.getDistinctObjects());
+        } else {
+            putDistinctValues(distinctValues, pattern.getSubjectVar(), distinctSubjects);
+            putDistinctValues(distinctValues, pattern.getObjectVar(), distinctObjects);
+            putDistinctValues(distinctValues, pattern.getPredicateVar(), predicates.size());
+        }
+        return distinctValues;
+    }
+
+    private static void putDistinctValues(Map<String, Double> distinctValues, Var var, long count) {
+        if (!var.hasValue() && count > 0) {
+            distinctValues.merge(var.getName(), (double) count, Math::min);
+        }
+    }
+
+    /**
+     * Without a count of distinct values, each statement is assumed to have
+     * its own value.
+     */
+    private static double reduce(double cardinality, long distinctValues) {
+        return distinctValues > 0 ? cardinality / distinctValues : 1;
+    }
+
+    @Override
+    public String toString() {
+        return source + " statistics of " + predicates.size() + " predicates and " + triples + " triples";
+    }
+
+    /**
+     * Number of statements and of distinct subjects and objects of a predicate.
+     * Distinct counts are 0 if unknown.
+     */
+    public static class PredicateStatistics {
+        private final long triples;
+        private final long distinctSubjects;
+        private final long distinctObjects;
+
+        public PredicateStatistics(long triples, long distinctSubjects, long distinctObjects) {
+            this.triples = triples;
+            this.distinctSubjects = distinctSubjects;
+            this.distinctObjects = distinctObjects;
+        }
+
+        public long getTriples() {
+            return triples;
+        }
+
+        public long getDistinctSubjects() {
+            return distinctSubjects;
+        }
+
+        public long getDistinctObjects() {
+            return distinctObjects;
+        }
+
+        /**
+         * Combines the counts of two partitions of the same predicate, e.g. of
+         * several datasets described in the same member.
+         */
+        PredicateStatistics merge(PredicateStatistics other) {
+            return new PredicateStatistics(triples + other.triples,
+                Math.max(distinctSubjects, other.distinctSubjects),
+                Math.max(distinctObjects, other.distinctObjects));
+        }
+    }
+}
@@ -65,6 +65,14 @@ public RestApplication(ServiceLocator serviceLocator) {
          *  /rest/cache
          */
         register(CacheEndpoint.class);
+        /*
+         *  /rest/sparql/queries
+         */
+        register(RunningQueriesEndpoint.class);
+        /*
+         *  /rest/federation
+         */
+        register(FederationEndpoint.class);
         /*
          *  /rest/url-minify
          */
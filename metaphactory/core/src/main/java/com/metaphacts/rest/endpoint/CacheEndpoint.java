@@ -18,13 +18,20 @@
 
 package com.metaphacts.rest.endpoint;
 
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 
 import org.apache.commons.lang3.StringUtils;
@@ -38,6 +45,8 @@
 import com.google.common.collect.Lists;
 
 import com.metaphacts.cache.CacheManager;
+import com.metaphacts.cache.PlatformCache;
+import com.metaphacts.cache.PlatformCacheStats;
 import com.metaphacts.security.Permissions.CACHES;
 
 
@@ -88,4 +97,100 @@ public Response invalidateCacheForResource(@PathParam("resource") IRI resource)
         }
     }
 
+    /**
+     * Returns the statistics of all caches and, for caches which are maintained
+     * per repository, of the individual repositories.
+     */
+    @GET()
+    @Path("/all/stats")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RequiresAuthentication
+    @RequiresPermissions(CACHES.VIEW_STATS)
+    public Map<String, Object> getStats() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        for (PlatformCache cache : cacheManager.getCaches()) {
+            Map<String, Object> cacheStats = new LinkedHashMap<>();
+            cacheStats.put("stats", cache.getStats());
+            cacheStats.put("repositories", cache.getRepositoryStats());
+            result.put(cache.getId(), cacheStats);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the statistics of all caches in a line based text format
+     * (compatible with the Prometheus text exposition format), such that
+     * they can be collected by monitoring tools.
+     */
+    @GET()
+    @Path("/all/stats")
+    @Produces(MediaType.TEXT_PLAIN)
+    @RequiresAuthentication
+    @RequiresPermissions(CACHES.VIEW_STATS)
+    public String getStatsAsText() {
+        return formatStats(cacheManager.getCaches());
+    }
+
+    static String formatStats(List<PlatformCache> caches) {
+        Map<PlatformCache, PlatformCacheStats> stats = new LinkedHashMap<>();
+        Map<PlatformCache, Map<String, PlatformCacheStats>> repositoryStats = new LinkedHashMap<>();
+        for (PlatformCache cache : caches) {
+            stats.put(cache, cache.getStats());
+            repositoryStats.put(cache, cache.getRepositoryStats());
+        }
+
+        StringBuilder out = new StringBuilder();
+        appendMetric(out, "hits_total", "counter", stats, repositoryStats, PlatformCacheStats::getHitCount);
+        appendMetric(out, "misses_total", "counter", stats, repositoryStats, PlatformCacheStats::getMissCount);
+        appendMetric(out, "load_success_total", "counter", stats, repositoryStats, PlatformCacheStats::getLoadSuccessCount);
+        appendMetric(out, "load_exception_total", "counter", stats, repositoryStats, PlatformCacheStats::getLoadExceptionCount);
+        appendMetric(out, "load_seconds_total", "counter", stats, repositoryStats,
+            s -> (double) s.getTotalLoadTime() / TimeUnit.SECONDS.toNanos(1));
+        appendMetric(out, "evictions_total", "counter", stats, repositoryStats, PlatformCacheStats::getEvictionCount);
+        appendMetric(out, "size", "gauge", stats, repositoryStats, PlatformCacheStats::getSize);
+        appendMetric(out, "weight_bytes", "gauge", stats, repositoryStats,
+            s -> s.getWeight() == PlatformCacheStats.UNKNOWN_WEIGHT ? Double.NaN : s.getWeight());
+        return out.toString();
+    }
+
+    private static void appendMetric(
+        StringBuilder out, String name, String type,
+        Map<PlatformCache, PlatformCacheStats> stats,
+        Map<PlatformCache, Map<String, PlatformCacheStats>> repositoryStats,
+        ToDoubleFunction<PlatformCacheStats> value
+    ) {
+        String metric = "metaphactory_cache_" + name;
+        out.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+        for (Map.Entry<PlatformCache, PlatformCacheStats> entry : stats.entrySet()) {
+            String cacheLabel = "cache=\"" + escapeLabel(entry.getKey().getId()) + "\"";
+            appendSample(out, metric, cacheLabel, entry.getValue(), value);
+            for (Map.Entry<String, PlatformCacheStats> repository : repositoryStats.get(entry.getKey()).entrySet()) {
+                appendSample(out, metric,
+                    cacheLabel + ",repository=\"" + escapeLabel(repository.getKey()) + "\"",
+                    repository.getValue(), value);
+            }
+        }
+    }
+
+    private static void appendSample(
+        StringBuilder out, String metric, String labels,
+        PlatformCacheStats stats, ToDoubleFunction<PlatformCacheStats> value
+    ) {
+        double v = value.applyAsDouble(stats);
+        if (Double.isNaN(v)) {
+            // not available for this cache
+            return;
+        }
+        out.append(metric).append('{').append(labels).append("} ");
+        if (v == Math.rint(v)) {
+            out.append((long) v);
+        } else {
+            out.append(v);
+        }
+        out.append('\n');
+    }
+
+    private static String escapeLabel(String label) {
+        return label.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
 }
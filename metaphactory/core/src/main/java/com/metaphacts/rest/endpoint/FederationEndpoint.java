@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.rest.endpoint;
+
+import java.util.Optional;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.apache.shiro.authz.annotation.RequiresAuthentication;
+import org.apache.shiro.authz.annotation.RequiresPermissions;
+import org.eclipse.rdf4j.repository.DelegatingRepository;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+
+import com.metaphacts.repository.RepositoryManager;
+import com.metaphacts.repository.federation.MpFederation;
+import com.metaphacts.security.Permissions.FEDERATION;
+
+/**
+ * Exposes diagnostics of the federation repositories: the bound join
+ * statistics and the statistics used to order joins per member.
+ */
+@Path("federation")
+@Singleton
+public class FederationEndpoint {
+
+    private final RepositoryManager repositoryManager;
+
+    @Inject
+    public FederationEndpoint(RepositoryManager repositoryManager) {
+        this.repositoryManager = repositoryManager;
+    }
+
+    /**
+     * Returns the current bound join block sizes and the timings of the recent
+     * blocks per member of a federation repository.
+     */
+    @GET()
+    @Path("/{repositoryId}/boundjoins")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RequiresAuthentication
+    @RequiresPermissions(FEDERATION.VIEW_STATS)
+    public Response getBoundJoinStats(@PathParam("repositoryId") String repositoryId) {
+        MpFederation federation = getFederation(repositoryId);
+        if (federation == null) {
+            return Response.status(Status.NOT_FOUND).entity("No federation with ID " + repositoryId).build();
+        }
+        return Response.ok(federation.getBoundJoinStats()).build();
+    }
+
+    /**
+     * Returns the statistics per member of a federation repository which are
+     * used to order the joins of federated queries.
+     */
+    @GET()
+    @Path("/{repositoryId}/statistics")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RequiresAuthentication
+    @RequiresPermissions(FEDERATION.VIEW_STATS)
+    public Response getMemberStatistics(@PathParam("repositoryId") String repositoryId) {
+        MpFederation federation = getFederation(repositoryId);
+        if (federation == null) {
+            return Response.status(Status.NOT_FOUND).entity("No federation with ID " + repositoryId).build();
+        }
+        return Response.ok(federation.getMemberStatistics()).build();
+    }
+
+    private MpFederation getFederation(String repositoryId) {
+        Repository repository = repositoryManager.getRepository(Optional.of(repositoryId)).orElse(null);
+        while (repository instanceof DelegatingRepository) {
+            repository = ((DelegatingRepository) repository).getDelegate();
+        }
+        if (!(repository instanceof SailRepository)
+                || !(((SailRepository) repository).getSail() instanceof MpFederation)) {
+            return null;
+        }
+        return (MpFederation) ((SailRepository) repository).getSail();
+    }
+}
@@ -57,6 +57,9 @@
 import com.metaphacts.data.rdf.ReadConnection;
 import com.metaphacts.repository.RepositoryManager;
 import com.metaphacts.rest.feature.CacheControl.NoCache;
+import com.metaphacts.security.AdmissionController;
+import com.metaphacts.security.AdmissionController.Ticket;
+import com.metaphacts.security.ThrottledException;
 import com.metaphacts.ui.templates.MainTemplate;
 
 /**
@@ -79,6 +82,9 @@ public class ResourceEndpoint {
 
     @Inject
     private NamespaceRegistry namespaceRegistry;
+
+    @Inject
+    private AdmissionController admissionController;
     
     /**
      * When accessing from browser, return main template with client-side logic to present resource
@@ -125,11 +131,17 @@ public Response getResource(@Context HttpServletRequest httpServletRequest, @Con
             return Response.status(Response.Status.BAD_REQUEST).entity("Not a valid IRI: <" + stringIri + ">").build();
         }
 
-        if(!new ReadConnection(repositoryManager.getDefault()).hasOutgoingStatements(iri)){
-            return Response.status(Response.Status.NOT_FOUND).entity("Entity with IRI <" + iri.stringValue() + "> does not exist").build();
-        }
+        try (Ticket ticket = admissionController.admit(RepositoryManager.DEFAULT_REPOSITORY_ID)) {
+            if(!new ReadConnection(repositoryManager.getDefault()).hasOutgoingStatements(iri)){
+                return Response.status(Response.Status.NOT_FOUND).entity("Entity with IRI <" + iri.stringValue() + "> does not exist").build();
+            }
 
-        return getRdfResponse(httpServletRequest, stringIri);
+            return getRdfResponse(httpServletRequest, stringIri);
+        } catch (ThrottledException e) {
+            Response.ResponseBuilder response = Response.status(ThrottledException.STATUS).entity(e.getMessage());
+            e.getHeaders().forEach(response::header);
+            return response.build();
+        }
     }
 
     /**
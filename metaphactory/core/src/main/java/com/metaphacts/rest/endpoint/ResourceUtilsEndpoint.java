@@ -47,6 +47,7 @@
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonToken;
 import com.metaphacts.cache.LabelCache;
+import com.metaphacts.cache.LanguageProfile;
 import com.metaphacts.repository.RepositoryManager;
 import com.metaphacts.rest.feature.CacheControl.NoCache;
 
@@ -68,15 +69,24 @@ public class ResourceUtilsEndpoint {
     @Inject
     private RepositoryManager repositoryManager;
 
+    /**
+     * Returns the labels for the IRIs in the posted JSON array.
+     *
+     * @param languages optional comma separated list of preferred language tags
+     *        (e.g. <code>de,en</code>), defaults to the configured preferred languages
+     */
     @POST
     @Path("getLabelsForRdfValue")
     @Produces(APPLICATION_JSON)
     @Consumes(APPLICATION_JSON)
     public Response getLabelsForRdfValue(
         @QueryParam("repository") final Optional<String> repositoryId,
+        @QueryParam("languages") final Optional<String> languages,
         final JsonParser jp
     ) throws IOException, RepositoryException {
         Repository repo = repositoryManager.getRepository(repositoryId).orElse(repositoryManager.getDefault());
+        final LanguageProfile languageProfile =
+            languages.map(LanguageProfile::parse).orElse(labelCache.getDefaultLanguageProfile());
         final ValueFactory vf = SimpleValueFactory.getInstance();
 
         StreamingOutput stream = new StreamingOutput() {
@@ -100,7 +110,7 @@ public void write(OutputStream os) throws IOException,
                     }
 
                     // write final bulk
-                    final Map<IRI,Optional<Literal>> labelMap = labelCache.getLabels(resourceToLabel, repo);
+                    final Map<IRI,Optional<Literal>> labelMap = labelCache.getLabels(resourceToLabel, repo, languageProfile);
                     writeBulk(labelMap, jGenerator, iriToUriString);
 
                     // clear temp data structures
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.rest.endpoint;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.DELETE;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.shiro.authz.annotation.RequiresAuthentication;
+import org.apache.shiro.authz.annotation.RequiresPermissions;
+
+import com.metaphacts.api.sparql.QueryProfile;
+import com.metaphacts.api.sparql.QueryProfiler;
+import com.metaphacts.api.sparql.QueryProfiler.FingerprintStats;
+import com.metaphacts.api.sparql.RunningQueryRegistry;
+import com.metaphacts.api.sparql.RunningQueryRegistry.RunningQuery;
+import com.metaphacts.security.Permissions.SPARQL;
+import com.metaphacts.servlet.SparqlRequestExecutor;
+import com.metaphacts.servlet.SparqlRequestExecutor.ExecutorStats;
+
+/**
+ * Lists the queries which are currently evaluated by the SPARQL endpoint and
+ * allows to kill them. Also exposes the statistics of the executors and the
+ * query profiles of the SPARQL endpoint.
+ */
+@Path("sparql/queries")
+@Singleton
+public class RunningQueriesEndpoint {
+
+    private static final Logger logger = LogManager.getLogger(RunningQueriesEndpoint.class);
+
+    private final RunningQueryRegistry registry;
+    private final SparqlRequestExecutor requestExecutor;
+    private final QueryProfiler profiler;
+
+    @Inject
+    public RunningQueriesEndpoint(
+        RunningQueryRegistry registry, SparqlRequestExecutor requestExecutor, QueryProfiler profiler
+    ) {
+        this.registry = registry;
+        this.requestExecutor = requestExecutor;
+        this.profiler = profiler;
+    }
+
+    @GET()
+    @Produces(MediaType.APPLICATION_JSON)
+    @RequiresAuthentication
+    @RequiresPermissions(SPARQL.MANAGE_RUNNING_QUERIES)
+    public List<RunningQuery> getRunningQueries() {
+        return registry.getRunningQueries();
+    }
+
+    /**
+     * Returns queue depth, wait times and rejections of the executors per
+     * repository.
+     */
+    @GET()
+    @Path("/executors")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RequiresAuthentication
+    @RequiresPermissions(SPARQL.MANAGE_RUNNING_QUERIES)
+    public Map<String, ExecutorStats> getExecutorStats() {
+        return requestExecutor.getStats();
+    }
+
+    /**
+     * Returns the aggregated profiles of the top query fingerprints.
+     *
+     * @param orderBy
+     *            one of <code>total</code> (total time), <code>p95</code> or
+     *            <code>count</code>
+     */
+    @GET()
+    @Path("/profile")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RequiresAuthentication
+    @RequiresPermissions(SPARQL.MANAGE_RUNNING_QUERIES)
+    public Response getTopFingerprints(
+        @QueryParam("limit") @DefaultValue("20") int limit,
+        @QueryParam("orderBy") @DefaultValue("total") String orderBy
+    ) {
+        QueryProfiler.Order order;
+        try {
+            order = QueryProfiler.Order.valueOf(orderBy.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Response.status(Status.BAD_REQUEST).entity("Unknown order \"" + orderBy + "\"").build();
+        }
+        List<FingerprintStats> top = profiler.getTopFingerprints(limit, order);
+        return Response.ok(top).build();
+    }
+
+    /**
+     * Returns the profiles of the most recently evaluated queries.
+     */
+    @GET()
+    @Path("/profile/recent")
+    @Produces(MediaType.APPLICATION_JSON)
+    @RequiresAuthentication
+    @RequiresPermissions(SPARQL.MANAGE_RUNNING_QUERIES)
+    public List<QueryProfile> getRecentQueries() {
+        return profiler.getRecentQueries();
+    }
+
+    @DELETE()
+    @Path("/profile")
+    @RequiresAuthentication
+    @RequiresPermissions(SPARQL.MANAGE_RUNNING_QUERIES)
+    public Response clearProfiles() {
+        profiler.clear();
+        return Response.ok().build();
+    }
+
+    @POST()
+    @Path("/{id}/kill")
+    @RequiresAuthentication
+    @RequiresPermissions(SPARQL.MANAGE_RUNNING_QUERIES)
+    public Response killQuery(@PathParam("id") long id) {
+        logger.info("Killing of query {} has been triggered by a REST call.", id);
+        if (!registry.kill(id)) {
+            return Response.status(Status.NOT_FOUND).entity("No running query with ID " + id).build();
+        }
+        return Response.ok("Query " + id + " has been killed").build();
+    }
+}
@@ -79,6 +79,7 @@
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.metaphacts.cache.LabelCache;
+import com.metaphacts.cache.LanguageProfile;
 import com.metaphacts.cache.TemplateIncludeCache;
 import com.metaphacts.config.Configuration;
 import com.metaphacts.config.NamespaceRegistry;
@@ -239,7 +240,7 @@ public static String getCompiledHtml(
             // TODO might need to be configurable in the future
             rdfTemplateIncludes.add(TemplateUtil.convertResourceToTemplateIdentifier(DEFAULT_TEMPLATE));
 
-            return TemplateUtil.compileAndReturnFirstExistingTemplate(tc, rdfTemplateIncludes, handlebars).orElse(
+            return TemplateUtil.compileAndReturnFirstExistingTemplate(tc, rdfTemplateIncludes, handlebars, includeCache).orElse(
                     "<i>It seems that the current resource \"" + pageId.stringValue()
                     + "\" does not identify any application or template page as well as none of the applicable template pages is instantiated.</i>"
                    );
@@ -258,6 +259,7 @@ public Response getResourceHtml(
             @NotNull @QueryParam("iri") IRI iri,
             @QueryParam("context") Optional<IRI> context,
             @QueryParam("repository") Optional<String> repositoryId,
+            @QueryParam("languages") Optional<String> languages,
             @Context UriInfo uriInfo,
             @Context Request request
     ) throws IOException {
@@ -267,6 +269,7 @@ public Response getResourceHtml(
             Repository repo = repositoryManager.getRepository(repositoryId).orElse(repositoryManager.getDefault());
             TemplateContext tc = new TemplateContext(templateContextIri, repo, uriInfo);
             tc.setLabelCache(labelCache);
+            tc.setLanguageProfile(languages.map(LanguageProfile::parse).orElse(null));
             tc.setNamespaceRegistry(this.ns);
             RenderedTemplate template = new RenderedTemplate(
                 RenderedTemplate.getCompiledHtml(iri, tc, handlebars, includeCache));
@@ -314,6 +317,7 @@ private Response.ResponseBuilder withETagCacheControl(Request request, RenderedT
     public Response getTemplateHtml(
         @NotNull @QueryParam("iri") IRI iri,
         @QueryParam("repository") Optional<String> repositoryId,
+        @QueryParam("languages") Optional<String> languages,
         @Context UriInfo uriInfo,
         @Context Request request
     ) throws IOException {
@@ -321,6 +325,7 @@ public Response getTemplateHtml(
             Repository repo = repositoryManager.getRepository(repositoryId).orElse(repositoryManager.getDefault());
             TemplateContext tc = new TemplateContext(iri, repo, uriInfo);
             tc.setLabelCache(labelCache);
+            tc.setLanguageProfile(languages.map(LanguageProfile::parse).orElse(null));
             tc.setNamespaceRegistry(this.ns);
 
             LinkedHashSet<String> templateIncludes = Sets.newLinkedHashSet();
@@ -404,6 +409,8 @@ public Response save(@QueryParam("iri") IRI iri,  @QueryParam("beforeModificatio
             }
         }
         templateStorage.storeNewRevision(iri, pageSource);
+        // the page might have been memoized as missing template before
+        includeCache.invalidateTemplateLocations();
         return Response.created(new URI(iri.stringValue())).build();
     }
 
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.security;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.subject.Subject;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metaphacts.config.Configuration;
+import com.metaphacts.config.groups.AdmissionConfiguration;
+import com.metaphacts.config.groups.AdmissionConfiguration.Scope;
+
+/**
+ * Admission control for queries: token bucket rate limits and maximum numbers
+ * of concurrent queries per user (or role) and per repository, see
+ * {@link AdmissionConfiguration}.
+ *
+ * <p>
+ * The limits are read from the configuration on every admission, such that
+ * changes take effect immediately. Rate limits are lock-free
+ * {@link TokenBucket}s, which are dropped once they have not been used for
+ * {@link #BUCKET_EXPIRY_MINUTES}. Concurrent queries are counted per user and
+ * repository, and counters are dropped as soon as no query is running.
+ * </p>
+ */
+@Singleton
+public class AdmissionController {
+
+    private static final Logger logger = LogManager.getLogger(AdmissionController.class);
+
+    /**
+     * Ticket of queries which are not subject to admission control.
+     */
+    public static final Ticket UNLIMITED = new Ticket(null, null, null);
+
+    /**
+     * Time (in minutes) after which unused token buckets are dropped. A
+     * bucket which is created again afterwards starts full; except for very
+     * low rates, an unused bucket has refilled within this time anyway.
+     */
+    static final long BUCKET_EXPIRY_MINUTES = 60;
+
+    private final Configuration config;
+    private final Cache<String, TokenBucket> buckets;
+    private final ConcurrentMap<String, Integer> runningQueries = new ConcurrentHashMap<>();
+
+    // replaced by tests
+    LongSupplier clock = System::nanoTime;
+
+    @Inject
+    public AdmissionController(Configuration config) {
+        this.config = config;
+        this.buckets = CacheBuilder.newBuilder()
+            .expireAfterAccess(BUCKET_EXPIRY_MINUTES, TimeUnit.MINUTES)
+            .ticker(new Ticker() {
+                @Override
+                public long read() {
+                    return clock.getAsLong();
+                }
+            })
+            .build();
+    }
+
+    /**
+     * Admits a query of the current user.
+     *
+     * @param repositoryId
+     *            ID of the repository the query is evaluated on, or
+     *            <code>null</code> if unknown
+     * @return the ticket of the query, to be closed once the evaluation
+     *         finished
+     * @throws ThrottledException
+     *             if the query exceeds a limit
+     */
+    public Ticket admit(String repositoryId) throws ThrottledException {
+        if (!config.getAdmissionConfig().getEnabled()) {
+            return UNLIMITED;
+        }
+        Subject subject = SecurityUtils.getSubject();
+        Object principal = subject.getPrincipal();
+        return admit(principal == null ? "anonymous" : principal.toString(), subject::hasRole, repositoryId);
+    }
+
+    /**
+     * Admits a query of the given user.
+     *
+     * @see #admit(String)
+     */
+    public Ticket admit(String user, Predicate<String> hasRole, String repositoryId) throws ThrottledException {
+        AdmissionConfiguration admissionConfig = config.getAdmissionConfig();
+        if (!admissionConfig.getEnabled()) {
+            return UNLIMITED;
+        }
+
+        int userRate = getUserLimit(admissionConfig, user, hasRole,
+            AdmissionConfiguration.QUERIES_PER_MINUTE, admissionConfig.getUserQueriesPerMinute());
+        int userBurst = getUserLimit(admissionConfig, user, hasRole,
+            AdmissionConfiguration.BURST, admissionConfig.getUserBurst());
+        int userConcurrency = getUserLimit(admissionConfig, user, hasRole,
+            AdmissionConfiguration.MAX_CONCURRENT_QUERIES, admissionConfig.getUserMaxConcurrentQueries());
+        int repositoryRate = 0;
+        int repositoryBurst = 0;
+        int repositoryConcurrency = 0;
+        if (repositoryId != null) {
+            repositoryRate = getLimit(admissionConfig, Scope.repository, repositoryId,
+                AdmissionConfiguration.QUERIES_PER_MINUTE, 0);
+            repositoryBurst = getLimit(admissionConfig, Scope.repository, repositoryId,
+                AdmissionConfiguration.BURST, admissionConfig.getUserBurst());
+            repositoryConcurrency = getLimit(admissionConfig, Scope.repository, repositoryId,
+                AdmissionConfiguration.MAX_CONCURRENT_QUERIES, 0);
+        }
+
+        long now = clock.getAsLong();
+        String userKey = Scope.user + ":" + user;
+        String repositoryKey = Scope.repository + ":" + repositoryId;
+        TokenBucket userBucket = null;
+        TokenBucket repositoryBucket = null;
+        String userSlot = null;
+        try {
+            userBucket = takeToken(userKey, userRate, userBurst, now);
+            repositoryBucket = takeToken(repositoryKey, repositoryRate, repositoryBurst, now);
+            userSlot = acquireSlot(userKey, userConcurrency);
+            String repositorySlot = acquireSlot(repositoryKey, repositoryConcurrency);
+            return new Ticket(this, userSlot, repositorySlot);
+        } catch (ThrottledException e) {
+            // a rejected query does not count towards any of the limits
+            if (userBucket != null) {
+                userBucket.release();
+            }
+            if (repositoryBucket != null) {
+                repositoryBucket.release();
+            }
+            if (userSlot != null) {
+                releaseSlot(userSlot);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the limit configured for the user, otherwise the most permissive
+     * limit configured for one of the user's roles, otherwise the default.
+     */
+    private static int getUserLimit(
+        AdmissionConfiguration admissionConfig, String user, Predicate<String> hasRole,
+        String limit, int defaultValue
+    ) {
+        Integer userLimit = admissionConfig.getLimit(Scope.user, user, limit);
+        if (userLimit != null) {
+            return userLimit;
+        }
+        Integer roleLimit = null;
+        for (String role : admissionConfig.getLimitedRoles()) {
+            Integer value = admissionConfig.getLimit(Scope.role, role, limit);
+            if (value == null || !hasRole.test(role)) {
+                continue;
+            }
+            if (roleLimit == null || isMorePermissive(value, roleLimit, limit)) {
+                roleLimit = value;
+            }
+        }
+        return roleLimit != null ? roleLimit : defaultValue;
+    }
+
+    private static boolean isMorePermissive(int value, int other, String limit) {
+        if (AdmissionConfiguration.BURST.equals(limit)) {
+            return value > other;
+        }
+        // 0 disables the limit
+        return other != 0 && (value == 0 || value > other);
+    }
+
+    private static int getLimit(
+        AdmissionConfiguration admissionConfig, Scope scope, String id, String limit, int defaultValue
+    ) {
+        Integer value = admissionConfig.getLimit(scope, id, limit);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * @return the bucket the token has been taken from, <code>null</code> if
+     *         there is no rate limit
+     */
+    private TokenBucket takeToken(String key, int queriesPerMinute, int burst, long now) {
+        if (queriesPerMinute <= 0) {
+            return null;
+        }
+        int bucketSize = Math.max(1, burst);
+        TokenBucket bucket = buckets.getIfPresent(key);
+        if (bucket == null || !bucket.hasLimits(queriesPerMinute, bucketSize)) {
+            // the limits have been added or changed in the configuration
+            bucket = buckets.asMap().compute(key, (k, current) ->
+                current != null && current.hasLimits(queriesPerMinute, bucketSize)
+                    ? current : new TokenBucket(queriesPerMinute, bucketSize, now));
+        }
+        long waitNanos = bucket.tryAcquire(now);
+        if (waitNanos > 0) {
+            long retryAfter = Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+            logger.debug("Rate limit of {} exceeded, retry after {} seconds.", key, retryAfter);
+            throw new ThrottledException(
+                "Rate limit of " + queriesPerMinute + " queries per minute exceeded.", bucketSize, retryAfter);
+        }
+        return bucket;
+    }
+
+    /**
+     * @return the key of the acquired slot, <code>null</code> if there is no
+     *         concurrency limit
+     */
+    private String acquireSlot(String key, int maxConcurrentQueries) {
+        if (maxConcurrentQueries <= 0) {
+            return null;
+        }
+        runningQueries.compute(key, (k, running) -> {
+            int current = running != null ? running : 0;
+            if (current >= maxConcurrentQueries) {
+                logger.debug("Maximum of {} concurrent queries of {} reached.", maxConcurrentQueries, key);
+                throw new ThrottledException(
+                    "Maximum of " + maxConcurrentQueries + " concurrent queries reached.", maxConcurrentQueries, 1);
+            }
+            return current + 1;
+        });
+        return key;
+    }
+
+    /**
+     * Releases a slot; the counter is dropped once no query is running.
+     */
+    private void releaseSlot(String key) {
+        runningQueries.computeIfPresent(key, (k, running) -> running > 1 ? running - 1 : null);
+    }
+
+    /**
+     * @return the number of token buckets and concurrency counters which
+     *         are kept in memory
+     */
+    long getTrackedKeys() {
+        buckets.cleanUp();
+        return buckets.size() + runningQueries.size();
+    }
+
+    /**
+     * Ticket of an admitted query, which releases the query's slots of the
+     * concurrency limits once closed.
+     */
+    public static class Ticket implements AutoCloseable {
+        private final AdmissionController controller;
+        private final String userSlot;
+        private final String repositorySlot;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Ticket(AdmissionController controller, String userSlot, String repositorySlot) {
+            this.controller = controller;
+            this.userSlot = userSlot;
+            this.repositorySlot = repositorySlot;
+        }
+
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            if (userSlot != null) {
+                controller.releaseSlot(userSlot);
+            }
+            if (repositorySlot != null) {
+                controller.releaseSlot(repositorySlot);
+            }
+        }
+    }
+}
@@ -78,6 +78,9 @@ final public class Permissions {
         public static final String GRAPH_STORE_CREATE = "sparql:graphstore:create";
         public static final String GRAPH_STORE_UPDATE = "sparql:graphstore:update";
         public static final String GRAPH_STORE_DELETE = "sparql:graphstore:delete";
+
+        // right to list and kill queries running on the SPARQL endpoint
+        public static final String MANAGE_RUNNING_QUERIES = "sparql:running-queries:manage";
     }
 
     public static class CONTAINER{
@@ -96,6 +99,12 @@ final public class Permissions {
 
     public static class CACHES{
         public static final String INVALIDATE_ALL = "caches:*:invalidate";
+        public static final String VIEW_STATS = "caches:*:stats";
+    }
+
+    public static class FEDERATION {
+        // right to view the diagnostics of federation repositories
+        public static final String VIEW_STATS = "federation:*:stats";
     }
 
     public static class SERVICES {
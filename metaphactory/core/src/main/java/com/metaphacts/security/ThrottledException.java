@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.security;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thrown by the {@link AdmissionController} if a query is not admitted, to be
+ * answered with status 429 (Too Many Requests) and the headers returned by
+ * {@link #getHeaders()}.
+ */
+public class ThrottledException extends RuntimeException {
+
+    private static final long serialVersionUID = 6542087185239841947L;
+
+    public static final int STATUS = 429;
+
+    private final int limit;
+    private final long retryAfterSeconds;
+
+    public ThrottledException(String message, int limit, long retryAfterSeconds) {
+        super(message);
+        this.limit = limit;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * @return the limit which has been exceeded, i.e. the size of the token
+     *         bucket or the maximum number of concurrent queries
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    /**
+     * @return the <code>Retry-After</code> and <code>RateLimit-*</code>
+     *         headers of the response
+     */
+    public Map<String, String> getHeaders() {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("Retry-After", String.valueOf(retryAfterSeconds));
+        headers.put("RateLimit-Limit", String.valueOf(limit));
+        headers.put("RateLimit-Remaining", "0");
+        headers.put("RateLimit-Reset", String.valueOf(retryAfterSeconds));
+        return headers;
+    }
+}
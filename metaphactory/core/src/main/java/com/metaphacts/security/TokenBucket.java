@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.security;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, implemented as generic cell rate algorithm: instead
+ * of the number of tokens, the bucket only tracks the "theoretical arrival
+ * time" at which it would be full again, which is advanced by one emission
+ * interval per admitted request with a compare-and-set loop.
+ */
+final class TokenBucket {
+
+    private final int queriesPerMinute;
+    private final int burst;
+    private final long emissionIntervalNanos;
+    private final long toleranceNanos;
+    private final AtomicLong theoreticalArrivalTime;
+
+    /**
+     * @param now
+     *            current value of {@link System#nanoTime()}, the bucket starts
+     *            full
+     */
+    TokenBucket(int queriesPerMinute, int burst, long now) {
+        this.queriesPerMinute = queriesPerMinute;
+        this.burst = burst;
+        this.emissionIntervalNanos = TimeUnit.MINUTES.toNanos(1) / queriesPerMinute;
+        this.toleranceNanos = emissionIntervalNanos * burst;
+        this.theoreticalArrivalTime = new AtomicLong(now);
+    }
+
+    /**
+     * Takes a token from the bucket, if available.
+     *
+     * @return 0 if a token has been taken, otherwise the time (in nanoseconds)
+     *         until the next token is available
+     */
+    long tryAcquire(long now) {
+        while (true) {
+            long current = theoreticalArrivalTime.get();
+            long next = Math.max(current, now) + emissionIntervalNanos;
+            long excess = next - now - toleranceNanos;
+            if (excess > 0) {
+                return excess;
+            }
+            if (theoreticalArrivalTime.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Returns a token taken with {@link #tryAcquire(long)} to the bucket, e.g.
+     * if the request has been rejected by another limit.
+     */
+    void release() {
+        theoreticalArrivalTime.addAndGet(-emissionIntervalNanos);
+    }
+
+    boolean hasLimits(int queriesPerMinute, int burst) {
+        return this.queriesPerMinute == queriesPerMinute && this.burst == burst;
+    }
+
+    int getBurst() {
+        return burst;
+    }
+}
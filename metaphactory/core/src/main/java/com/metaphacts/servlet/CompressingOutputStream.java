@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.servlet;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.HttpHeaders;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Output stream which compresses the response body with the negotiated
+ * content coding. Compression only starts once more than the minimum number
+ * of bytes has been written, i.e. the "Content-Encoding" header is only set
+ * if the response is large enough to benefit from compression; smaller
+ * responses are sent as they are by {@link #finish()}.
+ * <p>
+ * Flushing does not end the current deflate block, such that flushes of
+ * result writers do not degrade the compression ratio.
+ */
+public class CompressingOutputStream extends OutputStream {
+
+    public static final String GZIP = "gzip";
+
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * Supported content codings, in the order of preference.
+     */
+    public static final List<String> SUPPORTED_ENCODINGS = ImmutableList.of(GZIP, DEFLATE);
+
+    private final HttpServletResponse resp;
+    private final OutputStream out;
+    private final String encoding;
+    private final int bufferSize;
+
+    private byte[] pending;
+    private int pendingLength = 0;
+
+    private DeflaterOutputStream compressed;
+    private Deflater deflater;
+    private boolean finished = false;
+
+    /**
+     * @param resp
+     *            response to set the "Content-Encoding" header on
+     * @param out
+     *            stream to the client
+     * @param encoding
+     *            one of {@link #SUPPORTED_ENCODINGS}
+     * @param minBytes
+     *            minimum size of the response to be compressed
+     * @param bufferSize
+     *            size of the buffer of the deflater
+     */
+    public CompressingOutputStream(
+        HttpServletResponse resp, OutputStream out, String encoding, int minBytes, int bufferSize
+    ) {
+        if (!SUPPORTED_ENCODINGS.contains(encoding)) {
+            throw new IllegalArgumentException("Unsupported content encoding: " + encoding);
+        }
+        this.resp = resp;
+        this.out = out;
+        this.encoding = encoding;
+        this.bufferSize = bufferSize;
+        this.pending = new byte[minBytes];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("Stream has already been finished.");
+        }
+        if (compressed != null) {
+            compressed.write(b, off, len);
+            return;
+        }
+        if (pendingLength + len <= pending.length) {
+            System.arraycopy(b, off, pending, pendingLength, len);
+            pendingLength += len;
+            return;
+        }
+        startCompression();
+        compressed.write(b, off, len);
+    }
+
+    private void startCompression() throws IOException {
+        resp.setHeader(HttpHeaders.CONTENT_ENCODING, encoding);
+        if (GZIP.equals(encoding)) {
+            GzipStream gzip = new GzipStream(out, bufferSize);
+            deflater = gzip.getDeflater();
+            compressed = gzip;
+        } else {
+            deflater = new Deflater();
+            compressed = new DeflaterOutputStream(out, deflater, bufferSize);
+        }
+        compressed.write(pending, 0, pendingLength);
+        pending = null;
+    }
+
+    /**
+     * Flushes the data compressed so far; data below the minimum size is kept
+     * back until the response is finished.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (compressed != null && !finished) {
+            compressed.flush();
+        } else if (finished) {
+            out.flush();
+        }
+    }
+
+    /**
+     * Writes the remaining data without closing the underlying stream.
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (compressed != null) {
+            try {
+                compressed.finish();
+            } finally {
+                release();
+            }
+        } else {
+            out.write(pending, 0, pendingLength);
+            pending = null;
+        }
+        out.flush();
+    }
+
+    /**
+     * Releases the native resources of the deflater, also if the response
+     * has not been finished.
+     */
+    public void release() {
+        if (deflater != null) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the response is compressed, i.e. the
+     *         "Content-Encoding" header has been set
+     */
+    public boolean isCompressing() {
+        return compressed != null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        finish();
+        out.close();
+    }
+
+    /**
+     * Exposes the deflater of the {@link GZIPOutputStream}, which is otherwise
+     * only released when closing the stream.
+     */
+    private static class GzipStream extends GZIPOutputStream {
+        private GzipStream(OutputStream out, int size) throws IOException {
+            super(out, size);
+        }
+
+        private Deflater getDeflater() {
+            return def;
+        }
+    }
+}
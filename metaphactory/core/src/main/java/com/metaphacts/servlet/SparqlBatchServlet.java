@@ -0,0 +1,676 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.Response.Status;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.subject.Subject;
+import org.eclipse.rdf4j.common.lang.FileFormat;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BooleanQuery;
+import org.eclipse.rdf4j.query.MalformedQueryException;
+import org.eclipse.rdf4j.query.Operation;
+import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.resultio.BooleanQueryResultFormat;
+import org.eclipse.rdf4j.query.resultio.BooleanQueryResultWriter;
+import org.eclipse.rdf4j.query.resultio.BooleanQueryResultWriterRegistry;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultFormat;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriter;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriterRegistry;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.rio.ntriples.NTriplesUtil;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.inject.Inject;
+import com.metaphacts.api.sparql.RunningQueryRegistry;
+import com.metaphacts.api.sparql.RunningQueryRegistry.RunningQuery;
+import com.metaphacts.api.sparql.SparqlOperationBuilder;
+import com.metaphacts.api.sparql.SparqlUtil;
+import com.metaphacts.api.sparql.SparqlUtil.SparqlOperation;
+import com.metaphacts.config.Configuration;
+import com.metaphacts.config.NamespaceRegistry;
+import com.metaphacts.config.groups.UIConfiguration;
+import com.metaphacts.repository.RepositoryManager;
+import com.metaphacts.security.AdmissionController;
+import com.metaphacts.security.AdmissionController.Ticket;
+import com.metaphacts.security.PermissionUtil;
+import com.metaphacts.security.ThrottledException;
+import com.metaphacts.servlet.SparqlRequestExecutor.Priority;
+
+/**
+ * Evaluates many SELECT and ASK queries with a single request, e.g. all
+ * queries of a resource page.
+ *
+ * <p>
+ * The request body is a JSON array of operations:
+ *
+ * <pre>
+ * [{"id": "label", "query": "SELECT ...", "repository": "default",
+ *   "bindings": {"s": "&lt;http://example.org/s&gt;"}, "format": "application/sparql-results+json"}]
+ * </pre>
+ *
+ * where only <code>query</code> is mandatory; bindings are given in N-Triples
+ * syntax. The operations are evaluated concurrently on the
+ * {@link SparqlRequestExecutor} and the response (content type
+ * <code>application/x-ndjson</code>) contains one JSON object per line and
+ * operation, in the order of completion:
+ *
+ * <pre>
+ * {"id": "label", "status": 200, "contentType": "...", "result": ...}
+ * {"id": "other", "status": 403, "error": "..."}
+ * </pre>
+ *
+ * where results in JSON formats are embedded as JSON, binary formats as Base64
+ * string (with <code>"encoding": "base64"</code>) and all others as string.
+ * The results of the operations are buffered in memory, up to
+ * {@link UIConfiguration#getSparqlBatchMaxResultKB()}; operations without a
+ * result after the query timeout are answered with status 504 and are
+ * cancelled, as are all operations once the client has disconnected.
+ * Every operation is checked individually for permissions and admission, and
+ * the failure of an operation does not affect the other operations.
+ * </p>
+ */
+public class SparqlBatchServlet extends HttpServlet {
+
+    private static final long serialVersionUID = -3127950473254367412L;
+
+    private static final Logger logger = LogManager.getLogger(SparqlBatchServlet.class);
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    static final String CONTENT_TYPE = "application/x-ndjson";
+
+    /**
+     * Additional time operations may wait in the queue of the executor before
+     * they time out.
+     */
+    private static final long TIMEOUT_GRACE_MILLIS = 10000;
+
+    static {
+        // the same result formats as for single queries
+        SparqlServlet.registerBinaryFormats();
+    }
+
+    @Inject
+    private RepositoryManager repositoryManager;
+
+    @Inject
+    private NamespaceRegistry nsRegistry;
+
+    @Inject
+    private Configuration config;
+
+    @Inject
+    private RunningQueryRegistry runningQueries;
+
+    @Inject
+    private SparqlRequestExecutor requestExecutor;
+
+    @Inject
+    private AdmissionController admissionController;
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        List<BatchOperation> operations;
+        try {
+            operations = parseOperations(mapper.readTree(req.getInputStream()));
+        } catch (IOException | IllegalArgumentException e) {
+            resp.sendError(Status.BAD_REQUEST.getStatusCode(), "Invalid batch request: " + e.getMessage());
+            return;
+        }
+        int maxOperations = config.getUiConfig().getSparqlBatchMaxOperations();
+        if (operations.size() > maxOperations) {
+            resp.sendError(Status.BAD_REQUEST.getStatusCode(),
+                "Batch requests must not contain more than " + maxOperations + " operations.");
+            return;
+        }
+        logger.debug("Evaluating batch of {} operations.", operations.size());
+
+        resp.setStatus(Status.OK.getStatusCode());
+        resp.setContentType(CONTENT_TYPE + ";charset=" + Charsets.UTF_8);
+        if (operations.isEmpty()) {
+            return;
+        }
+        long timeoutMillis = getTimeoutMillis(operations);
+        AsyncContext asyncContext = req.isAsyncSupported() ? req.startAsync() : null;
+        BatchResponse response = new BatchResponse(resp.getOutputStream(), operations,
+            asyncContext != null ? asyncContext::complete : () -> {}, query -> runningQueries.kill(query.getId()));
+        if (asyncContext != null) {
+            // the request thread is released, results are written by the threads of the executor
+            asyncContext.setTimeout(timeoutMillis);
+            asyncContext.addListener(new AsyncListener() {
+                @Override
+                public void onTimeout(AsyncEvent event) throws IOException {
+                    response.timeout();
+                }
+
+                @Override
+                public void onError(AsyncEvent event) throws IOException {
+                    response.timeout();
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) throws IOException {
+                }
+
+                @Override
+                public void onComplete(AsyncEvent event) throws IOException {
+                }
+            });
+        }
+
+        Subject subject = SecurityUtils.getSubject();
+        for (int i = 0; i < operations.size(); i++) {
+            final int index = i;
+            BatchOperation operation = operations.get(i);
+            Optional<Repository> repository = repositoryManager.getRepository(Optional.of(operation.repositoryId));
+            if (!repository.isPresent()) {
+                response.write(index, BatchResult.error(operation.id, Status.NOT_FOUND.getStatusCode(),
+                    "Repository " + operation.repositoryId + " does not exist."));
+                continue;
+            }
+            boolean accepted = requestExecutor.submit(operation.repositoryId, Priority.INTERACTIVE,
+                subject.associateWith(() -> {
+                    BatchResult result = null;
+                    try {
+                        // operations of a batch which has timed out are not admitted anymore
+                        result = response.isCancelled() ? BatchResponse.cancelled(operation)
+                            : evaluate(operation, repository.get(), response, index);
+                    } finally {
+                        // every operation is answered, even if the evaluation died with an error
+                        response.write(index, result != null ? result : BatchResult.error(operation.id,
+                            Status.INTERNAL_SERVER_ERROR.getStatusCode(), "Evaluation of the operation failed."));
+                    }
+                }));
+            if (!accepted) {
+                response.write(index, BatchResult.error(operation.id, Status.SERVICE_UNAVAILABLE.getStatusCode(),
+                    "Too many queries on repository " + operation.repositoryId + ", retry later."));
+            }
+        }
+
+        if (asyncContext == null) {
+            try {
+                if (!response.await(timeoutMillis)) {
+                    response.timeout();
+                }
+            } catch (InterruptedException e) {
+                response.timeout();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the time (in milliseconds) after which operations without result
+     *         are answered with a timeout, derived from the query timeouts of
+     *         the repositories; 0 if a query timeout is unlimited
+     */
+    private long getTimeoutMillis(List<BatchOperation> operations) {
+        long timeoutSeconds = 0;
+        for (BatchOperation operation : operations) {
+            int operationTimeout = SparqlServlet.getQueryTimeoutSeconds(config, operation.repositoryId);
+            if (operationTimeout == 0) {
+                return 0;
+            }
+            timeoutSeconds = Math.max(timeoutSeconds, operationTimeout);
+        }
+        return TimeUnit.SECONDS.toMillis(timeoutSeconds) + TIMEOUT_GRACE_MILLIS;
+    }
+
+    /**
+     * Evaluates a single operation of a batch; failures are returned as
+     * result.
+     */
+    private BatchResult evaluate(BatchOperation operation, Repository repository, BatchResponse response,
+            int index) {
+        try (Ticket ticket = admissionController.admit(operation.repositoryId)) {
+            try (RepositoryConnection con = repository.getConnection()) {
+                IRI user = nsRegistry.getUserIRI();
+                Operation sparqlOperation = SparqlOperationBuilder.create(operation.query)
+                    .resolveUser(user)
+                    .setBindings(operation.bindings)
+                    .setMaxExecutionTime(SparqlServlet.getQueryTimeoutSeconds(config, operation.repositoryId))
+                    .build(con);
+                SparqlOperation operationType = SparqlUtil.getOperationType(sparqlOperation);
+                if (operationType != SparqlOperation.SELECT && operationType != SparqlOperation.ASK) {
+                    return BatchResult.error(operation.id, Status.BAD_REQUEST.getStatusCode(),
+                        "Only SELECT and ASK queries are supported in batches.");
+                }
+                if (!PermissionUtil.hasSparqlPermission(operationType)) {
+                    return BatchResult.error(operation.id, Status.FORBIDDEN.getStatusCode(),
+                        "No permission to execute SPARQL Operation " + operationType.name());
+                }
+
+                try (RunningQuery running = runningQueries.register(
+                        user != null ? user.stringValue() : null, operation.repositoryId,
+                        operation.query, operationType, con)) {
+                    if (!response.started(index, running)) {
+                        return BatchResponse.cancelled(operation);
+                    }
+                    try {
+                        return operationType == SparqlOperation.SELECT
+                            ? evaluateSelect(operation, (TupleQuery) sparqlOperation, running)
+                            : evaluateAsk(operation, (BooleanQuery) sparqlOperation, running);
+                    } finally {
+                        response.stopped(index);
+                    }
+                }
+            }
+        } catch (ThrottledException e) {
+            return BatchResult.error(operation.id, ThrottledException.STATUS, e.getMessage());
+        } catch (MalformedQueryException e) {
+            return BatchResult.error(operation.id, Status.BAD_REQUEST.getStatusCode(), e.getMessage());
+        } catch (Exception e) {
+            // result writers may wrap the exception of the buffer
+            Optional<Throwable> tooLarge = Throwables.getCausalChain(e).stream()
+                .filter(ResultTooLargeException.class::isInstance).findFirst();
+            if (tooLarge.isPresent()) {
+                return BatchResult.error(operation.id, Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode(),
+                    tooLarge.get().getMessage());
+            }
+            logger.debug("Evaluation of batch operation \"{}\" failed: {}", operation.id, e.getMessage());
+            return BatchResult.error(operation.id, Status.INTERNAL_SERVER_ERROR.getStatusCode(), e.getMessage());
+        }
+    }
+
+    private BatchResult evaluateSelect(BatchOperation operation, TupleQuery query, RunningQuery running)
+            throws Exception {
+        TupleQueryResultWriterRegistry registry = TupleQueryResultWriterRegistry.getInstance();
+        TupleQueryResultFormat format = operation.format
+            .map(mime -> registry.getFileFormatForMIMEType(mime).orElse(null))
+            .orElse(TupleQueryResultFormat.JSON);
+        if (format == null) {
+            return BatchResult.error(operation.id, Status.NOT_ACCEPTABLE.getStatusCode(),
+                "Unsupported format " + operation.format.get());
+        }
+        ResultBuffer out = new ResultBuffer(config.getUiConfig().getSparqlBatchMaxResultKB() * 1024L);
+        TupleQueryResultWriter writer = registry.get(format).get().getWriter(out);
+        try (TupleQueryResult result = query.evaluate()) {
+            running.setIteration(result);
+            writer.startQueryResult(result.getBindingNames());
+            while (result.hasNext()) {
+                writer.handleSolution(result.next());
+                running.rowStreamed();
+            }
+            running.checkNotKilled();
+            writer.endQueryResult();
+        }
+        return BatchResult.of(operation.id, format, out);
+    }
+
+    private BatchResult evaluateAsk(BatchOperation operation, BooleanQuery query, RunningQuery running)
+            throws Exception {
+        BooleanQueryResultWriterRegistry registry = BooleanQueryResultWriterRegistry.getInstance();
+        BooleanQueryResultFormat format = operation.format
+            .map(mime -> registry.getFileFormatForMIMEType(mime).orElse(null))
+            .orElse(BooleanQueryResultFormat.JSON);
+        if (format == null) {
+            return BatchResult.error(operation.id, Status.NOT_ACCEPTABLE.getStatusCode(),
+                "Unsupported format " + operation.format.get());
+        }
+        ResultBuffer out = new ResultBuffer(config.getUiConfig().getSparqlBatchMaxResultKB() * 1024L);
+        BooleanQueryResultWriter writer = registry.get(format).get().getWriter(out);
+        boolean result = query.evaluate();
+        running.checkNotKilled();
+        writer.handleBoolean(result);
+        return BatchResult.of(operation.id, format, out);
+    }
+
+    /**
+     * Parses the operations of a batch request.
+     *
+     * <b>Package private for testing only</b>.
+     *
+     * @throws IllegalArgumentException
+     *             if the request is malformed
+     */
+    static List<BatchOperation> parseOperations(JsonNode json) throws IllegalArgumentException {
+        if (json == null || !json.isArray()) {
+            throw new IllegalArgumentException("Expected a JSON array of operations.");
+        }
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        List<BatchOperation> operations = new ArrayList<>();
+        for (int i = 0; i < json.size(); i++) {
+            JsonNode node = json.get(i);
+            String id = node.has("id") ? node.get("id").asText() : String.valueOf(i);
+            if (!node.hasNonNull("query")) {
+                throw new IllegalArgumentException("Operation " + id + " has no query.");
+            }
+            String repositoryId = node.hasNonNull("repository")
+                ? node.get("repository").asText() : RepositoryManager.DEFAULT_REPOSITORY_ID;
+            Map<String, Value> bindings = new LinkedHashMap<>();
+            if (node.has("bindings")) {
+                Iterator<Map.Entry<String, JsonNode>> fields = node.get("bindings").fields();
+                while (fields.hasNext()) {
+                    Map.Entry<String, JsonNode> field = fields.next();
+                    bindings.put(field.getKey(), NTriplesUtil.parseValue(field.getValue().asText(), vf));
+                }
+            }
+            Optional<String> format = node.hasNonNull("format")
+                ? Optional.of(node.get("format").asText()) : Optional.empty();
+            operations.add(new BatchOperation(id, node.get("query").asText(), repositoryId, bindings, format));
+        }
+        return operations;
+    }
+
+    static class BatchOperation {
+        final String id;
+        final String query;
+        final String repositoryId;
+        final Map<String, Value> bindings;
+        final Optional<String> format;
+
+        BatchOperation(String id, String query, String repositoryId, Map<String, Value> bindings, Optional<String> format) {
+            this.id = id;
+            this.query = query;
+            this.repositoryId = repositoryId;
+            this.bindings = bindings;
+            this.format = format;
+        }
+    }
+
+    static class BatchResult {
+        final String id;
+        final int status;
+        final String contentType;
+        final byte[] result;
+        /**
+         * Charset of textual results, <code>null</code> for binary results.
+         */
+        final Charset charset;
+        final String error;
+
+        BatchResult(String id, int status, String contentType, byte[] result, Charset charset, String error) {
+            this.id = id;
+            this.status = status;
+            this.contentType = contentType;
+            this.result = result;
+            this.charset = charset;
+            this.error = error;
+        }
+
+        static BatchResult of(String id, FileFormat format, ResultBuffer out) {
+            return new BatchResult(id, Status.OK.getStatusCode(), format.getDefaultMIMEType(), out.toByteArray(),
+                format.hasCharset() ? format.getCharset() : null, null);
+        }
+
+        static BatchResult error(String id, int status, String error) {
+            return new BatchResult(id, status, null, null, null, error);
+        }
+
+        void writeTo(JsonGenerator generator) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("id", id);
+            generator.writeNumberField("status", status);
+            if (result != null) {
+                generator.writeStringField("contentType", contentType);
+                if (charset == null) {
+                    // binary formats can not be embedded as string
+                    generator.writeStringField("encoding", "base64");
+                    generator.writeFieldName("result");
+                    generator.writeString(Base64.getEncoder().encodeToString(result));
+                } else if (contentType.contains("json")) {
+                    generator.writeFieldName("result");
+                    generator.writeRawValue(new String(result, charset));
+                } else {
+                    generator.writeFieldName("result");
+                    generator.writeString(new String(result, charset));
+                }
+            } else {
+                generator.writeStringField("error", error != null ? error : "");
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Response of a batch, to which the results of the operations are written
+     * as they are completed, by the threads of the executor. Once all
+     * operations are answered (or have timed out), the response is finished.
+     *
+     * <p>
+     * Once the batch has timed out or the client has disconnected, the batch
+     * is cancelled: the queries of the operations which are evaluated are
+     * killed and operations which have not been started yet are skipped.
+     * </p>
+     *
+     * <b>Package private for testing only</b>.
+     */
+    static class BatchResponse {
+        private final JsonGenerator generator;
+        private final List<BatchOperation> operations;
+        private final boolean[] answered;
+        private final Runnable onFinished;
+        private final Consumer<RunningQuery> kill;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private final Map<Integer, RunningQuery> running = new HashMap<>();
+        private int remaining;
+        private boolean disconnected = false;
+        private volatile boolean cancelled = false;
+
+        BatchResponse(OutputStream out, List<BatchOperation> operations, Runnable onFinished,
+                Consumer<RunningQuery> kill) throws IOException {
+            this.generator = mapper.getFactory().createGenerator(out);
+            this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // results are separated by line breaks only
+            this.generator.setRootValueSeparator(null);
+            this.operations = operations;
+            this.answered = new boolean[operations.size()];
+            this.remaining = operations.size();
+            this.onFinished = onFinished;
+            this.kill = kill;
+        }
+
+        static BatchResult cancelled(BatchOperation operation) {
+            return BatchResult.error(operation.id, Status.GATEWAY_TIMEOUT.getStatusCode(),
+                "Evaluation of the operation has been cancelled.");
+        }
+
+        /**
+         * Streams the result of an operation, unless the operation has already
+         * been answered, e.g. since it timed out.
+         */
+        void write(int index, BatchResult result) {
+            synchronized (this) {
+                if (answered[index]) {
+                    return;
+                }
+                answered[index] = true;
+                remaining--;
+                if (!disconnected) {
+                    try {
+                        result.writeTo(generator);
+                        generator.writeRaw('\n');
+                        generator.flush();
+                    } catch (IOException e) {
+                        logger.debug("Client disconnected while streaming the results of a batch: {}",
+                            e.getMessage());
+                        disconnected = true;
+                    }
+                }
+                if (remaining == 0) {
+                    finish();
+                }
+            }
+            if (disconnected) {
+                // nobody waits for the results of the other operations anymore
+                cancel();
+            }
+        }
+
+        /**
+         * Answers all operations without result with a timeout and cancels
+         * the batch.
+         */
+        void timeout() {
+            for (int i = 0; i < operations.size(); i++) {
+                // operations which have already been answered are skipped
+                write(i, BatchResult.error(operations.get(i).id, Status.GATEWAY_TIMEOUT.getStatusCode(),
+                    "Evaluation of the operation timed out."));
+            }
+            cancel();
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Records the query of an operation which is evaluated, such that it
+         * can be killed if the batch is cancelled.
+         *
+         * @return <code>false</code> if the batch has already been cancelled,
+         *         in which case the operation must not be evaluated
+         */
+        synchronized boolean started(int index, RunningQuery query) {
+            if (cancelled) {
+                return false;
+            }
+            running.put(index, query);
+            return true;
+        }
+
+        synchronized void stopped(int index) {
+            running.remove(index);
+        }
+
+        /**
+         * Kills the queries of all operations which are evaluated.
+         */
+        private void cancel() {
+            List<RunningQuery> queries;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                queries = new ArrayList<>(running.values());
+                running.clear();
+            }
+            if (!queries.isEmpty()) {
+                logger.debug("Killing {} queries of a cancelled batch.", queries.size());
+            }
+            queries.forEach(kill);
+        }
+
+        /**
+         * Waits until all operations are answered.
+         *
+         * @param timeoutMillis
+         *            maximum time to wait, 0 for no limit
+         * @return <code>false</code> if the waiting time elapsed
+         */
+        private boolean await(long timeoutMillis) throws InterruptedException {
+            if (timeoutMillis == 0) {
+                finished.await();
+                return true;
+            }
+            return finished.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private void finish() {
+            try {
+                generator.close();
+            } catch (IOException e) {
+                logger.debug("Failed to finish the response of a batch: {}", e.getMessage());
+            } finally {
+                finished.countDown();
+                onFinished.run();
+            }
+        }
+    }
+
+    /**
+     * In-memory buffer of the result of an operation, limited to the given
+     * number of bytes.
+     */
+    private static class ResultBuffer extends ByteArrayOutputStream {
+        private final long maxBytes;
+
+        private ResultBuffer(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            checkSize(1);
+            super.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            checkSize(len);
+            super.write(b, off, len);
+        }
+
+        private void checkSize(int len) {
+            if (count + len > maxBytes) {
+                throw new ResultTooLargeException(maxBytes);
+            }
+        }
+    }
+
+    /**
+     * Thrown if the result of an operation exceeds
+     * {@link UIConfiguration#getSparqlBatchMaxResultKB()}.
+     */
+    private static class ResultTooLargeException extends RuntimeException {
+        private static final long serialVersionUID = 4682036517343075301L;
+
+        private ResultTooLargeException(long maxBytes) {
+            super("The result exceeds the maximum size of " + maxBytes / 1024
+                + " KB for batches, please execute the query separately.");
+        }
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.servlet;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.metaphacts.config.Configuration;
+import com.metaphacts.config.groups.UIConfiguration;
+
+/**
+ * Executes the evaluation of requests to the SPARQL endpoint, such that the
+ * request threads of the servlet container are not blocked by slow queries.
+ *
+ * <p>
+ * Every repository has its own bounded thread pool, such that a stalled
+ * (e.g. remote) repository does not affect queries on other repositories.
+ * Waiting requests are ordered by {@link Priority}: interactive queries of
+ * the UI before exports. If the queue of a repository is full, requests are
+ * rejected, see {@link #submit(String, Priority, Runnable)}.
+ * </p>
+ *
+ * See {@link UIConfiguration#getSparqlExecutorThreads()} and related
+ * parameters for the configuration.
+ */
+@Singleton
+public class SparqlRequestExecutor {
+
+    private static final Logger logger = LogManager.getLogger(SparqlRequestExecutor.class);
+
+    public enum Priority {
+        /**
+         * Queries of the UI, which a user is waiting for.
+         */
+        INTERACTIVE,
+        /**
+         * Downloads of (potentially large) results.
+         */
+        EXPORT
+    }
+
+    private final Configuration config;
+    private final ConcurrentMap<String, RepositoryExecutor> executors = new ConcurrentHashMap<>();
+
+    @Inject
+    public SparqlRequestExecutor(Configuration config) {
+        this.config = config;
+    }
+
+    /**
+     * Submits a request for asynchronous evaluation.
+     *
+     * @param repositoryId
+     *            ID of the repository the request is evaluated on
+     * @return <code>false</code> if the request has been rejected, since the
+     *         queue of the repository is full
+     */
+    public boolean submit(String repositoryId, Priority priority, Runnable task) {
+        return executors.computeIfAbsent(repositoryId, RepositoryExecutor::new).submit(priority, task);
+    }
+
+    /**
+     * @return statistics of the executors of all repositories which received
+     *         requests so far, by repository ID
+     */
+    public Map<String, ExecutorStats> getStats() {
+        Map<String, ExecutorStats> stats = new TreeMap<>();
+        for (RepositoryExecutor executor : executors.values()) {
+            stats.put(executor.repositoryId, executor.getStats());
+        }
+        return stats;
+    }
+
+    private class RepositoryExecutor {
+        private final String repositoryId;
+        private final ThreadPoolExecutor executor;
+        /**
+         * Permits for running and queued requests.
+         */
+        private final Semaphore permits;
+
+        private final AtomicLong sequence = new AtomicLong();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong totalWaitNanos = new AtomicLong();
+        private final AtomicLong maxWaitNanos = new AtomicLong();
+
+        private RepositoryExecutor(String repositoryId) {
+            UIConfiguration uiConfig = config.getUiConfig();
+            int threads = uiConfig.getSparqlExecutorThreads(repositoryId);
+            int queueSize = uiConfig.getSparqlExecutorQueueSize(repositoryId);
+            this.repositoryId = repositoryId;
+            this.permits = new Semaphore(threads + queueSize);
+            this.executor = new ThreadPoolExecutor(
+                threads, threads, 60, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<>(),
+                new ThreadFactoryBuilder()
+                    .setNameFormat("sparql-" + repositoryId + "-%d")
+                    .setDaemon(true)
+                    .build());
+            this.executor.allowCoreThreadTimeOut(true);
+            logger.info("Created SPARQL executor for repository \"{}\" with {} threads and a queue of {} requests.",
+                repositoryId, threads, queueSize);
+        }
+
+        private boolean submit(Priority priority, Runnable task) {
+            if (!permits.tryAcquire()) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            executor.execute(new PrioritizedTask(priority, sequence.incrementAndGet(), task));
+            return true;
+        }
+
+        private ExecutorStats getStats() {
+            long count = completed.get();
+            return new ExecutorStats(
+                executor.getQueue().size(), executor.getActiveCount(), count, rejected.get(),
+                count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get() / count),
+                TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get()));
+        }
+
+        private class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+            private final Priority priority;
+            private final long sequence;
+            private final Runnable task;
+            private final long submitted = System.nanoTime();
+
+            private PrioritizedTask(Priority priority, long sequence, Runnable task) {
+                this.priority = priority;
+                this.sequence = sequence;
+                this.task = task;
+            }
+
+            @Override
+            public void run() {
+                long wait = System.nanoTime() - submitted;
+                totalWaitNanos.addAndGet(wait);
+                maxWaitNanos.accumulateAndGet(wait, Math::max);
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    logger.error("Evaluation of SPARQL request on repository \"{}\" failed.", repositoryId, e);
+                } finally {
+                    completed.incrementAndGet();
+                    permits.release();
+                }
+            }
+
+            @Override
+            public int compareTo(PrioritizedTask other) {
+                int result = priority.compareTo(other.priority);
+                // first come, first served within the same priority
+                return result != 0 ? result : Long.compare(sequence, other.sequence);
+            }
+        }
+    }
+
+    /**
+     * Statistics of the executor of a repository.
+     */
+    public static class ExecutorStats {
+        private final int queued;
+        private final int active;
+        private final long completed;
+        private final long rejected;
+        private final long averageWaitMillis;
+        private final long maxWaitMillis;
+
+        private ExecutorStats(
+            int queued, int active, long completed, long rejected, long averageWaitMillis, long maxWaitMillis
+        ) {
+            this.queued = queued;
+            this.active = active;
+            this.completed = completed;
+            this.rejected = rejected;
+            this.averageWaitMillis = averageWaitMillis;
+            this.maxWaitMillis = maxWaitMillis;
+        }
+
+        /**
+         * @return the number of requests waiting for evaluation
+         */
+        public int getQueued() {
+            return queued;
+        }
+
+        /**
+         * @return the number of requests which are currently evaluated
+         */
+        public int getActive() {
+            return active;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * @return the number of requests which have been rejected since the
+         *         queue was full
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @return the average time (in milliseconds) completed requests have
+         *         been waiting in the queue
+         */
+        public long getAverageWaitMillis() {
+            return averageWaitMillis;
+        }
+
+        public long getMaxWaitMillis() {
+            return maxWaitMillis;
+        }
+    }
+}
@@ -21,25 +21,41 @@
 import org.eclipse.rdf4j.common.io.IOUtil;
 import org.eclipse.rdf4j.common.lang.FileFormat;
 
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.HttpMethod;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response.Status;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.shiro.SecurityUtils;
+import org.apache.shiro.subject.Subject;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.BooleanQuery;
 import org.eclipse.rdf4j.query.GraphQuery;
 import org.eclipse.rdf4j.query.GraphQueryResult;
+import org.eclipse.rdf4j.query.MalformedQueryException;
 import org.eclipse.rdf4j.query.Operation;
 import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.query.TupleQueryResult;
 import org.eclipse.rdf4j.query.Update;
 import org.eclipse.rdf4j.query.resultio.BooleanQueryResultFormat;
 import org.eclipse.rdf4j.query.resultio.BooleanQueryResultWriter;
@@ -51,6 +67,7 @@
 import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriter;
 import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriterFactory;
 import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriterRegistry;
+import org.eclipse.rdf4j.query.resultio.binary.BinaryQueryResultWriterFactory;
 import org.eclipse.rdf4j.repository.Repository;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.rio.RDFFormat;
@@ -58,19 +75,38 @@
 import org.eclipse.rdf4j.rio.RDFWriter;
 import org.eclipse.rdf4j.rio.RDFWriterFactory;
 import org.eclipse.rdf4j.rio.RDFWriterRegistry;
+import org.eclipse.rdf4j.rio.binary.BinaryRDFWriterFactory;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 import com.google.inject.Inject;
+import com.metaphacts.api.sparql.QueryProfile;
+import com.metaphacts.api.sparql.QueryProfile.Outcome;
+import com.metaphacts.api.sparql.QueryProfiler;
+import com.metaphacts.api.sparql.ResultCursorRegistry;
+import com.metaphacts.api.sparql.ResultCursorRegistry.Page;
+import com.metaphacts.api.sparql.ResultCursorRegistry.SpillLimitExceededException;
+import com.metaphacts.api.sparql.RunningQueryRegistry;
+import com.metaphacts.api.sparql.RunningQueryRegistry.RunningQuery;
 import com.metaphacts.api.sparql.ServletRequestUtil;
 import com.metaphacts.api.sparql.SparqlOperationBuilder;
 import com.metaphacts.api.sparql.SparqlUtil;
 import com.metaphacts.api.sparql.SparqlUtil.SparqlOperation;
+import com.metaphacts.api.sparql.StreamingDataUpdate;
+import com.metaphacts.cache.SparqlResultCache;
+import com.metaphacts.cache.SparqlResultCache.CachedResult;
+import com.metaphacts.cache.SparqlResultCache.CapturingOutputStream;
+import com.metaphacts.config.Configuration;
 import com.metaphacts.config.NamespaceRegistry;
+import com.metaphacts.config.groups.UIConfiguration;
 import com.metaphacts.di.MainGuiceModule.MainTemplateProvider;
 import com.metaphacts.repository.RepositoryManager;
+import com.metaphacts.security.AdmissionController;
+import com.metaphacts.security.AdmissionController.Ticket;
 import com.metaphacts.security.PermissionUtil;
+import com.metaphacts.security.ThrottledException;
+import com.metaphacts.servlet.SparqlRequestExecutor.Priority;
 
 
 
@@ -95,6 +131,40 @@ public class SparqlServlet extends HttpServlet {
     @Inject
     private NamespaceRegistry nsRegistry;
 
+    @Inject
+    private SparqlResultCache resultCache;
+
+    @Inject
+    private Configuration config;
+
+    @Inject
+    private RunningQueryRegistry runningQueries;
+
+    @Inject
+    private SparqlRequestExecutor requestExecutor;
+
+    @Inject
+    private AdmissionController admissionController;
+
+    @Inject
+    private QueryProfiler profiler;
+
+    @Inject
+    private ResultCursorRegistry cursors;
+
+    /**
+     * Response header carrying the token of the result cursor, if there are
+     * further pages.
+     */
+    static final String CONTINUATION_TOKEN_HEADER = "X-Continuation-Token";
+
+    /**
+     * Result formats requested by the frontend for SELECT/ASK, CONSTRUCT and
+     * UPDATE operations.
+     */
+    private static final Set<String> INTERACTIVE_MIME_TYPES = Sets.newHashSet(
+        TupleQueryResultFormat.JSON.getDefaultMIMEType(), RDFFormat.TURTLE.getDefaultMIMEType(), "text/boolean");
+
     static class ContentType{
         static String FORM_URLENCODED = "application/x-www-form-urlencoded";
         static String SPARQL_QUERY = "application/sparql-query";
@@ -106,6 +176,8 @@ public class SparqlServlet extends HttpServlet {
         static String REPOSITORY = "repository";
         static String QUERY = "query";
         static String UPDATE = "update";
+        static String PAGE_SIZE = "pageSize";
+        static String CURSOR = "cursor";
     }
 
     /* (non-Javadoc)
@@ -115,6 +187,20 @@ public class SparqlServlet extends HttpServlet {
     protected void doPost(HttpServletRequest req, HttpServletResponse resp)
             throws ServletException, IOException {
         ServletRequestUtil.traceLogRequest(req,logger);
+        if (req.getParameter(Parameter.CURSOR) != null) {
+            processCursorPage(req, resp);
+            return;
+        }
+        if (isDirectUpdate(req)) {
+            // INSERT DATA and DELETE DATA are streamed instead of being read into memory
+            StreamingDataUpdate update = StreamingDataUpdate.open(req.getReader());
+            if (update.isDataUpdate()) {
+                processDataUpdate(update, req, resp);
+            } else {
+                processOperation(Optional.of(update.readAll()), req, resp);
+            }
+            return;
+        }
         Optional<String> query = getOperationStringFromPost(req);
         processOperation(query, req, resp);
     }
@@ -126,6 +212,10 @@ protected void doPost(HttpServletRequest req, HttpServletResponse resp)
     protected void doGet(HttpServletRequest req, HttpServletResponse resp)
             throws ServletException, IOException {
         ServletRequestUtil.traceLogRequest(req,logger);
+        if (req.getParameter(Parameter.CURSOR) != null) {
+            processCursorPage(req, resp);
+            return;
+        }
         Optional<String> query = getQueryStringFromGet(req);
         processOperation(query, req, resp);
     }
@@ -142,8 +232,46 @@ Optional<String> getQueryStringFromGet(HttpServletRequest req){
     }
 
     Repository getRepositoryFromRequest(HttpServletRequest req){
+        return repositoryManager.getRepository(getRepositoryIdFromRequest(req));
+    }
+
+    String getRepositoryIdFromRequest(HttpServletRequest req){
         Optional<String> repID = Optional.ofNullable(req.getParameter(Parameter.REPOSITORY));
-        return repositoryManager.getRepository(repID.orElse(RepositoryManager.DEFAULT_REPOSITORY_ID));
+        return repID.orElse(RepositoryManager.DEFAULT_REPOSITORY_ID);
+    }
+
+    /**
+     * @return <code>true</code> for updates via POST directly, see
+     *         {@link #getOperationStringFromPost(HttpServletRequest)}
+     */
+    private boolean isDirectUpdate(HttpServletRequest req) {
+        return ServletRequestUtil.getContentType(req, Optional.of(Lists.newArrayList(ContentType.SPARQL_UPDATE)))
+            .filter(ContentType.SPARQL_UPDATE::equalsIgnoreCase)
+            .isPresent();
+    }
+
+    /**
+     * Extracts the "pageSize" parameter, which requests the result of a SELECT
+     * query in pages via a result cursor.
+     * <b>Package private for testing only</b>.
+     *
+     * @throws IllegalArgumentException
+     *             if the page size is not a positive integer
+     */
+    Optional<Integer> getPageSize(HttpServletRequest req) throws IllegalArgumentException {
+        String pageSize = req.getParameter(Parameter.PAGE_SIZE);
+        if (pageSize == null) {
+            return Optional.empty();
+        }
+        try {
+            int size = Integer.parseInt(pageSize);
+            if (size > 0) {
+                return Optional.of(size);
+            }
+        } catch (NumberFormatException e) {
+            // fall through
+        }
+        throw new IllegalArgumentException("Parameter \"pageSize\" must be a positive integer.");
     }
 
     /**
@@ -234,9 +362,130 @@ protected void processOperation(Optional<String> query, HttpServletRequest req,
         final String preferredMimeTypeString = preferredMimeType.orElse("");
         logger.trace("Detected mimetype \"{} \" for query with hash \"{}\".", preferredMimeTypeString, queryString.hashCode());
 
-        try(RepositoryConnection con = getRepositoryFromRequest(req).getConnection()){
-            Operation sparqlOperation = SparqlOperationBuilder.create(queryString).resolveUser(nsRegistry.getUserIRI()).build(con);
+        try {
+            getPageSize(req);
+        } catch (IllegalArgumentException e) {
+            resp.sendError(Status.BAD_REQUEST.getStatusCode(), e.getMessage());
+            return;
+        }
+
+        dispatch(queryString.hashCode(), getPriority(preferredMimeTypeString), req, resp,
+            (asyncReq, asyncResp) -> evaluateOperation(queryString, preferredMimeTypeString, asyncReq, asyncResp));
+    }
+
+    /**
+     * Streams an <code>INSERT DATA</code> or <code>DELETE DATA</code> update
+     * into the repository, see {@link StreamingDataUpdate}.
+     */
+    private void processDataUpdate(StreamingDataUpdate update, HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        String head = update.getHead();
+        logger.debug("Received data update for streaming, hash of head: \"{}\"", head.hashCode());
+        dispatch(head.hashCode(), Priority.EXPORT, req, resp,
+            (asyncReq, asyncResp) -> evaluateDataUpdate(update, asyncReq, asyncResp));
+    }
+
+    /**
+     * Evaluation of a request, on the request thread or on the executor of
+     * the repository.
+     */
+    private interface Evaluation {
+        void evaluate(HttpServletRequest req, HttpServletResponse resp) throws IOException;
+    }
+
+    /**
+     * Applies admission control and evaluates the request on the executor of
+     * the repository, if asynchronous requests are supported.
+     *
+     * @param queryHash
+     *            hash of the operation string, for logging
+     */
+    private void dispatch(
+        int queryHash, Priority priority, HttpServletRequest req, HttpServletResponse resp, Evaluation evaluation
+    ) throws IOException {
+        /*
+         * admission control, before the request occupies a thread of the executor
+         */
+        String repositoryId = getRepositoryIdFromRequest(req);
+        // executors and limits are only created for existing repositories
+        if (!repositoryManager.getRepository(Optional.of(repositoryId)).isPresent()) {
+            resp.sendError(Status.NOT_FOUND.getStatusCode(), "Repository " + repositoryId + " does not exist.");
+            return;
+        }
+        final Ticket ticket;
+        try {
+            ticket = admissionController.admit(repositoryId);
+        } catch (ThrottledException e) {
+            logger.debug("Throttled query with hash \"{}\": {}", queryHash, e.getMessage());
+            e.getHeaders().forEach(resp::setHeader);
+            resp.sendError(ThrottledException.STATUS, e.getMessage());
+            return;
+        }
+
+        if (!req.isAsyncSupported()) {
+            try {
+                evaluation.evaluate(req, resp);
+            } finally {
+                ticket.close();
+            }
+            return;
+        }
+
+        /*
+         * evaluate on the executor of the repository, such that the request thread is released
+         */
+        AsyncContext asyncContext = req.startAsync();
+        // evaluation time is limited by the query timeouts
+        asyncContext.setTimeout(0);
+        Subject subject = SecurityUtils.getSubject();
+        boolean accepted = requestExecutor.submit(repositoryId, priority, subject.associateWith(() -> {
+            try {
+                evaluation.evaluate(
+                    (HttpServletRequest) asyncContext.getRequest(), (HttpServletResponse) asyncContext.getResponse());
+            } catch (IOException e) {
+                logger.debug("Failed to respond to query with hash \"{}\": {}", queryHash, e.getMessage());
+            } finally {
+                ticket.close();
+                asyncContext.complete();
+            }
+        }));
+        if (!accepted) {
+            logger.warn("Rejected query with hash \"{}\", the queue of repository \"{}\" is full.", queryHash, repositoryId);
+            resp.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(config.getUiConfig().getSparqlExecutorRetryAfterSeconds()));
+            resp.sendError(Status.SERVICE_UNAVAILABLE.getStatusCode(), "Too many queries on repository " + repositoryId + ", retry later.");
+            ticket.close();
+            asyncContext.complete();
+        }
+    }
+
+    /**
+     * Interactive queries of the UI request the default formats of the
+     * frontend, everything else is considered to be an export.
+     */
+    static Priority getPriority(String preferredMimeType) {
+        return INTERACTIVE_MIME_TYPES.contains(preferredMimeType.toLowerCase())
+            ? Priority.INTERACTIVE : Priority.EXPORT;
+    }
+
+    private void evaluateOperation(
+        String queryString, String preferredMimeTypeString, HttpServletRequest req, HttpServletResponse resp
+    ) throws IOException {
+        String repositoryId = getRepositoryIdFromRequest(req);
+        Repository repository = repositoryManager.getRepository(repositoryId);
+        ClientOutputStream clientOut = null;
+        CompressingOutputStream compressing = null;
+        RunningQuery running = null;
+        QueryProfile profile = null;
+        Outcome outcome = Outcome.COMPLETED;
+        try(RepositoryConnection con = repository.getConnection()){
+            IRI user = nsRegistry.getUserIRI();
+            profile = profiler.start(repositoryId, user != null ? user.stringValue() : null, queryString);
+            Operation sparqlOperation = SparqlOperationBuilder.create(queryString)
+                    .resolveUser(user)
+                    .setMaxExecutionTime(getQueryTimeoutSeconds(repositoryId))
+                    .build(con);
             SparqlOperation operationType = SparqlUtil.getOperationType(sparqlOperation);
+            profile.prepared(operationType);
             logger.trace("Query with hash \"{}\" is of type \"{}\"",queryString.hashCode(), operationType);
 
             /*
@@ -247,6 +496,35 @@ protected void processOperation(Optional<String> query, HttpServletRequest req,
                 return;
             }
 
+            /*
+             * result cache lookup, the generation of the repository is captured before evaluation;
+             * paged results are not cached
+             */
+            Optional<Integer> pageSize = operationType == SparqlOperation.SELECT ? getPageSize(req) : Optional.empty();
+            Optional<SparqlResultCache.Key> cacheKey = pageSize.isPresent() ? Optional.empty() : resultCache.createKey(
+                repository, repositoryId, queryString, operationType,
+                Optional.ofNullable(user), getSparqlPermissions(), preferredMimeTypeString);
+            Optional<String> encoding = getContentEncoding(req, resp);
+            if (cacheKey.isPresent() && !requestsNoCache(req)) {
+                Optional<CachedResult> cached = resultCache.get(cacheKey.get());
+                if (cached.isPresent()) {
+                    logger.debug("Serving query with hash \"{}\" from result cache.", queryString.hashCode());
+                    writeCachedResult(req, resp, cached.get(), encoding);
+                    return;
+                }
+            }
+            /*
+             * writer -> buffer -> capture for the result cache (uncompressed) -> compression -> client
+             */
+            clientOut = new ClientOutputStream(resp.getOutputStream());
+            compressing = createCompressingStream(encoding, resp, clientOut);
+            OutputStream encoded = compressing != null ? compressing : clientOut;
+            CapturingOutputStream capture = cacheKey.isPresent() ? resultCache.capture(encoded) : null;
+            OutputStream out = createBufferedStream(capture != null ? capture : encoded);
+
+            running = runningQueries.register(
+                user != null ? user.stringValue() : null, repositoryId, queryString, operationType, con);
+
             FileFormat rdfFormat ;
             switch(operationType){
                 case SELECT:{
@@ -255,11 +533,52 @@ protected void processOperation(Optional<String> query, HttpServletRequest req,
                             .getFileFormatForMIMEType(preferredMimeTypeString)
                             .orElse(TupleQueryResultFormat.SPARQL);
                     Optional<TupleQueryResultWriterFactory> writerFactory = resultWriterRegistry.get((QueryResultFormat) rdfFormat);
-                    TupleQueryResultWriter writer = writerFactory.get().getWriter(resp.getOutputStream());
+                    TupleQueryResultWriter writer = writerFactory.get().getWriter(out);
                     addNamespaces(writer);
                     logger.debug("Evaluating query with hash \"{}\" as TupleQuery using \"{}\"", queryString.hashCode(), writer.getClass() );
                     setContentType(resp,rdfFormat);
-                    ((TupleQuery) sparqlOperation).evaluate(writer);
+                    setValidators(resp, cacheKey);
+                    profile.evaluationStarted();
+                    long evaluationStart = System.nanoTime();
+                    try(TupleQueryResult result = ((TupleQuery) sparqlOperation).evaluate()){
+                        profile.evaluated(evaluationStart);
+                        running.setIteration(result);
+                        if (pageSize.isPresent()) {
+                            Optional<String> cursor = writeFirstPage(result, pageSize.get(), user, writer, resp, profile, running);
+                            try {
+                                finish(out, compressing);
+                                if (cursor.isPresent()) {
+                                    // the first page is complete, failures of the spill only fail the later pages
+                                    clientOut.close();
+                                }
+                            } catch (Exception e) {
+                                cursor.ifPresent(cursors::discard);
+                                throw e;
+                            }
+                            if (cursor.isPresent()) {
+                                long spillStart = System.nanoTime();
+                                cursors.spill(cursor.get(), result);
+                                profile.evaluated(spillStart);
+                            }
+                            return;
+                        }
+                        writer.startQueryResult(result.getBindingNames());
+                        while(true){
+                            long rowStart = System.nanoTime();
+                            if(!result.hasNext()){
+                                profile.evaluated(rowStart);
+                                break;
+                            }
+                            BindingSet solution = result.next();
+                            profile.rowEvaluated(rowStart);
+                            writer.handleSolution(solution);
+                            running.rowStreamed();
+                        }
+                        running.checkNotKilled();
+                        writer.endQueryResult();
+                    }
+                    finish(out, compressing);
+                    cacheResult(cacheKey, capture, rdfFormat);
                     return;
                 }
                 case DESCRIBE:
@@ -269,17 +588,33 @@ protected void processOperation(Optional<String> query, HttpServletRequest req,
                             .getFileFormatForMIMEType(preferredMimeTypeString)
                             .orElse(RDFFormat.TURTLE);
                     Optional<RDFWriterFactory> writerFactory = resultWriterRegistry.get((RDFFormat) rdfFormat);
-                    RDFWriter writer = writerFactory.get().getWriter(resp.getOutputStream());
+                    RDFWriter writer = writerFactory.get().getWriter(out);
                     addNamespaces(writer);
                     logger.debug("Evaluating query with hash \"{}\" as GraphQuery using \"{}\"", queryString.hashCode(), writer.getClass() );
                     setContentType(resp,rdfFormat);
+                    setValidators(resp, cacheKey);
                     writer.startRDF();
+                    profile.evaluationStarted();
+                    long evaluationStart = System.nanoTime();
                     try(GraphQueryResult result = ((GraphQuery) sparqlOperation).evaluate()){
-                        while(result.hasNext()){
-                            writer.handleStatement(result.next());
+                        profile.evaluated(evaluationStart);
+                        running.setIteration(result);
+                        while(true){
+                            long rowStart = System.nanoTime();
+                            if(!result.hasNext()){
+                                profile.evaluated(rowStart);
+                                break;
+                            }
+                            Statement statement = result.next();
+                            profile.rowEvaluated(rowStart);
+                            writer.handleStatement(statement);
+                            running.rowStreamed();
                         }
+                        running.checkNotKilled();
                     }
                     writer.endRDF();
+                    finish(out, compressing);
+                    cacheResult(cacheKey, capture, rdfFormat);
                     return;
                 }
                 case ASK:{
@@ -288,17 +623,27 @@ protected void processOperation(Optional<String> query, HttpServletRequest req,
                             .getFileFormatForMIMEType(preferredMimeTypeString)
                             .orElse(BooleanQueryResultFormat.SPARQL);
                     Optional<BooleanQueryResultWriterFactory> writerFactory = resultWriterRegistry.get((QueryResultFormat) rdfFormat);
-                    BooleanQueryResultWriter writer = writerFactory.get().getWriter(resp.getOutputStream());
+                    BooleanQueryResultWriter writer = writerFactory.get().getWriter(out);
                     addNamespaces(writer);
                     logger.debug("Evaluating query with hash \"{}\" as BooleanQuery using \"{}\"", queryString.hashCode(), writer.getClass() );
+                    profile.evaluationStarted();
+                    long evaluationStart = System.nanoTime();
                     boolean result = ((BooleanQuery) sparqlOperation).evaluate();
+                    profile.evaluated(evaluationStart);
+                    running.checkNotKilled();
                     setContentType(resp,rdfFormat);
+                    setValidators(resp, cacheKey);
                     writer.handleBoolean(result);
+                    finish(out, compressing);
+                    cacheResult(cacheKey, capture, rdfFormat);
                     return;
                 }
                 case UPDATE:{
                     logger.debug("Evaluating query with hash \"{}\" as UPDATE operation.", queryString.hashCode());
+                    profile.evaluationStarted();
+                    long evaluationStart = System.nanoTime();
                     ((Update) sparqlOperation).execute();
+                    profile.evaluated(evaluationStart);
                     resp.setStatus(Status.OK.getStatusCode());
                     return;
                 }
@@ -306,11 +651,329 @@ protected void processOperation(Optional<String> query, HttpServletRequest req,
                     throw new IllegalStateException("Unsupported operation!");
                 }
 
+        }catch(ThrottledException e){
+            outcome = Outcome.FAILED;
+            logger.debug("Rejected result cursor for query with hash \"{}\": {}", queryString.hashCode(), e.getMessage());
+            e.getHeaders().forEach(resp::setHeader);
+            resp.sendError(ThrottledException.STATUS, e.getMessage());
+            return;
         }catch(Exception e){
+            outcome = Outcome.FAILED;
+            if (clientOut != null && clientOut.isDisconnected()) {
+                // evaluation has been aborted by closing the result
+                outcome = Outcome.DISCONNECTED;
+                logger.debug("Client disconnected while streaming the result of query with hash \"{}\".", queryString.hashCode());
+                return;
+            }
+            if (running != null && running.isKilled()) {
+                outcome = Outcome.KILLED;
+                logger.info("Evaluation of query with hash \"{}\" has been killed.", queryString.hashCode());
+            }
+            if (resp.isCommitted()) {
+                logger.warn("Evaluation of query with hash \"{}\" failed after the response has been committed: {}",
+                        queryString.hashCode(), e.getMessage());
+                return;
+            }
+            if (compressing != null && compressing.isCompressing()) {
+                // drop the "Content-Encoding" header of the partial result
+                resp.reset();
+            }
+            resp.sendError(Status.INTERNAL_SERVER_ERROR.getStatusCode(), e.getMessage());
+            return;
+        }finally{
+            if (compressing != null) {
+                compressing.release();
+            }
+            if (running != null) {
+                running.close();
+                // only evaluated queries are profiled, i.e. not those served from the cache
+                profiler.finish(profile, outcome, clientOut.getBytesWritten());
+            }
+        }
+
+    }
+
+    private void evaluateDataUpdate(StreamingDataUpdate update, HttpServletRequest req, HttpServletResponse resp)
+            throws IOException {
+        if (!PermissionUtil.hasSparqlPermission(SparqlOperation.UPDATE)) {
+            resp.sendError(Status.FORBIDDEN.getStatusCode(), "No permission to execute SPARQL Operation "+SparqlOperation.UPDATE.name());
+            return;
+        }
+        String repositoryId = getRepositoryIdFromRequest(req);
+        Repository repository = repositoryManager.getRepository(repositoryId);
+        IRI user = nsRegistry.getUserIRI();
+        String userString = user != null ? user.stringValue() : null;
+        QueryProfile profile = profiler.start(repositoryId, userString, update.getHead());
+        profile.prepared(SparqlOperation.UPDATE);
+        Outcome outcome = Outcome.COMPLETED;
+        try (RepositoryConnection con = repository.getConnection();
+             RunningQuery running = runningQueries.register(userString, repositoryId, update.getHead(), SparqlOperation.UPDATE, con)) {
+            profile.evaluationStarted();
+            long evaluationStart = System.nanoTime();
+            try {
+                StreamingDataUpdate.Result result = update.execute(con, config.getUiConfig().getSparqlUpdateStreamingBatchSize(),
+                    remainder -> SparqlOperationBuilder.<Update>create(remainder, Update.class)
+                        .resolveUser(user)
+                        .setMaxExecutionTime(getQueryTimeoutSeconds(repositoryId))
+                        .build(con)
+                        .execute());
+                logger.debug("Streamed data update added {} and removed {} statements.", result.getAdded(), result.getRemoved());
+            } catch (Exception e) {
+                if (running.isKilled()) {
+                    outcome = Outcome.KILLED;
+                    logger.info("Streamed data update with hash \"{}\" has been killed.", update.getHead().hashCode());
+                }
+                throw e;
+            } finally {
+                profile.evaluated(evaluationStart);
+            }
+            resp.setStatus(Status.OK.getStatusCode());
+        } catch (MalformedQueryException e) {
+            outcome = Outcome.FAILED;
+            resp.sendError(Status.BAD_REQUEST.getStatusCode(), e.getMessage());
+        } catch (Exception e) {
+            if (outcome != Outcome.KILLED) {
+                outcome = Outcome.FAILED;
+            }
             resp.sendError(Status.INTERNAL_SERVER_ERROR.getStatusCode(), e.getMessage());
+        } finally {
+            profiler.finish(profile, outcome, 0);
+        }
+    }
+
+    /**
+     * Writes the first page of a paged SELECT result. If there are more
+     * results, a result cursor is created before the page is written, such
+     * that its token can be sent as header; the remaining result is spilled
+     * to the cursor once the page has been written.
+     *
+     * @return the token of the cursor, if there are more results
+     */
+    private Optional<String> writeFirstPage(
+        TupleQueryResult result, int pageSize, IRI user, TupleQueryResultWriter writer,
+        HttpServletResponse resp, QueryProfile profile, RunningQuery running
+    ) throws Exception {
+        List<BindingSet> page = new ArrayList<>(Math.min(pageSize, 1000));
+        while (page.size() < pageSize) {
+            long rowStart = System.nanoTime();
+            if (!result.hasNext()) {
+                profile.evaluated(rowStart);
+                break;
+            }
+            page.add(result.next());
+            profile.rowEvaluated(rowStart);
+            running.rowStreamed();
+        }
+        Optional<String> token = Optional.empty();
+        if (result.hasNext()) {
+            token = Optional.of(cursors.create(user != null ? user.stringValue() : null, pageSize, result.getBindingNames()));
+            resp.setHeader(CONTINUATION_TOKEN_HEADER, token.get());
+        }
+        try {
+            running.checkNotKilled();
+            writer.startQueryResult(result.getBindingNames());
+            for (BindingSet solution : page) {
+                writer.handleSolution(solution);
+            }
+            writer.endQueryResult();
+        } catch (Exception e) {
+            token.ifPresent(cursors::discard);
+            throw e;
+        }
+        return token;
+    }
+
+    /**
+     * Writes the next page of a result cursor, see {@link ResultCursorRegistry}.
+     */
+    private void processCursorPage(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        if (!PermissionUtil.hasSparqlPermission(SparqlOperation.SELECT)) {
+            resp.sendError(Status.FORBIDDEN.getStatusCode(), "No permission to execute SPARQL Operation "+SparqlOperation.SELECT.name());
+            return;
+        }
+        Optional<Integer> pageSize;
+        try {
+            pageSize = getPageSize(req);
+        } catch (IllegalArgumentException e) {
+            resp.sendError(Status.BAD_REQUEST.getStatusCode(), e.getMessage());
+            return;
+        }
+        String token = req.getParameter(Parameter.CURSOR);
+        IRI user = nsRegistry.getUserIRI();
+        Optional<Page> page;
+        try {
+            page = cursors.nextPage(token, user != null ? user.stringValue() : null, pageSize);
+        } catch (SpillLimitExceededException e) {
+            resp.sendError(Status.REQUEST_ENTITY_TOO_LARGE.getStatusCode(), e.getMessage());
+            return;
+        }
+        if (!page.isPresent()) {
+            resp.sendError(Status.NOT_FOUND.getStatusCode(), "Result cursor does not exist or has expired.");
             return;
         }
 
+        TupleQueryResultWriterRegistry resultWriterRegistry = TupleQueryResultWriterRegistry.getInstance();
+        TupleQueryResultFormat format = ServletRequestUtil.getPreferredMIMEType(allRegisteredMimeTypes, req)
+                .flatMap(resultWriterRegistry::getFileFormatForMIMEType)
+                .orElse(TupleQueryResultFormat.SPARQL);
+        if (page.get().hasMore()) {
+            resp.setHeader(CONTINUATION_TOKEN_HEADER, token);
+        }
+        setContentType(resp, format);
+        CompressingOutputStream compressing = createCompressingStream(getContentEncoding(req, resp), resp, resp.getOutputStream());
+        try {
+            OutputStream out = createBufferedStream(compressing != null ? compressing : resp.getOutputStream());
+            TupleQueryResultWriter writer = resultWriterRegistry.get(format).get().getWriter(out);
+            writer.startQueryResult(page.get().getBindingNames());
+            for (BindingSet solution : page.get().getRows()) {
+                writer.handleSolution(solution);
+            }
+            writer.endQueryResult();
+            finish(out, compressing);
+        } finally {
+            if (compressing != null) {
+                compressing.release();
+            }
+        }
+    }
+
+    /**
+     * Determines the timeout for queries of the current user on the repository
+     * with the given ID. Timeouts configured for roles take precedence over
+     * the timeout of the repository; of several roles of the user the most
+     * permissive timeout applies.
+     *
+     * @return the timeout in seconds, 0 for no timeout
+     */
+    int getQueryTimeoutSeconds(String repositoryId) {
+        return getQueryTimeoutSeconds(config, repositoryId);
+    }
+
+    static int getQueryTimeoutSeconds(Configuration config, String repositoryId) {
+        UIConfiguration uiConfig = config.getUiConfig();
+        Subject subject = SecurityUtils.getSubject();
+        Optional<Integer> roleTimeout = uiConfig.getSparqlQueryTimeoutSecondsPerRole().entrySet().stream()
+            .filter(entry -> subject.hasRole(entry.getKey()))
+            .map(Map.Entry::getValue)
+            .reduce((a, b) -> a == 0 || b == 0 ? 0 : Math.max(a, b));
+        return roleTimeout.orElseGet(() -> uiConfig.getSparqlQueryTimeoutSeconds(repositoryId));
+    }
+
+    /**
+     * @return the SPARQL operations the current user is permitted to execute
+     */
+    private Set<SparqlOperation> getSparqlPermissions() {
+        Set<SparqlOperation> permissions = EnumSet.noneOf(SparqlOperation.class);
+        for (SparqlOperation operation : SparqlOperation.values()) {
+            if (PermissionUtil.hasSparqlPermission(operation)) {
+                permissions.add(operation);
+            }
+        }
+        return permissions;
+    }
+
+    /**
+     * Clients can bypass the result cache with "Cache-Control: no-cache",
+     * the fresh result is cached nevertheless.
+     */
+    private boolean requestsNoCache(HttpServletRequest req) {
+        String cacheControl = req.getHeader(HttpHeaders.CACHE_CONTROL);
+        return cacheControl != null && cacheControl.toLowerCase().contains("no-cache");
+    }
+
+    /**
+     * Writes a cached result or responds with 304, if the validators of a
+     * conditional request match the cached result.
+     */
+    private void writeCachedResult(
+        HttpServletRequest req, HttpServletResponse resp, CachedResult cached, Optional<String> encoding
+    ) throws IOException {
+        resp.setHeader(HttpHeaders.ETAG, cached.getETag());
+        resp.setDateHeader(HttpHeaders.LAST_MODIFIED, cached.getLastModified());
+        if (cached.isNotModified(req.getHeader(HttpHeaders.IF_NONE_MATCH), req.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE))) {
+            resp.setStatus(Status.NOT_MODIFIED.getStatusCode());
+            return;
+        }
+        resp.setContentType(cached.getContentType());
+        if (encoding.isPresent() && cached.getLength() > config.getUiConfig().getSparqlCompressionMinBytes()) {
+            CompressingOutputStream compressing = createCompressingStream(encoding, resp, resp.getOutputStream());
+            try {
+                cached.writeTo(compressing);
+                compressing.finish();
+            } finally {
+                compressing.release();
+            }
+            return;
+        }
+        resp.setContentLength(cached.getLength());
+        cached.writeTo(resp.getOutputStream());
+    }
+
+    /**
+     * Negotiates the content coding of the response, if compression is
+     * enabled. Since the response then depends on the "Accept-Encoding"
+     * header, this is announced with the "Vary" header.
+     */
+    private Optional<String> getContentEncoding(HttpServletRequest req, HttpServletResponse resp) {
+        if (!config.getUiConfig().getSparqlCompressionEnabled()) {
+            return Optional.empty();
+        }
+        resp.addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        return ServletRequestUtil.getPreferredContentEncoding(CompressingOutputStream.SUPPORTED_ENCODINGS, req);
+    }
+
+    /**
+     * @return stream compressing the response with the given content coding,
+     *         <code>null</code> if the response is not to be compressed
+     */
+    private CompressingOutputStream createCompressingStream(
+        Optional<String> encoding, HttpServletResponse resp, OutputStream out
+    ) {
+        if (!encoding.isPresent()) {
+            return null;
+        }
+        UIConfiguration uiConfig = config.getUiConfig();
+        return new CompressingOutputStream(
+            resp, out, encoding.get(), uiConfig.getSparqlCompressionMinBytes(), uiConfig.getSparqlResponseBufferSize());
+    }
+
+    /**
+     * Result writers issue small writes per value (e.g. the binary format) or
+     * flush small buffers (e.g. CSV), these are passed on to the compression
+     * and the client in chunks of the configured size.
+     */
+    private OutputStream createBufferedStream(OutputStream out) {
+        return new BufferedOutputStream(out, config.getUiConfig().getSparqlResponseBufferSize());
+    }
+
+    /**
+     * Writes the remaining buffered and compressed data of a complete result.
+     */
+    private void finish(OutputStream out, CompressingOutputStream compressing) throws IOException {
+        out.flush();
+        if (compressing != null) {
+            compressing.finish();
+        }
+    }
+
+    /**
+     * Results which are going to be cached carry the same validators as the
+     * cache entry, such that later conditional requests can be answered from
+     * the cache.
+     */
+    private void setValidators(HttpServletResponse resp, Optional<SparqlResultCache.Key> cacheKey) {
+        if (cacheKey.isPresent()) {
+            resp.setHeader(HttpHeaders.ETAG, cacheKey.get().getETag());
+            resp.setDateHeader(HttpHeaders.LAST_MODIFIED, cacheKey.get().getLastModified());
+        }
+    }
+
+    private void cacheResult(Optional<SparqlResultCache.Key> cacheKey, CapturingOutputStream capture, FileFormat rdfFormat)
+            throws IOException {
+        if (cacheKey.isPresent()) {
+            capture.flush();
+            resultCache.put(cacheKey.get(), capture, getContentType(rdfFormat));
+        }
     }
 
     /**
@@ -319,7 +982,16 @@ protected void processOperation(Optional<String> query, HttpServletRequest req,
      * @param rdfFormat
      */
     private void setContentType(HttpServletResponse resp, FileFormat rdfFormat) {
-        resp.setContentType(rdfFormat.getDefaultMIMEType()+";charset="+Charsets.UTF_8);
+        resp.setContentType(getContentType(rdfFormat));
+    }
+
+    /**
+     * @return the MIME type of the format, with charset unless it is a binary format
+     */
+    private static String getContentType(FileFormat rdfFormat) {
+        return rdfFormat.hasCharset()
+            ? rdfFormat.getDefaultMIMEType()+";charset="+Charsets.UTF_8
+            : rdfFormat.getDefaultMIMEType();
     }
 
     private void addNamespaces(QueryResultWriter writer) {
@@ -351,10 +1023,80 @@ protected void returnSparqlEditor(HttpServletRequest req, HttpServletResponse re
      * @return
      */
     private static Set<String> getAllRegisteredWriterMimeTypes() {
+        registerBinaryFormats();
         HashSet<String> all = Sets.newHashSet();
         all.addAll(SparqlUtil.getAllRegisteredWriterMimeTypes());
         all.add(ContentType.HTML);
         return all;
     }
 
+    /**
+     * Makes sure that the binary result formats of RDF4J are available for
+     * content negotiation, i.e. the binary tuple result format for SELECT and
+     * binary RDF for CONSTRUCT and DESCRIBE. There is no binary format for
+     * boolean results, ASK queries requesting a binary format are answered
+     * with the default format.
+     */
+    static void registerBinaryFormats() {
+        if (!TupleQueryResultWriterRegistry.getInstance().has(TupleQueryResultFormat.BINARY)) {
+            TupleQueryResultWriterRegistry.getInstance().add(new BinaryQueryResultWriterFactory());
+        }
+        if (!RDFWriterRegistry.getInstance().has(RDFFormat.BINARY)) {
+            RDFWriterRegistry.getInstance().add(new BinaryRDFWriterFactory());
+        }
+    }
+
+    /**
+     * Output stream to the client which remembers whether writing failed,
+     * i.e. whether the client has gone away. Such a failure aborts the
+     * evaluation, since the exception closes the query result.
+     */
+    private static class ClientOutputStream extends FilterOutputStream {
+        private volatile boolean disconnected = false;
+        private long bytesWritten = 0;
+
+        private ClientOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                out.write(b);
+                bytesWritten++;
+            } catch (IOException e) {
+                disconnected = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+                bytesWritten += len;
+            } catch (IOException e) {
+                disconnected = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                disconnected = true;
+                throw e;
+            }
+        }
+
+        boolean isDisconnected() {
+            return disconnected;
+        }
+
+        long getBytesWritten() {
+            return bytesWritten;
+        }
+    }
 }
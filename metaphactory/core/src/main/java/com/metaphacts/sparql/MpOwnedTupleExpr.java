@@ -18,15 +18,12 @@
 
 package com.metaphacts.sparql;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.eclipse.rdf4j.common.iteration.CloseableIteration;
 import org.eclipse.rdf4j.model.Value;
-import org.eclipse.rdf4j.model.ValueFactory;
-import org.eclipse.rdf4j.query.Binding;
 import org.eclipse.rdf4j.query.BindingSet;
 import org.eclipse.rdf4j.query.Dataset;
 import org.eclipse.rdf4j.query.MalformedQueryException;
@@ -34,18 +31,16 @@
 import org.eclipse.rdf4j.query.QueryLanguage;
 import org.eclipse.rdf4j.query.TupleQuery;
 import org.eclipse.rdf4j.query.TupleQueryResult;
-import org.eclipse.rdf4j.query.algebra.BindingSetAssignment;
 import org.eclipse.rdf4j.query.algebra.QueryModelVisitor;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
 import org.eclipse.rdf4j.query.algebra.UnaryTupleOperator;
-import org.eclipse.rdf4j.query.impl.MapBindingSet;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.repository.RepositoryException;
 import org.eclipse.rdf4j.sail.federation.algebra.OwnedTupleExpr;
 import org.eclipse.rdf4j.sail.federation.evaluation.InsertBindingSetCursor;
 
-import com.google.common.collect.Sets;
 import com.metaphacts.repository.federation.evaluation.MergeByIndexInsertBindingSetCursor;
+import com.metaphacts.sparql.renderer.BoundJoinTemplate;
 import com.metaphacts.sparql.renderer.MpSparqlQueryRenderer;
 
 import com.google.common.collect.Lists;
@@ -69,8 +64,11 @@ public class MpOwnedTupleExpr extends UnaryTupleOperator {
     private String queryAsString;
 
     private Map<String, String> variables;
-    
-    private ValueFactory vf;
+
+    /**
+     * Rendered on the first bound join, shared by all blocks.
+     */
+    private volatile BoundJoinTemplate boundJoinTemplate;
 
     public RepositoryConnection getOwner() {
         return owner;
@@ -79,7 +77,6 @@ public RepositoryConnection getOwner() {
     public MpOwnedTupleExpr(RepositoryConnection owner, TupleExpr arg) {
         super(arg);
         this.owner = owner;
-        this.vf = owner.getValueFactory();
     }
 
     public void prepare(QueryLanguage queryLn, String qry, Map<String, String> bindings)
@@ -119,47 +116,53 @@ public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(Dataset
         return rval;
     }
     
+    /**
+     * Evaluates the bound join of a block of bindings with this expression. A
+     * block of a single binding set is evaluated with the prepared query,
+     * larger blocks with a query rendered from the {@link BoundJoinTemplate}.
+     */
     public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(Dataset dataset,
             List<BindingSet> bindings, Set<String> boundVars) throws QueryEvaluationException {
         CloseableIteration<BindingSet, QueryEvaluationException> rval = null;
         if (queryAsString != null) {
+            if (bindings.size() == 1 && !variables.isEmpty()) {
+                rval = evaluate(dataset, bindings.get(0));
+                if (rval != null) {
+                    return rval;
+                }
+            }
             try {
-                StringBuilder queryWithValues = new StringBuilder(queryAsString.replace("SELECT ", "SELECT ?__index "));
-                if (!variables.isEmpty()) {
-                    Set<String> toBind = Sets.newHashSet(variables.keySet());
-                    toBind.retainAll(boundVars);
-                    BindingSetAssignment bsAssignment = new BindingSetAssignment();
-                    bsAssignment.setBindingNames(toBind);
-                    List<BindingSet> newBindingSets = Lists.newArrayListWithCapacity(bindings.size());
-                    for(int i=0; i<bindings.size();i++) {
-                        BindingSet bs = bindings.get(i);
-                        MapBindingSet newBs = new MapBindingSet();
-                        bs.forEach(binding -> newBs.addBinding(binding.getName(), binding.getValue()));
-                        newBs.addBinding("__index", vf.createLiteral(i));
-                        newBindingSets.add(newBs);
-                    }
-                    bsAssignment.setBindingSets(newBindingSets);
-                    
-                    queryWithValues.append(renderValuesClause(bsAssignment));
-                    
-                    System.out.println(queryWithValues);
-                    
-                    TupleQuery tq = owner.prepareTupleQuery(queryWithValues.toString());
-                    
-                    tq.setDataset(dataset);
-                    TupleQueryResult result = tq.evaluate();
-                    
-                    rval = new MergeByIndexInsertBindingSetCursor(result, bindings);
-                } else { 
+                if (variables.isEmpty()) {
                     throw new UnsupportedOperationException("TODO: no bindings required (check query only)");
-                } 
-            } catch (Exception e) { 
-               throw new QueryEvaluationException(e);
+                }
+                List<String> toBind = Lists.newArrayListWithCapacity(boundVars.size());
+                for (String name : variables.keySet()) {
+                    if (boundVars.contains(name)) {
+                        toBind.add(name);
+                    }
+                }
+                TupleQuery tq = owner.prepareTupleQuery(QueryLanguage.SPARQL,
+                        getBoundJoinTemplate().render(bindings, toBind));
+                tq.setDataset(dataset);
+                TupleQueryResult result = tq.evaluate();
+
+                rval = new MergeByIndexInsertBindingSetCursor(result, bindings);
+            } catch (Exception e) {
+                throw new QueryEvaluationException(e);
             }
         }
         return rval;
     }
 
+    private BoundJoinTemplate getBoundJoinTemplate() throws Exception {
+        BoundJoinTemplate template = boundJoinTemplate;
+        if (template == null) {
+            template = new MpSparqlQueryRenderer().renderBoundJoinTemplate(getArg(), variables.keySet());
+            boundJoinTemplate = template;
+        }
+        return template;
+    }
+
     public <X extends Exception> void visit(QueryModelVisitor<X> visitor) throws X {
         visitor.meetOther(this);
     }
@@ -168,36 +171,5 @@ public <X extends Exception> void visit(QueryModelVisitor<X> visitor) throws X {
     public String getSignature() {
         return this.getClass().getSimpleName() + " " + owner.toString();
     }
-    
-    protected String renderValuesClause(BindingSetAssignment node) throws RuntimeException {
-
-        StringBuilder builder = new StringBuilder();
-        MpSparqlQueryRenderer renderer = new MpSparqlQueryRenderer();
-        
-        List<String> bindingNames = new ArrayList<String>(node.getBindingNames());
-
-        builder.append("VALUES (");
-        for (String var : bindingNames) {
-            builder.append("?");
-            builder.append(var);
-            builder.append(" ");
-        }
-
-        builder.append(") { ");
-        for (BindingSet bs : node.getBindingSets()) {
-            builder.append("(");
-            for (String s : bindingNames) {
-                if (bs.getValue(s) != null) {
-                    builder.append(renderer.renderValue(bs.getValue(s)));
-                } else {
-                    builder.append("UNDEF ");
-                }
-            }
-            builder.append(") ");
-        }
-        builder.append(" } ");
-        
-        return builder.toString();
-    }
 
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.sparql.renderer;
+
+import java.util.Collection;
+import java.util.List;
+
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.algebra.BindingSetAssignment;
+
+/**
+ * Query for the bound join of a block of bindings with a tuple expression,
+ * rendered once by {@link MpSparqlQueryRenderer#renderBoundJoinTemplate}. The
+ * rendering of the expression is split at the position of a
+ * {@link BindingSetAssignment} placeholder, where the VALUES clause with the
+ * bindings of a block is inserted by {@link #render(List, List)}.
+ * <p>
+ * Each row of the VALUES clause additionally binds {@link #INDEX_BINDING} to
+ * the position of the binding set in the block, which is returned with the
+ * results to merge them with the bindings of the block.
+ */
+public class BoundJoinTemplate {
+
+    public static final String INDEX_BINDING = "__index";
+
+    /**
+     * The SELECT clause and the WHERE clause up to the placeholder.
+     */
+    private final String prefix;
+
+    /**
+     * The WHERE clause after the placeholder.
+     */
+    private final String suffix;
+
+    /**
+     * Length of the last rendered query per binding, to size the buffer of the
+     * next one.
+     */
+    private volatile int lengthPerBinding = 32;
+
+    BoundJoinTemplate(Collection<String> projection, String whereBeforeValues, String whereAfterValues) {
+        StringBuilder select = new StringBuilder("SELECT ?").append(INDEX_BINDING);
+        for (String name : projection) {
+            select.append(" ?").append(name);
+        }
+        select.append(" \nWHERE ").append(whereBeforeValues);
+        this.prefix = select.toString();
+        this.suffix = whereAfterValues;
+    }
+
+    /**
+     * Renders the query for a block of bindings.
+     * 
+     * @param bindingSets
+     *            the bindings of the block
+     * @param boundVars
+     *            the variables of the VALUES clause; values of other
+     *            variables are ignored, missing values are rendered as UNDEF
+     * @return the query
+     */
+    public String render(List<BindingSet> bindingSets, List<String> boundVars) {
+        StringBuilder builder = new StringBuilder(
+            prefix.length() + suffix.length() + lengthPerBinding * bindingSets.size());
+        builder.append(prefix);
+        builder.append("VALUES (?").append(INDEX_BINDING);
+        for (String var : boundVars) {
+            builder.append(" ?").append(var);
+        }
+        builder.append(") {\n");
+        for (int i = 0; i < bindingSets.size(); i++) {
+            BindingSet bs = bindingSets.get(i);
+            builder.append('(').append(i);
+            for (String var : boundVars) {
+                builder.append(' ');
+                Value value = bs.getValue(var);
+                if (value != null) {
+                    PreprocessedQuerySerializer.writeAsSparqlValue(builder, value);
+                } else {
+                    builder.append("UNDEF");
+                }
+            }
+            builder.append(")\n");
+        }
+        builder.append("}\n");
+        builder.append(suffix);
+        if (!bindingSets.isEmpty()) {
+            lengthPerBinding = (builder.length() - prefix.length() - suffix.length()) / bindingSets.size() + 1;
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return prefix + "VALUES (...) { ... }\n" + suffix;
+    }
+}
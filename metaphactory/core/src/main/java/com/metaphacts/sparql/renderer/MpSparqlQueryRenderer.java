@@ -18,8 +18,12 @@
 
 package com.metaphacts.sparql.renderer;
 
+import java.util.Collection;
+
 import org.eclipse.rdf4j.model.Value;
 import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.algebra.BindingSetAssignment;
+import org.eclipse.rdf4j.query.algebra.Join;
 import org.eclipse.rdf4j.query.algebra.TupleExpr;
 import org.eclipse.rdf4j.query.algebra.ValueExpr;
 import org.eclipse.rdf4j.query.parser.ParsedQuery;
@@ -79,6 +83,56 @@ public String renderValueExpr(ValueExpr theExpr) throws Exception {
         return serializerVisitor.builder.toString();
     }
 
+    /**
+     * Renders the bound join of a tuple expression with blocks of bindings. The expression is
+     * rendered once, joined with a {@link BindingSetAssignment} placeholder for the VALUES clause
+     * of the blocks.
+     * 
+     * @param theExpr
+     *            the expression to join the blocks with
+     * @param projection
+     *            the variables to return, besides {@link BoundJoinTemplate#INDEX_BINDING}
+     * @return the template to render the queries for the blocks with
+     */
+    public BoundJoinTemplate renderBoundJoinTemplate(TupleExpr theExpr, Collection<String> projection)
+            throws Exception {
+        BindingSetAssignment placeholder = new BindingSetAssignment();
+        TupleExpr joined = new Join(placeholder, theExpr.clone());
+        ParsedQueryPreprocessor parserVisitor = new ParsedQueryPreprocessor();
+        PlaceholderSerializer serializerVisitor = new PlaceholderSerializer(placeholder);
+        SerializableParsedTupleQuery toSerialize = parserVisitor.transformToSerialize(joined);
+        // VALUES clauses within the expression are rendered in place, not again at the end
+        parserVisitor.cleanBindingSetAssignments(toSerialize);
+        String where = serializerVisitor.serialize(toSerialize);
+        if (serializerVisitor.placeholderOffset < 0) {
+            throw new IllegalStateException("Bound join placeholder was not rendered for " + theExpr);
+        }
+        return new BoundJoinTemplate(projection, where.substring(0, serializerVisitor.placeholderOffset),
+                where.substring(serializerVisitor.placeholderOffset));
+    }
+
+    /**
+     * Serializer which renders nothing for the placeholder of a
+     * {@link BoundJoinTemplate}, but records its position.
+     */
+    private static class PlaceholderSerializer extends PreprocessedQuerySerializer {
+        private final BindingSetAssignment placeholder;
+        private int placeholderOffset = -1;
+
+        private PlaceholderSerializer(BindingSetAssignment placeholder) {
+            this.placeholder = placeholder;
+        }
+
+        @Override
+        public void meet(BindingSetAssignment node) throws RuntimeException {
+            if (node != placeholder) {
+                super.meet(node);
+            } else if (placeholderOffset < 0) {
+                placeholderOffset = builder.length();
+            }
+        }
+    }
+
     /**
      * Renders a single {@link Value} as string.
      * 
@@ -865,6 +865,15 @@ private void writeAsAggregationFunction(String name, ValueExpr arg, boolean dist
      * 
      */
     public void writeAsSparqlValue(Value value) {
+        writeAsSparqlValue(builder, value);
+    }
+
+    /**
+     * Writes a value as in {@link #writeAsSparqlValue(Value)} to the given builder, without
+     * creating a serializer per value.
+     * 
+     */
+    public static void writeAsSparqlValue(StringBuilder builder, Value value) {
         if (value instanceof IRI) {
             IRI uri = (IRI) value;
             builder.append("<").append(uri.toString()).append(">");
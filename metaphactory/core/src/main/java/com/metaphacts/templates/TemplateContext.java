@@ -30,6 +30,7 @@
 
 import com.google.common.collect.Maps;
 import com.metaphacts.cache.LabelCache;
+import com.metaphacts.cache.LanguageProfile;
 import com.metaphacts.config.NamespaceRegistry;
 
 /**
@@ -48,6 +49,8 @@ public class TemplateContext {
     private Map<String, Value> params = Maps.newHashMap();
     
     private LabelCache labelCache;
+
+    private LanguageProfile languageProfile;
     
     private NamespaceRegistry namespaceRegistry;
     
@@ -63,6 +66,18 @@ public void setLabelCache(LabelCache labelCache) {
         this.labelCache = labelCache;
     }
 
+    /**
+     * @return the language profile to choose labels with, if it differs from
+     *         the {@link LabelCache#getDefaultLanguageProfile() default}
+     */
+    public Optional<LanguageProfile> getLanguageProfile() {
+        return Optional.ofNullable(languageProfile);
+    }
+
+    public void setLanguageProfile(LanguageProfile languageProfile) {
+        this.languageProfile = languageProfile;
+    }
+
     public Map<String, Value> getParams() {
         return this.params;
     }
@@ -94,7 +109,8 @@ public Repository getRepository() {
     public String getLabel() {
         if (this.labelCache != null && this.value instanceof IRI) {
             final IRI iri = (IRI) this.value;
-            final Optional<Literal> label = labelCache.getLabel(iri, this.repository);
+            final Optional<Literal> label = labelCache.getLabel(
+                iri, this.repository, getLanguageProfile().orElse(labelCache.getDefaultLanguageProfile()));
             return LabelCache.resolveLabelWithFallback(label, iri);    
                     
         }
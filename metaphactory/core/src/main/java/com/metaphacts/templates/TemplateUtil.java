@@ -203,12 +203,32 @@ public static LinkedHashSet<String> getRdfTemplateIncludeIdentifiers(Value pageI
      */
     public static Optional<String> compileAndReturnFirstExistingTemplate(
             TemplateContext tc, LinkedHashSet<String> appplicableTemplates, Handlebars handlebars
+    ) throws MissingHelperException, IllegalArgumentException{
+        return compileAndReturnFirstExistingTemplate(tc, appplicableTemplates, handlebars, null);
+    }
+
+    /**
+     * Same as {@link #compileAndReturnFirstExistingTemplate(TemplateContext, LinkedHashSet, Handlebars)},
+     * but skips all template locations which are known to be missing according
+     * to the supplied {@link TemplateIncludeCache}.
+     *
+     * @param includeCache cache to memoize missing templates in, may be <code>null</code>
+     */
+    public static Optional<String> compileAndReturnFirstExistingTemplate(
+            TemplateContext tc, LinkedHashSet<String> appplicableTemplates, Handlebars handlebars,
+            TemplateIncludeCache includeCache
     ) throws MissingHelperException, IllegalArgumentException{
         try {      
             // returns the first template that can be loaded (exists) from the ordered set of template candidates
             // no concatenation
             for (String location : appplicableTemplates) {
+                if (includeCache != null && includeCache.isMissingTemplate(location)) {
+                    continue;
+                }
                 Optional<TemplateSource> source = TemplateUtil.getTemplateSource(handlebars.getLoader(), location);
+                if (includeCache != null) {
+                    includeCache.setMissingTemplate(location, !source.isPresent());
+                }
                 if(source.isPresent()){
                     Template template = handlebars.compile(source.get());
                     if (logger.isTraceEnabled()) {
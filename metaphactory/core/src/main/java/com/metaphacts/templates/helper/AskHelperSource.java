@@ -31,6 +31,7 @@
 import com.github.jknack.handlebars.Options;
 import com.github.jknack.handlebars.helper.IfHelper;
 import com.metaphacts.api.sparql.SparqlOperationBuilder;
+import com.metaphacts.security.AdmissionController.Ticket;
 import com.metaphacts.templates.TemplateContext;
 
 /**
@@ -63,7 +64,8 @@ public class AskHelperSource {
     public String ask(String param0, Options options) {
         TemplateContext context =  (TemplateContext) options.context.model();
         String queryString = checkNotNull(param0);
-        try (RepositoryConnection con =context.getRepository().getConnection()) {
+        try (Ticket ticket = HelperUtil.admitQuery(context.getRepository());
+            RepositoryConnection con = context.getRepository().getConnection()) {
             SparqlOperationBuilder<BooleanQuery> tqb = HelperUtil.contextualizeSparqlOperation(SparqlOperationBuilder.<BooleanQuery>create(queryString, BooleanQuery.class), context);
             context.getNamespaceRegistry().map( ns -> tqb.setNamespaces(ns.getPrefixMap()));
             BooleanQuery op = tqb.build(con);
@@ -59,10 +59,12 @@
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.metaphacts.cache.LabelCache;
+import com.metaphacts.cache.LanguageProfile;
 import com.metaphacts.config.NamespaceRegistry;
 import com.metaphacts.data.json.JsonUtil;
 import com.metaphacts.data.rdf.container.FieldDefinitionContainer;
 import com.metaphacts.repository.RepositoryManager;
+import com.metaphacts.templates.TemplateContext;
 import com.metaphacts.templates.helper.HelperUtil.QueryResult;
 
 /**
@@ -248,7 +250,12 @@ private String generateSearchConfigForFields(ImmutableList<Object> fields, Optio
             allRelations.stream().map(relation -> relation.domain),
             allRelations.stream().map(relation -> relation.range)
         ).map(vf::createIRI).collect(Collectors.toSet());
-        Map<IRI, Optional<Literal>> categoryLabels = labelCache.getLabels(categoryIris, this.repositoryManager.getAssetRepository());
+        Object model = options.context.model();
+        LanguageProfile languageProfile = (model instanceof TemplateContext
+            ? ((TemplateContext) model).getLanguageProfile() : Optional.<LanguageProfile>empty()
+        ).orElse(labelCache.getDefaultLanguageProfile());
+        Map<IRI, Optional<Literal>> categoryLabels =
+            labelCache.getLabels(categoryIris, this.repositoryManager.getAssetRepository(), languageProfile);
 
         String categoriesQuery = String.join("\n",
             "PREFIX ssp: <http://www.metaphacts.com/ontologies/platform/semantic-search-profile/>",
@@ -20,7 +20,10 @@
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.Logger;
 import org.eclipse.rdf4j.model.IRI;
@@ -36,7 +39,14 @@
 import org.eclipse.rdf4j.repository.RepositoryException;
 
 import com.github.jknack.handlebars.Options;
+import com.google.inject.Inject;
 import com.metaphacts.api.sparql.SparqlOperationBuilder;
+import com.metaphacts.api.sparql.SparqlUtil;
+import com.metaphacts.cache.SingleFlight;
+import com.metaphacts.repository.RepositoryManager;
+import com.metaphacts.security.AdmissionController;
+import com.metaphacts.security.AdmissionController.Ticket;
+import com.metaphacts.security.ThrottledException;
 import com.metaphacts.templates.TemplateContext;
 
 /**
@@ -44,6 +54,47 @@
  *
  */
 public class HelperUtil {
+
+    /**
+     * Identical queries which are evaluated concurrently by several template
+     * helpers (e.g. the same page being rendered for many users) are evaluated
+     * only once and the result is shared.
+     */
+    private static final SingleFlight<List<Object>, QueryResult> inFlightQueries =
+        new SingleFlight<>(60, TimeUnit.SECONDS);
+
+    private static AdmissionController admissionController;
+    private static RepositoryManager repositoryManager;
+
+    @Inject
+    static void registerAdmissionController(AdmissionController admissionController, RepositoryManager repositoryManager) {
+        HelperUtil.admissionController = admissionController;
+        HelperUtil.repositoryManager = repositoryManager;
+    }
+
+    /**
+     * Admits a query of a template helper on the given repository, see
+     * {@link AdmissionController}.
+     *
+     * @return the ticket of the query, to be closed once the evaluation
+     *         finished
+     * @throws ThrottledException
+     *             if the query exceeds a limit of the current user or the
+     *             repository
+     */
+    public static Ticket admitQuery(Repository repository) throws ThrottledException {
+        if (admissionController == null) {
+            return AdmissionController.UNLIMITED;
+        }
+        String repositoryId;
+        try {
+            repositoryId = repositoryManager.getRepositoryID(repository);
+        } catch (IllegalArgumentException e) {
+            // e.g. repositories of tests, only the limits of the user apply
+            repositoryId = null;
+        }
+        return admissionController.admit(repositoryId);
+    }
     
     /**
      * Takes the {@link TemplateContext} to resolve the current resource
@@ -65,13 +116,17 @@ public static <T extends Operation> SparqlOperationBuilder<T> contextualizeSparq
         return builder;
     }
     
+    /**
+     * Result of a SELECT query. Results may be shared between template helpers
+     * and are therefore immutable.
+     */
     public static class QueryResult {
-	public List<BindingSet> bindings; 
-	public List<String> bindingNames;
+	public final List<BindingSet> bindings; 
+	public final List<String> bindingNames;
 	
         public QueryResult(List<BindingSet> bindings, List<String> bindingNames) {
-	    this.bindings = bindings;
-	    this.bindingNames = bindingNames;
+	    this.bindings = Collections.unmodifiableList(bindings);
+	    this.bindingNames = Collections.unmodifiableList(bindingNames);
 	}
     }
 
@@ -87,7 +142,18 @@ public static QueryResult evaluateSelectQuery(
     ) {
         TemplateContext context =  (TemplateContext) options.context.model();
         String queryString = checkNotNull(param0, "Query string must not be null.");
-        try (RepositoryConnection con = repository.getConnection()) {
+        List<Object> key = Arrays.asList(
+            repository, SparqlUtil.normalizeWhitespace(queryString), context.getValue(),
+            context.getNamespaceRegistry().map(ns -> ns.getUserIRI()).orElse(null),
+            context.getNamespaceRegistry().map(ns -> ns.getPrefixMap()).orElse(null)
+        );
+        return inFlightQueries.execute(key, () -> evaluateSelectQuery(queryString, options, logger, repository, context));
+    }
+
+    private static QueryResult evaluateSelectQuery(
+        String queryString, Options options, Logger logger, Repository repository, TemplateContext context
+    ) {
+        try (Ticket ticket = admitQuery(repository); RepositoryConnection con = repository.getConnection()) {
             SparqlOperationBuilder<Operation> tqb = HelperUtil.contextualizeSparqlOperation(SparqlOperationBuilder.create(queryString), context);
             context.getNamespaceRegistry().map( ns -> tqb.setNamespaces(ns.getPrefixMap()));
             Operation op = tqb.build(con);
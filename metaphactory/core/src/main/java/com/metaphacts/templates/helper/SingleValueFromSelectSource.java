@@ -39,6 +39,7 @@
 import com.github.jknack.handlebars.Handlebars;
 import com.github.jknack.handlebars.Options;
 import com.metaphacts.api.sparql.SparqlOperationBuilder;
+import com.metaphacts.security.AdmissionController.Ticket;
 import com.metaphacts.templates.TemplateContext;
 
 /**
@@ -55,7 +56,8 @@ public String singleValueFromSelect(String param0, Options options) throws IOExc
         String queryString = checkNotNull(param0,"Query string must not be null.");
         String bindingVariable = options.hash("binding");
         
-        try (RepositoryConnection con = context.getRepository().getConnection()) {
+        try (Ticket ticket = HelperUtil.admitQuery(context.getRepository());
+            RepositoryConnection con = context.getRepository().getConnection()) {
             SparqlOperationBuilder<Operation> tqb = HelperUtil.contextualizeSparqlOperation(SparqlOperationBuilder.create(queryString), context);
             context.getNamespaceRegistry().map( ns -> tqb.setNamespaces(ns.getPrefixMap()));
             Operation op = tqb.build(con);
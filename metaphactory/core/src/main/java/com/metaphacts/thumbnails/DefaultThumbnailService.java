@@ -20,9 +20,12 @@
 
 import com.google.common.collect.Iterables;
 import com.metaphacts.cache.CacheManager;
+import com.metaphacts.cache.CacheSnapshotStore;
+import com.metaphacts.cache.CacheWeightBudget;
 import com.metaphacts.cache.ResourcePropertyCache;
 import com.metaphacts.config.Configuration;
 import com.metaphacts.config.NamespaceRegistry;
+import com.metaphacts.repository.RepositoryManager;
 import org.eclipse.rdf4j.model.IRI;
 import org.eclipse.rdf4j.model.Literal;
 import org.eclipse.rdf4j.model.ValueFactory;
@@ -42,54 +45,64 @@ public class DefaultThumbnailService implements ThumbnailService {
     private NamespaceRegistry ns;
     private ValueFactory valueFactory;
 
-    private ResourcePropertyCache<IRI> cache = new ResourcePropertyCache<IRI>("DefaultThumbnailService") {
-        @Override
-        protected Map<IRI, Optional<IRI>> queryAll(Repository repository, Iterable<? extends IRI> iris) {
-            if (Iterables.isEmpty(iris)) {
-                return Collections.emptyMap();
-            }
-
-            try {
-                List<IRI> thumbnailIRIs = resolveIRIList(ns, config.getUiConfig().getPreferredThumbnails());
-
-                String query = constructPropertyQuery(iris, thumbnailIRIs);
-
-                Map<IRI, List<List<IRI>>> iriToPredicateToThumbnail = queryAndExtractProperties(
-                    repository, query, thumbnailIRIs.size(),
-                    value -> {
-                        if (value instanceof IRI) {
-                            return Optional.of((IRI)value);
-                        } else if (value instanceof Literal) {
-                            return tryConvertToIRI((Literal)value);
-                        } else {
-                            return Optional.empty();
-                        }
-                    });
-
-                Map<IRI, Optional<IRI>> thumbnails = new HashMap<>();
-                for (IRI iri : iris) {
-                    Optional<IRI> thumbnail = flattenProperties(iriToPredicateToThumbnail.get(iri))
-                        .stream().findFirst();
-                    thumbnails.put(iri, thumbnail);
-                }
-
-                return thumbnails;
-            } catch (Exception ex) {
-                throw new RuntimeException("Failed to query for thumbnails of IRI(s).", ex);
-            }
-        }
-    };
+    private final ResourcePropertyCache<IRI> cache;
 
     @Inject
     public DefaultThumbnailService(
         ThumbnailServiceRegistry thumbnailServiceRegistry,
         Configuration config,
         NamespaceRegistry ns,
-        CacheManager cacheManager
+        RepositoryManager repositoryManager,
+        CacheManager cacheManager,
+        CacheWeightBudget cacheWeightBudget,
+        CacheSnapshotStore cacheSnapshotStore
     ) {
         this.config = config;
         this.ns = ns;
         this.valueFactory = SimpleValueFactory.getInstance();
+        this.cache = new ResourcePropertyCache<IRI>(
+            "DefaultThumbnailService", config, repositoryManager, cacheWeightBudget, cacheSnapshotStore) {
+            @Override
+            protected Map<IRI, Optional<IRI>> queryAll(Repository repository, Iterable<? extends IRI> iris) {
+                if (Iterables.isEmpty(iris)) {
+                    return Collections.emptyMap();
+                }
+
+                try {
+                    List<IRI> thumbnailIRIs = resolveIRIList(ns, config.getUiConfig().getPreferredThumbnails());
+
+                    String query = constructPropertyQuery(iris, thumbnailIRIs);
+
+                    Map<IRI, List<List<IRI>>> iriToPredicateToThumbnail = queryAndExtractProperties(
+                        repository, query, thumbnailIRIs.size(),
+                        value -> {
+                            if (value instanceof IRI) {
+                                return Optional.of((IRI)value);
+                            } else if (value instanceof Literal) {
+                                return tryConvertToIRI((Literal)value);
+                            } else {
+                                return Optional.empty();
+                            }
+                        });
+
+                    Map<IRI, Optional<IRI>> thumbnails = new HashMap<>();
+                    for (IRI iri : iris) {
+                        Optional<IRI> thumbnail = flattenProperties(iriToPredicateToThumbnail.get(iri))
+                            .stream().findFirst();
+                        thumbnails.put(iri, thumbnail);
+                    }
+
+                    return thumbnails;
+                } catch (Exception ex) {
+                    throw new RuntimeException("Failed to query for thumbnails of IRI(s).", ex);
+                }
+            }
+
+            @Override
+            protected String getSnapshotFingerprint() {
+                return config.getUiConfig().getPreferredThumbnails().toString();
+            }
+        };
         thumbnailServiceRegistry.register(this);
         cacheManager.register(cache);
     }
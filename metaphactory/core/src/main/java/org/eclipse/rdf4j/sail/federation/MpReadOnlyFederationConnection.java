@@ -67,6 +67,7 @@
 import com.metaphacts.repository.RepositoryManager;
 import com.metaphacts.repository.federation.MpFederation;
 import com.metaphacts.repository.federation.evaluation.MpFederationStrategy;
+import com.metaphacts.repository.federation.optimizers.FederationEvaluationStatistics;
 import com.metaphacts.repository.federation.optimizers.MpFederationJoinOptimizer;
 import com.metaphacts.repository.federation.optimizers.MpPrepareOwnedTupleExpr;
 import com.metaphacts.repository.federation.optimizers.MpQueryMultiJoinOptimizer;
@@ -195,6 +196,7 @@ private TupleExpr optimize(TupleExpr parsed, Dataset dataset, BindingSet binding
         new SameTermFilterOptimizer().optimize(query, dataset, bindings);
         new QueryModelPruner().optimize(query, dataset, bindings);
 
+        // keeps the order of the query, such that adjacent patterns of a member are grouped
         new MpQueryMultiJoinOptimizer().optimize(query, dataset, bindings);
         // new FilterOptimizer().optimize(query, dataset, bindings);
 
@@ -210,15 +212,19 @@ private TupleExpr optimize(TupleExpr parsed, Dataset dataset, BindingSet binding
         boolean distinct = mpFederation.isDistinct();
         PrefixHashSet local = mpFederation.getLocalPropertySpace();
 
+        FederationEvaluationStatistics statistics = mpFederation.createEvaluationStatistics(members.get(0));
+
         MpFederationJoinOptimizer fedJoinOptimizer = new MpFederationJoinOptimizer(members,
                 members.get(0), distinct, local, mpFederation.getServiceMappings(),
-                bloomFilterFunction);
+                bloomFilterFunction, statistics);
         fedJoinOptimizer.optimize(query, dataset, bindings);
         fedJoinOptimizer.isSingleOwnerQuery();
 
         new MpOwnedTupleExprPruner().optimize(query, dataset, bindings);
         new QueryModelPruner().optimize(query, dataset, bindings);
-        new MpQueryMultiJoinOptimizer().optimize(query, dataset, bindings);
+        // orders the member queries and SERVICE clauses by their estimated cardinality
+        (statistics != null ? new MpQueryMultiJoinOptimizer(statistics) : new MpQueryMultiJoinOptimizer())
+                .optimize(query, dataset, bindings);
 
         // new PrepareOwnedTupleExpr().optimize(query, dataset, bindings);
         new MpPrepareOwnedTupleExpr().optimize(query, dataset, bindings);
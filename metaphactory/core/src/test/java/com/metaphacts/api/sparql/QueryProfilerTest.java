@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.api.sparql;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.metaphacts.api.sparql.QueryProfile.Outcome;
+import com.metaphacts.api.sparql.QueryProfiler.FingerprintStats;
+import com.metaphacts.api.sparql.QueryProfiler.Order;
+import com.metaphacts.api.sparql.SparqlUtil.SparqlOperation;
+import com.metaphacts.junit.AbstractIntegrationTest;
+
+/**
+ * Test cases for {@link QueryProfiler} and {@link LatencyHistogram}.
+ */
+public class QueryProfilerTest extends AbstractIntegrationTest {
+
+    private static final String FAST_QUERY = "SELECT * WHERE { ?s ?p \"fast\" } LIMIT 10";
+    private static final String SLOW_QUERY = "SELECT * WHERE { ?s <http://www.w3.org/2000/01/rdf-schema#label> ?o }";
+
+    @Test
+    public void testNormalize() {
+        String normalized = QueryProfiler.normalize("SELECT * WHERE {\n  ?s ?p 'a\\'b' ; ex:p2 ?x1 } LIMIT 10");
+        Assert.assertEquals("SELECT * WHERE {\n?s ?p \"?\" ; ex:p2 ?x1 } LIMIT 0", normalized);
+
+        // literals, numbers and whitespace do not matter
+        Assert.assertEquals(
+            QueryProfiler.normalize("SELECT * WHERE { ?s ?p \"x\"@en FILTER(?o > 1.5) } LIMIT 10"),
+            QueryProfiler.normalize("SELECT  *  WHERE { ?s ?p \"y\"@en FILTER(?o > 42) } LIMIT 100"));
+        // but IRIs and variables do
+        Assert.assertNotEquals(
+            QueryProfiler.normalize("SELECT * WHERE { ?s <http://example.org/p1> ?o }"),
+            QueryProfiler.normalize("SELECT * WHERE { ?s <http://example.org/p2> ?o }"));
+        Assert.assertNotEquals(
+            QueryProfiler.normalize("SELECT ?s1 WHERE { ?s1 ?p ?o }"),
+            QueryProfiler.normalize("SELECT ?s2 WHERE { ?s2 ?p ?o }"));
+    }
+
+    @Test
+    public void testTopFingerprints() throws Exception {
+        QueryProfiler profiler = new QueryProfiler(config);
+        for (int i = 0; i < 3; i++) {
+            record(profiler, FAST_QUERY.replace("fast", "fast" + i), 0);
+        }
+        record(profiler, SLOW_QUERY, 20);
+
+        List<FingerprintStats> byCount = profiler.getTopFingerprints(10, Order.COUNT);
+        Assert.assertEquals(2, byCount.size());
+        Assert.assertEquals(3, byCount.get(0).getCount());
+        Assert.assertEquals(QueryProfiler.normalize(FAST_QUERY), byCount.get(0).getQuery());
+        Assert.assertEquals(SparqlOperation.SELECT, byCount.get(0).getOperationType());
+
+        FingerprintStats slowest = profiler.getTopFingerprints(1, Order.TOTAL).get(0);
+        Assert.assertEquals(QueryProfiler.normalize(SLOW_QUERY), slowest.getQuery());
+        Assert.assertTrue(slowest.getTotalMillis() >= 20);
+        Assert.assertEquals(slowest.getTotalMillis(), slowest.getMaxMillis(), 0.001);
+        Assert.assertEquals(slowest, profiler.getTopFingerprints(1, Order.P95).get(0));
+
+        profiler.clear();
+        Assert.assertTrue(profiler.getTopFingerprints(10, Order.TOTAL).isEmpty());
+        Assert.assertTrue(profiler.getRecentQueries().isEmpty());
+    }
+
+    @Test
+    public void testRecentQueriesAreBounded() throws Exception {
+        config.getUiConfig().setParameter("sparqlProfilerRecentQueries", "3");
+        QueryProfiler profiler = new QueryProfiler(config);
+        for (int i = 0; i < 5; i++) {
+            record(profiler, "SELECT * WHERE { ?s ?p ?o } LIMIT " + i, 0);
+        }
+        List<Integer> recent = profiler.getRecentQueries().stream()
+            .map(QueryProfile::getQueryHash)
+            .collect(Collectors.toList());
+        Assert.assertEquals(Lists.newArrayList(
+            "SELECT * WHERE { ?s ?p ?o } LIMIT 4".hashCode(),
+            "SELECT * WHERE { ?s ?p ?o } LIMIT 3".hashCode(),
+            "SELECT * WHERE { ?s ?p ?o } LIMIT 2".hashCode()), recent);
+        // all with the same fingerprint
+        Assert.assertEquals(5, profiler.getTopFingerprints(10, Order.COUNT).get(0).getCount());
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getPercentileMillis(95), 0);
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        // buckets grow by 10%
+        Assert.assertEquals(95, histogram.getPercentileMillis(95), 9.5);
+        Assert.assertEquals(50, histogram.getPercentileMillis(50), 5);
+        Assert.assertEquals(100, histogram.getPercentileMillis(100), 10);
+    }
+
+    private void record(QueryProfiler profiler, String query, long sleepMillis) throws InterruptedException {
+        QueryProfile profile = profiler.start("default", "admin", query);
+        profile.prepared(SparqlOperation.SELECT);
+        profile.evaluationStarted();
+        long start = System.nanoTime();
+        Thread.sleep(sleepMillis);
+        profile.rowEvaluated(start);
+        profiler.finish(profile, Outcome.COMPLETED, 100);
+    }
+}
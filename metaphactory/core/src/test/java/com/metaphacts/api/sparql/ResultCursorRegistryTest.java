@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.api.sparql;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.impl.IteratingTupleQueryResult;
+import org.eclipse.rdf4j.query.impl.ListBindingSet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.google.common.base.Ticker;
+import com.metaphacts.api.sparql.ResultCursorRegistry.Page;
+import com.metaphacts.api.sparql.ResultCursorRegistry.SpillLimitExceededException;
+import com.metaphacts.junit.AbstractIntegrationTest;
+import com.metaphacts.security.ThrottledException;
+
+/**
+ * Test cases for {@link ResultCursorRegistry}.
+ */
+public class ResultCursorRegistryTest extends AbstractIntegrationTest {
+
+    private static final List<String> BINDING_NAMES = Arrays.asList("s", "o");
+
+    private final ValueFactory vf = SimpleValueFactory.getInstance();
+
+    private final AtomicLong nanos = new AtomicLong();
+
+    private final Ticker ticker = new Ticker() {
+        @Override
+        public long read() {
+            return nanos.get();
+        }
+    };
+
+    private ResultCursorRegistry registry;
+
+    @Before
+    public void setUp() throws Exception {
+        config.getUiConfig().setParameter("sparqlCursorIdleTimeoutSeconds", "60");
+        config.getUiConfig().setParameter("sparqlCursorMaxPerUser", "2");
+        config.getUiConfig().setParameter("sparqlCursorMaxSpillMB", "1");
+        registry = new ResultCursorRegistry(config, ticker);
+    }
+
+    @After
+    public void tearDown() {
+        registry.shutdown();
+    }
+
+    @Test
+    public void testPagesAreConsistent() throws Exception {
+        List<BindingSet> rows = createRows(25);
+        // values which need escaping and unbound values
+        rows.set(3, new ListBindingSet(BINDING_NAMES, vf.createBNode("b1"), vf.createLiteral("tab\tand\nline break", "en")));
+        rows.set(4, new ListBindingSet(BINDING_NAMES, vf.createIRI("http://example.org/s4"), null));
+        rows.set(5, new ListBindingSet(BINDING_NAMES, null, vf.createLiteral("\"quoted\" \\ ä", XMLSchema.STRING)));
+
+        String token = registry.create("alice", 10, result(rows));
+
+        List<BindingSet> paged = new ArrayList<>();
+        Page page = registry.nextPage(token, "alice", Optional.empty()).get();
+        Assert.assertEquals(BINDING_NAMES, page.getBindingNames());
+        Assert.assertEquals(10, page.getRows().size());
+        Assert.assertTrue(page.hasMore());
+        paged.addAll(page.getRows());
+
+        // the page size can be changed per page
+        page = registry.nextPage(token, "alice", Optional.of(20)).get();
+        Assert.assertEquals(15, page.getRows().size());
+        Assert.assertFalse(page.hasMore());
+        paged.addAll(page.getRows());
+
+        Assert.assertEquals(rows, paged);
+        // the cursor is released after the last page
+        Assert.assertFalse(registry.nextPage(token, "alice", Optional.empty()).isPresent());
+        Assert.assertEquals(0, registry.cleanUp());
+        Assert.assertEquals(0, spillFiles());
+    }
+
+    @Test
+    public void testCursorsAreOwnedByUser() throws Exception {
+        String token = registry.create("alice", 10, result(createRows(20)));
+        Assert.assertFalse(registry.nextPage(token, "bob", Optional.empty()).isPresent());
+        Assert.assertFalse(registry.nextPage(token, null, Optional.empty()).isPresent());
+        Assert.assertFalse(registry.nextPage("unknown", "alice", Optional.empty()).isPresent());
+        Assert.assertTrue(registry.nextPage(token, "alice", Optional.empty()).isPresent());
+    }
+
+    @Test
+    public void testCursorsExpire() throws Exception {
+        String first = registry.create("alice", 10, result(createRows(30)));
+        String second = registry.create("alice", 10, result(createRows(30)));
+        Assert.assertEquals(2, spillFiles());
+
+        // the first cursor is still in use, the second one is idle
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(40));
+        Assert.assertTrue(registry.nextPage(first, "alice", Optional.empty()).isPresent());
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(30));
+        Assert.assertEquals(1, registry.cleanUp());
+        Assert.assertEquals(1, spillFiles());
+        Assert.assertFalse(registry.nextPage(second, "alice", Optional.empty()).isPresent());
+
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(61));
+        Assert.assertEquals(0, registry.cleanUp());
+        Assert.assertEquals(0, spillFiles());
+        Assert.assertFalse(registry.nextPage(first, "alice", Optional.empty()).isPresent());
+    }
+
+    @Test
+    public void testCursorLimitPerUser() throws Exception {
+        registry.create("alice", 10, result(createRows(20)));
+        String token = registry.create("alice", 10, result(createRows(20)));
+        try {
+            registry.create("alice", 10, result(createRows(20)));
+            Assert.fail("Third cursor must be rejected.");
+        } catch (ThrottledException e) {
+            Assert.assertEquals(2, e.getLimit());
+        }
+        // other users are not affected
+        registry.create("bob", 10, result(createRows(20)));
+
+        // releasing a cursor frees a slot
+        registry.nextPage(token, "alice", Optional.of(100));
+        registry.create("alice", 10, result(createRows(20)));
+    }
+
+    @Test
+    public void testSpillLimit() throws Exception {
+        List<BindingSet> rows = new ArrayList<>();
+        String large = Strings.repeat("x", 1000);
+        for (int i = 0; i < 2000; i++) {
+            rows.add(new ListBindingSet(BINDING_NAMES, vf.createIRI("http://example.org/s" + i), vf.createLiteral(large)));
+        }
+        // the cursor is created, only reading its pages fails
+        String token = registry.create("alice", 10, result(rows));
+        Assert.assertEquals(0, spillFiles());
+        try {
+            registry.nextPage(token, "alice", Optional.empty());
+            Assert.fail("Result exceeding the spill limit must be rejected.");
+        } catch (SpillLimitExceededException e) {
+            // expected
+        }
+        Assert.assertFalse(registry.nextPage(token, "alice", Optional.empty()).isPresent());
+        // the rejected cursor does not count towards the limit
+        registry.create("alice", 10, result(createRows(20)));
+        registry.create("alice", 10, result(createRows(20)));
+    }
+
+    @Test
+    public void testPagesWaitForSpill() throws Exception {
+        String token = registry.create("alice", 10, BINDING_NAMES);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Optional<Page>> page = executor.submit(() -> registry.nextPage(token, "alice", Optional.empty()));
+            Thread.sleep(100);
+            Assert.assertFalse(page.isDone());
+
+            registry.spill(token, result(createRows(15)));
+            Assert.assertEquals(10, page.get(5, TimeUnit.SECONDS).get().getRows().size());
+            Assert.assertTrue(page.get().get().hasMore());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDiscardedCursor() throws Exception {
+        registry.create("alice", 10, BINDING_NAMES);
+        String token = registry.create("alice", 10, BINDING_NAMES);
+        registry.discard(token);
+        Assert.assertFalse(registry.nextPage(token, "alice", Optional.empty()).isPresent());
+        // the discarded cursor does not count towards the limit
+        registry.create("alice", 10, BINDING_NAMES);
+    }
+
+    private List<BindingSet> createRows(int count) {
+        List<BindingSet> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Value label = vf.createLiteral("label " + i);
+            rows.add(new ListBindingSet(BINDING_NAMES, vf.createIRI("http://example.org/s" + i), label));
+        }
+        return rows;
+    }
+
+    private TupleQueryResult result(List<BindingSet> rows) {
+        return new IteratingTupleQueryResult(BINDING_NAMES, rows);
+    }
+
+    private int spillFiles() {
+        File[] files = registry.getSpillFolder().listFiles();
+        return files == null ? 0 : files.length;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.api.sparql;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import org.eclipse.rdf4j.query.QueryInterruptedException;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.metaphacts.api.sparql.RunningQueryRegistry.RunningQuery;
+import com.metaphacts.api.sparql.SparqlUtil.SparqlOperation;
+
+/**
+ * Test cases for {@link RunningQueryRegistry}.
+ */
+public class RunningQueryRegistryTest {
+
+    private static final String USER = "http://www.metaphacts.com/resource/user/admin";
+    private static final String QUERY = "SELECT * WHERE { ?s ?p ?o }";
+
+    private final RunningQueryRegistry registry = new RunningQueryRegistry();
+
+    @Test
+    public void testQueriesAreListedWhileRunning() {
+        RepositoryConnection con = mock(RepositoryConnection.class);
+        try (RunningQuery query = registry.register(USER, "default", QUERY, SparqlOperation.SELECT, con)) {
+            query.rowStreamed();
+            query.rowStreamed();
+
+            Assert.assertEquals(1, registry.getRunningQueries().size());
+            RunningQuery listed = registry.getRunningQueries().get(0);
+            Assert.assertEquals(USER, listed.getUser());
+            Assert.assertEquals("default", listed.getRepository());
+            Assert.assertEquals(QUERY.hashCode(), listed.getQueryHash());
+            Assert.assertEquals(2, listed.getRowsStreamed());
+        }
+        Assert.assertTrue(registry.getRunningQueries().isEmpty());
+    }
+
+    @Test
+    public void testKillClosesResultAndConnection() throws Exception {
+        RepositoryConnection con = mock(RepositoryConnection.class);
+        TupleQueryResult result = mock(TupleQueryResult.class);
+        try (RunningQuery query = registry.register(USER, "default", QUERY, SparqlOperation.SELECT, con)) {
+            query.setIteration(result);
+
+            Assert.assertTrue(registry.kill(query.getId()));
+            verify(result).close();
+            verify(con).close();
+            Assert.assertTrue(query.isKilled());
+            try {
+                query.rowStreamed();
+                Assert.fail("Expected the evaluation to be interrupted");
+            } catch (QueryInterruptedException e) {
+                // expected
+            }
+        }
+        Assert.assertFalse(registry.kill(1));
+    }
+
+    @Test
+    public void testIterationOfKilledQueryIsClosed() throws Exception {
+        RepositoryConnection con = mock(RepositoryConnection.class);
+        TupleQueryResult result = mock(TupleQueryResult.class);
+        try (RunningQuery query = registry.register(USER, "default", QUERY, SparqlOperation.SELECT, con)) {
+            // killed before the evaluation started
+            registry.kill(query.getId());
+            query.setIteration(result);
+            verify(result).close();
+        }
+    }
+}
@@ -81,6 +81,27 @@ public void testGetContentType() throws Exception {
         exception.expectMessage("list of possible content types not be empty");
         Assert.assertFalse(ServletRequestUtil.getContentType(req, Optional.of(Lists.<String>newArrayList())).isPresent());
     }
+
+    @Test
+    public void testGetPreferredContentEncoding() throws Exception {
+        List<String> supported = Lists.newArrayList("gzip", "deflate");
+        Assert.assertFalse(ServletRequestUtil.getPreferredContentEncoding(supported, req).isPresent());
+
+        when(req.getHeaders("Accept-Encoding")).thenAnswer(getMimetypeAnswer(Lists.newArrayList("deflate, gzip")));
+        Assert.assertEquals("gzip", ServletRequestUtil.getPreferredContentEncoding(supported, req).get());
+
+        when(req.getHeaders("Accept-Encoding")).thenAnswer(getMimetypeAnswer(Lists.newArrayList("gzip;q=0.5", "deflate")));
+        Assert.assertEquals("deflate", ServletRequestUtil.getPreferredContentEncoding(supported, req).get());
+
+        when(req.getHeaders("Accept-Encoding")).thenAnswer(getMimetypeAnswer(Lists.newArrayList("x-gzip")));
+        Assert.assertEquals("gzip", ServletRequestUtil.getPreferredContentEncoding(supported, req).get());
+
+        when(req.getHeaders("Accept-Encoding")).thenAnswer(getMimetypeAnswer(Lists.newArrayList("*;q=0.8, gzip;q=0")));
+        Assert.assertEquals("deflate", ServletRequestUtil.getPreferredContentEncoding(supported, req).get());
+
+        when(req.getHeaders("Accept-Encoding")).thenAnswer(getMimetypeAnswer(Lists.newArrayList("identity, br")));
+        Assert.assertFalse(ServletRequestUtil.getPreferredContentEncoding(supported, req).isPresent());
+    }
     
     private Answer<Enumeration<String>> getMimetypeAnswer(final List<String> listOfMimeTypes) {
         return new Answer<Enumeration<String>>() {
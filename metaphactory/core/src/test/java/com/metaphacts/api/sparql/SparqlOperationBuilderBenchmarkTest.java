@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.api.sparql;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.FOAF;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.model.vocabulary.SKOS;
+import org.eclipse.rdf4j.query.TupleQuery;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Measures the CPU time per built query of {@link SparqlOperationBuilder}
+ * without (every operation is prepared from scratch) and with the prepared
+ * operation cache.
+ *
+ * Only executed if the system property <code>metaphacts.benchmark</code> is
+ * set to <code>true</code>.
+ */
+public class SparqlOperationBuilderBenchmarkTest {
+    private static final Logger logger = LogManager.getLogger(SparqlOperationBuilderBenchmarkTest.class);
+
+    private static final int ITERATIONS = 20000;
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+
+    /**
+     * Typical template helper query, prefixed with a namespace registry of
+     * realistic size.
+     */
+    private static final String QUERY = "SELECT ?label ?type WHERE {\n"
+        + "  ?__this__ rdfs:label ?label .\n"
+        + "  OPTIONAL { ?__this__ a ?type . ?type skos:broader* foaf:Agent }\n"
+        + "  FILTER(lang(?label) = \"en\" || ?__useruri__ = ?__this__)\n"
+        + "} ORDER BY ?label LIMIT 10";
+
+    private SailRepository repository;
+    private Map<String, String> namespaces;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean("metaphacts.benchmark"));
+        repository = new SailRepository(new MemoryStore());
+        repository.initialize();
+
+        ImmutableMap.Builder<String, String> builder = ImmutableMap.<String, String>builder()
+            .put("rdf", RDF.NAMESPACE).put("rdfs", RDFS.NAMESPACE)
+            .put("skos", SKOS.NAMESPACE).put("foaf", FOAF.NAMESPACE);
+        for (int i = 0; i < 20; i++) {
+            builder.put("ns" + i, "http://www.metaphacts.com/ontologies/ns" + i + "#");
+        }
+        namespaces = builder.build();
+    }
+
+    @After
+    public void tearDown() {
+        if (repository != null) {
+            repository.shutDown();
+        }
+    }
+
+    @Test
+    public void benchmarkBuild() {
+        // warm up the JIT
+        run(false);
+        run(true);
+
+        double uncached = run(false);
+        double cached = run(true);
+        logger.info("CPU time per built query without prepared operation cache: {} us", uncached);
+        logger.info("CPU time per built query with prepared operation cache: {} us", cached);
+        logger.info("Speedup: {}", uncached / cached);
+    }
+
+    /**
+     * @return the CPU time (in microseconds) per built query
+     */
+    private double run(boolean cached) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        SparqlOperationBuilder.invalidatePreparedOperations();
+        try (RepositoryConnection con = repository.getConnection()) {
+            long start = threads.getCurrentThreadCpuTime();
+            for (int i = 0; i < ITERATIONS; i++) {
+                if (!cached) {
+                    SparqlOperationBuilder.invalidatePreparedOperations();
+                }
+                IRI resource = vf.createIRI("http://www.metaphacts.com/resource/r" + i);
+                SparqlOperationBuilder.<TupleQuery>create(QUERY, TupleQuery.class)
+                    .setNamespaces(namespaces)
+                    .resolveThis(resource)
+                    .resolveUser(resource)
+                    .build(con);
+            }
+            return (threads.getCurrentThreadCpuTime() - start) / 1e3 / ITERATIONS;
+        }
+    }
+}
@@ -23,6 +23,13 @@
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 import org.jukito.JukitoRunner;
 import org.jukito.UseModules;
 import org.junit.Before;
@@ -48,13 +55,24 @@
 import org.eclipse.rdf4j.query.TupleQuery;
 import org.eclipse.rdf4j.query.TupleQueryResult;
 import org.eclipse.rdf4j.query.Update;
+import org.eclipse.rdf4j.repository.Repository;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.repository.config.RepositoryConfig;
+import org.eclipse.rdf4j.repository.sail.config.SailRepositoryConfig;
+import org.eclipse.rdf4j.sail.memory.config.MemoryStoreConfig;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
+import com.google.inject.Injector;
+import com.metaphacts.cache.CacheManager;
+import com.metaphacts.config.Configuration;
 import com.metaphacts.junit.MetaphactsGuiceTestModule;
 import com.metaphacts.junit.RepositoryRule;
+import com.metaphacts.repository.CacheInvalidatingRepository;
+import com.metaphacts.repository.RepositoryConfigUtils;
+import com.metaphacts.repository.RepositoryManager;
 
 /**
  * @author Johannes Trame <jt@metaphacts.com>
@@ -68,6 +86,15 @@ public class SparqlOperationBuilderTest {
     
     @Rule
     public ExpectedException exception= ExpectedException.none();
+
+    @Inject
+    private Injector injector;
+
+    @Inject
+    private Configuration configuration;
+
+    @Inject
+    private CacheManager cacheManager;
     
     private static final ValueFactory vf = SimpleValueFactory.getInstance();
     
@@ -191,4 +218,81 @@ public void testResolveUser() throws RepositoryException, MalformedQueryExceptio
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testPreparedOperationIsReusedWithDifferentBindings() throws Exception {
+        SparqlOperationBuilder.invalidatePreparedOperations();
+        String queryString = "SELECT ?name WHERE { ?__this__ foaf:name ?name }";
+        ImmutableMap<String, String> namespaces = ImmutableMap.of("foaf", FOAF.NAMESPACE);
+        try (RepositoryConnection con = repositoryRule.getRepository().getConnection()) {
+            assertEquals(1, countResults(SparqlOperationBuilder.<TupleQuery>create(queryString, TupleQuery.class)
+                .setNamespaces(namespaces).resolveThis(metaphactsURI).build(con)));
+            assertEquals(0, countResults(SparqlOperationBuilder.<TupleQuery>create(queryString, TupleQuery.class)
+                .setNamespaces(namespaces).resolveThis(FOAF.ORGANIZATION).build(con)));
+            assertEquals(1, SparqlOperationBuilder.getPreparedOperationCount());
+
+            // changed namespaces result in a new prepared operation
+            SparqlOperationBuilder.<TupleQuery>create(queryString, TupleQuery.class)
+                .setNamespaces(ImmutableMap.of("foaf", FOAF.NAMESPACE, "rdf", RDF.NAMESPACE)).build(con);
+            assertEquals(2, SparqlOperationBuilder.getPreparedOperationCount());
+        }
+    }
+
+    @Test
+    public void testPreparedOperationIsSafeForConcurrentUse() throws Exception {
+        SparqlOperationBuilder.invalidatePreparedOperations();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                final boolean matching = i % 2 == 0;
+                results.add(executor.submit(() -> {
+                    try (RepositoryConnection con = repositoryRule.getRepository().getConnection()) {
+                        return SparqlOperationBuilder.<BooleanQuery>create(
+                            "ASK { ?__this__ a <http://xmlns.com/foaf/0.1/Organization> }", BooleanQuery.class)
+                            .resolveThis(matching ? metaphactsURI : FOAF.ORGANIZATION)
+                            .build(con).evaluate() == matching;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testParsedQueryIsUsedForManagedRepository() throws Exception {
+        SparqlOperationBuilder.invalidatePreparedOperations();
+        String repositoryId = "operationBuilderTest";
+        RepositoryConfig repConfig = new RepositoryConfig(repositoryId, "In-memory test repository");
+        repConfig.setRepositoryImplConfig(new SailRepositoryConfig(new MemoryStoreConfig()));
+        RepositoryConfigUtils.writeRepositoryConfigAsPrettyTurtleToFile(
+            new File(Configuration.getConfigBasePath(), "repositories"), repConfig, false);
+        // initializes the repository like on platform start
+        RepositoryManager repositoryManager = new RepositoryManager(injector, configuration, cacheManager);
+        try {
+            Repository repository = repositoryManager.getRepository(repositoryId);
+            assertTrue(repository instanceof CacheInvalidatingRepository);
+            try (RepositoryConnection con = repository.getConnection()) {
+                con.add(metaphactsURI, RDF.TYPE, FOAF.ORGANIZATION);
+                assertTrue(SparqlOperationBuilder.<BooleanQuery>create(
+                    "ASK { ?__this__ a <http://xmlns.com/foaf/0.1/Organization> }", BooleanQuery.class)
+                    .resolveThis(metaphactsURI).build(con).evaluate());
+            }
+            // the parsed algebra has been created and evaluated instead of the operation string
+            assertEquals(1, SparqlOperationBuilder.getParsedQueryCount());
+        } finally {
+            repositoryManager.shutdownRepository(repositoryId);
+            repositoryManager.getAssetRepository().shutDown();
+        }
+    }
+
+    private static int countResults(TupleQuery query) {
+        try (TupleQueryResult tqr = query.evaluate()) {
+            return QueryResults.asList(tqr).size();
+        }
+    }
+
+}
@@ -19,6 +19,7 @@
 package com.metaphacts.api.sparql;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 
 import java.util.HashMap;
 import java.util.List;
@@ -108,4 +109,24 @@ public void prependPrefixesTest(){
         assertEquals(expectedString, SparqlUtil.prependPrefixes(operationString, prefixMap));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testNormalizeWhitespace() {
+        String operationString = "  SELECT *\n  WHERE {\t?a   ?b ?c .\n\n   # don't  mind\n  FILTER(?c = \"a  \\\"  b\")\n} ";
+        String expectedString = "SELECT *\nWHERE { ?a ?b ?c .\n# don't  mind\nFILTER(?c = \"a  \\\"  b\")\n}";
+        assertEquals(expectedString, SparqlUtil.normalizeWhitespace(operationString));
+        assertEquals(SparqlUtil.normalizeWhitespace("ASK { ?a ?b 'x  y' }"),
+                SparqlUtil.normalizeWhitespace("ASK  {  ?a\t?b 'x  y'   }"));
+    }
+
+    @Test
+    public void testNormalizeWhitespaceOfLongStrings() {
+        String operationString = "ASK {  ?a ?b \"\"\"a \" b  c\"\"\" , '''x ''  y'''' }";
+        assertEquals("ASK { ?a ?b \"\"\"a \" b  c\"\"\" , '''x ''  y'''' }",
+                SparqlUtil.normalizeWhitespace(operationString));
+        assertNotEquals(SparqlUtil.normalizeWhitespace("ASK { ?a ?b \"\"\"a \" b  c\"\"\" }"),
+                SparqlUtil.normalizeWhitespace("ASK { ?a ?b \"\"\"a \" b c\"\"\" }"));
+        // empty strings are not long strings
+        assertEquals("ASK { ?a ?b \"\" , '' }", SparqlUtil.normalizeWhitespace("ASK {  ?a ?b \"\"  , ''  }"));
+    }
+
+}
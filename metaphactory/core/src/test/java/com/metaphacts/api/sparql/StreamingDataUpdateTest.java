@@ -0,0 +1,255 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.api.sparql;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Statement;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.XMLSchema;
+import org.eclipse.rdf4j.query.MalformedQueryException;
+import org.eclipse.rdf4j.query.Update;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.repository.base.RepositoryConnectionWrapper;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+import com.metaphacts.api.sparql.StreamingDataUpdate.Result;
+import com.metaphacts.junit.AbstractIntegrationTest;
+
+/**
+ * Test cases for {@link StreamingDataUpdate}.
+ */
+public class StreamingDataUpdateTest extends AbstractIntegrationTest {
+
+    private static final String EX = "http://example.org/";
+
+    private final ValueFactory vf = SimpleValueFactory.getInstance();
+
+    private final IRI s1 = vf.createIRI(EX, "s1");
+    private final IRI s2 = vf.createIRI(EX, "s2");
+    private final IRI p = vf.createIRI(EX, "p");
+    private final IRI g1 = vf.createIRI(EX, "g1");
+
+    @Test
+    public void testInsertAndDeleteData() throws Exception {
+        String update = "# leading comment {\n"
+            + "PREFIX ex: <" + EX + ">\n"
+            + "insert DATA {\n"
+            + "  ex:s1 ex:p \"braces } and # within a literal\" ; ex:p <" + EX + "o#fragment> .\n"
+            + "  # a comment with a brace }\n"
+            + "  GRAPH ex:g1 { ex:s1 ex:p \"\"\"long \"quoted\" string}\"\"\"@en . ex:s2 ex:p 'single' } .\n"
+            + "  ex:s2 ex:p 42\n"
+            + "} ;\n"
+            + "PREFIX ex2: <" + EX + ">\n"
+            + "DELETE DATA { GRAPH ex:g1 { ex2:s2 ex2:p 'single' } }";
+
+        Result result;
+        try (RepositoryConnection con = repositoryRule.getRepository().getConnection()) {
+            StreamingDataUpdate streaming = StreamingDataUpdate.open(new StringReader(update));
+            Assert.assertTrue(streaming.isDataUpdate());
+            result = streaming.execute(con, 2, fallbackTo(con));
+        }
+        Assert.assertEquals(5, result.getAdded());
+        Assert.assertEquals(1, result.getRemoved());
+        Assert.assertFalse(result.isFallback());
+
+        Assert.assertEquals(4, connection().size());
+        Assert.assertTrue(connection().hasStatement(s1, p, vf.createLiteral("braces } and # within a literal"), (Resource) null));
+        Assert.assertTrue(connection().hasStatement(s1, p, vf.createIRI(EX, "o#fragment"), (Resource) null));
+        Assert.assertTrue(connection().hasStatement(s1, p, vf.createLiteral("long \"quoted\" string}", "en"), g1));
+        Assert.assertTrue(connection().hasStatement(s2, p, vf.createLiteral("42", XMLSchema.INTEGER), (Resource) null));
+        Assert.assertFalse(connection().hasStatement(s2, p, vf.createLiteral("single"), g1));
+    }
+
+    @Test
+    public void testNamesEndingWithGraph() throws Exception {
+        String update = "PREFIX ex: <" + EX + ">\n"
+            + "INSERT DATA {\n"
+            + "  ex:subgraph ex:p ex:s1 .\n"
+            + "  ex:s1 ex:paragraph <" + EX + "s2> .\n"
+            + "  ex:s1 ex:p ex:Photograph#comment\n"
+            + "  .ex:s2 ex:p ex:Graph }";
+        Result result;
+        try (RepositoryConnection con = repositoryRule.getRepository().getConnection()) {
+            result = StreamingDataUpdate.open(new StringReader(update)).execute(con, 10, fallbackTo(con));
+        }
+        Assert.assertFalse(result.isFallback());
+        Assert.assertEquals(4, result.getAdded());
+        Assert.assertTrue(connection().hasStatement(vf.createIRI(EX, "subgraph"), p, s1, (Resource) null));
+        Assert.assertTrue(connection().hasStatement(s1, vf.createIRI(EX, "paragraph"), s2, (Resource) null));
+        Assert.assertTrue(connection().hasStatement(s1, p, vf.createIRI(EX, "Photograph"), (Resource) null));
+        Assert.assertTrue(connection().hasStatement(s2, p, vf.createIRI(EX, "Graph"), (Resource) null));
+    }
+
+    @Test
+    public void testDeleteDataOnlyAffectsDefaultGraph() throws Exception {
+        try (RepositoryConnection con = repositoryRule.getRepository().getConnection()) {
+            con.add(s1, p, s2);
+            con.add(s1, p, s2, g1);
+            StreamingDataUpdate.open(new StringReader("DELETE DATA { <" + EX + "s1> <" + EX + "p> <" + EX + "s2> }"))
+                .execute(con, 10, fallbackTo(con));
+        }
+        Assert.assertEquals(1, connection().size());
+        Assert.assertTrue(connection().hasStatement(s1, p, s2, g1));
+    }
+
+    @Test
+    public void testFallbackForPatternBasedUpdates() throws Exception {
+        String update = "PREFIX ex: <" + EX + ">\n"
+            + "INSERT DATA { ex:s1 ex:p ex:s2 . ex:s2 ex:p ex:s1 } ;\n"
+            + "DELETE { ?s ex:p ex:s2 } WHERE { ?s ex:p ex:s2 }";
+        Result result;
+        try (RepositoryConnection con = repositoryRule.getRepository().getConnection()) {
+            result = StreamingDataUpdate.open(new StringReader(update)).execute(con, 10, fallbackTo(con));
+        }
+        Assert.assertTrue(result.isFallback());
+        Assert.assertEquals(1, connection().size());
+        Assert.assertTrue(connection().hasStatement(s2, p, s1));
+    }
+
+    @Test
+    public void testOtherUpdatesAreNotStreamed() throws Exception {
+        String update = "PREFIX ex: <" + EX + ">\nINSERT { ex:s1 ex:p ?o } WHERE { ?s ex:p ?o }";
+        StreamingDataUpdate streaming = StreamingDataUpdate.open(new StringReader(update));
+        Assert.assertFalse(streaming.isDataUpdate());
+        Assert.assertEquals(update, streaming.readAll());
+
+        Assert.assertFalse(StreamingDataUpdate.open(new StringReader("CLEAR ALL")).isDataUpdate());
+        Assert.assertFalse(StreamingDataUpdate.open(new StringReader("INSERT DATA")).isDataUpdate());
+    }
+
+    @Test
+    public void testMalformedUpdateIsRolledBack() throws Exception {
+        StringBuilder update = new StringBuilder("INSERT DATA {\n");
+        for (int i = 0; i < 100; i++) {
+            update.append("<" + EX + "s" + i + "> <" + EX + "p> " + i + " .\n");
+        }
+        update.append("<" + EX + "s> <" + EX + "p> ?variable }");
+        try (RepositoryConnection con = repositoryRule.getRepository().getConnection()) {
+            StreamingDataUpdate.open(new StringReader(update.toString())).execute(con, 10, fallbackTo(con));
+            Assert.fail("Malformed update must be rejected.");
+        } catch (MalformedQueryException e) {
+            // expected
+        }
+        Assert.assertEquals(0, connection().size());
+
+        try (RepositoryConnection con = repositoryRule.getRepository().getConnection()) {
+            StreamingDataUpdate.open(new StringReader("INSERT DATA { <" + EX + "s> <" + EX + "p> 1 . "))
+                .execute(con, 10, fallbackTo(con));
+            Assert.fail("Truncated update must be rejected.");
+        } catch (MalformedQueryException e) {
+            // expected
+        }
+        Assert.assertEquals(0, connection().size());
+    }
+
+    /**
+     * Streams a large synthetic update and checks that the statements are
+     * passed to the connection in bounded batches while the payload is
+     * being read, i.e. that the payload is never held in memory as a whole.
+     */
+    @Test
+    public void testLargePayloadIsStreamedWithBoundedMemory() throws Exception {
+        final int triples = 200000;
+        final int batchSize = 1000;
+        SyntheticUpdateReader payload = new SyntheticUpdateReader(triples);
+        List<Long> charsReadPerBatch = new ArrayList<>();
+        List<Integer> batchSizes = new ArrayList<>();
+
+        try (RepositoryConnection con = new RepositoryConnectionWrapper(
+                repositoryRule.getRepository(), repositoryRule.getRepository().getConnection()) {
+            @Override
+            public void add(Iterable<? extends Statement> statements, Resource... contexts) throws RepositoryException {
+                // statements are only counted, to measure the memory of the streaming itself
+                int size = 0;
+                for (@SuppressWarnings("unused") Statement st : statements) {
+                    size++;
+                }
+                batchSizes.add(size);
+                charsReadPerBatch.add(payload.charsRead);
+            }
+        }) {
+            Result result = StreamingDataUpdate.open(payload).execute(con, batchSize, fallbackTo(con));
+            Assert.assertEquals(triples, result.getAdded());
+        }
+
+        Assert.assertEquals(triples / batchSize, batchSizes.size());
+        Assert.assertTrue(batchSizes.stream().allMatch(size -> size == batchSize));
+        // the first batch is written after reading a small fraction of the payload
+        Assert.assertTrue(charsReadPerBatch.get(0) < payload.charsRead / 100);
+        // and the payload is consumed incrementally
+        for (int i = 1; i < charsReadPerBatch.size(); i++) {
+            Assert.assertTrue(charsReadPerBatch.get(i) > charsReadPerBatch.get(i - 1));
+        }
+    }
+
+    private StreamingDataUpdate.Fallback fallbackTo(RepositoryConnection con) {
+        return remainder -> SparqlOperationBuilder.<Update>create(remainder, Update.class).build(con).execute();
+    }
+
+    /**
+     * Generates an <code>INSERT DATA</code> update on the fly.
+     */
+    private static class SyntheticUpdateReader extends Reader {
+        private static final String PADDING = Strings.repeat("x", 100);
+
+        private final int triples;
+        private int next = 0;
+        private String current = "INSERT DATA {\n";
+        private int position = 0;
+        private long charsRead = 0;
+
+        private SyntheticUpdateReader(int triples) {
+            this.triples = triples;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (position == current.length()) {
+                if (next > triples) {
+                    return -1;
+                }
+                current = next < triples
+                    ? "<" + EX + "s" + next + "> <" + EX + "p> \"" + PADDING + next + "\" .\n"
+                    : "}";
+                next++;
+                position = 0;
+            }
+            int n = Math.min(len, current.length() - position);
+            current.getChars(position, position + n, cbuf, off);
+            position += n;
+            charsRead += n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Test cases for {@link CacheInvalidationBus} and its transports.
+ */
+public class CacheInvalidationBusTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final IRI S1 = vf.createIRI("http://www.metaphacts.com/test/s1");
+    private static final IRI S2 = vf.createIRI("http://www.metaphacts.com/test/s2");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testInvalidationsArePropagatedToPeers() {
+        LoopbackInvalidationTransport.Hub hub = new LoopbackInvalidationTransport.Hub();
+        Node a = new Node(hub, 0);
+        Node b = new Node(hub, 0);
+
+        a.cacheManager.invalidateResources(Lists.newArrayList(S1));
+        Assert.assertEquals(Collections.singletonList("resources " + S1), a.cache.invalidations);
+        // the peer applies the event without publishing it again
+        Assert.assertEquals(Collections.singletonList("resources " + S1), b.cache.invalidations);
+
+        b.cacheManager.invalidateAll();
+        Assert.assertEquals(Lists.newArrayList("resources " + S1, "all"), a.cache.invalidations);
+        Assert.assertEquals(Lists.newArrayList("resources " + S1, "all"), b.cache.invalidations);
+    }
+
+    @Test
+    public void testBurstsAreCoalesced() {
+        LoopbackInvalidationTransport.Hub hub = new LoopbackInvalidationTransport.Hub();
+        // long coalescing window, events are only published on flush
+        Node a = new Node(hub, 60000);
+        Node b = new Node(hub, 0);
+
+        a.cacheManager.invalidateResources(Lists.newArrayList(S1));
+        a.cacheManager.invalidateResources(Lists.newArrayList(S2, S1));
+        Assert.assertTrue(b.cache.invalidations.isEmpty());
+        a.bus.flush();
+        Assert.assertEquals(Collections.singletonList("resources " + S1 + "," + S2), b.cache.invalidations);
+
+        // invalidating everything supersedes purging individual resources
+        a.cacheManager.invalidateResources(Lists.newArrayList(S1));
+        a.cacheManager.invalidateAll();
+        a.cacheManager.invalidateResources(Lists.newArrayList(S2));
+        a.bus.flush();
+        Assert.assertEquals(Lists.newArrayList("resources " + S1 + "," + S2, "all"), b.cache.invalidations);
+    }
+
+    @Test
+    public void testDuplicateEventsAreIgnored() {
+        LoopbackInvalidationTransport.Hub hub = new LoopbackInvalidationTransport.Hub();
+        Node b = new Node(hub, 0);
+        LoopbackInvalidationTransport sender = new LoopbackInvalidationTransport(hub);
+        sender.start("sender", events -> {});
+
+        InvalidationEvent event = new InvalidationEvent("sender", 1, Optional.empty(), Lists.newArrayList(S1));
+        sender.publish(Lists.newArrayList(event));
+        sender.publish(Lists.newArrayList(event));
+        Assert.assertEquals(Collections.singletonList("resources " + S1), b.cache.invalidations);
+
+        // events targeting a single cache are only applied to that cache
+        sender.publish(Lists.newArrayList(new InvalidationEvent("sender", 2, Optional.of("other"), new ArrayList<>())));
+        Assert.assertEquals(Collections.singletonList("resources " + S1), b.cache.invalidations);
+        sender.publish(Lists.newArrayList(new InvalidationEvent("sender", 3, Optional.of("test"), new ArrayList<>())));
+        Assert.assertEquals(Lists.newArrayList("resources " + S1, "all"), b.cache.invalidations);
+    }
+
+    @Test
+    public void testEventSerialization() {
+        InvalidationEvent event = new InvalidationEvent("node", 42, Optional.of("LabelCache"), Lists.newArrayList(S1, S2));
+        InvalidationEvent parsed = InvalidationEvent.parse(event.toLine());
+        Assert.assertEquals("node:42", parsed.getId());
+        Assert.assertEquals(Optional.of("LabelCache"), parsed.getCacheId());
+        Assert.assertEquals(Lists.newArrayList(S1, S2), parsed.getResources());
+
+        parsed = InvalidationEvent.parse(new InvalidationEvent("node", 43, Optional.empty(), new ArrayList<>()).toLine());
+        Assert.assertFalse(parsed.getCacheId().isPresent());
+        Assert.assertTrue(parsed.isInvalidateAll());
+    }
+
+    @Test
+    public void testFileJournalTransport() throws Exception {
+        File directory = folder.newFolder();
+        // events published before a node is started are not replayed
+        FileJournalInvalidationTransport a = new FileJournalInvalidationTransport(directory, 60000, 300);
+        a.start("a", events -> {});
+        a.publish(Lists.newArrayList(new InvalidationEvent("a", 1, Optional.empty(), new ArrayList<>())));
+
+        List<InvalidationEvent> received = new CopyOnWriteArrayList<>();
+        FileJournalInvalidationTransport b = new FileJournalInvalidationTransport(directory, 60000, 300);
+        b.start("b", received::addAll);
+        b.poll();
+        Assert.assertTrue(received.isEmpty());
+
+        a.publish(Lists.newArrayList(new InvalidationEvent("a", 2, Optional.empty(), Lists.newArrayList(S1))));
+        b.poll();
+        Assert.assertEquals(1, received.size());
+        Assert.assertEquals("a:2", received.get(0).getId());
+
+        // own events are not read, read events are not read again
+        b.publish(Lists.newArrayList(new InvalidationEvent("b", 1, Optional.empty(), new ArrayList<>())));
+        b.poll();
+        Assert.assertEquals(1, received.size());
+
+        // events written after the journal has been rotated are read as well
+        for (int i = 3; i < 10; i++) {
+            a.publish(Lists.newArrayList(new InvalidationEvent("a", i, Optional.empty(), Lists.newArrayList(S1, S2))));
+        }
+        Assert.assertEquals(2, directory.listFiles((dir, name) -> name.startsWith("a-")).length);
+        b.poll();
+        Assert.assertEquals(8, received.size());
+        Assert.assertTrue(received.stream().anyMatch(event -> event.getId().equals("a:3")));
+        Assert.assertTrue(received.stream().anyMatch(event -> event.getId().equals("a:9")));
+
+        a.close();
+        b.close();
+    }
+
+    /**
+     * Platform node with a single cache, connected to the given hub.
+     */
+    private static class Node {
+        final CacheManager cacheManager = new CacheManager();
+        final RecordingCache cache = new RecordingCache();
+        final CacheInvalidationBus bus;
+
+        Node(LoopbackInvalidationTransport.Hub hub, long coalesceMillis) {
+            cacheManager.register(cache);
+            bus = new CacheInvalidationBus(
+                cacheManager, Optional.of(new LoopbackInvalidationTransport(hub)),
+                "node-" + System.identityHashCode(this), coalesceMillis, 1000);
+        }
+    }
+
+    private static class RecordingCache implements PlatformCache {
+        final List<String> invalidations = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void invalidate() {
+            invalidations.add("all");
+        }
+
+        @Override
+        public void invalidate(List<IRI> iris) {
+            StringBuilder s = new StringBuilder("resources ");
+            for (int i = 0; i < iris.size(); i++) {
+                s.append(i > 0 ? "," : "").append(iris.get(i));
+            }
+            invalidations.add(s.toString());
+        }
+
+        @Override
+        public String getId() {
+            return "test";
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.nativerdf.NativeStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.collect.Lists;
+import com.metaphacts.cache.ResourcePropertyCache.RepositoryCache;
+import com.metaphacts.junit.AbstractIntegrationTest;
+import com.metaphacts.repository.CacheInvalidatingRepository;
+import com.metaphacts.repository.RepositoryManager;
+
+/**
+ * Measures the time to warm a label cache: the first label lookups of
+ * resource pages against a cold cache, compared with the same lookups after
+ * the cache has been restored from a snapshot of a local {@link NativeStore}.
+ *
+ * Only executed if the system property <code>metaphacts.benchmark</code> is
+ * set to <code>true</code>, e.g.
+ * <code>sbt -Dmetaphacts.benchmark=true "testOnly *CacheSnapshotStoreBenchmarkTest"</code>.
+ */
+public class CacheSnapshotStoreBenchmarkTest extends AbstractIntegrationTest {
+    private static final Logger logger = LogManager.getLogger(CacheSnapshotStoreBenchmarkTest.class);
+
+    private static final int RESOURCES = 100000;
+
+    /**
+     * Number of label lookups which are measured.
+     */
+    private static final int LOOKUPS = 20000;
+
+    /**
+     * Number of labels looked up at once, as for a typical resource page.
+     */
+    private static final int PAGE_SIZE = 20;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private SailRepository sailRepository;
+    private CacheInvalidatingRepository repository;
+    private RepositoryManager repositoryManager;
+    private CacheSnapshotStore store;
+    private List<IRI> iris;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("metaphacts.benchmark"));
+        sailRepository = new SailRepository(new NativeStore(folder.newFolder()));
+        sailRepository.initialize();
+        File generationFile = new File(folder.newFolder(), "benchmark.generation");
+        repository = new CacheInvalidatingRepository(sailRepository, new CacheManager(), () -> 10, generationFile);
+        repositoryManager = mock(RepositoryManager.class);
+        when(repositoryManager.getRepositoryID(repository)).thenReturn("benchmark");
+        // snapshots are only saved and restored explicitly
+        store = new CacheSnapshotStore(config);
+
+        ValueFactory vf = sailRepository.getValueFactory();
+        iris = new ArrayList<>(RESOURCES);
+        try (RepositoryConnection con = sailRepository.getConnection()) {
+            con.begin();
+            for (int i = 0; i < RESOURCES; i++) {
+                IRI iri = vf.createIRI("http://www.metaphacts.com/benchmark/resource" + i);
+                con.add(iri, RDFS.LABEL, vf.createLiteral("Resource " + i, "en"));
+                iris.add(iri);
+            }
+            con.commit();
+        }
+        // shuffled, such that the looked up resources are not sorted in the store
+        Collections.shuffle(iris);
+        iris = iris.subList(0, LOOKUPS);
+    }
+
+    @After
+    public void tearDown() {
+        if (sailRepository != null) {
+            sailRepository.shutDown();
+        }
+    }
+
+    @Test
+    public void benchmarkTimeToWarm() throws Exception {
+        // large enough to hold all labels
+        config.getUiConfig().setParameter("cache.BenchmarkCache.maximumWeightMB", "64");
+        config.getUiConfig().setParameter("resourcePropertyCacheHeapBudgetMB", "64");
+
+        // warm up the store and the JIT
+        lookup(new LabelOnlyCache());
+
+        LabelOnlyCache coldCache = new LabelOnlyCache();
+        long cold = lookup(coldCache);
+        int saved = store.save(coldCache, getRepositoryCache(coldCache));
+        Assert.assertEquals(LOOKUPS, saved);
+
+        LabelOnlyCache restoredCache = new LabelOnlyCache();
+        long start = System.currentTimeMillis();
+        int restored = store.restore(restoredCache, getRepositoryCache(restoredCache));
+        long restore = System.currentTimeMillis() - start;
+        Assert.assertEquals(LOOKUPS, restored);
+        long warm = lookup(restoredCache);
+        Assert.assertEquals(0, restoredCache.queries);
+
+        logger.info("First {} label lookups against a cold cache: {} ms ({} queries)",
+            LOOKUPS, cold, coldCache.queries);
+        logger.info("Restoring a snapshot of {} labels: {} ms", restored, restore);
+        logger.info("First {} label lookups after restoring the snapshot: {} ms", LOOKUPS, warm);
+        logger.info("Speedup of the time to warm (restore and lookups) over a cold cache: {}",
+            (double) cold / Math.max(1, restore + warm));
+    }
+
+    /**
+     * @return the time (in milliseconds) it took to look up the labels of
+     *         all resources, page by page
+     */
+    private long lookup(LabelOnlyCache cache) {
+        long start = System.currentTimeMillis();
+        for (List<IRI> page : Lists.partition(iris, PAGE_SIZE)) {
+            Map<IRI, Optional<Literal>> labels = cache.getAll(repository, page);
+            Assert.assertTrue(labels.values().stream().allMatch(Optional::isPresent));
+        }
+        return System.currentTimeMillis() - start;
+    }
+
+    private RepositoryCache<Literal> getRepositoryCache(LabelOnlyCache cache) {
+        // creates the cache for the repository without loading any entries
+        cache.getAll(repository, Collections.emptyList());
+        return cache.getRepositoryCaches().iterator().next();
+    }
+
+    private class LabelOnlyCache extends ResourcePropertyCache<Literal> {
+        private int queries = 0;
+
+        private LabelOnlyCache() {
+            super("BenchmarkCache", config, repositoryManager, new CacheWeightBudget(config), store);
+        }
+
+        @Override
+        protected Map<IRI, Optional<Literal>> queryAll(Repository repository, Iterable<? extends IRI> iris) {
+            queries++;
+            String queryString = constructPropertyQuery(iris, Collections.singletonList(RDFS.LABEL));
+            Map<IRI, List<List<Literal>>> labels = queryAndExtractProperties(
+                repository, queryString, 1,
+                value -> value instanceof Literal ? Optional.of((Literal) value) : Optional.empty());
+            Map<IRI, Optional<Literal>> result = new HashMap<>();
+            for (IRI iri : iris) {
+                result.put(iri, flattenProperties(labels.get(iri)).stream().findFirst());
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.metaphacts.cache.ResourcePropertyCache.RepositoryCache;
+import com.metaphacts.junit.AbstractIntegrationTest;
+import com.metaphacts.repository.CacheInvalidatingRepository;
+import com.metaphacts.repository.RepositoryManager;
+
+/**
+ * Test cases for {@link CacheSnapshotStore}.
+ */
+public class CacheSnapshotStoreTest extends AbstractIntegrationTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final IRI S1 = vf.createIRI("http://www.metaphacts.com/test/s1");
+    private static final IRI S2 = vf.createIRI("http://www.metaphacts.com/test/s2");
+    private static final List<IRI> IRIS = Lists.newArrayList(S1, S2);
+
+    private SailRepository sailRepository;
+    private CacheInvalidatingRepository repository;
+    private RepositoryManager repositoryManager;
+    private CacheWeightBudget budget;
+    private CacheSnapshotStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        sailRepository = new SailRepository(new MemoryStore());
+        sailRepository.initialize();
+        File generationFile = new File(Files.createTempDirectory("generation").toFile(), "test.generation");
+        repository = new CacheInvalidatingRepository(sailRepository, new CacheManager(), () -> 10, generationFile);
+
+        repositoryManager = mock(RepositoryManager.class);
+        when(repositoryManager.getRepositoryID(repository)).thenReturn("test");
+        budget = new CacheWeightBudget(config);
+        // snapshots are disabled, i.e. they are neither written nor restored in the background
+        store = new CacheSnapshotStore(config);
+    }
+
+    @After
+    public void tearDown() {
+        sailRepository.shutDown();
+    }
+
+    @Test
+    public void testRestoredEntriesAreServedWithoutQueries() throws Exception {
+        CountingCache cache = new CountingCache("fingerprint");
+        Map<IRI, Optional<Literal>> expected = cache.getAll(repository, IRIS);
+        Assert.assertEquals(1, cache.queries);
+        Assert.assertEquals(2, store.save(cache, getRepositoryCache(cache)));
+
+        CountingCache restoredCache = new CountingCache("fingerprint");
+        Assert.assertEquals(2, store.restore(restoredCache, getRepositoryCache(restoredCache)));
+        Assert.assertEquals(expected, restoredCache.getAll(repository, IRIS));
+        Assert.assertEquals(0, restoredCache.queries);
+    }
+
+    @Test
+    public void testOutdatedSnapshotIsIgnored() throws Exception {
+        CountingCache cache = new CountingCache("fingerprint");
+        cache.getAll(repository, IRIS);
+        store.save(cache, getRepositoryCache(cache));
+
+        try (RepositoryConnection con = repository.getConnection()) {
+            con.add(S1, RDFS.LABEL, vf.createLiteral("changed"));
+        }
+
+        CountingCache restoredCache = new CountingCache("fingerprint");
+        Assert.assertEquals(0, store.restore(restoredCache, getRepositoryCache(restoredCache)));
+    }
+
+    @Test
+    public void testSnapshotOfDifferentConfigurationIsIgnored() throws Exception {
+        CountingCache cache = new CountingCache("fingerprint");
+        cache.getAll(repository, IRIS);
+        store.save(cache, getRepositoryCache(cache));
+
+        CountingCache restoredCache = new CountingCache("other fingerprint");
+        Assert.assertEquals(0, store.restore(restoredCache, getRepositoryCache(restoredCache)));
+    }
+
+    private RepositoryCache<Literal> getRepositoryCache(CountingCache cache) {
+        // creates the cache for the repository without loading any entries
+        cache.getAll(repository, Collections.emptyList());
+        return cache.getRepositoryCaches().iterator().next();
+    }
+
+    private class CountingCache extends ResourcePropertyCache<Literal> {
+        private final String fingerprint;
+        private int queries = 0;
+
+        private CountingCache(String fingerprint) {
+            super("TestCache", config, repositoryManager, budget, store);
+            this.fingerprint = fingerprint;
+        }
+
+        @Override
+        protected Map<IRI, Optional<Literal>> queryAll(Repository repository, Iterable<? extends IRI> iris) {
+            queries++;
+            Map<IRI, Optional<Literal>> result = new HashMap<>();
+            for (IRI iri : iris) {
+                result.put(iri, iri.equals(S1) ? Optional.of(vf.createLiteral("label", "en")) : Optional.empty());
+            }
+            return result;
+        }
+
+        @Override
+        protected String getSnapshotFingerprint() {
+            return fingerprint;
+        }
+    }
+}
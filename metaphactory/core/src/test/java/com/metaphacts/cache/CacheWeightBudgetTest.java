@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.metaphacts.cache.CacheWeightBudget.Share;
+import com.metaphacts.junit.AbstractIntegrationTest;
+
+/**
+ * Test cases for {@link CacheWeightBudget}.
+ */
+public class CacheWeightBudgetTest extends AbstractIntegrationTest {
+
+    private static final long MB = CacheWeightBudget.BYTES_PER_MB;
+
+    private final Map<String, Long> weights = new HashMap<>();
+
+    private Share register(CacheWeightBudget budget, String owner, long requestedWeight) {
+        return budget.register(owner, requestedWeight, weight -> weights.put(owner, weight));
+    }
+
+    @Test
+    public void testReservationsNeverExceedBudget() {
+        config.getUiConfig().setParameter("resourcePropertyCacheHeapBudgetMB", "10");
+        CacheWeightBudget budget = new CacheWeightBudget(config);
+
+        Assert.assertEquals(10 * MB, budget.getTotalWeight());
+        Share a = register(budget, "a", 6 * MB);
+        Assert.assertEquals(6 * MB, a.getWeight());
+        Assert.assertEquals(6 * MB, (long) weights.get("a"));
+
+        // the budget is divided among the caches
+        Share b = register(budget, "b", 6 * MB);
+        Assert.assertEquals(5 * MB, a.getWeight());
+        Assert.assertEquals(5 * MB, b.getWeight());
+        Assert.assertEquals(5 * MB, (long) weights.get("a"));
+        Assert.assertEquals(5 * MB, (long) weights.get("b"));
+
+        // smaller requests are granted completely
+        Share c = register(budget, "c", 1 * MB);
+        Assert.assertEquals(1 * MB, c.getWeight());
+        Assert.assertEquals(9 * MB / 2, a.getWeight());
+        Assert.assertEquals(9 * MB / 2, b.getWeight());
+        Assert.assertEquals(10 * MB, budget.getReservedWeight());
+
+        // released weight is divided among the remaining caches
+        a.release();
+        Assert.assertEquals(6 * MB, (long) weights.get("b"));
+        Assert.assertEquals(7 * MB, budget.getReservedWeight());
+    }
+
+    @Test
+    public void testEveryCacheGetsAShare() {
+        // defaults: label and thumbnail cache for several repositories
+        CacheWeightBudget budget = new CacheWeightBudget(config);
+        long total = budget.getTotalWeight();
+        for (int i = 0; i < 10; i++) {
+            register(budget, "cache" + i, 16 * MB);
+        }
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(weights.get("cache" + i) >= total / 10);
+        }
+        Assert.assertTrue(budget.getReservedWeight() <= total);
+    }
+}
@@ -104,6 +104,26 @@ public void testSetAndGetStringListConfigParameterWithEscaping() {
         Assert.assertEquals("de-with-,-inside", config.getUiConfig().getPreferredLanguages().get(2));
     }
     
+    @Test
+    public void testCacheParameterFallback() {
+        
+        // default value if nothing is configured
+        Assert.assertEquals(16, config.getUiConfig().getCacheMaximumWeightMB("LabelCache", "default").intValue());
+        
+        // cache-level value applies to all repositories
+        config.getUiConfig().setParameter("cache.LabelCache.maximumWeightMB", "8");
+        Assert.assertEquals(8, config.getUiConfig().getCacheMaximumWeightMB("LabelCache", "default").intValue());
+        Assert.assertEquals(8, config.getUiConfig().getCacheMaximumWeightMB("LabelCache", "assets").intValue());
+        
+        // repository-level value overrides cache-level value
+        config.getUiConfig().setParameter("cache.LabelCache.assets.maximumWeightMB", "2");
+        Assert.assertEquals(8, config.getUiConfig().getCacheMaximumWeightMB("LabelCache", "default").intValue());
+        Assert.assertEquals(2, config.getUiConfig().getCacheMaximumWeightMB("LabelCache", "assets").intValue());
+        
+        // other caches are not affected
+        Assert.assertEquals(16, config.getUiConfig().getCacheMaximumWeightMB("DefaultThumbnailService", "assets").intValue());
+    }
+    
     @Test
     public void testConfigurationUtilListConversion() {
         
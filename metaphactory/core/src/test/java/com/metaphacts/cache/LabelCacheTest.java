@@ -30,6 +30,7 @@
 import org.eclipse.rdf4j.model.vocabulary.RDF;
 import org.eclipse.rdf4j.model.vocabulary.RDFS;
 import org.eclipse.rdf4j.model.vocabulary.SKOS;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -361,6 +362,32 @@ public void testSingleLabelSingeLanguageMultipleResources03() throws Exception {
 
     }
 
+    @Test
+    public void testLanguageProfiles() throws Exception {
+
+        setPreferredLabelRdfsLabel(); // only rdfs:label considered as label
+        setPreferredLanguageEn();
+
+        addIri1EnLiteral(RDFS.LABEL, IRI1_LABEL_EN);
+        addIri1DeLiteral(RDFS.LABEL, IRI1_LABEL_DE);
+        addIri1NoLangTypeLiteral(RDFS.LABEL, IRI1_LABEL_NOLANG);
+
+        Assert.assertEquals(IRI1_LABEL_EN,
+            labelCache.getLabel(asIRI(IRI1), repositoryRule.getRepository()).get().stringValue());
+
+        // labels for other languages are served from the cached candidates
+        // (the test repository does not invalidate the cache on writes)
+        try (RepositoryConnection con = repositoryRule.getRepository().getConnection()) {
+            con.clear();
+        }
+        Assert.assertEquals(IRI1_LABEL_DE, labelCache.getLabel(
+            asIRI(IRI1), repositoryRule.getRepository(), LanguageProfile.parse("de,en")).get().stringValue());
+        Assert.assertEquals(IRI1_LABEL_NOLANG, labelCache.getLabel(
+            asIRI(IRI1), repositoryRule.getRepository(), LanguageProfile.parse("ru")).get().stringValue());
+        Assert.assertEquals(IRI1_LABEL_EN, labelCache.getLabel(
+            asIRI(IRI1), repositoryRule.getRepository(), LanguageProfile.parse("ru,,en")).get().stringValue());
+    }
+
     @Test
     public void testMultipleLabelsSingleLanguageSingleResource01() throws Exception {
 
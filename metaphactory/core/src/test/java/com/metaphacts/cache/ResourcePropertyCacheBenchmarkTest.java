@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.nativerdf.NativeStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.metaphacts.junit.AbstractIntegrationTest;
+import com.metaphacts.repository.RepositoryManager;
+
+/**
+ * Compares bulk loads of 100k labelled resources from a local
+ * {@link NativeStore} with a single query and in parallel chunks.
+ *
+ * Only executed if the system property <code>metaphacts.benchmark</code> is
+ * set to <code>true</code>, e.g.
+ * <code>sbt -Dmetaphacts.benchmark=true "testOnly *ResourcePropertyCacheBenchmarkTest"</code>.
+ */
+public class ResourcePropertyCacheBenchmarkTest extends AbstractIntegrationTest {
+    private static final Logger logger = LogManager.getLogger(ResourcePropertyCacheBenchmarkTest.class);
+
+    private static final int RESOURCES = 100000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Repository repository;
+    private List<IRI> iris;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("metaphacts.benchmark"));
+        repository = new SailRepository(new NativeStore(folder.newFolder()));
+        repository.initialize();
+
+        ValueFactory vf = repository.getValueFactory();
+        iris = new ArrayList<>(RESOURCES);
+        try (RepositoryConnection con = repository.getConnection()) {
+            con.begin();
+            for (int i = 0; i < RESOURCES; i++) {
+                IRI iri = vf.createIRI("http://www.metaphacts.com/benchmark/resource" + i);
+                con.add(iri, RDFS.LABEL, vf.createLiteral("Resource " + i, "en"));
+                iris.add(iri);
+            }
+            con.commit();
+        }
+        // shuffled, such that the requested resources are not sorted in the store
+        Collections.shuffle(iris);
+    }
+
+    @After
+    public void tearDown() {
+        if (repository != null) {
+            repository.shutDown();
+        }
+    }
+
+    @Test
+    public void benchmarkBulkLoad() {
+        // warm up the store
+        run("warm-up", 500, 4);
+
+        long single = run("single query", RESOURCES, 1);
+        long sequential = run("chunks of 500, sequential", 500, 1);
+        long parallel = run("chunks of 500, parallelism 4", 500, 4);
+        logger.info("Speedup of parallel chunks over a single query: {}", (double) single / parallel);
+        logger.info("Speedup of parallel chunks over sequential chunks: {}", (double) sequential / parallel);
+    }
+
+    /**
+     * @return the time (in milliseconds) it took to load the labels of all resources
+     */
+    private long run(String name, int chunkSize, int parallelism) {
+        config.getUiConfig().setParameter("cache.BenchmarkCache.bulkLoadChunkSize", String.valueOf(chunkSize));
+        config.getUiConfig().setParameter("cache.BenchmarkCache.bulkLoadParallelism", String.valueOf(parallelism));
+        // large enough to hold all labels
+        config.getUiConfig().setParameter("cache.BenchmarkCache.maximumWeightMB", "64");
+        config.getUiConfig().setParameter("resourcePropertyCacheHeapBudgetMB", "64");
+        LabelOnlyCache cache = new LabelOnlyCache();
+
+        long start = System.currentTimeMillis();
+        Map<IRI, Optional<Literal>> labels = cache.getAll(repository, iris);
+        long time = System.currentTimeMillis() - start;
+
+        Assert.assertEquals(RESOURCES, labels.size());
+        Assert.assertTrue(labels.values().stream().allMatch(Optional::isPresent));
+        logger.info("Bulk load of {} labels ({}): {} ms", RESOURCES, name, time);
+        return time;
+    }
+
+    private class LabelOnlyCache extends ResourcePropertyCache<Literal> {
+        private LabelOnlyCache() {
+            super("BenchmarkCache", config, mock(RepositoryManager.class), new CacheWeightBudget(config));
+        }
+
+        @Override
+        protected Map<IRI, Optional<Literal>> queryAll(Repository repository, Iterable<? extends IRI> iris) {
+            String queryString = constructPropertyQuery(iris, Collections.singletonList(RDFS.LABEL));
+            Map<IRI, List<List<Literal>>> labels = queryAndExtractProperties(
+                repository, queryString, 1,
+                value -> value instanceof Literal ? Optional.of((Literal) value) : Optional.empty());
+            Map<IRI, Optional<Literal>> result = new HashMap<>();
+            for (IRI iri : iris) {
+                result.put(iri, flattenProperties(labels.get(iri)).stream().findFirst());
+            }
+            return result;
+        }
+    }
+}
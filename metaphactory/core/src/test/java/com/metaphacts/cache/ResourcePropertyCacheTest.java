@@ -0,0 +1,299 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Literal;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.metaphacts.junit.AbstractIntegrationTest;
+import com.metaphacts.repository.RepositoryManager;
+
+/**
+ * Test cases for {@link ResourcePropertyCache}.
+ */
+public class ResourcePropertyCacheTest extends AbstractIntegrationTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final IRI S1 = vf.createIRI("http://www.metaphacts.com/test/s1");
+    private static final IRI S2 = vf.createIRI("http://www.metaphacts.com/test/s2");
+    private static final List<IRI> IRIS = Lists.newArrayList(S1, S2);
+
+    private SailRepository repository;
+
+    @Before
+    public void setUp() {
+        repository = new SailRepository(new MemoryStore());
+        repository.initialize();
+    }
+
+    @After
+    public void tearDown() {
+        repository.shutDown();
+    }
+
+    @Test
+    public void testRefreshServesStaleValuesAndBatchesQueries() throws Exception {
+        VersionedCache cache = new VersionedCache();
+        Assert.assertEquals("v1", cache.getAll(repository, IRIS).get(S1).get().getLabel());
+        Assert.assertEquals(1, cache.queries.get());
+
+        cache.refresh(repository, IRIS);
+        // stale values are served while the refresh is in progress
+        Assert.assertEquals("v1", cache.getAll(repository, IRIS).get(S2).get().getLabel());
+
+        waitForRefreshes(cache, 2);
+        Assert.assertEquals("v2", cache.getAll(repository, IRIS).get(S1).get().getLabel());
+        Assert.assertEquals("v2", cache.getAll(repository, IRIS).get(S2).get().getLabel());
+        // both entries have been reloaded with a single query
+        Assert.assertEquals(2, cache.queries.get());
+        Assert.assertEquals(1, cache.getRefreshBatchCount());
+        Assert.assertEquals(0, cache.getRefreshFailureCount());
+    }
+
+    @Test
+    public void testFailedRefreshRetainsStaleValues() throws Exception {
+        VersionedCache cache = new VersionedCache();
+        cache.getAll(repository, IRIS);
+
+        cache.failing = true;
+        cache.refresh(repository, IRIS);
+        long timeout = System.currentTimeMillis() + 5000;
+        while (cache.getRefreshFailureCount() < 2 && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(2, cache.getRefreshFailureCount());
+        Assert.assertEquals("v1", cache.getAll(repository, IRIS).get(S1).get().getLabel());
+    }
+
+    @Test
+    public void testStatsCountHitsMissesAndLoads() throws Exception {
+        VersionedCache cache = new VersionedCache();
+        Assert.assertEquals(0, cache.getStats().getSize());
+
+        cache.getAll(repository, IRIS);
+        PlatformCacheStats stats = cache.getStats();
+        Assert.assertEquals(0, stats.getHitCount());
+        Assert.assertEquals(2, stats.getMissCount());
+        // both entries have been loaded with a single bulk load
+        Assert.assertEquals(1, stats.getLoadSuccessCount());
+        Assert.assertEquals(2, stats.getSize());
+        Assert.assertTrue(stats.getWeight() > 0);
+
+        cache.getAll(repository, Lists.newArrayList(S1));
+        stats = cache.getStats();
+        Assert.assertEquals(1, stats.getHitCount());
+        Assert.assertEquals(2, stats.getMissCount());
+        Assert.assertEquals(1.0 / 3, stats.getHitRate(), 0.001);
+
+        cache.failing = true;
+        try {
+            cache.getAll(repository, Lists.newArrayList(vf.createIRI("http://www.metaphacts.com/test/s3")));
+            Assert.fail("Expected loading to fail");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        Assert.assertEquals(1, cache.getStats().getLoadExceptionCount());
+
+        // the repository is not managed by the repository manager
+        Map<String, PlatformCacheStats> repositoryStats = cache.getRepositoryStats();
+        Assert.assertEquals(1, repositoryStats.size());
+        Assert.assertEquals(1, repositoryStats.get(ResourcePropertyCache.UNMANAGED_REPOSITORY_ID).getHitCount());
+    }
+
+    @Test
+    public void testCachesShareTheBudget() throws Exception {
+        config.getUiConfig().setParameter("resourcePropertyCacheHeapBudgetMB", "10");
+        config.getUiConfig().setParameter("cache.TestCache.maximumWeightMB", "8");
+        CacheWeightBudget budget = new CacheWeightBudget(config);
+        VersionedCache cache = new VersionedCache(budget);
+        cache.getAll(repository, IRIS);
+        Assert.assertEquals(8 * CacheWeightBudget.BYTES_PER_MB, budget.getReservedWeight());
+
+        SailRepository otherRepository = new SailRepository(new MemoryStore());
+        otherRepository.initialize();
+        try {
+            // the cache of the first repository is shrunk to make room for the second one
+            cache.getAll(otherRepository, IRIS);
+            Assert.assertEquals(10 * CacheWeightBudget.BYTES_PER_MB, budget.getReservedWeight());
+            for (ResourcePropertyCache.RepositoryCache<Literal> repositoryCache : cache.getRepositoryCaches()) {
+                Assert.assertEquals(5 * CacheWeightBudget.BYTES_PER_MB, repositoryCache.share.getWeight());
+            }
+
+            // entries and statistics are retained while resizing
+            Assert.assertEquals("v1", cache.getAll(repository, IRIS).get(S1).get().getLabel());
+            Assert.assertEquals(2, cache.queries.get());
+            Assert.assertEquals(2, cache.getRepositoryStats().get(ResourcePropertyCache.UNMANAGED_REPOSITORY_ID)
+                .getHitCount());
+        } finally {
+            otherRepository.shutDown();
+        }
+    }
+
+    @Test
+    public void testLoadsAndInvalidationsDuringResize() throws Exception {
+        config.getUiConfig().setParameter("resourcePropertyCacheHeapBudgetMB", "10");
+        config.getUiConfig().setParameter("cache.TestCache.maximumWeightMB", "8");
+        VersionedCache cache = new VersionedCache(new CacheWeightBudget(config));
+        cache.getAll(repository, Lists.newArrayList(S2));
+        IRI s3 = vf.createIRI("http://www.metaphacts.com/test/s3");
+
+        SailRepository secondRepository = new SailRepository(new MemoryStore());
+        secondRepository.initialize();
+        SailRepository thirdRepository = new SailRepository(new MemoryStore());
+        thirdRepository.initialize();
+        try {
+            // a load which completes after the cache has been resized is kept
+            cache.delayMillis = 200;
+            Thread load = new Thread(() -> cache.getAll(repository, Lists.newArrayList(S1)));
+            load.start();
+            Thread.sleep(50);
+            cache.delayMillis = 0;
+            cache.getAll(secondRepository, IRIS);
+            load.join();
+            Assert.assertEquals(3, cache.queries.get());
+            cache.getAll(repository, IRIS);
+            Assert.assertEquals(3, cache.queries.get());
+
+            // a load which has been invalidated while the cache was resized is dropped
+            cache.delayMillis = 200;
+            load = new Thread(() -> cache.getAll(repository, Lists.newArrayList(s3)));
+            load.start();
+            Thread.sleep(50);
+            cache.delayMillis = 0;
+            cache.getAll(thirdRepository, IRIS);
+            cache.invalidate(Lists.newArrayList(s3));
+            load.join();
+            cache.getAll(repository, Lists.newArrayList(s3));
+            Assert.assertEquals(6, cache.queries.get());
+        } finally {
+            secondRepository.shutDown();
+            thirdRepository.shutDown();
+        }
+    }
+
+    @Test
+    public void testBulkLoadsAreChunkedWithLimitedParallelism() throws Exception {
+        config.getUiConfig().setParameter("cache.TestCache.bulkLoadChunkSize", "2");
+        config.getUiConfig().setParameter("cache.TestCache.bulkLoadParallelism", "2");
+        VersionedCache cache = new VersionedCache();
+        cache.delayMillis = 50;
+
+        List<IRI> iris = new ArrayList<>();
+        for (int i = 0; i < 9; i++) {
+            iris.add(vf.createIRI("http://www.metaphacts.com/test/chunk" + i));
+        }
+        Map<IRI, Optional<Literal>> result = cache.getAll(repository, iris);
+        Assert.assertEquals(iris, new ArrayList<>(result.keySet()));
+        Assert.assertEquals(Lists.newArrayList(2, 2, 2, 2, 1), sorted(cache.querySizes));
+        Assert.assertTrue(cache.maxRunning.get() <= 2);
+        Assert.assertTrue(cache.maxRunning.get() > 1);
+
+        // loaded chunks have been put into the cache
+        cache.getAll(repository, iris);
+        Assert.assertEquals(5, cache.queries.get());
+
+        // a failing chunk fails the whole lookup
+        cache.failing = true;
+        iris.add(vf.createIRI("http://www.metaphacts.com/test/chunk9"));
+        iris.add(vf.createIRI("http://www.metaphacts.com/test/chunk10"));
+        iris.add(vf.createIRI("http://www.metaphacts.com/test/chunk11"));
+        try {
+            cache.getAll(repository, iris);
+            Assert.fail("Expected loading to fail");
+        } catch (RuntimeException e) {
+            // expected
+        }
+    }
+
+    private static List<Integer> sorted(List<Integer> values) {
+        List<Integer> result = new ArrayList<>(values);
+        result.sort((a, b) -> b - a);
+        return result;
+    }
+
+    private static void waitForRefreshes(ResourcePropertyCache<?> cache, long count) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 5000;
+        while (cache.getRefreshCount() < count && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(count, cache.getRefreshCount());
+    }
+
+    /**
+     * Returns the number of the query (v1, v2, ...) as property value.
+     */
+    private class VersionedCache extends ResourcePropertyCache<Literal> {
+        private final AtomicInteger queries = new AtomicInteger();
+        private final List<Integer> querySizes = new CopyOnWriteArrayList<>();
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+        private volatile boolean failing = false;
+        private volatile long delayMillis = 0;
+
+        private VersionedCache() {
+            this(new CacheWeightBudget(config));
+        }
+
+        private VersionedCache(CacheWeightBudget budget) {
+            super("TestCache", config, mock(RepositoryManager.class), budget);
+        }
+
+        @Override
+        protected Map<IRI, Optional<Literal>> queryAll(Repository repository, Iterable<? extends IRI> iris) {
+            if (failing) {
+                throw new RuntimeException("Repository not available.");
+            }
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(delayMillis);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                running.decrementAndGet();
+            }
+            Literal value = vf.createLiteral("v" + queries.incrementAndGet());
+            Map<IRI, Optional<Literal>> result = new HashMap<>();
+            for (IRI iri : iris) {
+                result.put(iri, Optional.of(value));
+            }
+            querySizes.add(result.size());
+            return result;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.util.concurrent.UncheckedTimeoutException;
+
+/**
+ * Test cases for {@link SingleFlight}.
+ */
+public class SingleFlightTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneEvaluation() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>(10, TimeUnit.SECONDS);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> leader = executor.submit(() -> singleFlight.execute("q", () -> {
+            started.countDown();
+            release.await();
+            return "result";
+        }));
+        started.await();
+
+        List<Future<String>> followers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            followers.add(executor.submit(() -> singleFlight.execute("q", () -> "evaluated again")));
+        }
+        // give the followers time to join the in-flight evaluation
+        Thread.sleep(200);
+        release.countDown();
+
+        Assert.assertEquals("result", leader.get());
+        for (Future<String> follower : followers) {
+            Assert.assertEquals("result", follower.get());
+        }
+        Assert.assertEquals(1, singleFlight.getEvaluationCount());
+        Assert.assertEquals(8, singleFlight.getSharedCount());
+
+        // completed evaluations are not cached
+        Assert.assertEquals("next", singleFlight.execute("q", () -> "next"));
+        Assert.assertEquals(2, singleFlight.getEvaluationCount());
+    }
+
+    @Test
+    public void testErrorsArePropagatedToWaitingCallers() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>(10, TimeUnit.SECONDS);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> leader = executor.submit(() -> singleFlight.execute("q", () -> {
+            started.countDown();
+            release.await();
+            throw new IllegalStateException("failed");
+        }));
+        started.await();
+        Future<String> follower = executor.submit(() -> singleFlight.execute("q", () -> "evaluated again"));
+        Thread.sleep(100);
+        release.countDown();
+
+        assertFailsWith(leader, IllegalStateException.class);
+        assertFailsWith(follower, IllegalStateException.class);
+        Assert.assertEquals(1, singleFlight.getEvaluationCount());
+    }
+
+    @Test
+    public void testWaitingIsBounded() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>(50, TimeUnit.MILLISECONDS);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Future<String> leader = executor.submit(() -> singleFlight.execute("q", () -> {
+            started.countDown();
+            release.await();
+            return "result";
+        }));
+        started.await();
+        try {
+            singleFlight.execute("q", () -> "evaluated again");
+            Assert.fail("Expected a timeout");
+        } catch (UncheckedTimeoutException e) {
+            // expected
+        }
+        // other keys are not affected
+        Assert.assertEquals("other", singleFlight.execute("other", () -> "other"));
+
+        release.countDown();
+        Assert.assertEquals("result", leader.get());
+    }
+
+    @Test
+    public void testWaitingCallersTakeOverIfEvaluationIsInterrupted() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>(10, TimeUnit.SECONDS);
+        CountDownLatch started = new CountDownLatch(1);
+
+        Future<String> leader = executor.submit(() -> singleFlight.execute("q", () -> {
+            started.countDown();
+            new CountDownLatch(1).await();
+            return "never";
+        }));
+        started.await();
+        Future<String> follower = executor.submit(() -> singleFlight.execute("q", () -> "taken over"));
+        Thread.sleep(100);
+        leader.cancel(true);
+
+        Assert.assertEquals("taken over", follower.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, singleFlight.getEvaluationCount());
+    }
+
+    private static void assertFailsWith(Future<?> future, Class<? extends Throwable> expected) throws InterruptedException {
+        try {
+            future.get();
+            Assert.fail("Expected " + expected.getSimpleName());
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause().toString(), expected.isInstance(e.getCause()));
+        }
+    }
+}
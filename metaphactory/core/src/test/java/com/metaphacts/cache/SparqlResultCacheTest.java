@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.Set;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.metaphacts.api.sparql.SparqlUtil.SparqlOperation;
+import com.metaphacts.cache.SparqlResultCache.CachedResult;
+import com.metaphacts.cache.SparqlResultCache.CapturingOutputStream;
+import com.metaphacts.cache.SparqlResultCache.Key;
+import com.metaphacts.junit.AbstractIntegrationTest;
+import com.metaphacts.repository.CacheInvalidatingRepository;
+
+/**
+ * Test cases for {@link SparqlResultCache}.
+ */
+public class SparqlResultCacheTest extends AbstractIntegrationTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final IRI USER = vf.createIRI("http://www.metaphacts.com/resource/user/admin");
+    private static final String FORMAT = "application/sparql-results+json";
+    private static final String QUERY = "SELECT * WHERE { ?s ?p ?o } LIMIT 10";
+
+    private static final Set<SparqlOperation> READ = EnumSet.of(
+        SparqlOperation.SELECT, SparqlOperation.ASK, SparqlOperation.CONSTRUCT, SparqlOperation.DESCRIBE);
+
+    private SailRepository sailRepository;
+    private CacheInvalidatingRepository repository;
+    private SparqlResultCache resultCache;
+
+    @Before
+    public void setUp() {
+        config.getUiConfig().setParameter("sparqlResultCacheEnabled", "true");
+        config.getUiConfig().setParameter("sparqlResultCacheMaxEntryKB", "1");
+        sailRepository = new SailRepository(new MemoryStore());
+        sailRepository.initialize();
+        repository = new CacheInvalidatingRepository(sailRepository, new CacheManager(), () -> 1000, null);
+        resultCache = new SparqlResultCache(config, new CacheManager());
+    }
+
+    @After
+    public void tearDown() {
+        sailRepository.shutDown();
+    }
+
+    private Optional<Key> key(String query, SparqlOperation type, Set<SparqlOperation> permissions) {
+        return resultCache.createKey(repository, "default", query, type, Optional.of(USER), permissions, FORMAT);
+    }
+
+    private Optional<CachedResult> cache(Key key, String content) throws Exception {
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        CapturingOutputStream capture = resultCache.capture(response);
+        capture.write(content.getBytes(StandardCharsets.UTF_8));
+        capture.flush();
+        Assert.assertEquals(content, new String(response.toByteArray(), StandardCharsets.UTF_8));
+        return resultCache.put(key, capture, FORMAT);
+    }
+
+    @Test
+    public void testEquivalentQueriesShareEntry() throws Exception {
+        Key key = key(QUERY, SparqlOperation.SELECT, READ).get();
+        cache(key, "result");
+
+        // differs in whitespace only
+        Optional<Key> reformatted = key("SELECT *  WHERE {  ?s ?p ?o }\tLIMIT 10 ", SparqlOperation.SELECT, READ);
+        Assert.assertTrue(resultCache.get(reformatted.get()).isPresent());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        resultCache.get(key).get().writeTo(out);
+        Assert.assertEquals("result", new String(out.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testKeyDependsOnPermissionsAndUser() throws Exception {
+        Key key = key(QUERY, SparqlOperation.SELECT, READ).get();
+        Assert.assertNotEquals(key, key(QUERY, SparqlOperation.SELECT, EnumSet.of(SparqlOperation.SELECT)).get());
+
+        // the user is only part of the key if the query depends on it
+        String userQuery = "SELECT * WHERE { ?__useruri__ ?p ?o }";
+        Optional<Key> withUser = key(userQuery, SparqlOperation.SELECT, READ);
+        Optional<Key> otherUser = resultCache.createKey(repository, "default", userQuery, SparqlOperation.SELECT,
+            Optional.of(vf.createIRI("http://www.metaphacts.com/resource/user/guest")), READ, FORMAT);
+        Assert.assertNotEquals(withUser.get(), otherUser.get());
+        Assert.assertEquals(key, resultCache.createKey(repository, "default", QUERY, SparqlOperation.SELECT,
+            Optional.empty(), READ, FORMAT).get());
+    }
+
+    @Test
+    public void testWritesMakeEntriesUnreachable() throws Exception {
+        Key key = key(QUERY, SparqlOperation.SELECT, READ).get();
+        cache(key, "result");
+        Assert.assertTrue(resultCache.get(key(QUERY, SparqlOperation.SELECT, READ).get()).isPresent());
+
+        try (RepositoryConnection con = repository.getConnection()) {
+            con.add(vf.createBNode(), RDFS.LABEL, vf.createLiteral("label"));
+        }
+        Assert.assertFalse(resultCache.get(key(QUERY, SparqlOperation.SELECT, READ).get()).isPresent());
+    }
+
+    @Test
+    public void testUncacheableOperations() {
+        Assert.assertFalse(key("INSERT DATA { <urn:a> <urn:b> <urn:c> }", SparqlOperation.UPDATE, READ).isPresent());
+        Assert.assertFalse(key(QUERY + " #nocache", SparqlOperation.SELECT, READ).isPresent());
+        // repositories which do not track writes
+        Assert.assertFalse(resultCache.createKey(sailRepository, "default", QUERY, SparqlOperation.SELECT,
+            Optional.of(USER), READ, FORMAT).isPresent());
+
+        config.getUiConfig().setParameter("sparqlResultCacheEnabled", "false");
+        Assert.assertFalse(key(QUERY, SparqlOperation.SELECT, READ).isPresent());
+    }
+
+    @Test
+    public void testLargeResultsAreNotCached() throws Exception {
+        Key key = key(QUERY, SparqlOperation.SELECT, READ).get();
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 2048; i++) {
+            large.append('x');
+        }
+        Assert.assertFalse(cache(key, large.toString()).isPresent());
+        Assert.assertFalse(resultCache.get(key).isPresent());
+    }
+
+    @Test
+    public void testConditionalRequests() throws Exception {
+        CachedResult result = cache(key(QUERY, SparqlOperation.SELECT, READ).get(), "result").get();
+        Assert.assertTrue(result.isNotModified(result.getETag(), -1));
+        Assert.assertTrue(result.isNotModified("\"other\", W/" + result.getETag(), -1));
+        Assert.assertFalse(result.isNotModified("\"other\"", result.getLastModified()));
+        Assert.assertTrue(result.isNotModified(null, result.getLastModified()));
+        Assert.assertFalse(result.isNotModified(null, result.getLastModified() - 1000));
+        Assert.assertFalse(result.isNotModified(null, -1));
+    }
+
+    @Test
+    public void testValidatorsAreDeterminedWithKey() throws Exception {
+        Key key = key(QUERY, SparqlOperation.SELECT, READ).get();
+        Thread.sleep(1100);
+        CachedResult result = cache(key, "result").get();
+        // the response of the evaluation carries the validators of the key
+        Assert.assertEquals(key.getETag(), result.getETag());
+        Assert.assertEquals(key.getLastModified(), result.getLastModified());
+        Assert.assertTrue(result.isNotModified(null, key.getLastModified()));
+
+        // the entity tag changes with the generation
+        try (RepositoryConnection con = repository.getConnection()) {
+            con.add(vf.createBNode(), RDFS.LABEL, vf.createLiteral("label"));
+        }
+        Assert.assertNotEquals(key.getETag(), key(QUERY, SparqlOperation.SELECT, READ).get().getETag());
+    }
+
+    @Test
+    public void testEntriesExpire() throws Exception {
+        config.getUiConfig().setParameter("sparqlResultCacheTtlSeconds", "1");
+        resultCache = new SparqlResultCache(config, new CacheManager());
+        Key key = key(QUERY, SparqlOperation.SELECT, READ).get();
+        cache(key, "result");
+        Assert.assertTrue(resultCache.get(key).isPresent());
+        Thread.sleep(1100);
+        // e.g. remote repositories, which are written to without changing the generation
+        Assert.assertFalse(resultCache.get(key).isPresent());
+    }
+}
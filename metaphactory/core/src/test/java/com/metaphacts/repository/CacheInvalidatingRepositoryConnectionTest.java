@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.repository;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.Update;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+import com.metaphacts.cache.CacheManager;
+import com.metaphacts.cache.PlatformCache;
+
+/**
+ * Test cases for {@link CacheInvalidatingRepositoryConnection}.
+ */
+public class CacheInvalidatingRepositoryConnectionTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final String NS = "http://www.metaphacts.com/test/";
+    private static final IRI S1 = vf.createIRI(NS, "s1");
+    private static final IRI S2 = vf.createIRI(NS, "s2");
+
+    private SailRepository repository;
+    private RecordingCache cache;
+    private CacheManager cacheManager;
+
+    @Before
+    public void setUp() {
+        repository = new SailRepository(new MemoryStore());
+        repository.initialize();
+        cache = new RecordingCache();
+        cacheManager = new CacheManager();
+        cacheManager.register(cache);
+    }
+
+    @After
+    public void tearDown() {
+        repository.shutDown();
+    }
+
+    private RepositoryConnection getConnection(int maxResources) {
+        return new CacheInvalidatingRepository(repository, cacheManager, () -> maxResources, null).getConnection();
+    }
+
+    @Test
+    public void testAddInAutoCommitMode() {
+        try (RepositoryConnection con = getConnection(10)) {
+            con.add(S1, RDFS.LABEL, vf.createLiteral("label"));
+        }
+        Assert.assertEquals(Sets.newHashSet(S1), cache.invalidated);
+        Assert.assertEquals(0, cache.invalidatedAll);
+    }
+
+    @Test
+    public void testInvalidationHappensOnCommit() {
+        try (RepositoryConnection con = getConnection(10)) {
+            con.begin();
+            con.add(S1, RDFS.LABEL, vf.createLiteral("label"));
+            con.remove(S2, RDFS.LABEL, null);
+            Assert.assertTrue(cache.invalidated.isEmpty());
+            con.commit();
+        }
+        Assert.assertEquals(Sets.newHashSet(S1, S2), cache.invalidated);
+    }
+
+    @Test
+    public void testNoInvalidationOnRollback() {
+        try (RepositoryConnection con = getConnection(10)) {
+            con.begin();
+            con.add(S1, RDFS.LABEL, vf.createLiteral("label"));
+            con.rollback();
+        }
+        Assert.assertTrue(cache.invalidated.isEmpty());
+        Assert.assertEquals(0, cache.invalidatedAll);
+    }
+
+    @Test
+    public void testClearRecordsSubjectsOfContext() {
+        IRI graph = vf.createIRI(NS, "graph");
+        try (RepositoryConnection con = repository.getConnection()) {
+            con.add(S1, RDFS.LABEL, vf.createLiteral("label 1"), graph);
+            con.add(S2, RDFS.LABEL, vf.createLiteral("label 2"));
+        }
+        try (RepositoryConnection con = getConnection(10)) {
+            con.clear(graph);
+        }
+        Assert.assertEquals(Sets.newHashSet(S1), cache.invalidated);
+    }
+
+    @Test
+    public void testInsertAndDeleteData() {
+        try (RepositoryConnection con = getConnection(10)) {
+            con.prepareUpdate(QueryLanguage.SPARQL,
+                "PREFIX ns: <" + NS + "> "
+                + "INSERT DATA { ns:s1 <" + RDFS.LABEL + "> \"label\" }; "
+                + "DELETE DATA { <" + S2 + "> <" + RDFS.LABEL + "> \"label\" }"
+            ).execute();
+        }
+        Assert.assertEquals(Sets.newHashSet(S1, S2), cache.invalidated);
+    }
+
+    @Test
+    public void testModifyWithBoundSubject() {
+        try (RepositoryConnection con = getConnection(10)) {
+            con.begin();
+            Update update = con.prepareUpdate(QueryLanguage.SPARQL,
+                "DELETE { ?s <" + RDFS.LABEL + "> ?o } WHERE { ?s <" + RDFS.LABEL + "> ?o }");
+            update.setBinding("s", S1);
+            update.execute();
+            con.commit();
+        }
+        Assert.assertEquals(Sets.newHashSet(S1), cache.invalidated);
+    }
+
+    @Test
+    public void testModifyWithVariableSubjectInvalidatesAll() {
+        try (RepositoryConnection con = getConnection(10)) {
+            con.prepareUpdate(QueryLanguage.SPARQL,
+                "DELETE { ?s <" + RDFS.LABEL + "> ?o } WHERE { ?s <" + RDFS.LABEL + "> ?o }").execute();
+        }
+        Assert.assertEquals(1, cache.invalidatedAll);
+    }
+
+    @Test
+    public void testGenerationIsIncrementedByWrites() throws Exception {
+        File generationFile = new File(Files.createTempDirectory("generation").toFile(), "default.generation");
+        CacheInvalidatingRepository wrapper = new CacheInvalidatingRepository(
+            repository, cacheManager, () -> 10, generationFile);
+        Assert.assertEquals(0, wrapper.getGeneration());
+
+        try (RepositoryConnection con = wrapper.getConnection()) {
+            con.add(S1, RDFS.LABEL, vf.createLiteral("label"));
+            con.begin();
+            con.add(S2, RDFS.LABEL, vf.createLiteral("label"));
+            con.rollback();
+        }
+        Assert.assertEquals(1, wrapper.getGeneration());
+
+        // generation survives re-initialization
+        Assert.assertEquals(1, new CacheInvalidatingRepository(
+            repository, cacheManager, () -> 10, generationFile).getGeneration());
+    }
+
+    @Test
+    public void testGenerationIsIncrementedByBlankNodeWrites() {
+        CacheInvalidatingRepository wrapper = new CacheInvalidatingRepository(
+            repository, cacheManager, () -> 10, null);
+        try (RepositoryConnection con = wrapper.getConnection()) {
+            con.add(vf.createBNode(), RDFS.LABEL, vf.createLiteral("label"));
+        }
+        // no cached resource is affected, but results of queries may be
+        Assert.assertEquals(1, wrapper.getGeneration());
+        Assert.assertTrue(cache.invalidated.isEmpty());
+        Assert.assertEquals(0, cache.invalidatedAll);
+    }
+
+    @Test
+    public void testFallbackToFullInvalidation() {
+        try (RepositoryConnection con = getConnection(1)) {
+            con.begin();
+            con.add(S1, RDFS.LABEL, vf.createLiteral("label 1"));
+            con.add(S2, RDFS.LABEL, vf.createLiteral("label 2"));
+            con.commit();
+        }
+        Assert.assertTrue(cache.invalidated.isEmpty());
+        Assert.assertEquals(1, cache.invalidatedAll);
+    }
+
+    private static class RecordingCache implements PlatformCache {
+        private final Set<IRI> invalidated = Sets.newHashSet();
+        private int invalidatedAll = 0;
+
+        @Override
+        public void invalidate() {
+            invalidatedAll++;
+        }
+
+        @Override
+        public void invalidate(List<IRI> iris) {
+            invalidated.addAll(iris);
+        }
+
+        @Override
+        public String getId() {
+            return "RecordingCache";
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.repository.federation.evaluation;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.metaphacts.repository.federation.evaluation.AdaptiveBlockSize.Stats;
+
+/**
+ * Test cases for {@link AdaptiveBlockSize}.
+ */
+public class AdaptiveBlockSizeTest {
+
+    @Test
+    public void testGrowsWithinTargets() {
+        AdaptiveBlockSize size = new AdaptiveBlockSize("member", 3, 20, 100, 1000);
+        Assert.assertEquals(3, size.getBlockSize());
+        size.completed(3, 10, 30);
+        Assert.assertEquals(6, size.getBlockSize());
+        size.completed(6, 10, 60);
+        Assert.assertEquals(12, size.getBlockSize());
+        // the last, partial block of a query does not let the size grow
+        size.completed(5, 10, 50);
+        Assert.assertEquals(12, size.getBlockSize());
+        // bounded by the maximum
+        size.completed(12, 10, 120);
+        Assert.assertEquals(20, size.getBlockSize());
+        size.completed(20, 10, 200);
+        Assert.assertEquals(20, size.getBlockSize());
+    }
+
+    @Test
+    public void testHoldsCloseToTargets() {
+        AdaptiveBlockSize size = new AdaptiveBlockSize("member", 3, 1000, 100, 1000);
+        size.completed(3, 10, 10);
+        Assert.assertEquals(6, size.getBlockSize());
+        // a block of twice the size would likely exceed the targets
+        size.completed(6, 60, 10);
+        Assert.assertEquals(6, size.getBlockSize());
+        size.completed(6, 10, 600);
+        Assert.assertEquals(6, size.getBlockSize());
+    }
+
+    @Test
+    public void testBacksOffOnSlowAndFailedBlocks() {
+        AdaptiveBlockSize size = new AdaptiveBlockSize("member", 2, 1000, 100, 1000);
+        for (int i = 0; i < 6; i++) {
+            size.completed(size.getBlockSize(), 1, 1);
+        }
+        Assert.assertEquals(128, size.getBlockSize());
+        size.completed(128, 500, 10);
+        Assert.assertEquals(64, size.getBlockSize());
+        size.completed(64, 10, 5000);
+        Assert.assertEquals(32, size.getBlockSize());
+        size.failed(32);
+        Assert.assertEquals(16, size.getBlockSize());
+        // bounded by the minimum
+        for (int i = 0; i < 10; i++) {
+            size.failed(size.getBlockSize());
+        }
+        Assert.assertEquals(2, size.getBlockSize());
+
+        Stats stats = size.getStats();
+        Assert.assertEquals("member", stats.getMember());
+        Assert.assertEquals(19, stats.getBlocks());
+        Assert.assertEquals(2, stats.getSlowBlocks());
+        Assert.assertEquals(11, stats.getFailedBlocks());
+        Assert.assertEquals(19, stats.getRecentBlocks().size());
+        Assert.assertTrue(stats.getRecentBlocks().get(stats.getRecentBlocks().size() - 1).isFailed());
+    }
+
+    @Test
+    public void testRecentBlocksAreBounded() {
+        AdaptiveBlockSize size = new AdaptiveBlockSize("member", 2, 2, 100, 1000);
+        for (int i = 0; i < 2 * AdaptiveBlockSize.RECENT_BLOCKS; i++) {
+            size.completed(2, i, 1);
+        }
+        Stats stats = size.getStats();
+        Assert.assertEquals(AdaptiveBlockSize.RECENT_BLOCKS, stats.getRecentBlocks().size());
+        Assert.assertEquals(AdaptiveBlockSize.RECENT_BLOCKS, stats.getRecentBlocks().get(0).getMillis());
+        // a fixed block size
+        Assert.assertEquals(2, stats.getBlockSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRange() {
+        new AdaptiveBlockSize("member", 10, 5, 100, 1000);
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.repository.federation.evaluation;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.Lists;
+import com.metaphacts.repository.federation.evaluation.AdaptiveBlockSize.Stats;
+import com.metaphacts.sparql.MpOwnedTupleExpr;
+
+/**
+ * Compares the fixed bound join block size of 10 bindings used so far with
+ * the adaptive block size, for a sequence of queries against a simulated
+ * high-latency member (round trip of 50 ms, rejecting blocks of more than 500
+ * bindings) and a simulated local member (round trip of 1 ms). Also compares
+ * the throughput for different numbers of concurrently evaluated blocks, with
+ * and without preserving the order of the blocks.
+ *
+ * Only executed if the system property <code>metaphacts.benchmark</code> is
+ * set to <code>true</code>.
+ */
+public class ParallelBoundJoinCursorBenchmarkTest {
+    private static final Logger logger = LogManager.getLogger(ParallelBoundJoinCursorBenchmarkTest.class);
+
+    private static final ValueFactory VF = SimpleValueFactory.getInstance();
+
+    private static final int LEFT_BINDINGS = 2000;
+    private static final int QUERIES = 5;
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean("metaphacts.benchmark"));
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void benchmarkHighLatencyMember() throws Exception {
+        MpFederationStrategy strategy = simulateMember(50, 20, 500);
+        run("high latency, fixed", strategy, new AdaptiveBlockSize("remote", 10, 10, 1000, 10000), 1, false);
+        run("high latency, adaptive", strategy, new AdaptiveBlockSize("remote", 3, 1000, 1000, 10000), 1, false);
+    }
+
+    @Test
+    public void benchmarkLowLatencyMember() throws Exception {
+        MpFederationStrategy strategy = simulateMember(1, 200, Integer.MAX_VALUE);
+        run("low latency, fixed", strategy, new AdaptiveBlockSize("local", 10, 10, 1000, 10000), 1, false);
+        run("low latency, adaptive", strategy, new AdaptiveBlockSize("local", 3, 1000, 1000, 10000), 1, false);
+    }
+
+    @Test
+    public void benchmarkConcurrentBlocks() throws Exception {
+        MpFederationStrategy strategy = simulateMember(50, 20, 500);
+        for (int window : new int[] { 1, 2, 4, 8 }) {
+            run("high latency, " + window + " concurrent blocks, unordered", strategy,
+                new AdaptiveBlockSize("remote", 10, 10, 1000, 10000), window, false);
+            run("high latency, " + window + " concurrent blocks, ordered", strategy,
+                new AdaptiveBlockSize("remote", 10, 10, 1000, 10000), window, true);
+        }
+        run("high latency, adaptive, 4 concurrent blocks, unordered", strategy,
+            new AdaptiveBlockSize("remote", 3, 1000, 1000, 10000), 4, false);
+    }
+
+    private void run(
+        String name, MpFederationStrategy strategy, AdaptiveBlockSize blockSize, int maxConcurrentBlocks,
+        boolean preserveOrder
+    ) throws Exception {
+        for (int query = 0; query < QUERIES; query++) {
+            long start = System.nanoTime();
+            ParallelBoundJoinCursor cursor = new ParallelBoundJoinCursor(strategy, executor, left(),
+                    mock(MpOwnedTupleExpr.class), blockSize, maxConcurrentBlocks, preserveOrder);
+            executor.execute(cursor);
+            long results = 0;
+            try {
+                while (cursor.hasNext()) {
+                    cursor.next();
+                    results++;
+                }
+            } finally {
+                cursor.close();
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Stats stats = blockSize.getStats();
+            logger.info("{}, query {}: {} ms, {} results, block size {}, {} blocks, {} slow, {} failed",
+                name, query + 1, millis, results, stats.getBlockSize(), stats.getBlocks(),
+                stats.getSlowBlocks(), stats.getFailedBlocks());
+        }
+    }
+
+    private static CloseableIteration<BindingSet, QueryEvaluationException> left() {
+        List<BindingSet> left = Lists.newArrayListWithCapacity(LEFT_BINDINGS);
+        for (int i = 0; i < LEFT_BINDINGS; i++) {
+            QueryBindingSet bindingSet = new QueryBindingSet();
+            bindingSet.addBinding("x", VF.createLiteral(i));
+            left.add(bindingSet);
+        }
+        return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(left.iterator());
+    }
+
+    /**
+     * @param roundTripMillis
+     *            latency of each request
+     * @param bindingsPerMilli
+     *            number of bindings evaluated per millisecond
+     * @param capacity
+     *            largest block the member accepts
+     */
+    @SuppressWarnings("unchecked")
+    private static MpFederationStrategy simulateMember(
+        final long roundTripMillis, final int bindingsPerMilli, final int capacity
+    ) throws Exception {
+        MpFederationStrategy strategy = mock(MpFederationStrategy.class);
+        when(strategy.evaluate(Matchers.any(MpOwnedTupleExpr.class), Matchers.any(BindingSet.class)))
+                .thenAnswer(new Answer<CloseableIteration<BindingSet, QueryEvaluationException>>() {
+                    @Override
+                    public CloseableIteration<BindingSet, QueryEvaluationException> answer(
+                            InvocationOnMock invocation) throws Throwable {
+                        Thread.sleep(roundTripMillis);
+                        return join(Lists.newArrayList((BindingSet) invocation.getArguments()[1]));
+                    }
+                });
+        when(strategy.evaluateUsingBoundJoin(Matchers.any(MpOwnedTupleExpr.class),
+                Matchers.anyListOf(BindingSet.class), Matchers.anySetOf(String.class)))
+                .thenAnswer(new Answer<CloseableIteration<BindingSet, QueryEvaluationException>>() {
+                    @Override
+                    public CloseableIteration<BindingSet, QueryEvaluationException> answer(
+                            InvocationOnMock invocation) throws Throwable {
+                        List<BindingSet> bindingSets = (List<BindingSet>) invocation.getArguments()[1];
+                        Thread.sleep(roundTripMillis);
+                        if (bindingSets.size() > capacity) {
+                            throw new QueryEvaluationException("Request too large");
+                        }
+                        Thread.sleep(bindingSets.size() / bindingsPerMilli);
+                        return join(bindingSets);
+                    }
+                });
+        return strategy;
+    }
+
+    private static CloseableIteration<BindingSet, QueryEvaluationException> join(List<BindingSet> bindingSets) {
+        List<BindingSet> result = Lists.newArrayListWithCapacity(bindingSets.size());
+        for (BindingSet bindingSet : bindingSets) {
+            QueryBindingSet joined = new QueryBindingSet(bindingSet);
+            joined.addBinding("y", VF.createLiteral(1));
+            result.add(joined);
+        }
+        return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(result.iterator());
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.repository.federation.evaluation;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.CloseableIteratorIteration;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.metaphacts.sparql.MpOwnedTupleExpr;
+
+/**
+ * Test cases for the block handling of {@link ParallelBoundJoinCursor}, with a
+ * federation member simulated by a mocked {@link MpFederationStrategy}.
+ */
+public class ParallelBoundJoinCursorTest {
+
+    private static final ValueFactory VF = SimpleValueFactory.getInstance();
+
+    private static final int LEFT_BINDINGS = 41;
+
+    private MpFederationStrategy strategy;
+
+    private MpOwnedTupleExpr rightArg;
+
+    /**
+     * Largest block the simulated member can evaluate.
+     */
+    private int capacity;
+
+    /**
+     * Time the simulated member takes to evaluate a block.
+     */
+    private long delayMillis;
+
+    /**
+     * Whether the simulated member takes longer for the earlier blocks.
+     */
+    private boolean slowerForEarlierBlocks;
+
+    private final AtomicInteger evaluations = new AtomicInteger();
+    private final AtomicInteger concurrentEvaluations = new AtomicInteger();
+    private final AtomicInteger maxConcurrentEvaluations = new AtomicInteger();
+    private final AtomicInteger interruptedEvaluations = new AtomicInteger();
+
+    private ExecutorService executor;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        capacity = Integer.MAX_VALUE;
+        delayMillis = 0;
+        slowerForEarlierBlocks = false;
+        executor = Executors.newCachedThreadPool();
+        strategy = mock(MpFederationStrategy.class);
+        rightArg = mock(MpOwnedTupleExpr.class);
+        when(strategy.evaluate(Matchers.any(MpOwnedTupleExpr.class), Matchers.any(BindingSet.class)))
+                .thenAnswer(new Answer<CloseableIteration<BindingSet, QueryEvaluationException>>() {
+                    @Override
+                    public CloseableIteration<BindingSet, QueryEvaluationException> answer(
+                            InvocationOnMock invocation) throws Throwable {
+                        return join(Lists.newArrayList((BindingSet) invocation.getArguments()[1]));
+                    }
+                });
+        when(strategy.evaluateUsingBoundJoin(Matchers.any(MpOwnedTupleExpr.class),
+                Matchers.anyListOf(BindingSet.class), Matchers.anySetOf(String.class)))
+                .thenAnswer(new Answer<CloseableIteration<BindingSet, QueryEvaluationException>>() {
+                    @Override
+                    public CloseableIteration<BindingSet, QueryEvaluationException> answer(
+                            InvocationOnMock invocation) throws Throwable {
+                        List<BindingSet> bindingSets = (List<BindingSet>) invocation.getArguments()[1];
+                        if (bindingSets.size() > capacity) {
+                            throw new QueryEvaluationException("Block of " + bindingSets.size() + " bindings too large");
+                        }
+                        simulateLatency(bindingSets);
+                        return join(bindingSets);
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private void simulateLatency(List<BindingSet> bindingSets) {
+        evaluations.incrementAndGet();
+        int concurrent = concurrentEvaluations.incrementAndGet();
+        try {
+            synchronized (maxConcurrentEvaluations) {
+                maxConcurrentEvaluations.set(Math.max(maxConcurrentEvaluations.get(), concurrent));
+            }
+            long millis = delayMillis;
+            if (slowerForEarlierBlocks) {
+                int x = Integer.parseInt(bindingSets.get(0).getValue("x").stringValue());
+                millis = (LEFT_BINDINGS - x) * delayMillis;
+            }
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            interruptedEvaluations.incrementAndGet();
+            throw new QueryEvaluationException(e);
+        } finally {
+            concurrentEvaluations.decrementAndGet();
+        }
+    }
+
+    private static CloseableIteration<BindingSet, QueryEvaluationException> join(List<BindingSet> bindingSets) {
+        List<BindingSet> result = Lists.newArrayList();
+        for (BindingSet bindingSet : bindingSets) {
+            QueryBindingSet joined = new QueryBindingSet(bindingSet);
+            joined.addBinding("y", VF.createLiteral("y" + bindingSet.getValue("x").stringValue()));
+            result.add(joined);
+        }
+        return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(result.iterator());
+    }
+
+    private ParallelBoundJoinCursor createCursor(AdaptiveBlockSize blockSize) throws Exception {
+        return createCursor(blockSize, 1, false);
+    }
+
+    private ParallelBoundJoinCursor createCursor(
+        AdaptiveBlockSize blockSize, int maxConcurrentBlocks, boolean preserveOrder
+    ) throws Exception {
+        List<BindingSet> left = Lists.newArrayList();
+        for (int i = 0; i < LEFT_BINDINGS; i++) {
+            QueryBindingSet bindingSet = new QueryBindingSet();
+            bindingSet.addBinding("x", VF.createLiteral(i));
+            left.add(bindingSet);
+        }
+        ParallelBoundJoinCursor cursor = new ParallelBoundJoinCursor(strategy, executor,
+                new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(left.iterator()),
+                rightArg, blockSize, maxConcurrentBlocks, preserveOrder);
+        executor.execute(cursor);
+        return cursor;
+    }
+
+    private static Set<Integer> consume(ParallelBoundJoinCursor cursor) {
+        return Sets.newHashSet(consumeInOrder(cursor));
+    }
+
+    private static List<Integer> consumeInOrder(ParallelBoundJoinCursor cursor) {
+        List<Integer> values = Lists.newArrayList();
+        try {
+            while (cursor.hasNext()) {
+                BindingSet next = cursor.next();
+                int x = Integer.parseInt(next.getValue("x").stringValue());
+                Assert.assertEquals("y" + x, next.getValue("y").stringValue());
+                values.add(x);
+            }
+        } finally {
+            cursor.close();
+        }
+        return values;
+    }
+
+    @Test
+    public void testAllBindingsJoined() throws Exception {
+        AdaptiveBlockSize blockSize = new AdaptiveBlockSize("member", 2, 16, 10000, 100000);
+        Assert.assertEquals(LEFT_BINDINGS, consume(createCursor(blockSize)).size());
+
+        Assert.assertEquals(0, blockSize.getStats().getFailedBlocks());
+        // how far the size grows depends on how far the evaluation runs ahead of the consumer
+        Assert.assertTrue(blockSize.getBlockSize() > 2);
+    }
+
+    @Test
+    public void testFailedBlocksAreSplit() throws Exception {
+        capacity = 4;
+        AdaptiveBlockSize blockSize = new AdaptiveBlockSize("member", 2, 16, 10000, 100000);
+        // the size learned from earlier queries
+        blockSize.completed(2, 0, 0);
+        blockSize.completed(4, 0, 0);
+        blockSize.completed(8, 0, 0);
+        Assert.assertEquals(16, blockSize.getBlockSize());
+
+        Assert.assertEquals(LEFT_BINDINGS, consume(createCursor(blockSize)).size());
+
+        // the block of 16 bindings and both of its halves
+        Assert.assertTrue(blockSize.getStats().getFailedBlocks() >= 3);
+        for (AdaptiveBlockSize.BlockTiming timing : blockSize.getStats().getRecentBlocks()) {
+            Assert.assertTrue(timing.isFailed() || timing.getSize() <= capacity);
+        }
+    }
+
+    @Test(expected = QueryEvaluationException.class)
+    public void testFailureAtMinimumBlockSize() throws Exception {
+        capacity = 1;
+        AdaptiveBlockSize blockSize = new AdaptiveBlockSize("member", 2, 16, 10000, 100000);
+        consume(createCursor(blockSize));
+    }
+
+    @Test
+    public void testConcurrentBlocksUnordered() throws Exception {
+        delayMillis = 20;
+        AdaptiveBlockSize blockSize = new AdaptiveBlockSize("member", 2, 2, 10000, 100000);
+        Assert.assertEquals(LEFT_BINDINGS, consume(createCursor(blockSize, 4, false)).size());
+        Assert.assertTrue(maxConcurrentEvaluations.get() > 1);
+        Assert.assertTrue(maxConcurrentEvaluations.get() <= 4);
+    }
+
+    @Test
+    public void testConcurrentBlocksPreserveOrder() throws Exception {
+        delayMillis = 2;
+        slowerForEarlierBlocks = true;
+        AdaptiveBlockSize blockSize = new AdaptiveBlockSize("member", 2, 2, 10000, 100000);
+        List<Integer> values = consumeInOrder(createCursor(blockSize, 4, true));
+        Assert.assertEquals(LEFT_BINDINGS, values.size());
+        for (int i = 0; i < LEFT_BINDINGS; i++) {
+            Assert.assertEquals(i, values.get(i).intValue());
+        }
+        Assert.assertTrue(maxConcurrentEvaluations.get() <= 4);
+    }
+
+    @Test
+    public void testBlocksWaitForConsumer() throws Exception {
+        AdaptiveBlockSize blockSize = new AdaptiveBlockSize("member", 2, 2, 10000, 100000);
+        ParallelBoundJoinCursor cursor = createCursor(blockSize, 2, false);
+        try {
+            Assert.assertTrue(cursor.hasNext());
+            cursor.next();
+            Thread.sleep(200);
+            // the single binding evaluated ahead and one block, until the consumer proceeds
+            Assert.assertEquals(1, evaluations.get());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testCloseCancelsOutstandingBlocks() throws Exception {
+        delayMillis = 60000;
+        when(strategy.evaluate(Matchers.any(MpOwnedTupleExpr.class), Matchers.any(BindingSet.class)))
+                .thenAnswer(new Answer<CloseableIteration<BindingSet, QueryEvaluationException>>() {
+                    @Override
+                    public CloseableIteration<BindingSet, QueryEvaluationException> answer(
+                            InvocationOnMock invocation) throws Throwable {
+                        List<BindingSet> bindingSets = Lists.newArrayList((BindingSet) invocation.getArguments()[1]);
+                        simulateLatency(bindingSets);
+                        return join(bindingSets);
+                    }
+                });
+        AdaptiveBlockSize blockSize = new AdaptiveBlockSize("member", 2, 2, 10000, 100000);
+        ParallelBoundJoinCursor cursor = createCursor(blockSize, 3, false);
+        // wait until the single binding and two blocks are evaluated
+        long deadline = System.currentTimeMillis() + 10000;
+        while (concurrentEvaluations.get() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(3, concurrentEvaluations.get());
+        cursor.close();
+
+        deadline = System.currentTimeMillis() + 10000;
+        while (concurrentEvaluations.get() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(0, concurrentEvaluations.get());
+        Assert.assertEquals(3, interruptedEvaluations.get());
+        Assert.assertEquals(3, evaluations.get());
+    }
+}
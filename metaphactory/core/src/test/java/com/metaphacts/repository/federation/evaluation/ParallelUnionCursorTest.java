@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.repository.federation.evaluation;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.LookAheadIteration;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.algebra.EmptySet;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.evaluation.QueryBindingSet;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Test cases for {@link ParallelUnionCursor}, with the branches of the union
+ * simulated by a mocked {@link MpFederationStrategy}.
+ */
+public class ParallelUnionCursorTest {
+
+    private static final ValueFactory VF = SimpleValueFactory.getInstance();
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    private MpFederationStrategy strategy;
+
+    private final Map<TupleExpr, SimulatedBranch> branches = new IdentityHashMap<>();
+
+    private final List<Thread> branchStrategyThreads = Collections.synchronizedList(Lists.newArrayList());
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        executor = Executors.newCachedThreadPool();
+        strategy = mock(MpFederationStrategy.class);
+        when(strategy.evaluate(Matchers.any(TupleExpr.class), Matchers.any(BindingSet.class)))
+                .thenAnswer(new Answer<CloseableIteration<BindingSet, QueryEvaluationException>>() {
+                    @Override
+                    public CloseableIteration<BindingSet, QueryEvaluationException> answer(
+                            InvocationOnMock invocation) throws Throwable {
+                        return branches.get(invocation.getArguments()[0]);
+                    }
+                });
+        when(strategy.createBranchStrategy()).thenAnswer(invocation -> {
+            branchStrategyThreads.add(Thread.currentThread());
+            return strategy;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private TupleExpr branch(SimulatedBranch branch) {
+        TupleExpr expr = new EmptySet();
+        branches.put(expr, branch);
+        return expr;
+    }
+
+    private ParallelUnionCursor createCursor(int capacity, long limit, SimulatedBranch... simulated) {
+        List<TupleExpr> exprs = Lists.newArrayList();
+        for (SimulatedBranch branch : simulated) {
+            exprs.add(branch(branch));
+        }
+        return new ParallelUnionCursor(strategy, executor, exprs, EmptyBindingSet.getInstance(), capacity,
+                limit);
+    }
+
+    private static void awaitTrue(String message, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                Assert.fail(message);
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testAllResults() throws Exception {
+        SimulatedBranch first = new SimulatedBranch("first", 100);
+        SimulatedBranch second = new SimulatedBranch("second", 50);
+        SimulatedBranch empty = new SimulatedBranch("empty", 0);
+        int[] counts = new int[2];
+        try (ParallelUnionCursor cursor = createCursor(10, -1, first, second, empty)) {
+            while (cursor.hasNext()) {
+                String branch = cursor.next().getValue("branch").stringValue();
+                counts[branch.equals("first") ? 0 : 1]++;
+            }
+        }
+        Assert.assertEquals(100, counts[0]);
+        Assert.assertEquals(50, counts[1]);
+        awaitTrue("Branches have not been closed", () -> first.closed.get() && second.closed.get()
+                && empty.closed.get());
+    }
+
+    @Test
+    public void testBranchStrategiesCreatedByCaller() throws Exception {
+        SimulatedBranch first = new SimulatedBranch("first", 10);
+        SimulatedBranch second = new SimulatedBranch("second", 10);
+        try (ParallelUnionCursor cursor = createCursor(10, -1, first, second)) {
+            // the evaluation mode is taken over before the branches are started
+            Assert.assertEquals(Lists.newArrayList(Thread.currentThread(), Thread.currentThread()),
+                    branchStrategyThreads);
+            while (cursor.hasNext()) {
+                cursor.next();
+            }
+        }
+    }
+
+    @Test
+    public void testNoBranches() throws Exception {
+        try (ParallelUnionCursor cursor = createCursor(10, -1)) {
+            Assert.assertFalse(cursor.hasNext());
+        }
+    }
+
+    @Test
+    public void testBranchesStartConcurrently() throws Exception {
+        // every branch only returns its results once all branches have been started
+        CountDownLatch started = new CountDownLatch(2);
+        SimulatedBranch first = new SimulatedBranch("first", 10).waitFor(started);
+        SimulatedBranch second = new SimulatedBranch("second", 10).waitFor(started);
+        int count = 0;
+        try (ParallelUnionCursor cursor = createCursor(10, -1, first, second)) {
+            while (cursor.hasNext()) {
+                cursor.next();
+                count++;
+            }
+        }
+        Assert.assertEquals(20, count);
+        Assert.assertFalse("Branches have been evaluated one after another", first.timedOut.get()
+                || second.timedOut.get());
+    }
+
+    @Test
+    public void testBoundedReadAhead() throws Exception {
+        SimulatedBranch branch = new SimulatedBranch("branch", 10000);
+        try (ParallelUnionCursor cursor = createCursor(10, -1, branch)) {
+            Assert.assertTrue(cursor.hasNext());
+            cursor.next();
+            Thread.sleep(200);
+            // the queue, the result waiting for a free slot and the look ahead of the cursor
+            Assert.assertTrue("Read ahead " + branch.produced.get() + " results", branch.produced.get() <= 13);
+        }
+        awaitTrue("Branch has not been closed", () -> branch.closed.get());
+    }
+
+    @Test
+    public void testCloseCancelsBranches() throws Exception {
+        SimulatedBranch endless = new SimulatedBranch("endless", Integer.MAX_VALUE);
+        SimulatedBranch slow = new SimulatedBranch("slow", 10).withDelay(TIMEOUT_MILLIS);
+        ParallelUnionCursor cursor = createCursor(10, -1, endless, slow);
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(cursor.hasNext());
+            Assert.assertEquals("endless", cursor.next().getValue("branch").stringValue());
+        }
+        cursor.close();
+        awaitTrue("Branches have not been closed", () -> endless.closed.get() && slow.closed.get());
+        Assert.assertTrue(slow.interrupted.get());
+        int produced = endless.produced.get();
+        Thread.sleep(100);
+        Assert.assertEquals(produced, endless.produced.get());
+    }
+
+    @Test
+    public void testLimit() throws Exception {
+        SimulatedBranch first = new SimulatedBranch("first", 10000);
+        SimulatedBranch second = new SimulatedBranch("second", 10000);
+        int count = 0;
+        try (ParallelUnionCursor cursor = createCursor(100, 5, first, second)) {
+            while (cursor.hasNext()) {
+                cursor.next();
+                count++;
+            }
+        }
+        Assert.assertEquals(5, count);
+        awaitTrue("Branches have not been closed", () -> first.closed.get() && second.closed.get());
+        Assert.assertTrue(first.produced.get() + second.produced.get() <= 7);
+    }
+
+    @Test
+    public void testBranchError() throws Exception {
+        SimulatedBranch failing = new SimulatedBranch("failing", 100).failAfter(3);
+        SimulatedBranch endless = new SimulatedBranch("endless", Integer.MAX_VALUE);
+        try (ParallelUnionCursor cursor = createCursor(10, -1, failing, endless)) {
+            while (cursor.hasNext()) {
+                cursor.next();
+            }
+            Assert.fail("Error of the branch has not been propagated");
+        } catch (QueryEvaluationException e) {
+            // expected
+        }
+        awaitTrue("Branches have not been closed", () -> failing.closed.get() && endless.closed.get());
+    }
+
+    /**
+     * Results of a branch, counting the results produced and recording
+     * whether the iteration has been closed.
+     */
+    private static class SimulatedBranch extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+        private final String name;
+        private final int size;
+        private long delayMillis = 0;
+        private int failAfter = -1;
+        private CountDownLatch started;
+
+        private final AtomicInteger produced = new AtomicInteger();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final AtomicBoolean interrupted = new AtomicBoolean();
+        private final AtomicBoolean timedOut = new AtomicBoolean();
+
+        private SimulatedBranch(String name, int size) {
+            this.name = name;
+            this.size = size;
+        }
+
+        private SimulatedBranch withDelay(long delayMillis) {
+            this.delayMillis = delayMillis;
+            return this;
+        }
+
+        private SimulatedBranch failAfter(int results) {
+            this.failAfter = results;
+            return this;
+        }
+
+        private SimulatedBranch waitFor(CountDownLatch started) {
+            this.started = started;
+            return this;
+        }
+
+        @Override
+        protected BindingSet getNextElement() throws QueryEvaluationException {
+            int index = produced.get();
+            if (index == 0 && started != null) {
+                started.countDown();
+                try {
+                    timedOut.set(!started.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+                } catch (InterruptedException e) {
+                    throw new QueryEvaluationException(e);
+                }
+            }
+            if (index >= size) {
+                return null;
+            }
+            if (index == failAfter) {
+                throw new QueryEvaluationException("Simulated error of branch " + name);
+            }
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    interrupted.set(true);
+                    throw new QueryEvaluationException(e);
+                }
+            }
+            produced.incrementAndGet();
+            QueryBindingSet result = new QueryBindingSet();
+            result.addBinding("branch", VF.createLiteral(name));
+            result.addBinding("index", VF.createLiteral(index));
+            return result;
+        }
+
+        @Override
+        protected void handleClose() throws QueryEvaluationException {
+            closed.set(true);
+            super.handleClose();
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.repository.federation.optimizers;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.algebra.QueryModelNode;
+import org.eclipse.rdf4j.query.algebra.QueryRoot;
+import org.eclipse.rdf4j.query.algebra.Service;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.filters.AccurateRepositoryBloomFilter;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.federation.algebra.NaryJoin;
+import org.eclipse.rdf4j.sail.federation.optimizers.MpOwnedTupleExprPruner;
+import org.eclipse.rdf4j.sail.federation.optimizers.QueryModelPruner;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.metaphacts.repository.federation.statistics.FederationStatistics;
+import com.metaphacts.sparql.MpOwnedTupleExpr;
+
+/**
+ * Compares the plan in query order with the plan ordered by member
+ * statistics, on synthetic skewed data: 100k persons with a name in the
+ * default member and identifiers for 100 of them in the service member. Both
+ * plans are executed as bound joins of the member queries in blocks of 100
+ * bindings, the SERVICE clause as a query of its member; the benchmark logs
+ * the time, the number of requests and the number of intermediate results.
+ *
+ * Only executed if the system property <code>metaphacts.benchmark</code> is
+ * set to <code>true</code>.
+ */
+public class MpFederationJoinOrderingBenchmarkTest {
+    private static final Logger logger = LogManager.getLogger(MpFederationJoinOrderingBenchmarkTest.class);
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final String NS = "http://www.metaphacts.com/test/";
+    private static final IRI SERVICE = vf.createIRI(NS, "service");
+
+    private static final int PERSONS = 100000;
+    private static final int IDENTIFIERS = 100;
+    private static final int BLOCK_SIZE = 100;
+    private static final int RUNS = 3;
+
+    private static final String QUERY = "PREFIX : <" + NS + ">\n"
+            + "SELECT * WHERE {\n"
+            + "  ?s a :Person .\n"
+            + "  SERVICE :service { ?s :identifier ?id }\n"
+            + "  ?s :name ?name .\n"
+            + "}";
+
+    private SailRepository defaultRepository;
+    private SailRepository serviceRepository;
+    private RepositoryConnection defaultMember;
+    private RepositoryConnection serviceMember;
+    private Map<IRI, Repository> serviceMappings;
+    private FederationStatistics statistics;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean("metaphacts.benchmark"));
+        defaultRepository = new SailRepository(new MemoryStore());
+        defaultRepository.initialize();
+        serviceRepository = new SailRepository(new MemoryStore());
+        serviceRepository.initialize();
+        defaultMember = defaultRepository.getConnection();
+        serviceMember = serviceRepository.getConnection();
+        defaultMember.begin();
+        serviceMember.begin();
+        for (int i = 0; i < PERSONS; i++) {
+            IRI person = vf.createIRI(NS, "person" + i);
+            defaultMember.add(person, RDF.TYPE, vf.createIRI(NS, "Person"));
+            defaultMember.add(person, vf.createIRI(NS, "name"), vf.createLiteral("name " + i));
+            if (i % (PERSONS / IDENTIFIERS) == 0) {
+                serviceMember.add(person, vf.createIRI(NS, "identifier"), vf.createLiteral(i));
+            }
+        }
+        defaultMember.commit();
+        serviceMember.commit();
+        serviceMappings = ImmutableMap.<IRI, Repository>of(SERVICE, serviceRepository);
+
+        statistics = new FederationStatistics(Runnable::run, 60000, 0, Object::toString);
+        long start = System.nanoTime();
+        statistics.refresh(defaultRepository);
+        statistics.refresh(serviceRepository);
+        logger.info("Statistics collected in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    @After
+    public void tearDown() {
+        if (defaultRepository != null) {
+            defaultMember.close();
+            serviceMember.close();
+            defaultRepository.shutDown();
+            serviceRepository.shutDown();
+        }
+    }
+
+    @Test
+    public void benchmarkJoinOrder() throws Exception {
+        for (int run = 0; run < RUNS; run++) {
+            execute("query order", false);
+            execute("statistics", true);
+        }
+    }
+
+    private void execute(String name, boolean withStatistics) throws Exception {
+        long start = System.nanoTime();
+        NaryJoin join = optimize(withStatistics);
+        long optimizeMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        List<BindingSet> results = Lists.newArrayList(EmptyBindingSet.getInstance());
+        long requests = 0;
+        long intermediateResults = 0;
+        for (TupleExpr arg : join.getArgs()) {
+            MpOwnedTupleExpr owned = (MpOwnedTupleExpr) arg;
+            List<BindingSet> next = Lists.newArrayList();
+            for (List<BindingSet> block : Lists.partition(results, BLOCK_SIZE)) {
+                requests++;
+                Set<String> boundVars = Sets.newHashSet();
+                block.forEach(bindingSet -> boundVars.addAll(bindingSet.getBindingNames()));
+                try (CloseableIteration<BindingSet, QueryEvaluationException> iter =
+                        owned.evaluate(null, block, boundVars)) {
+                    while (iter.hasNext()) {
+                        next.add(iter.next());
+                    }
+                }
+            }
+            intermediateResults += next.size();
+            results = next;
+        }
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("{}: {} ms ({} ms optimization), {} member queries, {} requests, {} intermediate results, "
+                + "{} results", name, millis, optimizeMillis, join.getNumberOfArguments(), requests,
+                intermediateResults, results.size());
+    }
+
+    /**
+     * Applies the federation optimizers in the order of the federation
+     * connection, with SERVICE clauses replaced by queries of their member.
+     */
+    private NaryJoin optimize(boolean withStatistics) throws Exception {
+        TupleExpr expr = new QueryRoot(
+            QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, QUERY, null).getTupleExpr());
+        FederationEvaluationStatistics evaluationStatistics = withStatistics
+                ? new FederationEvaluationStatistics(statistics, defaultRepository, serviceMappings) : null;
+
+        new MpQueryMultiJoinOptimizer().optimize(expr, null, EmptyBindingSet.getInstance());
+        new MpFederationJoinOptimizer(Lists.newArrayList(defaultMember), defaultMember, false, null,
+                serviceMappings, c -> AccurateRepositoryBloomFilter.INCLUDE_INFERRED_INSTANCE,
+                evaluationStatistics).optimize(expr, null, EmptyBindingSet.getInstance());
+        new MpOwnedTupleExprPruner().optimize(expr, null, EmptyBindingSet.getInstance());
+        new QueryModelPruner().optimize(expr, null, EmptyBindingSet.getInstance());
+        (withStatistics ? new MpQueryMultiJoinOptimizer(evaluationStatistics) : new MpQueryMultiJoinOptimizer())
+                .optimize(expr, null, EmptyBindingSet.getInstance());
+
+        List<NaryJoin> joins = Lists.newArrayList();
+        expr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            public void meetOther(QueryModelNode node) {
+                if (node instanceof NaryJoin) {
+                    joins.add((NaryJoin) node);
+                } else {
+                    super.meetOther(node);
+                }
+            }
+        });
+        NaryJoin join = joins.get(0);
+        for (TupleExpr arg : Lists.newArrayList(join.getArgs())) {
+            if (arg instanceof Service) {
+                arg.replaceWith(new MpOwnedTupleExpr(serviceMember, ((Service) arg).getArg().clone()));
+            }
+        }
+        new MpPrepareOwnedTupleExpr().optimize(expr, null, EmptyBindingSet.getInstance());
+        return join;
+    }
+}
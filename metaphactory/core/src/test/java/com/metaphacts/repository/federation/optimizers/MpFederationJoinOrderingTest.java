@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.repository.federation.optimizers;
+
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.algebra.QueryModelNode;
+import org.eclipse.rdf4j.query.algebra.QueryRoot;
+import org.eclipse.rdf4j.query.algebra.Service;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.algebra.helpers.StatementPatternCollector;
+import org.eclipse.rdf4j.query.impl.EmptyBindingSet;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.filters.AccurateRepositoryBloomFilter;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.federation.algebra.NaryJoin;
+import org.eclipse.rdf4j.sail.federation.optimizers.MpOwnedTupleExprPruner;
+import org.eclipse.rdf4j.sail.federation.optimizers.QueryModelPruner;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.metaphacts.repository.federation.statistics.FederationStatistics;
+import com.metaphacts.sparql.MpOwnedTupleExpr;
+
+/**
+ * Test cases for the join order of federated queries with and without
+ * {@link FederationEvaluationStatistics}, on skewed data: every resource of the
+ * default member is a person with a name, while only a few of them have an
+ * identifier in the service member.
+ */
+public class MpFederationJoinOrderingTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final String NS = "http://www.metaphacts.com/test/";
+    private static final IRI SERVICE = vf.createIRI(NS, "service");
+
+    private static final String QUERY = "PREFIX : <" + NS + ">\n"
+            + "SELECT * WHERE {\n"
+            + "  ?s a :Person .\n"
+            + "  SERVICE :service { ?s :identifier ?id }\n"
+            + "}";
+
+    private static final String SPLIT_QUERY = "PREFIX : <" + NS + ">\n"
+            + "SELECT * WHERE {\n"
+            + "  ?s a :Person .\n"
+            + "  SERVICE :service { ?s :identifier ?id }\n"
+            + "  ?s :name ?name .\n"
+            + "}";
+
+    private SailRepository defaultRepository;
+    private SailRepository serviceRepository;
+    private RepositoryConnection defaultMember;
+    private Map<IRI, Repository> serviceMappings;
+    private FederationStatistics statistics;
+
+    @Before
+    public void setUp() {
+        defaultRepository = new SailRepository(new MemoryStore());
+        defaultRepository.initialize();
+        serviceRepository = new SailRepository(new MemoryStore());
+        serviceRepository.initialize();
+        defaultMember = defaultRepository.getConnection();
+        try (RepositoryConnection con = serviceRepository.getConnection()) {
+            for (int i = 0; i < 1000; i++) {
+                IRI person = vf.createIRI(NS, "person" + i);
+                defaultMember.add(person, RDF.TYPE, vf.createIRI(NS, "Person"));
+                defaultMember.add(person, vf.createIRI(NS, "name"), vf.createLiteral("name " + i));
+                if (i % 100 == 0) {
+                    con.add(person, vf.createIRI(NS, "identifier"), vf.createLiteral(i));
+                }
+            }
+        }
+        serviceMappings = ImmutableMap.<IRI, Repository>of(SERVICE, serviceRepository);
+
+        statistics = new FederationStatistics(Runnable::run, 60000, 0, Object::toString);
+        statistics.refresh(defaultRepository);
+        statistics.refresh(serviceRepository);
+    }
+
+    @After
+    public void tearDown() {
+        defaultMember.close();
+        defaultRepository.shutDown();
+        serviceRepository.shutDown();
+    }
+
+    /**
+     * Applies the federation optimizers in the order of the federation connection.
+     */
+    private NaryJoin optimize(String query, boolean withStatistics) throws Exception {
+        TupleExpr expr = new QueryRoot(
+            QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, query, null).getTupleExpr());
+        FederationEvaluationStatistics evaluationStatistics = withStatistics
+                ? new FederationEvaluationStatistics(statistics, defaultRepository, serviceMappings) : null;
+
+        new MpQueryMultiJoinOptimizer().optimize(expr, null, EmptyBindingSet.getInstance());
+        new MpFederationJoinOptimizer(Lists.newArrayList(defaultMember), defaultMember, false, null,
+                serviceMappings, c -> AccurateRepositoryBloomFilter.INCLUDE_INFERRED_INSTANCE,
+                evaluationStatistics).optimize(expr, null, EmptyBindingSet.getInstance());
+        new MpOwnedTupleExprPruner().optimize(expr, null, EmptyBindingSet.getInstance());
+        new QueryModelPruner().optimize(expr, null, EmptyBindingSet.getInstance());
+        (withStatistics ? new MpQueryMultiJoinOptimizer(evaluationStatistics) : new MpQueryMultiJoinOptimizer())
+                .optimize(expr, null, EmptyBindingSet.getInstance());
+        return findJoin(expr);
+    }
+
+    private static NaryJoin findJoin(TupleExpr expr) {
+        List<NaryJoin> joins = Lists.newArrayList();
+        expr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            public void meetOther(QueryModelNode node) {
+                if (node instanceof NaryJoin) {
+                    joins.add((NaryJoin) node);
+                } else {
+                    super.meetOther(node);
+                }
+            }
+        });
+        Assert.assertEquals(1, joins.size());
+        return joins.get(0);
+    }
+
+    private static int countPatterns(TupleExpr expr) {
+        return StatementPatternCollector.process(expr).size();
+    }
+
+    @Test
+    public void testQueryOrderWithoutStatistics() throws Exception {
+        NaryJoin join = optimize(QUERY, false);
+        Assert.assertEquals(2, join.getNumberOfArguments());
+        Assert.assertTrue(join.getArg(0) instanceof MpOwnedTupleExpr);
+        Assert.assertTrue(join.getArg(1) instanceof Service);
+    }
+
+    @Test
+    public void testSelectiveServiceFirst() throws Exception {
+        NaryJoin join = optimize(QUERY, true);
+        Assert.assertEquals(2, join.getNumberOfArguments());
+        // 10 identifiers in the service member, 1000 persons in the default member
+        Assert.assertTrue(join.getArg(0) instanceof Service);
+        Assert.assertTrue(join.getArg(1) instanceof MpOwnedTupleExpr);
+    }
+
+    @Test
+    public void testSelectiveDefaultMemberFirst() throws Exception {
+        try (RepositoryConnection con = serviceRepository.getConnection()) {
+            for (int i = 0; i < 10000; i++) {
+                con.add(vf.createIRI(NS, "other" + i), vf.createIRI(NS, "identifier"), vf.createLiteral(i));
+            }
+        }
+        statistics.clear();
+        statistics.refresh(serviceRepository);
+        statistics.refresh(defaultRepository);
+
+        NaryJoin join = optimize(QUERY, true);
+        Assert.assertTrue(join.getArg(0) instanceof MpOwnedTupleExpr);
+        Assert.assertTrue(join.getArg(1) instanceof Service);
+    }
+
+    @Test
+    public void testSplitGroupsWithoutStatistics() throws Exception {
+        NaryJoin join = optimize(SPLIT_QUERY, false);
+        Assert.assertEquals(3, join.getNumberOfArguments());
+        Assert.assertTrue(join.getArg(0) instanceof MpOwnedTupleExpr);
+        Assert.assertTrue(join.getArg(1) instanceof Service);
+        Assert.assertTrue(join.getArg(2) instanceof MpOwnedTupleExpr);
+    }
+
+    @Test
+    public void testConnectedGroupsMergedWithStatistics() throws Exception {
+        NaryJoin join = optimize(SPLIT_QUERY, true);
+        // both patterns of the default member are sent in a single query
+        Assert.assertEquals(2, join.getNumberOfArguments());
+        Assert.assertTrue(join.getArg(0) instanceof Service);
+        Assert.assertTrue(join.getArg(1) instanceof MpOwnedTupleExpr);
+        Assert.assertEquals(2, countPatterns(join.getArg(1)));
+    }
+
+    @Test
+    public void testGrowingGroupsNotMerged() throws Exception {
+        // every person knows ten others, joining them grows the group of the default member
+        for (int i = 0; i < 1000; i++) {
+            for (int j = 1; j <= 10; j++) {
+                defaultMember.add(vf.createIRI(NS, "person" + i), vf.createIRI(NS, "knows"),
+                        vf.createIRI(NS, "person" + (i + j) % 1000));
+            }
+        }
+        statistics.clear();
+        statistics.refresh(defaultRepository);
+        statistics.refresh(serviceRepository);
+
+        String query = "PREFIX : <" + NS + ">\n"
+                + "SELECT * WHERE {\n"
+                + "  ?s a :Person .\n"
+                + "  SERVICE :service { ?s :identifier ?id }\n"
+                + "  ?s :knows ?friend .\n"
+                + "}";
+        NaryJoin join = optimize(query, true);
+        Assert.assertEquals(3, join.getNumberOfArguments());
+        Assert.assertTrue(join.getArg(0) instanceof Service);
+        for (TupleExpr arg : join.getArgs()) {
+            Assert.assertEquals(1, countPatterns(arg));
+        }
+    }
+
+    @Test
+    public void testJoinEstimateGrows() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            for (int j = 1; j <= 10; j++) {
+                defaultMember.add(vf.createIRI(NS, "person" + i), vf.createIRI(NS, "knows"),
+                        vf.createIRI(NS, "person" + (i + j) % 1000));
+            }
+        }
+        statistics.clear();
+        statistics.refresh(defaultRepository);
+        FederationEvaluationStatistics evaluationStatistics =
+                new FederationEvaluationStatistics(statistics, defaultRepository, serviceMappings);
+        TupleExpr expr = QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, "PREFIX : <" + NS + ">\n"
+                + "SELECT * WHERE { ?s a :Person . ?s :knows ?friend . }", null).getTupleExpr();
+        // 1000 persons with 10 friends each
+        Assert.assertEquals(10000, evaluationStatistics.getCardinality(expr), 0.001);
+    }
+
+    @Test
+    public void testUnconnectedGroupsNotMerged() throws Exception {
+        String query = "PREFIX : <" + NS + ">\n"
+                + "SELECT * WHERE {\n"
+                + "  ?s a :Person .\n"
+                + "  SERVICE :service { ?s :identifier ?id }\n"
+                + "  ?other :name ?id .\n"
+                + "}";
+        NaryJoin join = optimize(query, true);
+        Assert.assertEquals(3, join.getNumberOfArguments());
+        Assert.assertTrue(join.getArg(0) instanceof Service);
+    }
+
+    @Test
+    public void testEstimates() throws Exception {
+        FederationEvaluationStatistics evaluationStatistics =
+                new FederationEvaluationStatistics(statistics, defaultRepository, serviceMappings);
+        NaryJoin join = optimize(SPLIT_QUERY, true);
+        Assert.assertEquals(10, evaluationStatistics.getCardinality(join.getArg(0)), 0.001);
+        Assert.assertEquals(1000, evaluationStatistics.getCardinality(join.getArg(1)), 0.001);
+        Assert.assertEquals(10, evaluationStatistics.getCardinality(join), 0.001);
+        for (StatementPattern pattern : StatementPatternCollector.process(join.getArg(1))) {
+            Assert.assertEquals(1000, evaluationStatistics.getCardinality(pattern), 0.001);
+        }
+    }
+}
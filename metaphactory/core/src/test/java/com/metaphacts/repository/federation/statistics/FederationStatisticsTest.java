@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.repository.federation.statistics;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Map;
+
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.Resource;
+import org.eclipse.rdf4j.model.Value;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.query.algebra.StatementPattern;
+import org.eclipse.rdf4j.query.algebra.Var;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.metaphacts.repository.federation.statistics.MemberStatistics.PredicateStatistics;
+import com.metaphacts.repository.federation.statistics.MemberStatistics.Source;
+
+/**
+ * Test cases for {@link FederationStatistics} and the estimates of
+ * {@link MemberStatistics}.
+ */
+public class FederationStatisticsTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final String NS = "http://www.metaphacts.com/test/";
+    private static final String VOID = "http://rdfs.org/ns/void#";
+    private static final IRI PERSON = vf.createIRI(NS, "Person");
+    private static final IRI NAME = vf.createIRI(NS, "name");
+    private static final IRI UNKNOWN = vf.createIRI(NS, "unknown");
+
+    private SailRepository repository;
+
+    @Before
+    public void setUp() {
+        repository = new SailRepository(new MemoryStore());
+        repository.initialize();
+        try (RepositoryConnection con = repository.getConnection()) {
+            // 1000 persons with a type and a name, 10 distinct names
+            for (int i = 0; i < 1000; i++) {
+                IRI person = vf.createIRI(NS, "person" + i);
+                con.add(person, RDF.TYPE, PERSON);
+                con.add(person, NAME, vf.createLiteral("name " + (i % 10)));
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        repository.shutDown();
+    }
+
+    private static FederationStatistics createStatistics(long ttlMillis) {
+        // collects the statistics synchronously
+        return new FederationStatistics(Runnable::run, ttlMillis, 0, Object::toString);
+    }
+
+    private static StatementPattern pattern(Resource subject, IRI predicate, Value object) {
+        return new StatementPattern(
+            subject != null ? new Var("s", subject) : new Var("s"),
+            predicate != null ? new Var("p", predicate) : new Var("p"),
+            object != null ? new Var("o", object) : new Var("o"));
+    }
+
+    @Test
+    public void testCountProbe() {
+        MemberStatistics stats = createStatistics(60000).collect(repository);
+        Assert.assertEquals(Source.COUNT, stats.getSource());
+        Assert.assertEquals(2000, stats.getTriples());
+        PredicateStatistics type = stats.getPredicates().get(RDF.TYPE);
+        Assert.assertEquals(1000, type.getTriples());
+        Assert.assertEquals(1000, type.getDistinctSubjects());
+        Assert.assertEquals(1, type.getDistinctObjects());
+        Assert.assertEquals(10, stats.getPredicates().get(NAME).getDistinctObjects());
+
+        Assert.assertEquals(1000, stats.getCardinality(pattern(null, RDF.TYPE, PERSON)), 0.001);
+        Assert.assertEquals(1, stats.getCardinality(pattern(vf.createIRI(NS, "person1"), RDF.TYPE, null)), 0.001);
+        Assert.assertEquals(100, stats.getCardinality(pattern(null, NAME, vf.createLiteral("name 1"))), 0.001);
+        Assert.assertEquals(2000, stats.getCardinality(pattern(null, null, null)), 0.001);
+        Assert.assertEquals(1, stats.getCardinality(pattern(null, UNKNOWN, null)), 0.001);
+
+        Map<String, Double> distinctValues = stats.getDistinctValues(pattern(null, NAME, null));
+        Assert.assertEquals(1000, distinctValues.get("s"), 0.001);
+        Assert.assertEquals(10, distinctValues.get("o"), 0.001);
+        Assert.assertTrue(stats.getDistinctValues(pattern(null, UNKNOWN, null)).isEmpty());
+    }
+
+    @Test
+    public void testVoidDescription() {
+        try (RepositoryConnection con = repository.getConnection()) {
+            IRI dataset = vf.createIRI(NS, "dataset");
+            Resource partition = vf.createBNode();
+            con.add(dataset, vf.createIRI(VOID, "propertyPartition"), partition);
+            con.add(partition, vf.createIRI(VOID, "property"), NAME);
+            con.add(partition, vf.createIRI(VOID, "triples"), vf.createLiteral(5000000L));
+            con.add(partition, vf.createIRI(VOID, "distinctObjects"), vf.createLiteral(50L));
+        }
+        MemberStatistics stats = createStatistics(60000).collect(repository);
+        Assert.assertEquals(Source.VOID, stats.getSource());
+        // only the predicates described in the VoID description
+        Assert.assertEquals(1, stats.getPredicates().size());
+        Assert.assertEquals(5000000, stats.getPredicates().get(NAME).getTriples());
+        Assert.assertEquals(100000, stats.getCardinality(pattern(null, NAME, vf.createLiteral("name 1"))), 0.001);
+        // without a count of distinct subjects every statement has its own subject
+        Assert.assertEquals(1, stats.getCardinality(pattern(vf.createIRI(NS, "person1"), NAME, null)), 0.001);
+    }
+
+    @Test
+    public void testCachedUntilExpired() {
+        FederationStatistics statistics = createStatistics(60000);
+        // the first access only schedules the collection
+        Assert.assertNull(statistics.getStatistics(repository));
+        MemberStatistics stats = statistics.getStatistics(repository);
+        Assert.assertNotNull(stats);
+        Assert.assertEquals(2000, stats.getTriples());
+
+        try (RepositoryConnection con = repository.getConnection()) {
+            con.add(vf.createIRI(NS, "person0"), RDF.TYPE, vf.createIRI(NS, "Agent"));
+        }
+        Assert.assertSame(stats, statistics.getStatistics(repository));
+        Assert.assertEquals(1, statistics.getCollectedStatistics().size());
+
+        statistics.clear();
+        statistics.getStatistics(repository);
+        Assert.assertEquals(2001, statistics.getStatistics(repository).getTriples());
+    }
+
+    @Test
+    public void testRefreshedAfterTtl() {
+        FederationStatistics statistics = createStatistics(0);
+        statistics.getStatistics(repository);
+        Assert.assertEquals(2000, statistics.getStatistics(repository).getTriples());
+        try (RepositoryConnection con = repository.getConnection()) {
+            con.add(vf.createIRI(NS, "person0"), RDF.TYPE, vf.createIRI(NS, "Agent"));
+        }
+        // the previous statistics are returned while they are refreshed
+        Assert.assertEquals(2000, statistics.getStatistics(repository).getTriples());
+        Assert.assertEquals(2001, statistics.getStatistics(repository).getTriples());
+    }
+
+    @Test
+    public void testUnavailableMember() {
+        Repository failing = mock(Repository.class);
+        when(failing.getConnection()).thenThrow(new RepositoryException("Member is not reachable"));
+        FederationStatistics statistics = createStatistics(60000);
+        Assert.assertFalse(statistics.collect(failing).isAvailable());
+        Assert.assertNull(statistics.getStatistics(failing));
+        Assert.assertNull(statistics.getStatistics(failing));
+        Assert.assertEquals(Source.NONE, statistics.getCollectedStatistics().values().iterator().next().getSource());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.rest.endpoint;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.metaphacts.cache.CacheManager;
+import com.metaphacts.cache.GuavaPlatformCache;
+import com.metaphacts.cache.PlatformCacheStats;
+
+/**
+ * Test cases for the cache statistics of {@link CacheEndpoint}.
+ */
+public class CacheEndpointTest {
+
+    @Test
+    public void testStatsMoveWithCacheAccess() throws Exception {
+        Cache<String, String> cache = CacheBuilder.newBuilder().recordStats().build();
+        CacheManager cacheManager = new CacheManager();
+        cacheManager.register(new GuavaPlatformCache("TestCache", cache));
+        CacheEndpoint endpoint = new CacheEndpoint(cacheManager);
+
+        cache.get("a", () -> "1");
+        cache.get("a", () -> "1");
+        cache.getIfPresent("b");
+
+        Map<String, Object> json = endpoint.getStats();
+        @SuppressWarnings("unchecked")
+        PlatformCacheStats stats = (PlatformCacheStats) ((Map<String, Object>) json.get("TestCache")).get("stats");
+        Assert.assertEquals(1, stats.getHitCount());
+        Assert.assertEquals(2, stats.getMissCount());
+        Assert.assertEquals(1, stats.getLoadSuccessCount());
+        Assert.assertEquals(1, stats.getSize());
+        Assert.assertEquals(PlatformCacheStats.UNKNOWN_WEIGHT, stats.getWeight());
+
+        String text = endpoint.getStatsAsText();
+        Assert.assertTrue(text.contains("# TYPE metaphactory_cache_hits_total counter\n"));
+        Assert.assertTrue(text.contains("metaphactory_cache_hits_total{cache=\"TestCache\"} 1\n"));
+        Assert.assertTrue(text.contains("metaphactory_cache_misses_total{cache=\"TestCache\"} 2\n"));
+        Assert.assertTrue(text.contains("metaphactory_cache_size{cache=\"TestCache\"} 1\n"));
+        // weight is not estimated for plain Guava caches
+        Assert.assertFalse(text.contains("metaphactory_cache_weight_bytes{"));
+
+        cache.get("a", () -> "1");
+        Assert.assertTrue(endpoint.getStatsAsText().contains("metaphactory_cache_hits_total{cache=\"TestCache\"} 2\n"));
+    }
+
+    @Test
+    public void testRepositoryStatsAreLabeled() throws Exception {
+        GuavaPlatformCache cache = new GuavaPlatformCache("Test\"Cache", CacheBuilder.newBuilder().build()) {
+            @Override
+            public Map<String, PlatformCacheStats> getRepositoryStats() {
+                return Collections.singletonMap("default", new PlatformCacheStats(3, 1, 1, 0, 0, 0, 5, 100));
+            }
+        };
+        String text = CacheEndpoint.formatStats(Lists.newArrayList(cache));
+        Assert.assertTrue(text.contains("metaphactory_cache_hits_total{cache=\"Test\\\"Cache\",repository=\"default\"} 3\n"));
+        Assert.assertTrue(text.contains("metaphactory_cache_weight_bytes{cache=\"Test\\\"Cache\",repository=\"default\"} 100\n"));
+    }
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.security;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.metaphacts.config.groups.AdmissionConfiguration;
+import com.metaphacts.junit.AbstractIntegrationTest;
+import com.metaphacts.security.AdmissionController.Ticket;
+
+/**
+ * Test cases for {@link AdmissionController}.
+ */
+public class AdmissionControllerTest extends AbstractIntegrationTest {
+
+    private static final Predicate<String> NO_ROLES = role -> false;
+
+    private final AtomicLong now = new AtomicLong();
+
+    private AdmissionConfiguration admissionConfig;
+    private AdmissionController controller;
+
+    @Before
+    public void setUp() {
+        admissionConfig = config.getAdmissionConfig();
+        admissionConfig.setParameter("enabled", "true");
+        // parameters are kept across the tests of this class, scoped limits
+        // therefore use distinct users and repositories
+        admissionConfig.setParameter("userQueriesPerMinute", "0");
+        admissionConfig.setParameter("userBurst", "10");
+        admissionConfig.setParameter("userMaxConcurrentQueries", "0");
+        admissionConfig.setParameter("limitedRoles", "");
+        controller = new AdmissionController(config);
+        controller.clock = now::get;
+    }
+
+    @After
+    public void tearDown() {
+        admissionConfig.setParameter("enabled", "false");
+    }
+
+    @Test
+    public void testDisabled() {
+        admissionConfig.setParameter("enabled", "false");
+        admissionConfig.setParameter("userQueriesPerMinute", "1");
+        admissionConfig.setParameter("userBurst", "1");
+        for (int i = 0; i < 100; i++) {
+            controller.admit("alice", NO_ROLES, "test").close();
+        }
+    }
+
+    @Test
+    public void testBurstAndRate() {
+        admissionConfig.setParameter("userQueriesPerMinute", "60");
+        admissionConfig.setParameter("userBurst", "5");
+        for (int i = 0; i < 5; i++) {
+            controller.admit("alice", NO_ROLES, "test").close();
+        }
+        try {
+            controller.admit("alice", NO_ROLES, "test");
+            Assert.fail("Expected the sixth query to be throttled.");
+        } catch (ThrottledException e) {
+            Assert.assertEquals(5, e.getLimit());
+            Assert.assertEquals(1, e.getRetryAfterSeconds());
+            Assert.assertEquals("1", e.getHeaders().get("Retry-After"));
+            Assert.assertEquals("5", e.getHeaders().get("RateLimit-Limit"));
+        }
+        // other users are not affected
+        controller.admit("bob", NO_ROLES, "test").close();
+
+        // one query per second
+        now.addAndGet(TimeUnit.SECONDS.toNanos(1));
+        controller.admit("alice", NO_ROLES, "test").close();
+        assertThrottled("alice", NO_ROLES, "test");
+    }
+
+    @Test
+    public void testUserAndRoleLimits() {
+        admissionConfig.setParameter("userQueriesPerMinute", "60");
+        admissionConfig.setParameter("userBurst", "3");
+        admissionConfig.setParameter("limitedRoles", "guest,admin");
+        admissionConfig.setParameter("role.guest.burst", "2");
+        admissionConfig.setParameter("role.admin.queriesPerMinute", "0");
+        admissionConfig.setParameter("user.carol.burst", "1");
+
+        // the most permissive role applies
+        Predicate<String> guestAndAdmin = role -> role.equals("guest") || role.equals("admin");
+        for (int i = 0; i < 100; i++) {
+            controller.admit("root", guestAndAdmin, "test").close();
+        }
+
+        Predicate<String> guest = role -> role.equals("guest");
+        admitTimes(2, "guest", guest);
+        assertThrottled("guest", guest, "test");
+
+        // limits of the user precede limits of roles
+        admitTimes(1, "carol", guest);
+        assertThrottled("carol", guest, "test");
+
+        admitTimes(3, "bob", NO_ROLES);
+        assertThrottled("bob", NO_ROLES, "test");
+    }
+
+    @Test
+    public void testMaxConcurrentQueries() {
+        admissionConfig.setParameter("userMaxConcurrentQueries", "2");
+        admissionConfig.setParameter("repository.limited.maxConcurrentQueries", "3");
+
+        Ticket first = controller.admit("alice", NO_ROLES, "limited");
+        Ticket second = controller.admit("alice", NO_ROLES, "limited");
+        assertThrottled("alice", NO_ROLES, "limited");
+
+        // the limit of the repository applies to all users
+        Ticket third = controller.admit("bob", NO_ROLES, "limited");
+        assertThrottled("bob", NO_ROLES, "limited");
+        controller.admit("bob", NO_ROLES, "other").close();
+
+        first.close();
+        // closing twice does not release twice
+        first.close();
+        Ticket fourth = controller.admit("bob", NO_ROLES, "limited");
+        assertThrottled("alice", NO_ROLES, "limited");
+
+        second.close();
+        third.close();
+        fourth.close();
+        controller.admit("alice", NO_ROLES, "limited").close();
+    }
+
+    @Test
+    public void testRejectedQueriesDoNotConsumeTokens() {
+        admissionConfig.setParameter("userQueriesPerMinute", "60");
+        admissionConfig.setParameter("userBurst", "2");
+        admissionConfig.setParameter("repository.slow.queriesPerMinute", "60");
+        admissionConfig.setParameter("repository.slow.burst", "1");
+        admissionConfig.setParameter("repository.busy.maxConcurrentQueries", "1");
+
+        // rejected by the rate limit of the repository
+        controller.admit("dave", NO_ROLES, "slow").close();
+        assertThrottled("dave", NO_ROLES, "slow");
+        assertThrottled("dave", NO_ROLES, "slow");
+        controller.admit("dave", NO_ROLES, "other").close();
+        assertThrottled("dave", NO_ROLES, "other");
+
+        // rejected by the concurrency limit of the repository
+        Ticket running = controller.admit("bob", NO_ROLES, "busy");
+        assertThrottled("erin", NO_ROLES, "busy");
+        assertThrottled("erin", NO_ROLES, "busy");
+        running.close();
+        admitTimes(2, "erin", NO_ROLES);
+        assertThrottled("erin", NO_ROLES, "test");
+    }
+
+    @Test
+    public void testUnusedBucketsAndCountersAreDropped() {
+        admissionConfig.setParameter("userQueriesPerMinute", "60");
+        admissionConfig.setParameter("userMaxConcurrentQueries", "2");
+        admissionConfig.setParameter("repository.dropped.maxConcurrentQueries", "2");
+
+        // the bucket of the user and the counters of the user and the repository
+        Ticket ticket = controller.admit("frank", NO_ROLES, "dropped");
+        Assert.assertEquals(3, controller.getTrackedKeys());
+        ticket.close();
+        Assert.assertEquals(1, controller.getTrackedKeys());
+
+        now.addAndGet(TimeUnit.MINUTES.toNanos(AdmissionController.BUCKET_EXPIRY_MINUTES + 1));
+        Assert.assertEquals(0, controller.getTrackedKeys());
+        // the limits still apply to new buckets and counters
+        Ticket first = controller.admit("frank", NO_ROLES, "dropped");
+        Ticket second = controller.admit("frank", NO_ROLES, "dropped");
+        assertThrottled("frank", NO_ROLES, "dropped");
+        first.close();
+        second.close();
+        Assert.assertEquals(1, controller.getTrackedKeys());
+    }
+
+    @Test
+    public void testLimitsAreReloaded() {
+        admissionConfig.setParameter("userQueriesPerMinute", "60");
+        admissionConfig.setParameter("userBurst", "1");
+        controller.admit("alice", NO_ROLES, "test").close();
+        assertThrottled("alice", NO_ROLES, "test");
+
+        admissionConfig.setParameter("userBurst", "3");
+        admitTimes(3, "alice", NO_ROLES);
+        assertThrottled("alice", NO_ROLES, "test");
+
+        admissionConfig.setParameter("userQueriesPerMinute", "0");
+        admitTimes(10, "alice", NO_ROLES);
+    }
+
+    /**
+     * Bursts of queries of several users at the same instant: every user gets
+     * exactly the size of its bucket admitted, regardless of contention.
+     */
+    @Test
+    public void testBurstyMultiUserTraffic() throws Exception {
+        admissionConfig.setParameter("userQueriesPerMinute", "60");
+        admissionConfig.setParameter("userBurst", "10");
+        admissionConfig.setParameter("limitedRoles", "guest");
+        admissionConfig.setParameter("role.guest.burst", "4");
+
+        int users = 8;
+        int threadsPerUser = 4;
+        int queriesPerThread = 25;
+        ExecutorService threads = Executors.newFixedThreadPool(users * threadsPerUser);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<AtomicInteger> admitted = new ArrayList<>();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int u = 0; u < users; u++) {
+                String user = "user" + u;
+                // every other user is a guest
+                Predicate<String> hasRole = u % 2 == 0 ? NO_ROLES : role -> role.equals("guest");
+                AtomicInteger count = new AtomicInteger();
+                admitted.add(count);
+                for (int t = 0; t < threadsPerUser; t++) {
+                    futures.add(threads.submit(() -> {
+                        start.await();
+                        for (int q = 0; q < queriesPerThread; q++) {
+                            try (Ticket ticket = controller.admit(user, hasRole, "test")) {
+                                count.incrementAndGet();
+                            } catch (ThrottledException e) {
+                                // expected for most queries
+                            }
+                        }
+                        return null;
+                    }));
+                }
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+            for (int u = 0; u < users; u++) {
+                Assert.assertEquals("Admitted queries of user" + u, u % 2 == 0 ? 10 : 4, admitted.get(u).get());
+            }
+
+            // the next burst is admitted after the buckets refilled
+            now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+            admitTimes(10, "user0", NO_ROLES);
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    /**
+     * Many threads competing for the slots of a repository: the number of
+     * concurrently admitted queries never exceeds the limit.
+     */
+    @Test
+    public void testConcurrencyLimitUnderContention() throws Exception {
+        admissionConfig.setParameter("repository.contended.maxConcurrentQueries", "4");
+
+        int threadCount = 16;
+        ExecutorService threads = Executors.newFixedThreadPool(threadCount);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            AtomicInteger admitted = new AtomicInteger();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threadCount; t++) {
+                String user = "user" + t;
+                futures.add(threads.submit(() -> {
+                    start.await();
+                    for (int q = 0; q < 1000; q++) {
+                        try (Ticket ticket = controller.admit(user, NO_ROLES, "contended")) {
+                            admitted.incrementAndGet();
+                            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                            Thread.yield();
+                            running.decrementAndGet();
+                        } catch (ThrottledException e) {
+                            // expected under contention
+                        }
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+            Assert.assertTrue("At most 4 concurrent queries, but were " + maxRunning.get(), maxRunning.get() <= 4);
+            Assert.assertTrue(admitted.get() > 0);
+
+            // all slots have been released
+            List<Ticket> tickets = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                tickets.add(controller.admit("other", NO_ROLES, "contended"));
+            }
+            assertThrottled("other", NO_ROLES, "contended");
+            tickets.forEach(Ticket::close);
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    private void admitTimes(int times, String user, Predicate<String> hasRole) {
+        for (int i = 0; i < times; i++) {
+            controller.admit(user, hasRole, "test").close();
+        }
+    }
+
+    private void assertThrottled(String user, Predicate<String> hasRole, String repositoryId) {
+        try {
+            controller.admit(user, hasRole, repositoryId).close();
+            Assert.fail("Expected query of " + user + " to be throttled.");
+        } catch (ThrottledException e) {
+            // expected
+        }
+    }
+}
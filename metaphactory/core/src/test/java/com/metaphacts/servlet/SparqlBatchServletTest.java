@@ -0,0 +1,374 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.servlet;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.core.Response.Status;
+
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.FOAF;
+import org.eclipse.rdf4j.model.vocabulary.RDF;
+import org.eclipse.rdf4j.query.QueryResults;
+import org.eclipse.rdf4j.query.impl.TupleQueryResultBuilder;
+import org.eclipse.rdf4j.query.resultio.QueryResultIO;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultFormat;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.sdorra.shiro.ShiroRule;
+import com.github.sdorra.shiro.SubjectAware;
+import com.google.inject.Inject;
+import com.metaphacts.api.sparql.RunningQueryRegistry;
+import com.metaphacts.api.sparql.RunningQueryRegistry.RunningQuery;
+import com.metaphacts.api.sparql.SparqlUtil.SparqlOperation;
+import com.metaphacts.junit.AbstractIntegrationTest;
+import com.metaphacts.servlet.SparqlBatchServlet.BatchOperation;
+import com.metaphacts.servlet.SparqlBatchServlet.BatchResponse;
+import com.metaphacts.servlet.SparqlBatchServlet.BatchResult;
+
+/**
+ * Test cases for {@link SparqlBatchServlet}.
+ */
+public class SparqlBatchServletTest extends AbstractIntegrationTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final String sparqlPermissionShiroFile = "classpath:com/metaphacts/security/shiro-query-rights.ini";
+
+    @Mock
+    private HttpServletRequest req;
+
+    @Mock
+    private HttpServletResponse res;
+
+    @Inject
+    SparqlBatchServlet batchServlet;
+
+    @Inject
+    RunningQueryRegistry runningQueries;
+
+    @Rule
+    public ShiroRule shiroRule = new ShiroRule();
+
+    private ByteArrayOutputStream responseBody;
+
+    private ValueFactory vf;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        vf = SimpleValueFactory.getInstance();
+        responseBody = new ByteArrayOutputStream();
+        when(res.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                responseBody.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        });
+        try (RepositoryConnection con = repositoryRule.getRepository().getConnection()) {
+            con.add(vf.createIRI("http://www.metaphacts.com/resource/Johannes"), RDF.TYPE, vf.createIRI(FOAF.NAMESPACE, "Person"));
+            con.add(vf.createIRI("http://www.metaphacts.com/resource/Artem"), RDF.TYPE, vf.createIRI(FOAF.NAMESPACE, "Person"));
+        }
+    }
+
+    @Test
+    public void testParseOperations() throws Exception {
+        List<BatchOperation> operations = SparqlBatchServlet.parseOperations(mapper.readTree(
+            "[{\"id\": \"a\", \"query\": \"SELECT * WHERE {?s ?p ?o}\", \"repository\": \"other\","
+            + " \"bindings\": {\"s\": \"<http://example.org/s>\", \"o\": \"\\\"label\\\"@en\"},"
+            + " \"format\": \"text/csv\"},"
+            + " {\"query\": \"ASK {}\"}]"));
+        Assert.assertEquals(2, operations.size());
+        Assert.assertEquals("a", operations.get(0).id);
+        Assert.assertEquals("other", operations.get(0).repositoryId);
+        Assert.assertEquals(vf.createIRI("http://example.org/s"), operations.get(0).bindings.get("s"));
+        Assert.assertEquals(vf.createLiteral("label", "en"), operations.get(0).bindings.get("o"));
+        Assert.assertEquals("text/csv", operations.get(0).format.get());
+        // defaults
+        Assert.assertEquals("1", operations.get(1).id);
+        Assert.assertEquals("default", operations.get(1).repositoryId);
+        Assert.assertFalse(operations.get(1).format.isPresent());
+
+        try {
+            SparqlBatchServlet.parseOperations(mapper.readTree("[{\"id\": \"a\"}]"));
+            Assert.fail("Operation without query must be rejected.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            SparqlBatchServlet.parseOperations(mapper.readTree("{\"query\": \"ASK {}\"}"));
+            Assert.fail("Batch must be an array.");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    @SubjectAware(
+            username="guest",
+            password="guest",
+            configuration = sparqlPermissionShiroFile
+            )
+    public void testBatchWithFailingOperations() throws Exception {
+        Map<String, JsonNode> results = post(
+            "[{\"id\": \"persons\", \"query\": \"SELECT ?s WHERE { ?s a ?type }\","
+            + " \"bindings\": {\"type\": \"<" + FOAF.NAMESPACE + "Person>\"}},"
+            + " {\"id\": \"ask\", \"query\": \"ASK { ?s a <" + FOAF.NAMESPACE + "Person> }\"},"
+            + " {\"id\": \"csv\", \"query\": \"SELECT ?s WHERE { ?s a ?type }\", \"format\": \"text/csv\"},"
+            + " {\"id\": \"malformed\", \"query\": \"SELECT WHERE\"},"
+            + " {\"id\": \"update\", \"query\": \"INSERT DATA { <http://example.org/s> <http://example.org/p> 1 }\"},"
+            + " {\"id\": \"unknown\", \"query\": \"ASK {}\", \"repository\": \"doesNotExist\"}]");
+
+        Assert.assertEquals(6, results.size());
+        JsonNode persons = results.get("persons");
+        Assert.assertEquals(200, persons.get("status").asInt());
+        Assert.assertEquals(2, persons.get("result").get("results").get("bindings").size());
+        Assert.assertEquals(200, results.get("ask").get("status").asInt());
+        Assert.assertTrue(results.get("ask").get("result").get("boolean").asBoolean());
+        Assert.assertEquals("text/csv", results.get("csv").get("contentType").asText());
+        Assert.assertTrue(results.get("csv").get("result").asText().startsWith("s"));
+        Assert.assertEquals(400, results.get("malformed").get("status").asInt());
+        Assert.assertEquals(400, results.get("update").get("status").asInt());
+        Assert.assertEquals(404, results.get("unknown").get("status").asInt());
+        Assert.assertTrue(results.get("unknown").has("error"));
+    }
+
+    @Test
+    @SubjectAware(
+            username="noPermission",
+            password="noPermission",
+            configuration = sparqlPermissionShiroFile
+            )
+    public void testPermissionsAreCheckedPerOperation() throws Exception {
+        Map<String, JsonNode> results = post(
+            "[{\"id\": \"select\", \"query\": \"SELECT * WHERE { ?s ?p ?o }\"},"
+            + " {\"id\": \"ask\", \"query\": \"ASK { ?s ?p ?o }\"}]");
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals(403, results.get("select").get("status").asInt());
+        Assert.assertEquals(403, results.get("ask").get("status").asInt());
+    }
+
+    @Test
+    @SubjectAware(
+            username="guest",
+            password="guest",
+            configuration = sparqlPermissionShiroFile
+            )
+    public void testTooManyOperations() throws Exception {
+        config.getUiConfig().setParameter("sparqlBatchMaxOperations", "1");
+        try {
+            setBody("[{\"query\": \"ASK {}\"}, {\"query\": \"ASK {}\"}]");
+            batchServlet.doPost(req, res);
+            verify(res).sendError(eq(Status.BAD_REQUEST.getStatusCode()), anyString());
+        } finally {
+            config.getUiConfig().setParameter("sparqlBatchMaxOperations", "100");
+        }
+    }
+
+    @Test
+    @SubjectAware(
+            username="guest",
+            password="guest",
+            configuration = sparqlPermissionShiroFile
+            )
+    public void testBinaryResultIsBase64Encoded() throws Exception {
+        Map<String, JsonNode> results = post(
+            "[{\"id\": \"binary\", \"query\": \"SELECT ?s WHERE { ?s a <" + FOAF.NAMESPACE + "Person> }\","
+            + " \"format\": \"" + TupleQueryResultFormat.BINARY.getDefaultMIMEType() + "\"}]");
+        JsonNode binary = results.get("binary");
+        Assert.assertEquals(200, binary.get("status").asInt());
+        Assert.assertEquals("base64", binary.get("encoding").asText());
+        TupleQueryResultBuilder builder = new TupleQueryResultBuilder();
+        QueryResultIO.parseTuple(new ByteArrayInputStream(Base64.getDecoder().decode(binary.get("result").asText())),
+            TupleQueryResultFormat.BINARY, builder, vf);
+        Assert.assertEquals(2, QueryResults.asList(builder.getQueryResult()).size());
+    }
+
+    @Test
+    @SubjectAware(
+            username="guest",
+            password="guest",
+            configuration = sparqlPermissionShiroFile
+            )
+    public void testResultSizeIsLimited() throws Exception {
+        try (RepositoryConnection con = repositoryRule.getRepository().getConnection()) {
+            for (int i = 0; i < 100; i++) {
+                con.add(vf.createIRI("http://www.metaphacts.com/resource/Person" + i), RDF.TYPE,
+                    vf.createIRI(FOAF.NAMESPACE, "Person"));
+            }
+        }
+        config.getUiConfig().setParameter("sparqlBatchMaxResultKB", "1");
+        try {
+            Map<String, JsonNode> results = post(
+                "[{\"id\": \"large\", \"query\": \"SELECT ?s WHERE { ?s a <" + FOAF.NAMESPACE + "Person> }\"},"
+                + " {\"id\": \"small\", \"query\": \"ASK { ?s a <" + FOAF.NAMESPACE + "Person> }\"}]");
+            Assert.assertEquals(413, results.get("large").get("status").asInt());
+            Assert.assertEquals(200, results.get("small").get("status").asInt());
+        } finally {
+            config.getUiConfig().setParameter("sparqlBatchMaxResultKB", "4096");
+        }
+    }
+
+    @Test
+    @SubjectAware(
+            username="guest",
+            password="guest",
+            configuration = sparqlPermissionShiroFile
+            )
+    public void testAsyncBatchReleasesRequestThread() throws Exception {
+        AsyncContext asyncContext = mock(AsyncContext.class);
+        when(req.isAsyncSupported()).thenReturn(true);
+        when(req.startAsync()).thenReturn(asyncContext);
+        setBody("[{\"id\": \"a\", \"query\": \"ASK { ?s ?p ?o }\"}, {\"id\": \"b\", \"query\": \"ASK {}\"}]");
+        batchServlet.doPost(req, res);
+
+        // the response is completed by the executor, once all operations are answered
+        verify(asyncContext, timeout(5000)).complete();
+        verify(asyncContext).setTimeout(Matchers.anyLong());
+        Assert.assertEquals(2, readResults().size());
+    }
+
+    @Test
+    public void testTimeoutCancelsOperations() throws Exception {
+        List<BatchOperation> operations = SparqlBatchServlet.parseOperations(mapper.readTree(
+            "[{\"id\": \"a\", \"query\": \"ASK {}\"}, {\"id\": \"b\", \"query\": \"ASK {}\"}]"));
+        BatchResponse response = new BatchResponse(responseBody, operations, () -> {},
+            query -> runningQueries.kill(query.getId()));
+        RepositoryConnection con = mock(RepositoryConnection.class);
+        try (RunningQuery running = runningQueries.register("guest", "default", "ASK {}", SparqlOperation.ASK, con)) {
+            Assert.assertTrue(response.started(0, running));
+
+            response.timeout();
+            Assert.assertTrue(response.isCancelled());
+            // the evaluated operation is killed
+            Assert.assertTrue(running.isKilled());
+            verify(con).close();
+            // operations which have not been started are not evaluated anymore
+            Assert.assertFalse(response.started(1, running));
+        }
+        Map<String, JsonNode> results = readResults();
+        Assert.assertEquals(Status.GATEWAY_TIMEOUT.getStatusCode(), results.get("a").get("status").asInt());
+        Assert.assertEquals(Status.GATEWAY_TIMEOUT.getStatusCode(), results.get("b").get("status").asInt());
+    }
+
+    @Test
+    public void testDisconnectCancelsOperations() throws Exception {
+        List<BatchOperation> operations = SparqlBatchServlet.parseOperations(mapper.readTree(
+            "[{\"id\": \"a\", \"query\": \"ASK {}\"}, {\"id\": \"b\", \"query\": \"ASK {}\"}]"));
+        OutputStream disconnected = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Connection reset by peer");
+            }
+        };
+        BatchResponse response = new BatchResponse(disconnected, operations, () -> {},
+            query -> runningQueries.kill(query.getId()));
+        RepositoryConnection con = mock(RepositoryConnection.class);
+        try (RunningQuery running = runningQueries.register("guest", "default", "ASK {}", SparqlOperation.ASK, con)) {
+            Assert.assertTrue(response.started(1, running));
+
+            response.write(0, BatchResult.error("a", Status.BAD_REQUEST.getStatusCode(), "Invalid query."));
+            Assert.assertTrue(response.isCancelled());
+            Assert.assertTrue(running.isKilled());
+            verify(con).close();
+        }
+    }
+
+    private Map<String, JsonNode> post(String body) throws Exception {
+        setBody(body);
+        batchServlet.doPost(req, res);
+        verify(res).setStatus(Status.OK.getStatusCode());
+        return readResults();
+    }
+
+    private Map<String, JsonNode> readResults() throws Exception {
+        Map<String, JsonNode> results = new HashMap<>();
+        String[] lines = new String(responseBody.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        for (String line : lines) {
+            JsonNode result = mapper.readTree(line);
+            Assert.assertNull("Duplicate result for " + result.get("id"), results.put(result.get("id").asText(), result));
+        }
+        return results;
+    }
+
+    private void setBody(String body) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+        when(req.getInputStream()).thenReturn(new ServletInputStream() {
+            @Override
+            public int read() throws IOException {
+                return in.read();
+            }
+
+            @Override
+            public boolean isFinished() {
+                return in.available() == 0;
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+            }
+        });
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.servlet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.repository.Repository;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.RepositoryException;
+import org.eclipse.rdf4j.repository.base.RepositoryWrapper;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.metaphacts.junit.AbstractIntegrationTest;
+import com.metaphacts.servlet.SparqlRequestExecutor.Priority;
+
+/**
+ * Load test which saturates the SPARQL endpoint with queries on a stub
+ * repository emulating a stalled remote endpoint, and measures the latency
+ * of static requests served by the same (bounded) pool of request threads:
+ * once with queries evaluated on the request threads and once handed off to
+ * the {@link SparqlRequestExecutor}.
+ *
+ * Only executed if the system property <code>metaphacts.benchmark</code> is
+ * set to <code>true</code>.
+ */
+public class SparqlRequestExecutorBenchmarkTest extends AbstractIntegrationTest {
+    private static final Logger logger = LogManager.getLogger(SparqlRequestExecutorBenchmarkTest.class);
+
+    private static final int REQUEST_THREADS = 16;
+    private static final int SPARQL_REQUESTS = 300;
+    private static final int STATIC_REQUESTS = 200;
+    private static final long STUB_LATENCY_MILLIS = 500;
+
+    private Repository repository;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean("metaphacts.benchmark"));
+        SailRepository sailRepository = new SailRepository(new MemoryStore());
+        repository = new RepositoryWrapper(sailRepository) {
+            @Override
+            public RepositoryConnection getConnection() throws RepositoryException {
+                try {
+                    Thread.sleep(STUB_LATENCY_MILLIS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getConnection();
+            }
+        };
+        repository.initialize();
+        config.getUiConfig().setParameter("sparqlExecutorThreads.stub", "8");
+        config.getUiConfig().setParameter("sparqlExecutorQueueSize.stub", "100");
+    }
+
+    @After
+    public void tearDown() {
+        if (repository != null) {
+            repository.shutDown();
+        }
+    }
+
+    @Test
+    public void benchmarkStaticRequestsUnderSparqlLoad() throws Exception {
+        List<Long> synchronous = run(false);
+        List<Long> asynchronous = run(true);
+        logger.info("Static request latency with queries on request threads: median {} ms, p99 {} ms",
+            percentile(synchronous, 50), percentile(synchronous, 99));
+        logger.info("Static request latency with queries on the SPARQL executor: median {} ms, p99 {} ms",
+            percentile(asynchronous, 50), percentile(asynchronous, 99));
+    }
+
+    /**
+     * @return the latencies (in milliseconds) of the static requests
+     */
+    private List<Long> run(boolean async) throws Exception {
+        ExecutorService requestThreads = Executors.newFixedThreadPool(REQUEST_THREADS);
+        SparqlRequestExecutor sparqlExecutor = new SparqlRequestExecutor(config);
+        AtomicInteger rejected = new AtomicInteger();
+        try {
+            for (int i = 0; i < SPARQL_REQUESTS; i++) {
+                requestThreads.execute(() -> {
+                    if (!async) {
+                        evaluateQuery();
+                    } else if (!sparqlExecutor.submit("stub", Priority.INTERACTIVE, this::evaluateQuery)) {
+                        // answered with 503
+                        rejected.incrementAndGet();
+                    }
+                });
+            }
+            List<Future<Long>> staticRequests = new ArrayList<>();
+            for (int i = 0; i < STATIC_REQUESTS; i++) {
+                long submitted = System.nanoTime();
+                staticRequests.add(requestThreads.submit(
+                    () -> TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - submitted)));
+                Thread.sleep(5);
+            }
+            List<Long> latencies = new ArrayList<>();
+            for (Future<Long> request : staticRequests) {
+                latencies.add(request.get());
+            }
+            logger.info("{} SPARQL requests rejected with 503.", rejected.get());
+            return latencies;
+        } finally {
+            requestThreads.shutdownNow();
+            requestThreads.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private void evaluateQuery() {
+        try (RepositoryConnection con = repository.getConnection();
+             TupleQueryResult result = con.prepareTupleQuery(QueryLanguage.SPARQL,
+                 "SELECT * WHERE { ?s ?p ?o } LIMIT 10").evaluate()) {
+            while (result.hasNext()) {
+                result.next();
+            }
+        }
+    }
+
+    private static long percentile(List<Long> values, int percentile) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        return sorted.get(Math.min(sorted.size() - 1, sorted.size() * percentile / 100));
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.servlet;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.metaphacts.junit.AbstractIntegrationTest;
+import com.metaphacts.servlet.SparqlRequestExecutor.ExecutorStats;
+import com.metaphacts.servlet.SparqlRequestExecutor.Priority;
+
+/**
+ * Test cases for {@link SparqlRequestExecutor}.
+ */
+public class SparqlRequestExecutorTest extends AbstractIntegrationTest {
+
+    private SparqlRequestExecutor executor;
+
+    @Before
+    public void setUp() {
+        config.getUiConfig().setParameter("sparqlExecutorThreads.test", "1");
+        config.getUiConfig().setParameter("sparqlExecutorQueueSize.test", "3");
+        executor = new SparqlRequestExecutor(config);
+    }
+
+    @Test
+    public void testInteractiveRequestsAreEvaluatedFirst() throws Exception {
+        CountDownLatch release = blockExecutor("test");
+        List<String> evaluated = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        Assert.assertTrue(executor.submit("test", Priority.EXPORT, () -> { evaluated.add("export"); done.countDown(); }));
+        Assert.assertTrue(executor.submit("test", Priority.INTERACTIVE, () -> { evaluated.add("interactive 1"); done.countDown(); }));
+        Assert.assertTrue(executor.submit("test", Priority.INTERACTIVE, () -> { evaluated.add("interactive 2"); done.countDown(); }));
+        Assert.assertEquals(3, executor.getStats().get("test").getQueued());
+
+        release.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Lists.newArrayList("interactive 1", "interactive 2", "export"), evaluated);
+    }
+
+    @Test
+    public void testRequestsAreRejectedIfQueueIsFull() throws Exception {
+        CountDownLatch release = blockExecutor("test");
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(executor.submit("test", Priority.INTERACTIVE, () -> {}));
+        }
+        Assert.assertFalse(executor.submit("test", Priority.INTERACTIVE, () -> {}));
+
+        // other repositories are not affected
+        CountDownLatch other = new CountDownLatch(1);
+        Assert.assertTrue(executor.submit("other", Priority.INTERACTIVE, other::countDown));
+        Assert.assertTrue(other.await(5, TimeUnit.SECONDS));
+
+        ExecutorStats stats = executor.getStats().get("test");
+        Assert.assertEquals(1, stats.getRejected());
+        Assert.assertEquals(1, stats.getActive());
+
+        release.countDown();
+        // permits are released once requests are completed
+        CountDownLatch done = new CountDownLatch(1);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!executor.submit("test", Priority.INTERACTIVE, done::countDown)) {
+            Assert.assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Sets.newHashSet("test", "other"), executor.getStats().keySet());
+    }
+
+    /**
+     * Occupies the only thread of the executor of the given repository.
+     *
+     * @return latch to release the thread
+     */
+    private CountDownLatch blockExecutor(String repositoryId) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Assert.assertTrue(executor.submit(repositoryId, Priority.INTERACTIVE, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        Assert.assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.servlet;
+
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.HttpMethod;
+
+import org.apache.http.entity.ContentType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultFormat;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.MockitoAnnotations;
+
+import com.github.sdorra.shiro.ShiroRule;
+import com.github.sdorra.shiro.SubjectAware;
+import com.google.common.collect.Lists;
+import com.google.inject.Inject;
+import com.metaphacts.junit.AbstractIntegrationTest;
+import com.metaphacts.junit.TestUtils;
+
+/**
+ * Compares throughput and bytes on the wire of a SELECT query with 1M result
+ * rows, for the SPARQL JSON and the binary result format, each with and
+ * without gzip compression. The binary format is additionally written with a
+ * response buffer of a single byte, i.e. with a write to the client per
+ * value, to show the effect of writing in chunks.
+ *
+ * Only executed if the system property <code>metaphacts.benchmark</code> is
+ * set to <code>true</code>.
+ */
+public class SparqlServletCompressionBenchmarkTest extends AbstractIntegrationTest {
+    private static final Logger logger = LogManager.getLogger(SparqlServletCompressionBenchmarkTest.class);
+
+    private static final int ROWS = 1000000;
+    private static final String EX = "http://example.org/";
+    private static final String QUERY = "SELECT ?s ?o WHERE { ?s <" + EX + "p> ?o }";
+
+    private final String sparqlPermissionShiroFile = "classpath:com/metaphacts/security/shiro-query-rights.ini";
+
+    @Inject
+    SparqlServlet sparqlServlet;
+
+    @Rule
+    public ShiroRule shiroRule = new ShiroRule();
+
+    @Mock
+    private HttpServletRequest req;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue(Boolean.getBoolean("metaphacts.benchmark"));
+        MockitoAnnotations.initMocks(this);
+        ValueFactory vf = SimpleValueFactory.getInstance();
+        IRI p = vf.createIRI(EX, "p");
+        try (RepositoryConnection con = repositoryRule.getRepository().getConnection()) {
+            con.begin();
+            for (int i = 0; i < ROWS; i++) {
+                con.add(vf.createIRI(EX, "s" + i), p, vf.createLiteral("label of resource " + i, "en"));
+            }
+            con.commit();
+        }
+        when(req.getParameter("query")).thenReturn(QUERY);
+        when(req.getMethod()).thenReturn(HttpMethod.POST);
+        when(req.getContentType()).thenReturn(ContentType.APPLICATION_FORM_URLENCODED.toString());
+    }
+
+    @After
+    public void tearDown() {
+        config.getUiConfig().setParameter("sparqlResponseBufferSize", "65536");
+    }
+
+    @Test
+    @SubjectAware(
+            username="admin",
+            password="admin",
+            configuration = sparqlPermissionShiroFile
+          )
+    public void benchmarkResultFormatsAndCompression() throws Exception {
+        // warm up
+        run(TupleQueryResultFormat.JSON, null);
+        run(TupleQueryResultFormat.BINARY, CompressingOutputStream.GZIP);
+
+        run(TupleQueryResultFormat.JSON, null);
+        run(TupleQueryResultFormat.JSON, CompressingOutputStream.GZIP);
+        run(TupleQueryResultFormat.BINARY, null);
+        run(TupleQueryResultFormat.BINARY, CompressingOutputStream.GZIP);
+
+        config.getUiConfig().setParameter("sparqlResponseBufferSize", "1");
+        run(TupleQueryResultFormat.BINARY, null);
+    }
+
+    private void run(TupleQueryResultFormat format, String encoding) throws Exception {
+        when(req.getHeaders("Accept")).thenAnswer(TestUtils.getMimetypeAnswer(format.getMIMETypes()));
+        when(req.getHeaders("Accept-Encoding")).thenAnswer(
+            TestUtils.getMimetypeAnswer(encoding != null ? Lists.newArrayList(encoding) : Lists.<String>newArrayList()));
+        HttpServletResponse res = Mockito.mock(HttpServletResponse.class);
+        CountingOutputStream out = new CountingOutputStream();
+        when(res.getOutputStream()).thenReturn(out);
+
+        long start = System.nanoTime();
+        sparqlServlet.doPost(req, res);
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        logger.info("{} ({}, response buffer {} bytes): {} ms, {} rows/s, {} bytes in {} writes",
+            format.getName(), encoding != null ? encoding : "identity",
+            config.getUiConfig().getSparqlResponseBufferSize(), millis,
+            ROWS * 1000L / Math.max(1, millis), out.bytes, out.writes);
+    }
+
+    private static class CountingOutputStream extends ServletOutputStream {
+        private long bytes = 0;
+        private long writes = 0;
+
+        @Override
+        public void write(int b) throws IOException {
+            bytes++;
+            writes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            bytes += len;
+            writes++;
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener writeListener) {
+        }
+    }
+}
@@ -18,19 +18,28 @@
 
 package com.metaphacts.servlet;
 
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPInputStream;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.ws.rs.HttpMethod;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response.Status;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.output.ByteArrayOutputStream;
 import org.apache.http.entity.ContentType;
 import org.eclipse.rdf4j.model.Statement;
@@ -41,10 +50,13 @@
 import org.eclipse.rdf4j.query.QueryResults;
 import org.eclipse.rdf4j.query.TupleQuery;
 import org.eclipse.rdf4j.query.TupleQueryResult;
+import org.eclipse.rdf4j.query.resultio.QueryResultIO;
 import org.eclipse.rdf4j.query.resultio.TupleQueryResultFormat;
+import org.eclipse.rdf4j.query.resultio.TupleQueryResultParser;
 import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriter;
 import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriterFactory;
 import org.eclipse.rdf4j.query.resultio.TupleQueryResultWriterRegistry;
+import org.eclipse.rdf4j.query.resultio.helpers.QueryResultCollector;
 import org.eclipse.rdf4j.repository.Repository;
 import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.junit.Assert;
@@ -61,10 +73,19 @@
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
+import com.metaphacts.api.sparql.QueryProfile;
+import com.metaphacts.api.sparql.QueryProfile.Outcome;
+import com.metaphacts.api.sparql.QueryProfiler;
+import com.metaphacts.api.sparql.QueryProfiler.FingerprintStats;
+import com.metaphacts.api.sparql.RunningQueryRegistry;
 import com.metaphacts.api.sparql.SparqlOperationBuilder;
+import com.metaphacts.api.sparql.SparqlUtil.SparqlOperation;
 import com.metaphacts.di.MainGuiceModule.MainTemplateProvider;
 import com.metaphacts.junit.AbstractIntegrationTest;
 import com.metaphacts.junit.TestUtils;
+import com.metaphacts.repository.RepositoryManager;
+import com.metaphacts.security.AdmissionController;
+import com.metaphacts.servlet.SparqlRequestExecutor.Priority;
 
 /**
  * @author Johannes Trame <jt@metaphacts.com>
@@ -97,6 +118,21 @@ public class SparqlServletTest extends AbstractIntegrationTest  {
 
     @Inject
     Injector injector;
+
+    @Inject
+    RunningQueryRegistry runningQueries;
+
+    @Inject
+    SparqlRequestExecutor requestExecutor;
+
+    @Inject
+    AdmissionController admissionController;
+
+    @Inject
+    QueryProfiler profiler;
+
+    @Mock
+    private AsyncContext asyncContext;
     
     private ValueFactory vf;
     
@@ -293,6 +329,348 @@ public void testNoUpdatePermission() throws Exception {
         }
     }
 
+    @Test
+    @SubjectAware(
+            username="guest",
+            password="guest",
+            configuration = sparqlPermissionShiroFile
+            )
+    public void testQueryTimeouts() throws Exception {
+        Assert.assertEquals(0, sparqlServlet.getQueryTimeoutSeconds("default"));
+
+        config.getUiConfig().setParameter("sparqlQueryTimeoutSeconds", "60");
+        config.getUiConfig().setParameter("sparqlQueryTimeoutSeconds.other", "120");
+        Assert.assertEquals(60, sparqlServlet.getQueryTimeoutSeconds("default"));
+        Assert.assertEquals(120, sparqlServlet.getQueryTimeoutSeconds("other"));
+
+        // timeouts of roles take precedence, roles of other users are ignored
+        config.getUiConfig().setParameter("sparqlQueryRoleTimeouts", "guest:10");
+        Assert.assertEquals(10, sparqlServlet.getQueryTimeoutSeconds("other"));
+        config.getUiConfig().setParameter("sparqlQueryRoleTimeouts", "admin:0");
+        Assert.assertEquals(120, sparqlServlet.getQueryTimeoutSeconds("other"));
+    }
+
+    @Test
+    @SubjectAware(
+            username="admin",
+            password="admin",
+            configuration = sparqlPermissionShiroFile
+          )
+    public void testClientDisconnectAbortsEvaluation() throws Exception {
+        Repository rep = repositoryRule.getRepository();
+        try(RepositoryConnection con = rep.getConnection()){
+            addTestStatements(con);
+        }
+        when(req.getParameter("query")).thenReturn(selectQuery);
+        when(req.getMethod()).thenReturn(HttpMethod.POST);
+        when(req.getContentType()).thenReturn(ContentType.APPLICATION_FORM_URLENCODED.toString());
+        when(req.getHeaders("Accept")).thenAnswer(TestUtils.getMimetypeAnswer(TupleQueryResultFormat.JSON.getMIMETypes()));
+        when(res.getOutputStream()).thenReturn(outputStream);
+        Mockito.doThrow(new IOException("Broken pipe"))
+            .when(outputStream).write(Mockito.any(byte[].class), Mockito.anyInt(), Mockito.anyInt());
+
+        sparqlServlet.doPost(req, res);
+
+        verify(res, never()).sendError(Mockito.anyInt(), Mockito.anyString());
+        Assert.assertTrue(runningQueries.getRunningQueries().isEmpty());
+    }
+
+    @Test
+    @SubjectAware(
+            username="admin",
+            password="admin",
+            configuration = sparqlPermissionShiroFile
+          )
+    public void testAsynchronousEvaluation() throws Exception {
+        Repository rep = repositoryRule.getRepository();
+        try(RepositoryConnection con = rep.getConnection()){
+            addTestStatements(con);
+        }
+        when(req.getParameter("query")).thenReturn(selectQuery);
+        when(req.getMethod()).thenReturn(HttpMethod.POST);
+        when(req.getContentType()).thenReturn(ContentType.APPLICATION_FORM_URLENCODED.toString());
+        when(req.getHeaders("Accept")).thenAnswer(TestUtils.getMimetypeAnswer(TupleQueryResultFormat.JSON.getMIMETypes()));
+        when(res.getOutputStream()).thenReturn(outputStream);
+        when(req.isAsyncSupported()).thenReturn(true);
+        when(req.startAsync()).thenReturn(asyncContext);
+        when(asyncContext.getRequest()).thenReturn(req);
+        when(asyncContext.getResponse()).thenReturn(res);
+
+        sparqlServlet.doPost(req, res);
+
+        // evaluated with the permissions of the user on an executor thread
+        verify(asyncContext, Mockito.timeout(5000)).complete();
+        verify(res).setContentType(Mockito.contains(TupleQueryResultFormat.JSON.getDefaultMIMEType()));
+        verify(res, never()).sendError(Mockito.anyInt(), Mockito.anyString());
+    }
+
+    @Test
+    @SubjectAware(
+            username="admin",
+            password="admin",
+            configuration = sparqlPermissionShiroFile
+          )
+    public void testRejectedIfQueueIsFull() throws Exception {
+        config.getUiConfig().setParameter("sparqlExecutorThreads.assets", "1");
+        config.getUiConfig().setParameter("sparqlExecutorQueueSize.assets", "0");
+        CountDownLatch release = new CountDownLatch(1);
+        Assert.assertTrue(requestExecutor.submit(RepositoryManager.ASSET_REPOSITORY_ID, Priority.INTERACTIVE, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        try {
+            when(req.getParameter("query")).thenReturn(selectQuery);
+            when(req.getParameter("repository")).thenReturn(RepositoryManager.ASSET_REPOSITORY_ID);
+            when(req.getMethod()).thenReturn(HttpMethod.POST);
+            when(req.getContentType()).thenReturn(ContentType.APPLICATION_FORM_URLENCODED.toString());
+            when(req.getHeaders("Accept")).thenAnswer(TestUtils.getMimetypeAnswer(TupleQueryResultFormat.JSON.getMIMETypes()));
+            when(req.isAsyncSupported()).thenReturn(true);
+            when(req.startAsync()).thenReturn(asyncContext);
+
+            sparqlServlet.doPost(req, res);
+
+            verify(res).setHeader("Retry-After", "5");
+            verify(res).sendError(Mockito.eq(Status.SERVICE_UNAVAILABLE.getStatusCode()), Mockito.anyString());
+            verify(asyncContext).complete();
+            Assert.assertEquals(1, requestExecutor.getStats().get(RepositoryManager.ASSET_REPOSITORY_ID).getRejected());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    @SubjectAware(
+            username="admin",
+            password="admin",
+            configuration = sparqlPermissionShiroFile
+          )
+    public void testUnknownRepository() throws Exception {
+        config.getAdmissionConfig().setParameter("enabled", "true");
+        try {
+            when(req.getParameter("query")).thenReturn(selectQuery);
+            when(req.getParameter("repository")).thenReturn("unknown");
+            when(req.getMethod()).thenReturn(HttpMethod.POST);
+            when(req.getContentType()).thenReturn(ContentType.APPLICATION_FORM_URLENCODED.toString());
+            when(req.getHeaders("Accept")).thenAnswer(TestUtils.getMimetypeAnswer(TupleQueryResultFormat.JSON.getMIMETypes()));
+            when(req.isAsyncSupported()).thenReturn(true);
+            when(req.startAsync()).thenReturn(asyncContext);
+
+            sparqlServlet.doPost(req, res);
+
+            verify(res).sendError(Mockito.eq(Status.NOT_FOUND.getStatusCode()), Mockito.anyString());
+            // neither an executor nor limits are created for the repository
+            verify(req, Mockito.never()).startAsync();
+            Assert.assertFalse(requestExecutor.getStats().containsKey("unknown"));
+        } finally {
+            config.getAdmissionConfig().setParameter("enabled", "false");
+        }
+    }
+
+    @Test
+    @SubjectAware(
+            username="admin",
+            password="admin",
+            configuration = sparqlPermissionShiroFile
+          )
+    public void testThrottledRequest() throws Exception {
+        config.getAdmissionConfig().setParameter("enabled", "true");
+        config.getAdmissionConfig().setParameter("userQueriesPerMinute", "60");
+        config.getAdmissionConfig().setParameter("userBurst", "1");
+        try {
+            // exhaust the bucket of the user
+            admissionController.admit("admin", role -> true, null).close();
+
+            when(req.getParameter("query")).thenReturn(selectQuery);
+            when(req.getMethod()).thenReturn(HttpMethod.POST);
+            when(req.getContentType()).thenReturn(ContentType.APPLICATION_FORM_URLENCODED.toString());
+            when(req.getHeaders("Accept")).thenAnswer(TestUtils.getMimetypeAnswer(TupleQueryResultFormat.JSON.getMIMETypes()));
+            when(req.isAsyncSupported()).thenReturn(true);
+
+            sparqlServlet.doPost(req, res);
+
+            verify(res).setHeader("Retry-After", "1");
+            verify(res).setHeader("RateLimit-Limit", "1");
+            verify(res).setHeader("RateLimit-Remaining", "0");
+            verify(res).sendError(Mockito.eq(429), Mockito.anyString());
+            // rejected before evaluation
+            verify(req, Mockito.never()).startAsync();
+        } finally {
+            config.getAdmissionConfig().setParameter("enabled", "false");
+        }
+    }
+
+    @Test
+    @SubjectAware(
+            username="admin",
+            password="admin",
+            configuration = sparqlPermissionShiroFile
+          )
+    public void testQueryIsProfiled() throws Exception {
+        try(RepositoryConnection con = repositoryRule.getRepository().getConnection()){
+            addTestStatements(con);
+        }
+        when(req.getParameter("query")).thenReturn(selectQuery);
+        when(req.getMethod()).thenReturn(HttpMethod.POST);
+        when(req.getContentType()).thenReturn(ContentType.APPLICATION_FORM_URLENCODED.toString());
+        when(req.getHeaders("Accept")).thenAnswer(TestUtils.getMimetypeAnswer(TupleQueryResultFormat.CSV.getMIMETypes()));
+        when(res.getOutputStream()).thenReturn(outputStream);
+        sparqlServlet.doPost(req, res);
+
+        QueryProfile profile = profiler.getRecentQueries().get(0);
+        Assert.assertEquals(selectQuery.hashCode(), profile.getQueryHash());
+        Assert.assertEquals(SparqlOperation.SELECT, profile.getOperationType());
+        Assert.assertEquals(Outcome.COMPLETED, profile.getOutcome());
+        Assert.assertEquals(4, profile.getRows());
+        Assert.assertTrue(profile.getBytes() > 0);
+        Assert.assertTrue(profile.getFirstResultMillis() >= 0);
+        Assert.assertTrue(profile.getTotalMillis() >= profile.getPrepareMillis() + profile.getEvaluationMillis());
+
+        FingerprintStats stats = profiler.getTopFingerprints(10, QueryProfiler.Order.TOTAL).stream()
+            .filter(s -> s.getFingerprint().equals(profile.getFingerprint()))
+            .findFirst().get();
+        Assert.assertTrue(stats.getCount() >= 1);
+        Assert.assertTrue(stats.getP95Millis() > 0);
+    }
+
+    @Test
+    @SubjectAware(
+            username="admin",
+            password="admin",
+            configuration = sparqlPermissionShiroFile
+          )
+    public void testPagingWithCursor() throws Exception {
+        try(RepositoryConnection con = repositoryRule.getRepository().getConnection()){
+            addTestStatements(con);
+        }
+        String personQuery = "SELECT ?s WHERE { ?s a <" + FOAF.NAMESPACE + "Person> }";
+        when(req.getParameter("query")).thenReturn(personQuery);
+        when(req.getParameter("pageSize")).thenReturn("3");
+        when(req.getMethod()).thenReturn(HttpMethod.POST);
+        when(req.getContentType()).thenReturn(ContentType.APPLICATION_FORM_URLENCODED.toString());
+        when(req.getHeaders("Accept")).thenAnswer(TestUtils.getMimetypeAnswer(TupleQueryResultFormat.CSV.getMIMETypes()));
+        when(res.getOutputStream()).thenReturn(outputStream);
+        sparqlServlet.doPost(req, res);
+
+        ArgumentCaptor<String> token = ArgumentCaptor.forClass(String.class);
+        verify(res).setHeader(Mockito.eq(SparqlServlet.CONTINUATION_TOKEN_HEADER), token.capture());
+        Assert.assertEquals(3, profiler.getRecentQueries().get(0).getRows());
+
+        // the last page is fetched by token and releases the cursor
+        HttpServletRequest pageReq = Mockito.mock(HttpServletRequest.class);
+        HttpServletResponse pageRes = Mockito.mock(HttpServletResponse.class);
+        when(pageReq.getParameter("cursor")).thenReturn(token.getValue());
+        when(pageReq.getMethod()).thenReturn(HttpMethod.GET);
+        when(pageReq.getHeaders("Accept")).thenAnswer(TestUtils.getMimetypeAnswer(TupleQueryResultFormat.CSV.getMIMETypes()));
+        when(pageRes.getOutputStream()).thenReturn(outputStream);
+        sparqlServlet.doGet(pageReq, pageRes);
+        verify(pageRes).setContentType(Mockito.contains(TupleQueryResultFormat.CSV.getDefaultMIMEType()));
+        verify(pageRes, never()).setHeader(Mockito.eq(SparqlServlet.CONTINUATION_TOKEN_HEADER), Mockito.anyString());
+        verify(pageRes, never()).sendError(Mockito.anyInt(), Mockito.anyString());
+
+        HttpServletResponse expiredRes = Mockito.mock(HttpServletResponse.class);
+        sparqlServlet.doGet(pageReq, expiredRes);
+        verify(expiredRes).sendError(Mockito.eq(Status.NOT_FOUND.getStatusCode()), Mockito.anyString());
+    }
+
+    @Test
+    @SubjectAware(
+            username="admin",
+            password="admin",
+            configuration = sparqlPermissionShiroFile
+          )
+    public void testCompressedResult() throws Exception {
+        try(RepositoryConnection con = repositoryRule.getRepository().getConnection()){
+            addTestStatements(con);
+        }
+        config.getUiConfig().setParameter("sparqlCompressionMinBytes", "100");
+        try {
+            when(req.getParameter("query")).thenReturn(selectQuery);
+            when(req.getMethod()).thenReturn(HttpMethod.POST);
+            when(req.getContentType()).thenReturn(ContentType.APPLICATION_FORM_URLENCODED.toString());
+            when(req.getHeaders("Accept")).thenAnswer(TestUtils.getMimetypeAnswer(TupleQueryResultFormat.JSON.getMIMETypes()));
+            when(req.getHeaders("Accept-Encoding")).thenAnswer(TestUtils.getMimetypeAnswer(Lists.newArrayList("deflate;q=0.5, gzip")));
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            when(res.getOutputStream()).thenReturn(servletOutputStream(body));
+            sparqlServlet.doPost(req, res);
+
+            verify(res, never()).sendError(Mockito.anyInt(), Mockito.anyString());
+            verify(res).addHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            verify(res).setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            String json = IOUtils.toString(new GZIPInputStream(new ByteArrayInputStream(body.toByteArray())), StandardCharsets.UTF_8);
+            Assert.assertTrue(json.contains("http://www.metaphacts.com/resource/Johannes"));
+
+            // results below the minimum size are not compressed
+            HttpServletResponse askRes = Mockito.mock(HttpServletResponse.class);
+            ByteArrayOutputStream askBody = new ByteArrayOutputStream();
+            when(askRes.getOutputStream()).thenReturn(servletOutputStream(askBody));
+            when(req.getParameter("query")).thenReturn(askQuery);
+            when(req.getHeaders("Accept")).thenAnswer(TestUtils.getMimetypeAnswer(Lists.newArrayList("text/boolean")));
+            sparqlServlet.doPost(req, askRes);
+            verify(askRes, never()).setHeader(Mockito.eq(HttpHeaders.CONTENT_ENCODING), Mockito.anyString());
+            Assert.assertEquals("true", new String(askBody.toByteArray(), StandardCharsets.UTF_8).trim());
+        } finally {
+            config.getUiConfig().setParameter("sparqlCompressionMinBytes", "1024");
+        }
+    }
+
+    @Test
+    @SubjectAware(
+            username="admin",
+            password="admin",
+            configuration = sparqlPermissionShiroFile
+          )
+    public void testBinaryResultFormat() throws Exception {
+        try(RepositoryConnection con = repositoryRule.getRepository().getConnection()){
+            addTestStatements(con);
+        }
+        String personQuery = "SELECT ?s WHERE { ?s a <" + FOAF.NAMESPACE + "Person> }";
+        when(req.getParameter("query")).thenReturn(personQuery);
+        when(req.getMethod()).thenReturn(HttpMethod.POST);
+        when(req.getContentType()).thenReturn(ContentType.APPLICATION_FORM_URLENCODED.toString());
+        when(req.getHeaders("Accept")).thenAnswer(TestUtils.getMimetypeAnswer(TupleQueryResultFormat.BINARY.getMIMETypes()));
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        when(res.getOutputStream()).thenReturn(servletOutputStream(body));
+        sparqlServlet.doPost(req, res);
+
+        // binary formats have no charset
+        verify(res).setContentType(TupleQueryResultFormat.BINARY.getDefaultMIMEType());
+        Assert.assertEquals(Priority.EXPORT, SparqlServlet.getPriority(TupleQueryResultFormat.BINARY.getDefaultMIMEType()));
+        TupleQueryResultParser parser = QueryResultIO.createTupleParser(TupleQueryResultFormat.BINARY);
+        QueryResultCollector collector = new QueryResultCollector();
+        parser.setQueryResultHandler(collector);
+        parser.parseQueryResult(new ByteArrayInputStream(body.toByteArray()));
+        Assert.assertEquals(4, collector.getBindingSets().size());
+    }
+
+    @Test
+    public void testPriority() {
+        Assert.assertEquals(Priority.INTERACTIVE, SparqlServlet.getPriority(TupleQueryResultFormat.JSON.getDefaultMIMEType()));
+        Assert.assertEquals(Priority.INTERACTIVE, SparqlServlet.getPriority("text/turtle"));
+        Assert.assertEquals(Priority.EXPORT, SparqlServlet.getPriority(TupleQueryResultFormat.CSV.getDefaultMIMEType()));
+        Assert.assertEquals(Priority.EXPORT, SparqlServlet.getPriority(""));
+    }
+
+    private ServletOutputStream servletOutputStream(ByteArrayOutputStream body) {
+        return new ServletOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                body.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        };
+    }
+
     private void addTestStatements(RepositoryConnection con) throws Exception {
             List<Statement> stmts = Lists.newArrayList(
                     vf.createStatement(vf.createIRI("http://www.metaphacts.com/resource/Johannes"), RDF.TYPE, vf.createIRI(FOAF.NAMESPACE,"Person")),
@@ -0,0 +1,225 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.sparql;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.UnaryTupleOperator;
+import org.eclipse.rdf4j.query.impl.MapBindingSet;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.metaphacts.sparql.renderer.BoundJoinTemplate;
+import com.metaphacts.sparql.renderer.MpSparqlQueryRenderer;
+
+/**
+ * Measures bound joins of 10k bindings in blocks of different sizes, for the
+ * VALUES clause rendered per block from the bound join template and, for
+ * comparison, with the string concatenation used before (copy of each binding
+ * set, a renderer per value). Reports the time and the bytes allocated for
+ * rendering the queries only, and the time of the whole join against an
+ * in-memory member.
+ *
+ * Only executed if the system property <code>metaphacts.benchmark</code> is
+ * set to <code>true</code>.
+ */
+public class MpOwnedTupleExprBenchmarkTest {
+    private static final Logger logger = LogManager.getLogger(MpOwnedTupleExprBenchmarkTest.class);
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final String NS = "http://www.metaphacts.com/test/";
+    private static final IRI P = vf.createIRI(NS, "p");
+    private static final String QUERY = "SELECT ?s ?o ?label WHERE { ?s <" + P + "> ?o . ?o <" + RDFS.LABEL + "> ?label }";
+    private static final int BINDINGS = 10000;
+    private static final int ROUNDS = 5;
+
+    private SailRepository repository;
+    private RepositoryConnection con;
+    private List<BindingSet> left;
+
+    @Before
+    public void setUp() {
+        Assume.assumeTrue(Boolean.getBoolean("metaphacts.benchmark"));
+        repository = new SailRepository(new MemoryStore());
+        repository.initialize();
+        con = repository.getConnection();
+        left = Lists.newArrayListWithCapacity(BINDINGS);
+        con.begin();
+        for (int i = 0; i < BINDINGS; i++) {
+            IRI s = vf.createIRI(NS, "s" + i);
+            IRI o = vf.createIRI(NS, "o" + i);
+            con.add(s, P, o);
+            con.add(o, RDFS.LABEL, vf.createLiteral("label of resource " + i, "en"));
+            MapBindingSet bs = new MapBindingSet();
+            bs.addBinding("s", s);
+            bs.addBinding("left", vf.createLiteral(i));
+            left.add(bs);
+        }
+        con.commit();
+    }
+
+    @After
+    public void tearDown() {
+        if (repository != null) {
+            con.close();
+            repository.shutDown();
+        }
+    }
+
+    @Test
+    public void benchmarkBoundJoin() throws Exception {
+        for (int blockSize : new int[] { 10, 100, 1000 }) {
+            for (int round = 0; round < ROUNDS; round++) {
+                benchmarkRendering(blockSize, round);
+            }
+        }
+        for (int blockSize : new int[] { 10, 100, 1000 }) {
+            for (int round = 0; round < ROUNDS; round++) {
+                benchmarkJoin(blockSize, round);
+            }
+        }
+    }
+
+    private void benchmarkRendering(int blockSize, int round) throws Exception {
+        MpOwnedTupleExpr owned = createOwnedTupleExpr();
+        TupleExpr pattern = owned.getArg();
+        List<String> toBind = Lists.newArrayList("s");
+        Set<String> boundVars = Sets.newHashSet("s", "left");
+
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        long chars = 0;
+        for (List<BindingSet> block : Lists.partition(left, blockSize)) {
+            chars += renderConcatenated(block, boundVars).length();
+        }
+        logger.info("block size {}, round {}, string concatenation: {} ms, {} KB allocated, {} chars",
+            blockSize, round + 1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+            (allocatedBytes() - allocated) / 1024, chars);
+
+        allocated = allocatedBytes();
+        start = System.nanoTime();
+        chars = 0;
+        BoundJoinTemplate template = new MpSparqlQueryRenderer()
+                .renderBoundJoinTemplate(pattern, Lists.newArrayList("s", "o", "label"));
+        for (List<BindingSet> block : Lists.partition(left, blockSize)) {
+            chars += template.render(block, toBind).length();
+        }
+        logger.info("block size {}, round {}, template: {} ms, {} KB allocated, {} chars",
+            blockSize, round + 1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+            (allocatedBytes() - allocated) / 1024, chars);
+    }
+
+    private void benchmarkJoin(int blockSize, int round) throws Exception {
+        MpOwnedTupleExpr owned = createOwnedTupleExpr();
+        Set<String> boundVars = Sets.newHashSet("s", "left");
+        long start = System.nanoTime();
+        long results = 0;
+        for (List<BindingSet> block : Lists.partition(left, blockSize)) {
+            try (CloseableIteration<BindingSet, QueryEvaluationException> iter = owned.evaluate(null, block,
+                    boundVars)) {
+                while (iter.hasNext()) {
+                    iter.next();
+                    results++;
+                }
+            }
+        }
+        logger.info("block size {}, round {}, join of {} bindings: {} ms, {} results",
+            blockSize, round + 1, BINDINGS, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), results);
+    }
+
+    private MpOwnedTupleExpr createOwnedTupleExpr() throws Exception {
+        TupleExpr expr = QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, QUERY, null).getTupleExpr();
+        while (expr instanceof UnaryTupleOperator) {
+            expr = ((UnaryTupleOperator) expr).getArg();
+        }
+        MpOwnedTupleExpr owned = new MpOwnedTupleExpr(con, expr);
+        Map<String, String> variables = Maps.newHashMap();
+        for (String name : Lists.newArrayList("s", "o", "label")) {
+            variables.put(name, name);
+        }
+        owned.prepare(QueryLanguage.SPARQL, QUERY, variables);
+        return owned;
+    }
+
+    /**
+     * The rendering of a block as done before the bound join template.
+     */
+    private static String renderConcatenated(List<BindingSet> block, Set<String> boundVars) {
+        StringBuilder query = new StringBuilder(QUERY.replace("SELECT ", "SELECT ?__index "));
+        List<String> bindingNames = Lists.newArrayList("s", "__index");
+        List<BindingSet> indexed = Lists.newArrayListWithCapacity(block.size());
+        for (int i = 0; i < block.size(); i++) {
+            MapBindingSet bs = new MapBindingSet();
+            block.get(i).forEach(binding -> bs.addBinding(binding.getName(), binding.getValue()));
+            bs.addBinding("__index", vf.createLiteral(i));
+            indexed.add(bs);
+        }
+        MpSparqlQueryRenderer renderer = new MpSparqlQueryRenderer();
+        query.append("VALUES (");
+        for (String var : bindingNames) {
+            query.append("?").append(var).append(" ");
+        }
+        query.append(") { ");
+        for (BindingSet bs : indexed) {
+            query.append("(");
+            for (String name : bindingNames) {
+                if (bs.getValue(name) != null) {
+                    query.append(renderer.renderValue(bs.getValue(name)));
+                } else {
+                    query.append("UNDEF ");
+                }
+            }
+            query.append(") ");
+        }
+        query.append(" } ");
+        return query.toString();
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.sparql;
+
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.rdf4j.common.iteration.CloseableIteration;
+import org.eclipse.rdf4j.common.iteration.Iterations;
+import org.eclipse.rdf4j.model.IRI;
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.model.vocabulary.RDFS;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryEvaluationException;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.UnaryTupleOperator;
+import org.eclipse.rdf4j.query.impl.MapBindingSet;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
+import org.eclipse.rdf4j.repository.sail.SailRepository;
+import org.eclipse.rdf4j.sail.memory.MemoryStore;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Test cases for the bound join evaluation of {@link MpOwnedTupleExpr}.
+ */
+public class MpOwnedTupleExprTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final String NS = "http://www.metaphacts.com/test/";
+    private static final IRI P = vf.createIRI(NS, "p");
+    private static final String QUERY = "SELECT ?s ?o ?label WHERE { ?s <" + P + "> ?o . ?o <" + RDFS.LABEL + "> ?label }";
+
+    private SailRepository repository;
+    private RepositoryConnection con;
+
+    @Before
+    public void setUp() {
+        repository = new SailRepository(new MemoryStore());
+        repository.initialize();
+        con = repository.getConnection();
+        for (int i = 0; i < 10; i++) {
+            IRI o = vf.createIRI(NS, "o" + i);
+            con.add(vf.createIRI(NS, "s" + i), P, o);
+            con.add(o, RDFS.LABEL, vf.createLiteral("label " + i));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        con.close();
+        repository.shutDown();
+    }
+
+    private MpOwnedTupleExpr createOwnedTupleExpr() throws Exception {
+        TupleExpr expr = QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, QUERY, null).getTupleExpr();
+        while (expr instanceof UnaryTupleOperator) {
+            expr = ((UnaryTupleOperator) expr).getArg();
+        }
+        MpOwnedTupleExpr owned = new MpOwnedTupleExpr(con, expr);
+        Map<String, String> variables = Maps.newHashMap();
+        for (String name : Lists.newArrayList("s", "o", "label")) {
+            variables.put(name, name);
+        }
+        owned.prepare(QueryLanguage.SPARQL, QUERY, variables);
+        return owned;
+    }
+
+    private static BindingSet left(int i) {
+        MapBindingSet bs = new MapBindingSet();
+        bs.addBinding("s", vf.createIRI(NS, "s" + i));
+        bs.addBinding("left", vf.createLiteral(i));
+        return bs;
+    }
+
+    @Test
+    public void testBoundJoin() throws Exception {
+        MpOwnedTupleExpr owned = createOwnedTupleExpr();
+        // s10 has no match
+        List<BindingSet> block = Lists.newArrayList(left(3), left(10), left(5), left(3));
+        List<BindingSet> results;
+        try (CloseableIteration<BindingSet, QueryEvaluationException> iter = owned.evaluate(null, block,
+                Sets.newHashSet("s", "left"))) {
+            results = Iterations.asList(iter);
+        }
+        Assert.assertEquals(3, results.size());
+        int matches = 0;
+        for (BindingSet result : results) {
+            Assert.assertFalse(result.hasBinding("__index"));
+            int i = Integer.parseInt(result.getValue("left").stringValue());
+            Assert.assertEquals(vf.createIRI(NS, "s" + i), result.getValue("s"));
+            Assert.assertEquals(vf.createIRI(NS, "o" + i), result.getValue("o"));
+            Assert.assertEquals("label " + i, result.getValue("label").stringValue());
+            matches += i;
+        }
+        Assert.assertEquals(3 + 5 + 3, matches);
+    }
+
+    @Test
+    public void testBoundJoinOfSingleBindingSet() throws Exception {
+        MpOwnedTupleExpr owned = createOwnedTupleExpr();
+        List<BindingSet> results;
+        try (CloseableIteration<BindingSet, QueryEvaluationException> iter = owned.evaluate(null,
+                Lists.newArrayList(left(7)), Sets.newHashSet("s", "left"))) {
+            results = Iterations.asList(iter);
+        }
+        Assert.assertEquals(1, results.size());
+        Assert.assertEquals("label 7", results.get(0).getValue("label").stringValue());
+        Assert.assertEquals("7", results.get(0).getValue("left").stringValue());
+    }
+}
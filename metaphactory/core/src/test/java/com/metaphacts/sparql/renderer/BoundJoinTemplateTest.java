@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015-2017, metaphacts GmbH
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, you can receive a copy
+ * of the GNU Lesser General Public License from http://www.gnu.org/
+ */
+
+package com.metaphacts.sparql.renderer;
+
+import java.util.List;
+
+import org.eclipse.rdf4j.model.ValueFactory;
+import org.eclipse.rdf4j.model.impl.SimpleValueFactory;
+import org.eclipse.rdf4j.query.BindingSet;
+import org.eclipse.rdf4j.query.QueryLanguage;
+import org.eclipse.rdf4j.query.algebra.BindingSetAssignment;
+import org.eclipse.rdf4j.query.algebra.TupleExpr;
+import org.eclipse.rdf4j.query.algebra.UnaryTupleOperator;
+import org.eclipse.rdf4j.query.algebra.helpers.AbstractQueryModelVisitor;
+import org.eclipse.rdf4j.query.impl.MapBindingSet;
+import org.eclipse.rdf4j.query.parser.ParsedTupleQuery;
+import org.eclipse.rdf4j.query.parser.QueryParserUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+/**
+ * Test cases for {@link BoundJoinTemplate}.
+ */
+public class BoundJoinTemplateTest {
+
+    private static final ValueFactory vf = SimpleValueFactory.getInstance();
+    private static final String NS = "http://www.metaphacts.com/test/";
+
+    private static TupleExpr parsePattern(String query) {
+        TupleExpr expr = QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, query, null).getTupleExpr();
+        while (expr instanceof UnaryTupleOperator) {
+            expr = ((UnaryTupleOperator) expr).getArg();
+        }
+        return expr;
+    }
+
+    private static List<BindingSet> block() {
+        MapBindingSet first = new MapBindingSet();
+        first.addBinding("s", vf.createIRI(NS, "s1"));
+        first.addBinding("label", vf.createLiteral("a \"quoted\"\nlabel", "en"));
+        MapBindingSet second = new MapBindingSet();
+        second.addBinding("label", vf.createLiteral(42));
+        // not part of the VALUES clause
+        second.addBinding("other", vf.createIRI(NS, "other"));
+        return Lists.<BindingSet>newArrayList(first, second);
+    }
+
+    @Test
+    public void testRenderBlock() throws Exception {
+        TupleExpr pattern = parsePattern("SELECT * WHERE { ?s <" + NS + "p> ?o . ?o <" + NS + "label> ?label }");
+        BoundJoinTemplate template = new MpSparqlQueryRenderer().renderBoundJoinTemplate(pattern,
+                Lists.newArrayList("s", "o", "label"));
+
+        String query = template.render(block(), Lists.newArrayList("s", "label"));
+        Assert.assertTrue(query, query.startsWith("SELECT ?__index ?s ?o ?label"));
+        Assert.assertTrue(query, query.contains("VALUES (?__index ?s ?label) {\n"
+                + "(0 <" + NS + "s1> \"a \\\"quoted\\\"\\nlabel\"@en)\n"
+                + "(1 UNDEF \"42\"^^<http://www.w3.org/2001/XMLSchema#int>)\n}"));
+        Assert.assertFalse(query, query.contains("other"));
+
+        ParsedTupleQuery parsed = QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, query, null);
+        Assert.assertEquals(Sets.newHashSet("__index", "s", "o", "label"), parsed.getTupleExpr().getBindingNames());
+        Assert.assertEquals(1, countBindingSetAssignments(parsed.getTupleExpr()));
+        // the template is not modified by rendering a block
+        Assert.assertEquals(query, template.render(block(), Lists.newArrayList("s", "label")));
+    }
+
+    @Test
+    public void testRenderWithNestedValues() throws Exception {
+        TupleExpr pattern = parsePattern("SELECT * WHERE { VALUES ?o { <" + NS + "o1> <" + NS + "o2> } "
+                + "?s <" + NS + "p> ?o . OPTIONAL { ?o <" + NS + "label> ?label } }");
+        BoundJoinTemplate template = new MpSparqlQueryRenderer().renderBoundJoinTemplate(pattern,
+                Lists.newArrayList("s", "o", "label"));
+
+        String query = template.render(block(), Lists.newArrayList("s"));
+        ParsedTupleQuery parsed = QueryParserUtil.parseTupleQuery(QueryLanguage.SPARQL, query, null);
+        Assert.assertEquals(query, 2, countBindingSetAssignments(parsed.getTupleExpr()));
+    }
+
+    private static int countBindingSetAssignments(TupleExpr expr) {
+        final int[] count = { 0 };
+        expr.visit(new AbstractQueryModelVisitor<RuntimeException>() {
+            @Override
+            public void meet(BindingSetAssignment node) {
+                count[0]++;
+            }
+        });
+        return count[0];
+    }
+}
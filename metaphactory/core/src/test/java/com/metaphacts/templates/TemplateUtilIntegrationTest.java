@@ -20,9 +20,11 @@
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.net.URL;
 import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Optional;
 
 import com.google.common.collect.Lists;
@@ -36,6 +38,7 @@
 import org.eclipse.rdf4j.model.vocabulary.FOAF;
 import org.eclipse.rdf4j.model.vocabulary.RDF;
 import org.eclipse.rdf4j.model.vocabulary.SKOS;
+import org.eclipse.rdf4j.repository.RepositoryConnection;
 import org.hamcrest.collection.IsIterableContainingInAnyOrder;
 import org.hamcrest.collection.IsIterableContainingInOrder;
 import org.junit.Assert;
@@ -91,6 +94,7 @@ public void setup() throws Exception {
         NamespaceRegistry ns = namespaceRule.getNamespaceRegistry();
         TemplateLoader loader = new FileTemplateLoader(templateStorage, ns);
         this.handlebars = new MetaphactsHandlebars(loader, new HandlebarsHelperRegistry(labelCache, ns, repositoryRule.getRepositoryManager()));
+        includeCache.invalidate();
     }
 
 
@@ -208,6 +212,81 @@ public void getPageDifferentFromContextValue() throws Exception{
         );
     }
 
+    @Test
+    public void getTypesForIncludeSchemeInBulkTest() throws Exception{
+        IRI joe = vf.createIRI("http://www.metaphacts.com/joe");
+        IRI jane = vf.createIRI("http://www.metaphacts.com/jane");
+        IRI nobody = vf.createIRI("http://www.metaphacts.com/nobody");
+        this.addStatements(Lists.newArrayList(
+           vf.createStatement(joe, RDF.TYPE, FOAF.PERSON),
+           vf.createStatement(joe, RDF.TYPE, FOAF.AGENT),
+           vf.createStatement(jane, RDF.TYPE, SKOS.CONCEPT)
+        ));
+
+        Map<IRI, LinkedHashSet<Resource>> includes = includeCache.getTypesForIncludeScheme(
+            repositoryRule.getRepository(), Lists.newArrayList(joe, jane, nobody),
+            Optional.of(namespaceRule.getNamespaceRegistry()));
+        Assert.assertThat(Lists.newArrayList(includes.keySet()), IsIterableContainingInOrder.contains(joe, jane, nobody));
+        Assert.assertThat(includes.get(joe), IsIterableContainingInAnyOrder.containsInAnyOrder(FOAF.PERSON, FOAF.AGENT));
+        Assert.assertThat(includes.get(jane), IsIterableContainingInOrder.contains(SKOS.CONCEPT));
+        assertTrue(includes.get(nobody).isEmpty());
+
+        // bulk loaded types are served from the cache
+        try (RepositoryConnection con = repositoryRule.getRepository().getConnection()) {
+            con.clear();
+        }
+        Assert.assertThat(
+            includeCache.getTypesForIncludeScheme(repositoryRule.getRepository(), jane, Optional.of(namespaceRule.getNamespaceRegistry())),
+            IsIterableContainingInOrder.contains(SKOS.CONCEPT)
+        );
+    }
+
+    @Test
+    public void getTypesForIncludeSchemeWithLimitTest() throws Exception{
+        config.getUiConfig().setParameter("templateIncludeQuery", "SELECT ?type WHERE { ?? a ?type } LIMIT 1");
+        IRI joe = vf.createIRI("http://www.metaphacts.com/joe");
+        IRI jane = vf.createIRI("http://www.metaphacts.com/jane");
+        this.addStatements(Lists.newArrayList(
+           vf.createStatement(joe, RDF.TYPE, FOAF.PERSON),
+           vf.createStatement(jane, RDF.TYPE, SKOS.CONCEPT)
+        ));
+
+        // the limit applies per resource, i.e. the types are loaded one by one
+        Map<IRI, LinkedHashSet<Resource>> includes = includeCache.getTypesForIncludeScheme(
+            repositoryRule.getRepository(), Lists.newArrayList(joe, jane),
+            Optional.of(namespaceRule.getNamespaceRegistry()));
+        Assert.assertThat(includes.get(joe), IsIterableContainingInOrder.contains(FOAF.PERSON));
+        Assert.assertThat(includes.get(jane), IsIterableContainingInOrder.contains(SKOS.CONCEPT));
+    }
+
+    @Test
+    public void compileFirstExistingTemplateMemoizesMissingTemplatesTest() throws Exception{
+        LinkedHashSet<String> set = Sets.newLinkedHashSet();
+        set.add(FOAF.PERSON.stringValue());
+        set.add(FOAF.AGENT.stringValue());
+        templateStorage.storeNewRevision(FOAF.AGENT, "This is the agent template");
+
+        assertEquals(
+            "This is the agent template",
+            TemplateUtil.compileAndReturnFirstExistingTemplate(context(FOAF.AGENT), set, handlebars, includeCache).get()
+        );
+        assertTrue(includeCache.isMissingTemplate(FOAF.PERSON.stringValue()));
+        assertFalse(includeCache.isMissingTemplate(FOAF.AGENT.stringValue()));
+
+        // template has been created in the meantime, but is still memoized as missing
+        templateStorage.storeNewRevision(FOAF.PERSON, "This is the person template");
+        assertEquals(
+            "This is the agent template",
+            TemplateUtil.compileAndReturnFirstExistingTemplate(context(FOAF.AGENT), set, handlebars, includeCache).get()
+        );
+
+        includeCache.invalidateTemplateLocations();
+        assertEquals(
+            "This is the person template",
+            TemplateUtil.compileAndReturnFirstExistingTemplate(context(FOAF.AGENT), set, handlebars, includeCache).get()
+        );
+    }
+
     private TemplateContext context(IRI iri){
         TemplateContext context = new TemplateContext(iri, this.repositoryRule.getRepository(), null);
         context.setNamespaceRegistry(namespaceRule.getNamespaceRegistry());